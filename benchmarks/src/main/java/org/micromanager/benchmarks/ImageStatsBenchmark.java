@@ -0,0 +1,79 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.display.internal.imagestats.BoundsRectAndMask;
+import org.micromanager.display.internal.imagestats.ImageStatsProcessor;
+import org.micromanager.display.internal.imagestats.ImageStatsRequest;
+import org.micromanager.display.internal.imagestats.ImagesAndStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computing the histograms and statistics shown by the display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageStatsBenchmark {
+   @Param({"1", "4"})
+   public int numChannels;
+
+   private ImageStatsProcessor processor_;
+   private ImageStatsRequest request_;
+   private long sequenceNumber_;
+
+   @Setup
+   public void setUp() {
+      processor_ = ImageStatsProcessor.create();
+      List<Image> images = new ArrayList<>();
+      for (int c = 0; c < numChannels; ++c) {
+         images.add(SyntheticData.image(0, c));
+      }
+      request_ = ImageStatsRequest.create(SyntheticData.coords(0, 0),
+            images, BoundsRectAndMask.unselected());
+   }
+
+   @TearDown
+   public void tearDown() {
+      processor_.shutdown();
+   }
+
+   @Benchmark
+   public ImagesAndStats process() throws InterruptedException {
+      return processor_.process(sequenceNumber_++, request_, false);
+   }
+}
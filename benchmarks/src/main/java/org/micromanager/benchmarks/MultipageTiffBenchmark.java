@@ -0,0 +1,159 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing and reading multipage TIFF files (MultipageTiffWriter.writeImage
+ * and MultipageTiffReader.readImage, through StorageMultipageTiff).
+ *
+ * <p>Results depend heavily on the disk (and the OS page cache); set
+ * java.io.tmpdir to the disk of interest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MultipageTiffBenchmark {
+   private static final int NUM_IMAGES = 500;
+   private static final int NUM_CHANNELS = 2;
+
+   private static Image[] createImages() {
+      short[] pixels = SyntheticData.pixels(0);
+      Image[] images = new Image[NUM_IMAGES];
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         images[i] = SyntheticData.image(pixels, i / NUM_CHANNELS, i % NUM_CHANNELS);
+      }
+      return images;
+   }
+
+   private static StorageMultipageTiff createStorage(DefaultDatastore store, String path,
+                                                     boolean amInWriteMode,
+                                                     boolean batchIndexMapWrites,
+                                                     boolean useMemoryMapping)
+         throws IOException {
+      StorageMultipageTiff storage = new StorageMultipageTiff(null, store, path,
+            amInWriteMode, false, true, batchIndexMapWrites, useMemoryMapping);
+      store.setStorage(storage);
+      return storage;
+   }
+
+   @State(Scope.Thread)
+   public static class WriteState {
+      @Param({"false", "true"})
+      public boolean batchIndexMapWrites;
+
+      private Image[] images_;
+      private String path_;
+      private StorageMultipageTiff storage_;
+
+      @Setup(Level.Trial)
+      public void createImages() {
+         images_ = MultipageTiffBenchmark.createImages();
+      }
+
+      @Setup(Level.Invocation)
+      public void setUp() throws IOException {
+         path_ = SyntheticData.newDatasetPath();
+         DefaultDatastore store = new DefaultDatastore(null);
+         storage_ = createStorage(store, path_, true, batchIndexMapWrites, false);
+         store.setSummaryMetadata(
+               SyntheticData.summary(NUM_IMAGES / NUM_CHANNELS, NUM_CHANNELS));
+      }
+
+      @TearDown(Level.Invocation)
+      public void tearDown() throws IOException {
+         SyntheticData.deleteDataset(path_);
+      }
+   }
+
+   @State(Scope.Thread)
+   public static class ReadState {
+      @Param({"false", "true"})
+      public boolean useMemoryMapping;
+
+      private Image[] images_;
+      private String path_;
+      private StorageMultipageTiff storage_;
+
+      @Setup(Level.Trial)
+      public void setUp() throws IOException {
+         images_ = MultipageTiffBenchmark.createImages();
+         path_ = SyntheticData.newDatasetPath();
+         DefaultDatastore store = new DefaultDatastore(null);
+         StorageMultipageTiff writer = createStorage(store, path_, true, true, false);
+         store.setSummaryMetadata(
+               SyntheticData.summary(NUM_IMAGES / NUM_CHANNELS, NUM_CHANNELS));
+         for (Image image : images_) {
+            writer.putImage(image);
+         }
+         writer.finished();
+         storage_ = createStorage(new DefaultDatastore(null), path_, false, false,
+               useMemoryMapping);
+      }
+
+      @TearDown(Level.Trial)
+      public void tearDown() throws IOException {
+         storage_.close();
+         SyntheticData.deleteDataset(path_);
+      }
+   }
+
+   /**
+    * Writes a complete dataset, including finishing the files.
+    */
+   @Benchmark
+   @OperationsPerInvocation(NUM_IMAGES)
+   public void writeImage(WriteState state) {
+      for (Image image : state.images_) {
+         state.storage_.putImage(image);
+      }
+      state.storage_.finished();
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(NUM_IMAGES)
+   public long readImage(ReadState state) {
+      long sum = 0;
+      for (Image image : state.images_) {
+         sum += state.storage_.getImage(image.getCoords()).getIntensityAt(0, 0);
+      }
+      return sum;
+   }
+}
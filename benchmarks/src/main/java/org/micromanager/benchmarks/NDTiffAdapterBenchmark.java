@@ -0,0 +1,90 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.ndtiff.NDTiffAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving images in NDTiff format through NDTiffAdapter. The time includes
+ * waiting for NDTiffStorage to finish writing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class NDTiffAdapterBenchmark {
+   private static final int NUM_IMAGES = 500;
+   private static final int NUM_CHANNELS = 2;
+
+   private Image[] images_;
+   private String path_;
+   private NDTiffAdapter storage_;
+
+   @Setup(Level.Trial)
+   public void createImages() {
+      short[] pixels = SyntheticData.pixels(0);
+      images_ = new Image[NUM_IMAGES];
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         images_[i] = SyntheticData.image(pixels, i / NUM_CHANNELS, i % NUM_CHANNELS);
+      }
+   }
+
+   @Setup(Level.Invocation)
+   public void setUp() throws IOException {
+      path_ = SyntheticData.newDatasetPath();
+      DefaultDatastore store = new DefaultDatastore(null);
+      storage_ = new NDTiffAdapter(store, path_, true);
+      store.setStorage(storage_);
+      store.setSummaryMetadata(SyntheticData.summary(NUM_IMAGES / NUM_CHANNELS, NUM_CHANNELS));
+   }
+
+   @TearDown(Level.Invocation)
+   public void tearDown() throws IOException {
+      storage_.close();
+      SyntheticData.deleteDataset(path_);
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(NUM_IMAGES)
+   public void putImage() throws IOException {
+      for (Image image : images_) {
+         storage_.putImage(image);
+      }
+      storage_.freeze();
+   }
+}
@@ -0,0 +1,106 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.data.PipelineErrorException;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.StorageRAM;
+import org.micromanager.data.internal.pipeline.DefaultPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Passing images through a pipeline of pass-through processors into a RAM
+ * datastore, with synchronous and asynchronous contexts. The time includes
+ * halting (i.e., flushing) the pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PipelineBenchmark {
+   private static final int NUM_IMAGES = 200;
+   private static final int NUM_PROCESSORS = 3;
+
+   @Param({"true", "false"})
+   public boolean isSynchronous;
+
+   private Image[] images_;
+   private DefaultPipeline pipeline_;
+
+   /**
+    * Processor that passes images on unchanged.
+    */
+   private static final class PassThroughProcessor implements Processor {
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         context.outputImage(image);
+      }
+   }
+
+   @Setup(Level.Trial)
+   public void createImages() {
+      short[] pixels = SyntheticData.pixels(0);
+      images_ = new Image[NUM_IMAGES];
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         images_[i] = SyntheticData.image(pixels, i, 0);
+      }
+   }
+
+   @Setup(Level.Invocation)
+   public void setUp() throws IOException, PipelineErrorException {
+      DefaultDatastore store = new DefaultDatastore(null);
+      store.setStorage(new StorageRAM(store));
+      List<Processor> processors = new ArrayList<>();
+      for (int i = 0; i < NUM_PROCESSORS; ++i) {
+         processors.add(new PassThroughProcessor());
+      }
+      pipeline_ = new DefaultPipeline(processors, store, isSynchronous, 1);
+      pipeline_.insertSummaryMetadata(SyntheticData.summary(NUM_IMAGES, 1));
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(NUM_IMAGES)
+   public void insertImage() throws IOException, PipelineErrorException {
+      for (Image image : images_) {
+         pipeline_.insertImage(image);
+      }
+      pipeline_.halt();
+   }
+}
@@ -0,0 +1,101 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.StorageRAM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding images to, and looking them up in, the in-memory storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StorageRAMBenchmark {
+   private static final int NUM_CHANNELS = 4;
+
+   @Param({"1000", "10000"})
+   public int numImages;
+
+   private DefaultDatastore store_;
+   private StorageRAM storage_;
+   private Image[] images_;
+   private Coords[] queries_;
+   private int next_;
+
+   @Setup(Level.Iteration)
+   public void setUp() throws IOException {
+      store_ = new DefaultDatastore(null);
+      storage_ = new StorageRAM(store_);
+      store_.setStorage(storage_);
+      store_.setSummaryMetadata(SyntheticData.summary(numImages / NUM_CHANNELS, NUM_CHANNELS));
+      // Images share their pixels; only the coords matter for the storage
+      short[] pixels = SyntheticData.pixels(0);
+      images_ = new Image[numImages];
+      queries_ = new Coords[numImages];
+      for (int i = 0; i < numImages; ++i) {
+         images_[i] = SyntheticData.image(pixels, i / NUM_CHANNELS, i % NUM_CHANNELS);
+         queries_[i] = images_[i].getCoords();
+         storage_.putImage(images_[i]);
+      }
+      next_ = 0;
+   }
+
+   @Benchmark
+   public void putImage() {
+      // Rewrites an existing image, so that the storage size stays constant
+      storage_.putImage(images_[next_]);
+      next_ = (next_ + 1) % numImages;
+   }
+
+   @Benchmark
+   public List<Image> getImagesMatching() throws IOException {
+      List<Image> result = storage_.getImagesMatching(queries_[next_]);
+      next_ = (next_ + 1) % numImages;
+      return result;
+   }
+
+   @Benchmark
+   public List<Image> getImagesIgnoringChannel() throws IOException {
+      List<Image> result = storage_.getImagesIgnoringAxes(
+            queries_[next_].copyRemovingAxes(Coords.CHANNEL), Coords.CHANNEL);
+      next_ = (next_ + 1) % numImages;
+      return result;
+   }
+}
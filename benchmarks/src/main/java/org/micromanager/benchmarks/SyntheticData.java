@@ -0,0 +1,135 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Benchmarks
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+
+/**
+ * Synthetic frames and metadata, standing in for the demo camera, so that
+ * benchmarks do not need a running core.
+ */
+final class SyntheticData {
+   static final int WIDTH = 512;
+   static final int HEIGHT = 512;
+   // Roughly the number of device properties in a typical configuration
+   static final int NUM_SCOPE_DATA_ENTRIES = 200;
+
+   private SyntheticData() {
+   }
+
+   static short[] pixels(long seed) {
+      Random random = new Random(seed);
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         // 12-bit camera with some structure
+         pixels[i] = (short) ((i % WIDTH) * 4 + random.nextInt(256));
+      }
+      return pixels;
+   }
+
+   static Coords coords(int time, int channel) {
+      return Coordinates.builder().t(time).c(channel).z(0).p(0).build();
+   }
+
+   /**
+    * Tags as they would come out of the core's sequence buffer.
+    */
+   static JSONObject tags(int time, int channel) {
+      try {
+         JSONObject tags = new JSONObject();
+         tags.put("Width", WIDTH);
+         tags.put("Height", HEIGHT);
+         tags.put("PixelType", "GRAY16");
+         tags.put("BitDepth", 12);
+         tags.put("Camera", "Camera");
+         tags.put("Binning", 1);
+         tags.put("Exposure-ms", 10.0);
+         tags.put("ElapsedTime-ms", 10.0 * time);
+         tags.put("ImageNumber", (long) time);
+         tags.put("FrameIndex", time);
+         tags.put("ChannelIndex", channel);
+         tags.put("SliceIndex", 0);
+         tags.put("PositionIndex", 0);
+         tags.put("XPositionUm", 100.5);
+         tags.put("YPositionUm", -20.25);
+         tags.put("ZPositionUm", 3.0);
+         tags.put("PixelSizeUm", 0.65);
+         for (int i = 0; i < NUM_SCOPE_DATA_ENTRIES; ++i) {
+            tags.put("Device" + (i / 10) + "-Property" + (i % 10), Integer.toString(i));
+         }
+         return tags;
+      } catch (JSONException e) {
+         throw new AssertionError(e);
+      }
+   }
+
+   static TaggedImage taggedImage(int time, int channel) {
+      return new TaggedImage(pixels(time * 31L + channel), tags(time, channel));
+   }
+
+   static Image image(int time, int channel) {
+      return image(pixels(time * 31L + channel), time, channel);
+   }
+
+   static Image image(short[] pixels, int time, int channel) {
+      return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1, coords(time, channel),
+            new DefaultMetadata.Builder().camera("Camera").bitDepth(12)
+                  .exposureMs(10.0).elapsedTimeMs(10.0 * time)
+                  .imageNumber((long) time).build());
+   }
+
+   static SummaryMetadata summary(int numTimePoints, int numChannels) {
+      String[] channelNames = new String[numChannels];
+      for (int c = 0; c < numChannels; ++c) {
+         channelNames[c] = "Channel " + c;
+      }
+      return new DefaultSummaryMetadata.Builder()
+            .channelNames(channelNames)
+            .intendedDimensions(Coordinates.builder().t(numTimePoints)
+                  .c(numChannels).z(1).p(1).build())
+            .build();
+   }
+
+   /**
+    * Returns a path in a fresh temporary directory that does not exist yet,
+    * as required by the storage classes in write mode.
+    */
+   static String newDatasetPath() throws IOException {
+      File dir = Files.createTempDirectory("mmbenchmark").toFile();
+      return new File(dir, "dataset").getAbsolutePath();
+   }
+
+   static void deleteDataset(String path) throws IOException {
+      FileUtils.deleteDirectory(new File(path).getParentFile());
+   }
+}
@@ -0,0 +1,242 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ImageProcessing library
+//-----------------------------------------------------------------------------
+//COPYRIGHT:     University of California, San Francisco
+//LICENSE:       This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.imageprocessing;
+
+import ij.process.FHT;
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Zero-normalized cross correlation of a template with a target image.
+ *
+ * <p>The correlations for all offsets are calculated at once in the frequency
+ * domain (using ImageJ's FHT), and normalized by the standard deviation of
+ * the target under the template, taken from running sums (integral images).
+ * The cost is therefore independent of the number of offsets, apart from the
+ * size of the transform.  The transform of the template is cached for each
+ * transform size, so repeated correlation with the same template (i.e.
+ * tracking through a time series) only transforms the target.
+ * Instances can be used from multiple threads.
+ *
+ * @author nico
+ */
+public final class NormalizedCrossCorrelation {
+   private final float[] normalizedTemplate_;
+   private final int templateWidth_;
+   private final int templateHeight_;
+   private final double templateNorm_;
+   private final Map<Integer, FHT> templateSpectra_ = new HashMap<>();
+
+   /**
+    * Constructor.
+    *
+    * @param template pixels of the template, not modified
+    * @param width    width of the template
+    * @param height   height of the template
+    */
+   public NormalizedCrossCorrelation(float[] template, int width, int height) {
+      templateWidth_ = width;
+      templateHeight_ = height;
+      double avg = 0.0;
+      for (float p : template) {
+         avg += p;
+      }
+      avg /= template.length;
+      normalizedTemplate_ = new float[template.length];
+      double sumOfSquares = 0.0;
+      for (int i = 0; i < template.length; i++) {
+         normalizedTemplate_[i] = (float) (template[i] - avg);
+         sumOfSquares += normalizedTemplate_[i] * normalizedTemplate_[i];
+      }
+      templateNorm_ = Math.sqrt(sumOfSquares);
+   }
+
+   /**
+    * Constructor for 16 bit templates.
+    *
+    * @param template template, not modified
+    */
+   public NormalizedCrossCorrelation(ShortProcessor template) {
+      this(toFloats((short[]) template.getPixels()), template.getWidth(),
+            template.getHeight());
+   }
+
+   /**
+    * Correlates the template with a target region, at every offset where the
+    * template lies entirely within the region.
+    *
+    * @param region       pixels of the target region, not modified
+    * @param regionWidth  width of the region, at least the template width
+    * @param regionHeight height of the region, at least the template height
+    * @return correlations, (regionWidth - templateWidth + 1) by
+    *         (regionHeight - templateHeight + 1), indexed by the position of
+    *         the template's top left corner in the region.  1 is a perfect
+    *         match.  NaN where the region under the template, or the
+    *         template itself, is flat.
+    */
+   public float[] correlate(float[] region, int regionWidth, int regionHeight) {
+      final int tw = templateWidth_;
+      final int th = templateHeight_;
+      final int nx = regionWidth - tw + 1;
+      final int ny = regionHeight - th + 1;
+      if (nx < 1 || ny < 1) {
+         throw new IllegalArgumentException("Region of " + regionWidth + "x"
+               + regionHeight + " is smaller than the template");
+      }
+
+      // numerator for all offsets at once.  Subtracting the region mean does
+      // not change it (the template sums to zero), but improves float precision
+      double regionMean = 0.0;
+      for (float p : region) {
+         regionMean += p;
+      }
+      regionMean /= region.length;
+      int size = 2;
+      while (size < Math.max(regionWidth, regionHeight)) {
+         size *= 2;
+      }
+      float[] padded = new float[size * size];
+      for (int y = 0; y < regionHeight; y++) {
+         for (int x = 0; x < regionWidth; x++) {
+            padded[y * size + x] = (float) (region[y * regionWidth + x] - regionMean);
+         }
+      }
+      FHT regionFHT = new FHT(new FloatProcessor(size, size, padded, null));
+      regionFHT.transform();
+      FHT product = regionFHT.conjugateMultiply(getTemplateSpectrum(size));
+      product.inverseTransform();
+      float[] numerator = (float[]) product.getPixels();
+
+      // running sums of the region, for the normalization
+      final int iw = regionWidth + 1;
+      double[] sum = new double[iw * (regionHeight + 1)];
+      double[] sumOfSquares = new double[iw * (regionHeight + 1)];
+      for (int y = 0; y < regionHeight; y++) {
+         double rowSum = 0.0;
+         double rowSumOfSquares = 0.0;
+         for (int x = 0; x < regionWidth; x++) {
+            double v = region[y * regionWidth + x] - regionMean;
+            rowSum += v;
+            rowSumOfSquares += v * v;
+            sum[(y + 1) * iw + x + 1] = sum[y * iw + x + 1] + rowSum;
+            sumOfSquares[(y + 1) * iw + x + 1] = sumOfSquares[y * iw + x + 1] + rowSumOfSquares;
+         }
+      }
+
+      final int n = tw * th;
+      float[] result = new float[nx * ny];
+      for (int dy = 0; dy < ny; dy++) {
+         for (int dx = 0; dx < nx; dx++) {
+            int a = dy * iw + dx;
+            int b = a + tw;
+            int c = (dy + th) * iw + dx;
+            int d = c + tw;
+            double s1 = sum[d] - sum[b] - sum[c] + sum[a];
+            double s2 = sumOfSquares[d] - sumOfSquares[b] - sumOfSquares[c] + sumOfSquares[a];
+            double denominator = Math.sqrt(Math.max(0.0, s2 - s1 * s1 / n)) * templateNorm_;
+            result[dy * nx + dx] = denominator > 0.0
+                  ? (float) (numerator[dy * size + dx] / denominator) : Float.NaN;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Finds the offset at which the template best matches the target.
+    * Offsets at which the template would extend beyond the target are skipped.
+    *
+    * @param target image target to which we match our template. Not modified.
+    * @param center center position (in pixels) in the target around we cross-correlate
+    * @param range  in pixels over which we will do cross correlate
+    * @return position (in pixels) in the target where we find the highest cross-correlation,
+    *         or the center when no offset could be evaluated
+    */
+   public Point correlate(ShortProcessor target, Point center, Point range) {
+      final int tw = templateWidth_;
+      final int th = templateHeight_;
+      Point halfTemplateDim = new Point(tw / 2, th / 2);
+      Point startPos = new Point(center.x - halfTemplateDim.x, center.y - halfTemplateDim.y);
+      final int xMin = Math.max(0, startPos.x - range.x);
+      final int xMax = Math.min(target.getWidth() - tw, startPos.x + range.x);
+      final int yMin = Math.max(0, startPos.y - range.y);
+      final int yMax = Math.min(target.getHeight() - th, startPos.y + range.y);
+      if (xMax < xMin || yMax < yMin) {
+         return new Point(center);
+      }
+
+      // part of the target that is covered by the template at any offset
+      final int rw = xMax - xMin + tw;
+      final int rh = yMax - yMin + th;
+      final int targetWidth = target.getWidth();
+      final short[] targetPixels = (short[]) target.getPixels();
+      float[] region = new float[rw * rh];
+      for (int y = 0; y < rh; y++) {
+         int offset = (y + yMin) * targetWidth + xMin;
+         for (int x = 0; x < rw; x++) {
+            region[y * rw + x] = targetPixels[offset + x] & 0xffff;
+         }
+      }
+      float[] correlation = correlate(region, rw, rh);
+
+      final int nx = xMax - xMin + 1;
+      float max = Float.NEGATIVE_INFINITY;
+      Point maxPoint = null;
+      for (int i = 0; i < correlation.length; i++) {
+         // NaN (no correlation defined) never compares greater
+         if (correlation[i] > max) {
+            max = correlation[i];
+            maxPoint = new Point(xMin + i % nx, yMin + i / nx);
+         }
+      }
+      if (maxPoint == null) {
+         return new Point(center);
+      }
+
+      return new Point(maxPoint.x + halfTemplateDim.x,
+            maxPoint.y + halfTemplateDim.y);
+   }
+
+   /*
+    * Transform of the normalized template, zero-padded to size x size
+    */
+   private FHT getTemplateSpectrum(int size) {
+      synchronized (templateSpectra_) {
+         FHT spectrum = templateSpectra_.get(size);
+         if (spectrum == null) {
+            float[] padded = new float[size * size];
+            for (int y = 0; y < templateHeight_; y++) {
+               System.arraycopy(normalizedTemplate_, y * templateWidth_, padded, y * size,
+                     templateWidth_);
+            }
+            spectrum = new FHT(new FloatProcessor(size, size, padded, null));
+            spectrum.transform();
+            templateSpectra_.put(size, spectrum);
+         }
+         return spectrum;
+      }
+   }
+
+   private static float[] toFloats(short[] pixels) {
+      float[] result = new float[pixels.length];
+      for (int i = 0; i < pixels.length; i++) {
+         result[i] = pixels[i] & 0xffff;
+      }
+      return result;
+   }
+}
@@ -0,0 +1,269 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ImageProcessing library
+//-----------------------------------------------------------------------------
+//COPYRIGHT:     University of California, San Francisco
+//LICENSE:       This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.imageprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-pixel statistic of a series of 8 or 16 bit grayscale images (frames of
+ * a time series, slices of a Z stack), updated as each image arrives, so that
+ * no stack of all images needs to be built.
+ *
+ * <p>Sums and sums of squares are kept as exact integers. Unlike floating
+ * point running means, this allows images to be removed again (for sliding
+ * windows) in constant time per pixel, without accumulating rounding errors.
+ * Removing an image from a max or min only rescans the remaining images for
+ * the pixels where the removed image held the extreme value. Only the median
+ * keeps the images themselves.
+ *
+ * <p>Results are converted back to the type of the images without scaling:
+ * means are truncated, standard deviations rounded, and all are clipped to
+ * the range of the pixel type. This matches ImageJ's ZProjector followed by
+ * conversion without scaling, except that ImageJ sums in floating point, so
+ * that its standard deviations can rarely differ by one.
+ *
+ * <p>Not thread safe.
+ */
+public final class PixelAccumulator {
+
+   /**
+    * Per-pixel statistics that can be accumulated.
+    */
+   public enum Statistic {
+      MEAN, SUM, MAX, MIN, STD_DEV, MEDIAN
+   }
+
+   private final Statistic statistic_;
+   private final int nrPixels_;
+   private final int bytesPerPixel_;
+   private final int maxValue_;
+   private final boolean isMax_;
+
+   private long[] sum_;
+   private long[] sumOfSquares_;
+   private int[] extremum_;
+   private List<Object> images_;
+   private int count_;
+
+   /**
+    * Constructor.
+    *
+    * @param statistic Statistic to compute
+    * @param nrPixels Number of pixels in each image
+    * @param bytesPerPixel 1 or 2
+    */
+   public PixelAccumulator(Statistic statistic, int nrPixels, int bytesPerPixel) {
+      if (bytesPerPixel != 1 && bytesPerPixel != 2) {
+         throw new IllegalArgumentException("Unsupported number of bytes per pixel: "
+               + bytesPerPixel);
+      }
+      statistic_ = statistic;
+      nrPixels_ = nrPixels;
+      bytesPerPixel_ = bytesPerPixel;
+      maxValue_ = bytesPerPixel == 1 ? 0xff : 0xffff;
+      isMax_ = statistic == Statistic.MAX;
+      switch (statistic) {
+         case MAX:
+         case MIN:
+            extremum_ = new int[nrPixels];
+            break;
+         case MEDIAN:
+            images_ = new ArrayList<>();
+            break;
+         case STD_DEV:
+            sumOfSquares_ = new long[nrPixels];
+            sum_ = new long[nrPixels];
+            break;
+         default:
+            sum_ = new long[nrPixels];
+      }
+      reset();
+   }
+
+   /**
+    * Whether images of the given size and type can be added.
+    *
+    * @param nrPixels Number of pixels in the image
+    * @param bytesPerPixel Bytes per pixel of the image
+    * @return true when the image matches those added before
+    */
+   public boolean matches(int nrPixels, int bytesPerPixel) {
+      return nrPixels == nrPixels_ && bytesPerPixel == bytesPerPixel_;
+   }
+
+   /**
+    * Number of images currently accumulated.
+    *
+    * @return number of images added and not removed since the last reset
+    */
+   public int getCount() {
+      return count_;
+   }
+
+   /**
+    * Forgets all images, to start a new series.
+    */
+   public void reset() {
+      count_ = 0;
+      if (extremum_ != null) {
+         Arrays.fill(extremum_, isMax_ ? 0 : maxValue_);
+      }
+      if (sum_ != null) {
+         Arrays.fill(sum_, 0);
+      }
+      if (sumOfSquares_ != null) {
+         Arrays.fill(sumOfSquares_, 0);
+      }
+      if (images_ != null) {
+         images_.clear();
+      }
+   }
+
+   /**
+    * Adds an image. For the median, the array is kept and should not be
+    * modified afterwards.
+    *
+    * @param pixels byte[] or short[] of the image
+    */
+   public void add(Object pixels) {
+      if (images_ != null) {
+         images_.add(pixels);
+      } else {
+         for (int i = 0; i < nrPixels_; i++) {
+            int value = valueAt(pixels, i);
+            if (extremum_ != null) {
+               extremum_[i] = isMax_ ? Math.max(extremum_[i], value)
+                     : Math.min(extremum_[i], value);
+            } else {
+               sum_[i] += value;
+               if (sumOfSquares_ != null) {
+                  sumOfSquares_[i] += (long) value * value;
+               }
+            }
+         }
+      }
+      count_++;
+   }
+
+   /**
+    * Removes an image that was added earlier.
+    *
+    * @param pixels    byte[] or short[] of the image to remove; for the median,
+    *                  the same array that was added
+    * @param remaining pixels of the images that stay; only used for max and min
+    */
+   public void remove(Object pixels, List<Object> remaining) {
+      if (images_ != null) {
+         for (int s = 0; s < images_.size(); s++) {
+            if (images_.get(s) == pixels) {
+               images_.remove(s);
+               count_--;
+               return;
+            }
+         }
+         throw new IllegalArgumentException("Image to remove was not added");
+      }
+      for (int i = 0; i < nrPixels_; i++) {
+         int value = valueAt(pixels, i);
+         if (extremum_ != null) {
+            if (value == extremum_[i]) {
+               int extremum = isMax_ ? 0 : maxValue_;
+               for (Object other : remaining) {
+                  extremum = isMax_ ? Math.max(extremum, valueAt(other, i))
+                        : Math.min(extremum, valueAt(other, i));
+               }
+               extremum_[i] = extremum;
+            }
+         } else {
+            sum_[i] -= value;
+            if (sumOfSquares_ != null) {
+               sumOfSquares_[i] -= (long) value * value;
+            }
+         }
+      }
+      count_--;
+   }
+
+   /**
+    * Computes the statistic of the images accumulated so far.
+    *
+    * @return new byte[] or short[], depending on the images' pixel type
+    */
+   public Object getResult() {
+      byte[] bytes = null;
+      short[] shorts = null;
+      if (bytesPerPixel_ == 1) {
+         bytes = new byte[nrPixels_];
+      } else {
+         shorts = new short[nrPixels_];
+      }
+      int[] values = images_ != null ? new int[count_] : null;
+      for (int i = 0; i < nrPixels_; i++) {
+         long value;
+         if (extremum_ != null) {
+            value = extremum_[i];
+         } else if (values != null) {
+            value = median(values, i);
+         } else if (sumOfSquares_ != null) {
+            value = 0;
+            if (count_ > 1) {
+               double variance = (sumOfSquares_[i] - (double) sum_[i] * sum_[i] / count_)
+                     / (count_ - 1);
+               value = Math.round(Math.sqrt(Math.max(0.0, variance)));
+            }
+         } else if (statistic_ == Statistic.SUM) {
+            value = sum_[i];
+         } else {
+            value = count_ > 0 ? sum_[i] / count_ : 0;
+         }
+         value = Math.min(value, maxValue_);
+         if (bytes != null) {
+            bytes[i] = (byte) value;
+         } else {
+            shorts[i] = (short) value;
+         }
+      }
+      return bytes != null ? bytes : shorts;
+   }
+
+   /*
+    * Median of one pixel over all images; for an even number of images, the
+    * mean of the two middle values, rounded up.
+    */
+   private int median(int[] values, int index) {
+      if (values.length == 0) {
+         return 0;
+      }
+      for (int s = 0; s < values.length; s++) {
+         values[s] = valueAt(images_.get(s), index);
+      }
+      Arrays.sort(values);
+      int middle = values.length / 2;
+      if ((values.length & 1) == 0) {
+         return (values[middle - 1] + values[middle] + 1) / 2;
+      }
+      return values[middle];
+   }
+
+   private static int valueAt(Object pixels, int index) {
+      if (pixels instanceof byte[]) {
+         return ((byte[]) pixels)[index] & 0xff;
+      }
+      return ((short[]) pixels)[index] & 0xffff;
+   }
+}
@@ -0,0 +1,100 @@
+package org.micromanager.imageprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ShortProcessor;
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class NormalizedCrossCorrelationTest {
+   private static final int WIDTH = 40;
+   private static final int HEIGHT = 30;
+
+   private static float[] randomPixels(int nrPixels, long seed) {
+      Random random = new Random(seed);
+      float[] pixels = new float[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         pixels[i] = 1000 + random.nextInt(3000);
+      }
+      return pixels;
+   }
+
+   private static float[] crop(float[] pixels, int width, int x, int y, int w, int h) {
+      float[] result = new float[w * h];
+      for (int row = 0; row < h; row++) {
+         System.arraycopy(pixels, (y + row) * width + x, result, row * w, w);
+      }
+      return result;
+   }
+
+   private static double bruteForce(float[] template, float[] target) {
+      double templateMean = 0.0;
+      double targetMean = 0.0;
+      for (int i = 0; i < template.length; i++) {
+         templateMean += template[i];
+         targetMean += target[i];
+      }
+      templateMean /= template.length;
+      targetMean /= target.length;
+      double numerator = 0.0;
+      double templateSumOfSquares = 0.0;
+      double targetSumOfSquares = 0.0;
+      for (int i = 0; i < template.length; i++) {
+         double t = template[i] - templateMean;
+         double v = target[i] - targetMean;
+         numerator += t * v;
+         templateSumOfSquares += t * t;
+         targetSumOfSquares += v * v;
+      }
+      return numerator / Math.sqrt(templateSumOfSquares * targetSumOfSquares);
+   }
+
+   @Test
+   public void testMatchesBruteForce() {
+      float[] region = randomPixels(WIDTH * HEIGHT, 1);
+      int tw = 11;
+      int th = 7;
+      float[] template = randomPixels(tw * th, 2);
+      float[] c = new NormalizedCrossCorrelation(template, tw, th)
+            .correlate(region, WIDTH, HEIGHT);
+      int nx = WIDTH - tw + 1;
+      int ny = HEIGHT - th + 1;
+      assertEquals(nx * ny, c.length);
+      for (int y = 0; y < ny; y++) {
+         for (int x = 0; x < nx; x++) {
+            double expected = bruteForce(template, crop(region, WIDTH, x, y, tw, th));
+            assertEquals("offset " + x + ", " + y, expected, c[y * nx + x], 1e-4);
+         }
+      }
+   }
+
+   @Test
+   public void testFlatRegionIsNaN() {
+      float[] region = new float[WIDTH * HEIGHT];
+      Arrays.fill(region, 100.0f);
+      float[] c = new NormalizedCrossCorrelation(randomPixels(25, 3), 5, 5)
+            .correlate(region, WIDTH, HEIGHT);
+      for (float v : c) {
+         assertTrue(Float.isNaN(v));
+      }
+   }
+
+   @Test
+   public void testFindsShiftedTemplate() {
+      float[] image = randomPixels(WIDTH * HEIGHT, 4);
+      short[] shorts = new short[image.length];
+      for (int i = 0; i < image.length; i++) {
+         shorts[i] = (short) image[i];
+      }
+      ShortProcessor target = new ShortProcessor(WIDTH, HEIGHT, shorts, null);
+      // template centered at (20, 15) in the target
+      target.setRoi(20 - 4, 15 - 4, 9, 9);
+      ShortProcessor template = (ShortProcessor) target.crop();
+      Point found = new NormalizedCrossCorrelation(template)
+            .correlate(target, new Point(17, 13), new Point(5, 5));
+      assertEquals(new Point(20, 15), found);
+   }
+}
@@ -0,0 +1,194 @@
+package org.micromanager.imageprocessing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.micromanager.imageprocessing.PixelAccumulator.Statistic;
+
+public class PixelAccumulatorTest {
+   private static final int NR_PIXELS = 64;
+   private static final int WINDOW = 5;
+   private static final int NR_FRAMES = 40;
+
+   /**
+    * Frames with values spread over the whole range, so that sums exceed the
+    * pixel range, and with runs of equal values, so that the extreme value
+    * of a pixel is often held by several frames.
+    */
+   private static List<Object> frames(int bytesPerPixel, long seed) {
+      Random random = new Random(seed);
+      int maxValue = bytesPerPixel == 1 ? 0xff : 0xffff;
+      List<Object> frames = new ArrayList<>();
+      for (int f = 0; f < NR_FRAMES; f++) {
+         int[] values = new int[NR_PIXELS];
+         for (int i = 0; i < NR_PIXELS; i++) {
+            switch (random.nextInt(4)) {
+               case 0:
+                  values[i] = maxValue;
+                  break;
+               case 1:
+                  values[i] = random.nextInt(4);
+                  break;
+               default:
+                  values[i] = random.nextInt(maxValue + 1);
+            }
+         }
+         frames.add(toPixels(values, bytesPerPixel));
+      }
+      return frames;
+   }
+
+   private static Object toPixels(int[] values, int bytesPerPixel) {
+      if (bytesPerPixel == 1) {
+         byte[] pixels = new byte[values.length];
+         for (int i = 0; i < values.length; i++) {
+            pixels[i] = (byte) values[i];
+         }
+         return pixels;
+      }
+      short[] pixels = new short[values.length];
+      for (int i = 0; i < values.length; i++) {
+         pixels[i] = (short) values[i];
+      }
+      return pixels;
+   }
+
+   private static int valueAt(Object pixels, int index) {
+      if (pixels instanceof byte[]) {
+         return ((byte[]) pixels)[index] & 0xff;
+      }
+      return ((short[]) pixels)[index] & 0xffff;
+   }
+
+   /**
+    * Combines the frames from scratch, clamping results to the pixel range.
+    */
+   private static Object batch(Statistic statistic, List<Object> window, int bytesPerPixel) {
+      int maxValue = bytesPerPixel == 1 ? 0xff : 0xffff;
+      int[] result = new int[NR_PIXELS];
+      for (int i = 0; i < NR_PIXELS; i++) {
+         long sum = 0;
+         int max = 0;
+         int min = maxValue;
+         for (Object frame : window) {
+            int value = valueAt(frame, i);
+            sum += value;
+            max = Math.max(max, value);
+            min = Math.min(min, value);
+         }
+         long value;
+         if (statistic == Statistic.MEAN) {
+            value = sum / window.size();
+         } else if (statistic == Statistic.SUM) {
+            value = sum;
+         } else if (statistic == Statistic.MAX) {
+            value = max;
+         } else if (statistic == Statistic.MIN) {
+            value = min;
+         } else if (statistic == Statistic.MEDIAN) {
+            int[] values = new int[window.size()];
+            for (int f = 0; f < values.length; f++) {
+               values[f] = valueAt(window.get(f), i);
+            }
+            Arrays.sort(values);
+            int middle = values.length / 2;
+            value = (values.length & 1) == 1 ? values[middle]
+                  : (values[middle - 1] + values[middle] + 1) / 2;
+         } else {
+            double mean = (double) sum / window.size();
+            double squares = 0;
+            for (Object frame : window) {
+               double d = valueAt(frame, i) - mean;
+               squares += d * d;
+            }
+            value = Math.round(Math.sqrt(squares / (window.size() - 1)));
+         }
+         result[i] = (int) Math.min(value, maxValue);
+      }
+      return toPixels(result, bytesPerPixel);
+   }
+
+   private static void assertPixelsEqual(String message, Object expected, Object actual) {
+      if (expected instanceof byte[]) {
+         assertArrayEquals(message, (byte[]) expected, (byte[]) actual);
+      } else {
+         assertArrayEquals(message, (short[]) expected, (short[]) actual);
+      }
+   }
+
+   private static void checkSlidingWindow(int bytesPerPixel) {
+      List<Object> frames = frames(bytesPerPixel, 42);
+      for (Statistic statistic : Statistic.values()) {
+         PixelAccumulator accumulator = new PixelAccumulator(statistic, NR_PIXELS, bytesPerPixel);
+         ArrayDeque<Object> window = new ArrayDeque<>();
+         for (int f = 0; f < frames.size(); f++) {
+            if (window.size() == WINDOW) {
+               Object oldest = window.removeFirst();
+               accumulator.remove(oldest, new ArrayList<>(window));
+            }
+            window.addLast(frames.get(f));
+            accumulator.add(frames.get(f));
+            assertEquals(window.size(), accumulator.getCount());
+            if (window.size() == WINDOW) {
+               assertPixelsEqual(statistic + " at frame " + f,
+                     batch(statistic, new ArrayList<>(window), bytesPerPixel),
+                     accumulator.getResult());
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testSlidingWindowMatchesBatch8Bit() {
+      checkSlidingWindow(1);
+   }
+
+   @Test
+   public void testSlidingWindowMatchesBatch16Bit() {
+      checkSlidingWindow(2);
+   }
+
+   @Test
+   public void testResetStartsNewWindow() {
+      List<Object> frames = frames(2, 7);
+      for (Statistic statistic : Statistic.values()) {
+         PixelAccumulator accumulator = new PixelAccumulator(statistic, NR_PIXELS, 2);
+         for (int start = 0; start + WINDOW <= frames.size(); start += WINDOW) {
+            List<Object> window = frames.subList(start, start + WINDOW);
+            for (Object frame : window) {
+               accumulator.add(frame);
+            }
+            assertPixelsEqual(statistic + " at frame " + start,
+                  batch(statistic, window, 2), accumulator.getResult());
+            accumulator.reset();
+            assertEquals(0, accumulator.getCount());
+         }
+      }
+   }
+
+   @Test
+   public void testLargeValuesDoNotOverflow() {
+      // Sums of many saturated 16 bit frames exceed the range of an int
+      int nrFrames = 40000;
+      short[] saturated = new short[NR_PIXELS];
+      Arrays.fill(saturated, (short) 0xffff);
+      PixelAccumulator mean = new PixelAccumulator(Statistic.MEAN, NR_PIXELS, 2);
+      PixelAccumulator sum = new PixelAccumulator(Statistic.SUM, NR_PIXELS, 2);
+      PixelAccumulator std = new PixelAccumulator(Statistic.STD_DEV, NR_PIXELS, 2);
+      for (int f = 0; f < nrFrames; f++) {
+         mean.add(saturated);
+         sum.add(saturated);
+         std.add(saturated);
+      }
+      assertArrayEquals(saturated, (short[]) mean.getResult());
+      // Clamped to the largest pixel value instead of wrapping around
+      assertArrayEquals(saturated, (short[]) sum.getResult());
+      assertArrayEquals(new short[NR_PIXELS], (short[]) std.getResult());
+   }
+}
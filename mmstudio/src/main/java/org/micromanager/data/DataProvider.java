@@ -78,7 +78,8 @@ public interface DataProvider extends Closeable {
    int getNextIndex(String axis);
 
    /**
-    * Returns the image at the given position.
+    * Returns the image at the given position. May be called from several
+    * threads at once.
     *
     * @param coords Coords specifying the multi-dimensional index to the image
     * @return desired Image
@@ -0,0 +1,51 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+/**
+ * Optional interface for Processors that want to tune how they are run in an
+ * asynchronous Pipeline. Processors that do not implement this interface get
+ * the default queue depth (set in the Options dialog) and a single worker
+ * thread. Synchronous Pipelines ignore these options.
+ */
+public interface PipelineStageOptions {
+   /**
+    * Number of images that can wait in front of this Processor before the
+    * upstream stage (ultimately, the camera) is blocked.
+    *
+    * @return queue depth, or 0 to use the default queue depth
+    */
+   default int getInputQueueDepth() {
+      return 0;
+   }
+
+   /**
+    * Number of threads that concurrently call processImage(). Only return
+    * a value larger than 1 if the Processor is stateless, i.e., when its
+    * processImage() is thread safe and the output for each image depends on
+    * that image only. Images output by the workers are passed on in the order
+    * in which their inputs arrived. cleanup() is called once, after all
+    * images have been processed.
+    *
+    * @return number of workers, at least 1
+    */
+   default int getNumberOfWorkers() {
+      return 1;
+   }
+}
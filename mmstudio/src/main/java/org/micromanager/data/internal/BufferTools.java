@@ -124,6 +124,10 @@ public final class BufferTools {
          byte[] arr = bb.array();
          return Arrays.copyOf(arr, arr.length);
       } else if (rawPixels instanceof ByteBuffer) {
+         if (!rawPixels.hasArray()) {
+            // Direct or memory mapped buffer; this already makes a copy
+            return bytesFromBuffer((ByteBuffer) rawPixels);
+         }
          byte[] arr = ((ByteBuffer) rawPixels).array();
          return Arrays.copyOf(arr, arr.length);
       } else {
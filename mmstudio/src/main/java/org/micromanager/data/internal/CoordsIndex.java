@@ -0,0 +1,146 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.micromanager.data.Coords;
+
+/**
+ * Secondary indexes to find Coords while ignoring some of their axes.
+ *
+ * <p>For every set of ignored axes that we are asked about, we keep a map
+ * from the Coords with those axes removed to all stored Coords that project
+ * onto it.  An index is built (once, by scanning all Coords) the first time
+ * a set of axes is queried, and is kept up to date by add() and remove()
+ * afterwards, so that lookups cost O(result size).
+ *
+ * <p>Not thread safe; the owning storage should synchronize access.
+ */
+final class CoordsIndex {
+   // Every index costs memory in the order of the number of images, so
+   // do not keep indexes for an unbounded number of axis combinations.
+   private static final int MAX_NUMBER_OF_INDEXES = 8;
+
+   private final Map<Set<String>, Map<Coords, List<Coords>>> indexes_ =
+         new HashMap<>();
+
+   /**
+    * Creates the index for the given axes right away, rather than on first use.
+    *
+    * @param existing Coords that are already stored
+    * @param axes     Axes to be ignored by this index
+    */
+   void createIndex(Collection<Coords> existing, String... axes) {
+      getOrBuildIndex(ImmutableSortedSet.copyOf(axes), existing);
+   }
+
+   /**
+    * Adds the Coords to all indexes.  Adding the same Coords twice is allowed.
+    *
+    * @param coords Coords of a newly stored image
+    */
+   void add(Coords coords) {
+      for (Map.Entry<Set<String>, Map<Coords, List<Coords>>> entry : indexes_.entrySet()) {
+         addToIndex(entry.getValue(), entry.getKey(), coords);
+      }
+   }
+
+   /**
+    * Removes the Coords from all indexes.
+    *
+    * @param coords Coords of an image that has been deleted
+    */
+   void remove(Coords coords) {
+      for (Map.Entry<Set<String>, Map<Coords, List<Coords>>> entry : indexes_.entrySet()) {
+         Coords projected = project(coords, entry.getKey());
+         List<Coords> list = entry.getValue().get(projected);
+         if (list != null) {
+            list.remove(coords);
+            if (list.isEmpty()) {
+               entry.getValue().remove(projected);
+            }
+         }
+      }
+   }
+
+   /**
+    * Finds all Coords that equal the given Coords once the ignored axes are
+    * removed.
+    *
+    * @param coords      Coords to match, without the ignored axes
+    * @param ignoredAxes Axes to ignore
+    * @param allCoords   All stored Coords, used if the index needs to be built
+    * @return Matching Coords (possibly empty, do not modify), or null when
+    *     no index is available and the caller needs to search by itself
+    */
+   List<Coords> getMatching(Coords coords, Collection<String> ignoredAxes,
+                            Collection<Coords> allCoords) {
+      Map<Coords, List<Coords>> index = getOrBuildIndex(
+            ImmutableSortedSet.copyOf(ignoredAxes), allCoords);
+      if (index == null) {
+         return null;
+      }
+      List<Coords> result = index.get(coords);
+      return result == null ? new ArrayList<>(0) : result;
+   }
+
+   void clear() {
+      indexes_.clear();
+   }
+
+   private Map<Coords, List<Coords>> getOrBuildIndex(Set<String> axes,
+                                                     Collection<Coords> allCoords) {
+      Map<Coords, List<Coords>> index = indexes_.get(axes);
+      if (index == null) {
+         if (indexes_.size() >= MAX_NUMBER_OF_INDEXES) {
+            return null;
+         }
+         index = new HashMap<>();
+         for (Coords coords : allCoords) {
+            addToIndex(index, axes, coords);
+         }
+         indexes_.put(axes, index);
+      }
+      return index;
+   }
+
+   private static void addToIndex(Map<Coords, List<Coords>> index, Set<String> axes,
+                                  Coords coords) {
+      Coords projected = project(coords, axes);
+      List<Coords> list = index.get(projected);
+      if (list == null) {
+         list = new ArrayList<>(4);
+         index.put(projected, list);
+      }
+      // The same coords can be inserted multiple times in a rewritable store
+      if (!list.contains(coords)) {
+         list.add(coords);
+      }
+   }
+
+   private static Coords project(Coords coords, Set<String> axes) {
+      return coords.copyRemovingAxes(axes.toArray(new String[0]));
+   }
+}
@@ -21,10 +21,10 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.ArrayUtils;
 import org.micromanager.PropertyMap;
@@ -32,22 +32,48 @@ import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
 
 
+/**
+ * Immutable Coords, holding the axes in sorted order along with their
+ * indices in arrays.
+ *
+ * <p>Axis names are validated once and canonicalized through a shared table,
+ * so that axes of different instances are usually the identical String
+ * object. The hash code is computed on construction (Coords are used as map
+ * keys throughout the storage and display code) and is the same as that of
+ * the earlier List-based implementation.</p>
+ */
 public final class DefaultCoords implements Coords {
+   private static final String[] NO_AXES = new String[0];
+   private static final int[] NO_INDICES = new int[0];
+
+   // Canonical instances of all axis names seen, which are known to be valid
+   private static final ConcurrentHashMap<String, String> CANONICAL_AXES =
+         new ConcurrentHashMap<>();
+
+   static {
+      for (String axis : new String[] {TIME_POINT, STAGE_POSITION, Z_SLICE, CHANNEL}) {
+         CANONICAL_AXES.put(axis, axis);
+      }
+   }
 
    public static class Builder implements Coords.Builder {
-      // Since we only hold several axes, array lists are likely more efficient
-      // than a LinkedHashMap
-      private final List<String> axes_;
-      private final List<Integer> indices_;
+      // Since we only hold several axes, arrays are more efficient than a
+      // LinkedHashMap
+      private String[] axes_;
+      private int[] indices_;
+      private int size_;
 
       public Builder() {
-         axes_ = new ArrayList<>(5);
-         indices_ = new ArrayList<>(5);
+         axes_ = new String[5];
+         indices_ = new int[5];
+         size_ = 0;
       }
 
-      private Builder(List<String> axes, List<Integer> indices) {
-         axes_ = new ArrayList<>(axes);
-         indices_ = new ArrayList<>(indices);
+      private Builder(String[] axes, int[] indices) {
+         int capacity = Math.max(5, axes.length + 1);
+         axes_ = Arrays.copyOf(axes, capacity);
+         indices_ = Arrays.copyOf(indices, capacity);
+         size_ = axes.length;
       }
 
       @Override
@@ -57,26 +83,33 @@ public final class DefaultCoords implements Coords {
 
       @Override
       public Builder index(String axis, int index) {
-         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+         axis = canonicalAxis(axis);
          if (index <= 0) {
             return removeAxis(axis);
          }
-         int i = axes_.indexOf(axis);
+         int i = find(axis);
          if (i < 0) {
-            axes_.add(axis);
-            indices_.add(index);
+            if (size_ == axes_.length) {
+               axes_ = Arrays.copyOf(axes_, 2 * size_);
+               indices_ = Arrays.copyOf(indices_, 2 * size_);
+            }
+            axes_[size_] = axis;
+            indices_[size_] = index;
+            ++size_;
          } else {
-            indices_.set(i, index);
+            indices_[i] = index;
          }
          return this;
       }
 
       @Override
       public Builder removeAxis(String axis) {
-         int i = axes_.indexOf(axis);
+         int i = find(axis);
          if (i >= 0) {
-            axes_.remove(i);
-            indices_.remove(i);
+            System.arraycopy(axes_, i + 1, axes_, i, size_ - i - 1);
+            System.arraycopy(indices_, i + 1, indices_, i, size_ - i - 1);
+            --size_;
+            axes_[size_] = null;
          }
          return this;
       }
@@ -84,10 +117,10 @@ public final class DefaultCoords implements Coords {
       @Override
       public Builder offset(String axis, int offset)
             throws IllegalArgumentException, IndexOutOfBoundsException {
-         int i = axes_.indexOf(axis);
+         int i = find(axis);
          int oldIndex = 0;
          if (i >= 0) {
-            oldIndex = indices_.get(i);
+            oldIndex = indices_[i];
          }
          int newIndex = oldIndex + offset;
          if (newIndex < 0) {
@@ -99,6 +132,15 @@ public final class DefaultCoords implements Coords {
          return this;
       }
 
+      private int find(String axis) {
+         for (int i = 0; i < size_; ++i) {
+            if (axes_[i].equals(axis)) {
+               return i;
+            }
+         }
+         return -1;
+      }
+
       @Override
       public Builder timePoint(int frame) {
          return index(TIME_POINT, frame);
@@ -146,32 +188,75 @@ public final class DefaultCoords implements Coords {
       }
    }
 
-   // Since we only hold several axes, array lists are likely more efficient
-   // than a LinkedHashMap
-   private final List<String> axes_;
-   private final List<Integer> indices_;
+   // Sorted by axis name; never modified
+   private final String[] axes_;
+   private final int[] indices_;
+   private final int hash_;
 
    public DefaultCoords(Builder builder) {
-      // sort by axes name
-      List<String> axes = new ArrayList<>(builder.axes_);
-      Collections.sort(axes);
-      List<Integer> indices = new ArrayList<>(axes.size());
-      for (String axis : axes) {
-         int index = builder.axes_.indexOf(axis);
-         indices.add(builder.indices_.get(index));
+      // sort by axes name (insertion sort, as there are only a few axes)
+      String[] axes = Arrays.copyOf(builder.axes_, builder.size_);
+      int[] indices = Arrays.copyOf(builder.indices_, builder.size_);
+      for (int i = 1; i < axes.length; ++i) {
+         String axis = axes[i];
+         int index = indices[i];
+         int j = i - 1;
+         while (j >= 0 && axes[j].compareTo(axis) > 0) {
+            axes[j + 1] = axes[j];
+            indices[j + 1] = indices[j];
+            --j;
+         }
+         axes[j + 1] = axis;
+         indices[j + 1] = index;
+      }
+      axes_ = axes;
+      indices_ = indices;
+      hash_ = computeHash(axes, indices);
+   }
+
+   // Takes ownership of the (sorted) arrays
+   private DefaultCoords(String[] sortedAxes, int[] indices) {
+      axes_ = sortedAxes;
+      indices_ = indices;
+      hash_ = computeHash(sortedAxes, indices);
+   }
+
+   private static int computeHash(String[] axes, int[] indices) {
+      // Equal to the hash of the axis and index lists
+      int hash = 3;
+      hash = 23 * hash + Arrays.hashCode(axes);
+      hash = 23 * hash + Arrays.hashCode(indices);
+      return hash;
+   }
+
+   private static String canonicalAxis(String axis) {
+      String canonical = CANONICAL_AXES.get(axis);
+      if (canonical == null) {
+         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+         canonical = CANONICAL_AXES.putIfAbsent(axis, axis);
+         if (canonical == null) {
+            canonical = axis;
+         }
       }
+      return canonical;
+   }
 
-      axes_ = ImmutableList.copyOf(axes);
-      indices_ = ImmutableList.copyOf(indices);
+   private int find(String axis) {
+      for (int i = 0; i < axes_.length; ++i) {
+         if (axes_[i].equals(axis)) {
+            return i;
+         }
+      }
+      return -1;
    }
 
    @Override
    public int getIndex(String axis) {
-      int i = axes_.indexOf(axis);
+      int i = find(axis);
       if (i < 0) {
          return 0;
       }
-      return indices_.get(i);
+      return indices_[i];
    }
 
    @Override
@@ -222,12 +307,12 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public List<String> getAxes() {
-      return new ArrayList<>(axes_);
+      return new ArrayList<>(Arrays.asList(axes_));
    }
 
    @Override
    public boolean hasAxis(String axis) {
-      return axes_.contains(axis);
+      return find(axis) >= 0;
    }
 
    @Override
@@ -290,42 +375,97 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public Coords copyRemovingAxes(String... axes) {
-      Builder b = copyBuilder();
-      for (String axis : axes) {
-         b.removeAxis(axis);
-      }
-      return b.build();
+      return project(axes, false);
    }
 
    @Override
    public Coords copyRetainingAxes(String... axes) {
-      Builder b = new Builder();
+      return project(axes, true);
+   }
+
+   private DefaultCoords project(String[] axes, boolean retain) {
+      int count = 0;
       for (String axis : axes_) {
-         if (ArrayUtils.contains(axes, axis)) {
-            b.index(axis, getIndex(axis));
+         if (ArrayUtils.contains(axes, axis) == retain) {
+            ++count;
          }
       }
-      return b.build();
+      if (count == axes_.length) {
+         return this;
+      }
+      if (count == 0) {
+         return new DefaultCoords(NO_AXES, NO_INDICES);
+      }
+      String[] newAxes = new String[count];
+      int[] newIndices = new int[count];
+      int j = 0;
+      for (int i = 0; i < axes_.length; ++i) {
+         if (ArrayUtils.contains(axes, axes_[i]) == retain) {
+            newAxes[j] = axes_[i];
+            newIndices[j] = indices_[i];
+            ++j;
+         }
+      }
+      return new DefaultCoords(newAxes, newIndices);
+   }
+
+   /**
+    * Test whether {@code target.equals(candidate.copyRemovingAxes(axes))}
+    * without creating the intermediate Coords.
+    *
+    * @param target    the Coords to match
+    * @param candidate the Coords to match after removing axes
+    * @param axes      the axes to remove from candidate
+    * @return true if the Coords match
+    */
+   public static boolean matchesRemovingAxes(Coords target, Coords candidate,
+                                             String... axes) {
+      if (!(target instanceof DefaultCoords) || !(candidate instanceof DefaultCoords)) {
+         return target.equals(candidate.copyRemovingAxes(axes));
+      }
+      DefaultCoords t = (DefaultCoords) target;
+      DefaultCoords c = (DefaultCoords) candidate;
+      int j = 0;
+      for (int i = 0; i < c.axes_.length; ++i) {
+         if (ArrayUtils.contains(axes, c.axes_[i])) {
+            continue;
+         }
+         if (j >= t.axes_.length || !t.axes_[j].equals(c.axes_[i])
+               || t.indices_[j] != c.indices_[i]) {
+            return false;
+         }
+         ++j;
+      }
+      return j == t.axes_.length;
    }
 
    @Override
    public boolean equals(Object other) {
+      if (this == other) {
+         return true;
+      }
+      if (other instanceof DefaultCoords) {
+         DefaultCoords theOther = (DefaultCoords) other;
+         // Axes are sorted already
+         return hash_ == theOther.hash_
+               && Arrays.equals(indices_, theOther.indices_)
+               && Arrays.equals(axes_, theOther.axes_);
+      }
       if (!(other instanceof Coords)) {
          return false;
       }
       // Axis order is not considered for equality, but axes are sorted already
       // A zero index axis is no longer possible, so no need to remove zero axes
       Coords theOther = (Coords) other;
-
-      if (this.getAxes().size() != theOther.getAxes().size()) {
+      List<String> otherAxes = theOther.getAxes();
+      if (axes_.length != otherAxes.size()) {
          return false;
       }
-      for (int i = 0; i < this.getAxes().size(); i++) {
-         String axis = this.getAxes().get(i);
-         if (!axis.equals(theOther.getAxes().get(i))) {
+      for (int i = 0; i < axes_.length; i++) {
+         if (!axes_[i].equals(otherAxes.get(i))) {
             return false;
          }
-         if (this.getIndex(axis) != theOther.getIndex(axis)) {
+         if (indices_[i] != theOther.getIndex(axes_[i])) {
             return false;
          }
       }
@@ -335,11 +475,7 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public int hashCode() {
-      // Axis order is not considered for equality, but axes are sorted already
-      int hash = 3;
-      hash = 23 * hash + axes_.hashCode();
-      hash = 23 * hash + indices_.hashCode();
-      return hash;
+      return hash_;
    }
 
    @Override
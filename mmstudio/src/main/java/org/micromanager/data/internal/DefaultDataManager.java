@@ -48,6 +48,7 @@ import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.multipagetiff.MultipageTiffReader;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
 import org.micromanager.data.internal.ndtiff.NDTiffAdapter;
+import org.micromanager.data.internal.pipeline.AsynchronousContext;
 import org.micromanager.data.internal.pipeline.DefaultPipeline;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.UserCancelledException;
@@ -375,7 +376,8 @@ public final class DefaultDataManager implements DataManager {
       for (ProcessorFactory factory : factories) {
          processors.add(factory.createProcessor());
       }
-      return new DefaultPipeline(processors, store, isSynchronous);
+      return new DefaultPipeline(processors, store, isSynchronous,
+            AsynchronousContext.getDefaultQueueDepth());
    }
 
    @Override
@@ -23,9 +23,7 @@ package org.micromanager.data.internal;
 import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
@@ -38,6 +36,7 @@ import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.internal.propertymap.JSONObjectToGson;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
@@ -55,9 +54,15 @@ import org.micromanager.internal.utils.imageanalysis.ImageUtils;
  * exposed in the API) returns the raw buffer.
  */
 public final class DefaultImage implements Image {
-   private DefaultMetadata metadata_;
+   // Null until first needed when created from TaggedImage tags, in which
+   // case metadataTags_ holds the tags until they are converted
+   private volatile DefaultMetadata metadata_;
+   private JsonObject metadataTags_;
    private Coords coords_;
    private Buffer rawPixels_;
+   // Array copy of rawPixels_ when that is not backed by an array (e.g. a
+   // memory-mapped file region), made on the first call to getRawPixels()
+   private volatile Object pixelArray_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -88,30 +93,33 @@ public final class DefaultImage implements Image {
     *
     * <p>PixelData from the TaggedImage will be used directly, i.e., they are not copied.
     *
+    * <p>When metadata is null, the tags are only converted to Metadata the first
+    * time the metadata is requested, as many images (e.g., during live mode)
+    * are displayed and discarded without anyone looking at their metadata.
+    * Tags that are not valid JSON, or lack coords or image format, are still
+    * rejected here. Tags that can not be interpreted as Metadata are logged,
+    * together with the image's coords, by the first call to getMetadata(),
+    * and the image then has empty Metadata.
+    *
     * @param tagged   A TaggedImage to base the Image on. Pixels are not copied.
     * @param coords   Coords to be used for this new Image. When null, tags in input image
     *                 are interpreted to best guess the desired Coord.
     * @param metadata Metadata to be used for this new Image. When null, tags from input image
     *                 are used to construct metadata.
+    * @throws IllegalArgumentException when the tags can not be converted to
+    *                                  JSON, coords, or image format
     */
    public DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata)
          throws IllegalArgumentException {
-      String json = tagged.tags.toString();
-      JsonElement je;
+      JsonObject je;
       try {
-         je = new JsonParser().parse(json);
-      } catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags",
-               unlikely);
+         je = JSONObjectToGson.convert(tagged.tags);
+      } catch (Exception e) {
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags to JSON", e);
       }
 
       if (metadata == null) {
-         try {
-            metadata = DefaultMetadata.fromPropertyMap(
-                  NonPropertyMapJSONFormats.metadata().fromGson(je));
-         } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to convert TaggedImage tags to metadata", e);
-         }
+         metadataTags_ = je;
       }
 
       if (coords == null) {
@@ -218,6 +226,44 @@ public final class DefaultImage implements Image {
       pixelType_ = PixelType.valueFor(bytesPerPixel, bpc, numComponents);
    }
 
+   /**
+    * Generates a DefaultImage backed by the given pixel buffer, for instance
+    * a view into a memory mapped file.
+    *
+    * <p>The buffer is used directly (i.e., it is not copied). Note that
+    * getRawPixels() has to copy the data into a Java array when the buffer
+    * is not backed by one; that copy is made once and kept with the image.
+    *
+    * @param pixels   ByteBuffer or ShortBuffer holding the pixels (not null).
+    * @param format   PropertyMap specifying image width, height, and pixelType (not null).
+    * @param coords   Coords to be used for this new image (can be null).
+    * @param metadata Metadata to be used this new image (can be null).
+    * @throws IllegalArgumentException thrown when the buffer does not match the format
+    */
+   public DefaultImage(Buffer pixels, PropertyMap format, Coords coords,
+                       Metadata metadata) throws IllegalArgumentException {
+      Preconditions.checkNotNull(pixels);
+      metadata_ = metadata == null ? new DefaultMetadata.Builder().build() :
+            (DefaultMetadata) metadata;
+      coords_ = coords == null ? Coordinates.builder().build() : coords;
+
+      pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
+      pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
+      pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(), PixelType.class, null);
+      if (pixelType_ == null) {
+         throw new IllegalArgumentException("Missing pixel type");
+      }
+      if (!(pixels instanceof ByteBuffer && pixelType_.getBytesPerComponent() == 1)
+            && !(pixels instanceof ShortBuffer && pixelType_.getBytesPerComponent() == 2)) {
+         throw new UnsupportedOperationException("Unsupported pixel buffer type");
+      }
+      if (pixels.capacity() < pixelWidth_ * pixelHeight_
+            * pixelType_.getNumberOfComponents()) {
+         throw new IllegalArgumentException("Invalid pixel data " + pixels);
+      }
+      rawPixels_ = pixels;
+   }
+
    /**
     * Creates a new image object that shares the pixels of the source image
     * Attaches the provided coords and metadata.
@@ -258,8 +304,36 @@ public final class DefaultImage implements Image {
 
    }
 
+   /**
+    * Returns the metadata, converting the TaggedImage tags on first use.
+    */
    @Override
    public Metadata getMetadata() {
+      DefaultMetadata metadata = metadata_;
+      if (metadata == null) {
+         metadata = materializeMetadata();
+      }
+      return metadata;
+   }
+
+   /**
+    * Converts the TaggedImage tags to Metadata, once. Tags that can not be
+    * converted are logged, and result in empty Metadata, so that callers of
+    * getMetadata() do not need to handle a failure that belongs to the
+    * image's creation.
+    */
+   private synchronized DefaultMetadata materializeMetadata() {
+      if (metadata_ == null && metadataTags_ != null) {
+         try {
+            metadata_ = (DefaultMetadata) DefaultMetadata.fromPropertyMap(
+                  NonPropertyMapJSONFormats.metadata().fromGson(metadataTags_));
+         } catch (Exception e) {
+            ReportingUtils.logError(e, "Failed to convert TaggedImage tags to metadata"
+                  + " for image at " + coords_ + "; using empty metadata");
+            metadata_ = new DefaultMetadata.Builder().build();
+         }
+         metadataTags_ = null;
+      }
       return metadata_;
    }
 
@@ -270,7 +344,7 @@ public final class DefaultImage implements Image {
 
    @Override
    public Image copyAtCoords(Coords coords) {
-      return new DefaultImage(this, coords, metadata_);
+      return new DefaultImage(this, coords, getMetadata());
    }
 
    @Override
@@ -292,7 +366,14 @@ public final class DefaultImage implements Image {
       if (rawPixels_.hasArray()) {
          return rawPixels_.array();
       }
-      return BufferTools.arrayFromBuffer(rawPixels_);
+      // Pixels are immutable, so the copy need only be made once. Two threads
+      // racing here each make a copy with identical contents, which is harmless.
+      Object array = pixelArray_;
+      if (array == null) {
+         array = BufferTools.arrayFromBuffer(rawPixels_);
+         pixelArray_ = array;
+      }
+      return array;
    }
 
    @Override
@@ -425,7 +506,7 @@ public final class DefaultImage implements Image {
       NonPropertyMapJSONFormats.coords().addToGson(jo,
             ((DefaultCoords) coords_).toPropertyMap());
       NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            metadata_.toPropertyMap());
+            ((DefaultMetadata) getMetadata()).toPropertyMap());
       Gson gson = new GsonBuilder().disableHtmlEscaping().create();
       String json = gson.toJson(jo);
 
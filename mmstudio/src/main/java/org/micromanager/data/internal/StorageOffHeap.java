@@ -0,0 +1,686 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.common.eventbus.Subscribe;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.RewritableStorage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+
+/**
+ * RAM-style storage that keeps pixel data outside of the Java heap, within a
+ * fixed byte budget.
+ *
+ * <p>Pixels are copied into slots of an arena of direct buffers (one slot per
+ * plane, since all planes of a datastore have the same size). Only the
+ * coords and metadata of each image remain on the heap, so that long
+ * acquisitions neither exhaust the heap nor cause long garbage collection
+ * pauses. When the arena is full, the slot of the least recently put or
+ * viewed plane is reused, after the plane has been written to a spill file in
+ * the temporary directory. As the arena fills up, a background thread writes
+ * the least recently used planes to the spill file ahead of time, so that
+ * putImage() normally need not wait for the disk. getImage() reloads spilled
+ * planes transparently. Images returned by getImage() carry a copy of the
+ * pixels.
+ *
+ * <p>The budget from the user profile is limited to half of the memory
+ * available for direct buffers (-XX:MaxDirectMemorySize, by default the
+ * maximum heap size). Should direct memory run out nonetheless, the arena
+ * stops growing, and further planes are spilled to disk as if the budget had
+ * been reached.
+ *
+ * <p>Space in the spill file of planes that are deleted or overwritten is
+ * reused for later planes; the file is deleted when the storage is closed.
+ */
+public final class StorageOffHeap implements RewritableStorage {
+   private static final String USE_FOR_ACQUISITIONS =
+         "use off-heap storage for acquisitions that are not saved to disk";
+   private static final String ARENA_SIZE_MB = "off-heap storage budget (MB)";
+   private static final int DEFAULT_ARENA_SIZE_MB = 2048;
+   // Direct buffers are allocated in chunks of (at most) this size, as needed
+   private static final int MAX_CHUNK_BYTES = 256 * 1024 * 1024;
+   // Number of least recently used planes written to the spill file ahead of
+   // their eviction
+   private static final int SPILL_AHEAD = 8;
+
+   /**
+    * The heap-resident part of an image.
+    */
+   private static final class Plane {
+      private final Coords coords_;
+      private final Metadata metadata_;
+      private int slot_ = -1; // Arena slot, or -1 if not resident
+      private long spillOffset_ = -1; // Position in spill file, or -1
+      private boolean spilling_ = false; // Being written in the background
+
+      private Plane(Coords coords, Metadata metadata) {
+         coords_ = coords;
+         metadata_ = metadata;
+      }
+   }
+
+   private final long budgetBytes_;
+   private HashMap<Coords, Plane> planes_;
+   // Planes that occupy an arena slot, least recently used first
+   private final LinkedHashMap<Coords, Plane> resident_ =
+         new LinkedHashMap<>(16, 0.75f, true);
+   private CoordsIndex coordsIndex_;
+   private Coords maxIndex_;
+   private SummaryMetadata summaryMetadata_;
+   private final Set<String> axesInUse_;
+
+   // Pixel format, set by the first image
+   private Image firstImage_;
+   private int planeBytes_;
+   private boolean isShortPixels_;
+
+   // Arena
+   private ByteBuffer[] chunks_;
+   private int slotsPerChunk_;
+   private int numSlots_;
+   private int nextUnusedSlot_ = 0;
+   private final ArrayDeque<Integer> freeSlots_ = new ArrayDeque<>();
+
+   // Spill file, created when first needed
+   private File spillFile_;
+   private RandomAccessFile spillRAF_;
+   private FileChannel spillChannel_;
+   private long spillEnd_ = 0;
+   // Space in the spill file no longer used by any plane
+   private final ArrayDeque<Long> freeSpillOffsets_ = new ArrayDeque<>();
+   // Writes planes to the spill file ahead of time, created when first needed
+   private ExecutorService spillExecutor_;
+
+   /**
+    * Off-heap image storage with the budget from the user profile.
+    *
+    * @param store Datastore that "owns" this storage.
+    */
+   public StorageOffHeap(Datastore store) {
+      this(store, Math.min(getArenaSizeMB() * 1024L * 1024L, getMaxDirectMemory() / 2));
+   }
+
+   /**
+    * Off-heap image storage.
+    *
+    * @param store       Datastore that "owns" this storage.
+    * @param budgetBytes maximum number of bytes of pixel data to keep in
+    *                    memory; at least one plane is always kept
+    */
+   public StorageOffHeap(Datastore store, long budgetBytes) {
+      budgetBytes_ = budgetBytes;
+      planes_ = new HashMap<>();
+      maxIndex_ = new DefaultCoords.Builder().build();
+      axesInUse_ = new TreeSet<>();
+      summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
+      coordsIndex_ = new CoordsIndex();
+      // Ignoring the channel axis is by far the most common, so always index it
+      coordsIndex_.createIndex(planes_.keySet(), Coords.CHANNEL);
+      // It is imperative that we be notified of new images before anyone who
+      // wants to retrieve the images from the store is notified.
+      ((DefaultDatastore) store).registerForEvents(this, 0);
+   }
+
+   @Override
+   public synchronized void putImage(Image image) throws IOException {
+      if (firstImage_ != null) {
+         ImageSizeChecker.checkImageSizes(image, firstImage_);
+      } else {
+         ImageSizeChecker.checkImageSizeInSummary(summaryMetadata_, image);
+         setUpArena(image);
+      }
+      Coords coords = image.getCoords();
+      Plane old = planes_.remove(coords);
+      if (old != null) {
+         release(old);
+      }
+
+      Plane plane = new Plane(coords, image.getMetadata());
+      plane.slot_ = allocateSlot();
+      ByteBuffer slot = slotBuffer(plane.slot_);
+      Object pixels = image.getRawPixels();
+      if (isShortPixels_) {
+         slot.asShortBuffer().put((short[]) pixels);
+      } else {
+         slot.put((byte[]) pixels);
+      }
+      planes_.put(coords, plane);
+      resident_.put(coords, plane);
+      if (old == null) {
+         coordsIndex_.add(coords);
+      }
+
+      for (String axis : coords.getAxes()) {
+         axesInUse_.add(axis);
+         if (maxIndex_.getIndex(axis) < coords.getIndex(axis)) {
+            // Either this image is further along on this axis, or we have
+            // no index for this axis yet.
+            maxIndex_ = maxIndex_.copyBuilder()
+                  .index(axis, coords.getIndex(axis))
+                  .build();
+         }
+      }
+      spillAhead();
+   }
+
+   private void setUpArena(Image image) {
+      firstImage_ = image;
+      isShortPixels_ = image.getRawPixels() instanceof short[];
+      planeBytes_ = image.getWidth() * image.getHeight() * image.getBytesPerPixel();
+      numSlots_ = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes_ / planeBytes_));
+      slotsPerChunk_ = Math.max(1, Math.min(numSlots_, MAX_CHUNK_BYTES / planeBytes_));
+      chunks_ = new ByteBuffer[(numSlots_ + slotsPerChunk_ - 1) / slotsPerChunk_];
+   }
+
+   /**
+    * Returns a free arena slot, evicting the least recently used plane if
+    * necessary.
+    */
+   private int allocateSlot() throws IOException {
+      if (!freeSlots_.isEmpty()) {
+         return freeSlots_.pop();
+      }
+      if (nextUnusedSlot_ < numSlots_ && allocateChunkFor(nextUnusedSlot_)) {
+         return nextUnusedSlot_++;
+      }
+      Iterator<Plane> lru = resident_.values().iterator();
+      Plane victim = lru.next();
+      if (victim.spillOffset_ < 0) {
+         // Not yet (or still being) written in the background
+         long offset = reserveSpillSpace();
+         writeSpill(slotBuffer(victim.slot_), offset);
+         victim.spillOffset_ = offset;
+      }
+      lru.remove();
+      int slot = victim.slot_;
+      victim.slot_ = -1;
+      return slot;
+   }
+
+   /**
+    * Makes sure the direct buffer holding a slot exists. When direct memory
+    * runs out, the arena is limited to the slots allocated so far, so that
+    * further planes are spilled to disk.
+    *
+    * @return false when the slot could not be allocated
+    */
+   private boolean allocateChunkFor(int slot) throws IOException {
+      int chunk = slot / slotsPerChunk_;
+      if (chunks_[chunk] != null) {
+         return true;
+      }
+      int chunkSlots = Math.min(slotsPerChunk_, numSlots_ - chunk * slotsPerChunk_);
+      try {
+         chunks_[chunk] = ByteBuffer.allocateDirect(chunkSlots * planeBytes_);
+         return true;
+      } catch (OutOfMemoryError e) {
+         numSlots_ = chunk * slotsPerChunk_;
+         if (numSlots_ == 0) {
+            throw new IOException("Out of direct memory for off-heap storage. "
+                  + "Consider a smaller budget or a larger -XX:MaxDirectMemorySize.");
+         }
+         ReportingUtils.logMessage("Out of direct memory; limiting off-heap storage to "
+               + ((long) numSlots_ * planeBytes_ / (1024 * 1024)) + " MB and spilling "
+               + "further planes to disk. Consider a smaller budget or a larger "
+               + "-XX:MaxDirectMemorySize.");
+         return false;
+      }
+   }
+
+   private ByteBuffer slotBuffer(int slot) {
+      int chunk = slot / slotsPerChunk_;
+      ByteBuffer buffer = chunks_[chunk].duplicate();
+      int position = (slot % slotsPerChunk_) * planeBytes_;
+      buffer.position(position);
+      buffer.limit(position + planeBytes_);
+      return buffer.slice().order(ByteOrder.nativeOrder());
+   }
+
+   /**
+    * Releases the arena slot and spill space of a plane that is deleted or
+    * overwritten.
+    */
+   private void release(Plane plane) {
+      resident_.remove(plane.coords_);
+      if (plane.slot_ >= 0) {
+         freeSlots_.push(plane.slot_);
+         plane.slot_ = -1;
+      }
+      if (plane.spillOffset_ >= 0) {
+         freeSpillOffsets_.push(plane.spillOffset_);
+         plane.spillOffset_ = -1;
+      }
+      // Space being written in the background is released by writeBehind()
+   }
+
+   /**
+    * Returns the position in the spill file at which a plane can be written,
+    * reusing space of planes that are gone, or creating the file if needed.
+    */
+   private long reserveSpillSpace() throws IOException {
+      if (spillChannel_ == null) {
+         spillFile_ = File.createTempFile("mm_offheap_", ".spill");
+         spillFile_.deleteOnExit();
+         spillRAF_ = new RandomAccessFile(spillFile_, "rw");
+         spillChannel_ = spillRAF_.getChannel();
+      }
+      if (!freeSpillOffsets_.isEmpty()) {
+         return freeSpillOffsets_.pop();
+      }
+      long offset = spillEnd_;
+      spillEnd_ += planeBytes_;
+      return offset;
+   }
+
+   /**
+    * Writes a plane to the spill file. Positional writes to a FileChannel
+    * can happen concurrently, so this does not need the lock.
+    */
+   private void writeSpill(ByteBuffer source, long offset) throws IOException {
+      FileChannel channel;
+      synchronized (this) {
+         channel = spillChannel_;
+      }
+      if (channel == null) {
+         throw new IOException("Storage is closed");
+      }
+      long position = offset;
+      while (source.hasRemaining()) {
+         position += channel.write(source, position);
+      }
+   }
+
+   /**
+    * Once the arena is nearly full, starts writing the least recently used
+    * planes that are not yet in the spill file, on a background thread.
+    * Planes never change after being put, so a plane that is used again
+    * after being written only costs the space in the file.
+    */
+   private void spillAhead() {
+      if (numSlots_ - nextUnusedSlot_ + freeSlots_.size() > SPILL_AHEAD) {
+         return;
+      }
+      int examined = 0;
+      for (final Plane plane : resident_.values()) {
+         if (++examined > SPILL_AHEAD) {
+            break;
+         }
+         if (plane.spillOffset_ >= 0 || plane.spilling_) {
+            continue;
+         }
+         if (spillExecutor_ == null) {
+            spillExecutor_ = Executors.newSingleThreadExecutor(
+                  ThreadFactoryFactory.createThreadFactory("Off-heap storage spill"));
+         }
+         plane.spilling_ = true;
+         spillExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+               writeBehind(plane);
+            }
+         });
+      }
+   }
+
+   /**
+    * Writes a plane to the spill file in the background. Spill space is only
+    * reserved once the write starts, and not at all if the plane was
+    * meanwhile evicted, replaced or deleted.
+    */
+   private void writeBehind(Plane plane) {
+      final ByteBuffer source;
+      final long offset;
+      synchronized (this) {
+         if (planes_ == null || planes_.get(plane.coords_) != plane
+               || plane.slot_ < 0 || plane.spillOffset_ >= 0) {
+            plane.spilling_ = false;
+            return;
+         }
+         try {
+            offset = reserveSpillSpace();
+         } catch (IOException e) {
+            // Eviction will try again, and report the error
+            ReportingUtils.logError(e, "Failed to create spill file");
+            plane.spilling_ = false;
+            return;
+         }
+         source = slotBuffer(plane.slot_);
+      }
+      boolean written = false;
+      try {
+         writeSpill(source, offset);
+         written = true;
+      } catch (IOException e) {
+         synchronized (this) {
+            if (planes_ != null) {
+               ReportingUtils.logError(e, "Failed to write plane to spill file");
+            }
+         }
+      }
+      synchronized (this) {
+         plane.spilling_ = false;
+         // If the plane was meanwhile evicted (and written synchronously),
+         // replaced or deleted, its slot may have been reused while we were
+         // reading it, and what we wrote must not be used.
+         if (written && plane.spillOffset_ < 0 && plane.slot_ >= 0
+               && planes_ != null && planes_.get(plane.coords_) == plane) {
+            plane.spillOffset_ = offset;
+         } else if (planes_ != null) {
+            freeSpillOffsets_.push(offset);
+         }
+      }
+   }
+
+   private void unspill(Plane plane) throws IOException {
+      int slot = allocateSlot();
+      ByteBuffer target = slotBuffer(slot);
+      long position = plane.spillOffset_;
+      while (target.hasRemaining()) {
+         int n = spillChannel_.read(target, position);
+         if (n < 0) {
+            freeSlots_.push(slot);
+            throw new IOException("Unexpected end of spill file");
+         }
+         position += n;
+      }
+      plane.slot_ = slot;
+      resident_.put(plane.coords_, plane);
+   }
+
+   /**
+    * Number of bytes used in the spill file so far, for tests.
+    */
+   synchronized long getSpillFileSize() {
+      return spillEnd_;
+   }
+
+   @Override
+   public void freeze() {
+      // The Datastore handles making certain writes don't occur, and we don't
+      // do anything special to "finish" storing data, so this is a no-op.
+   }
+
+   @Override
+   public synchronized Image getImage(Coords coords) throws IOException {
+      if (planes_ == null) {
+         return null;
+      }
+      Plane plane = planes_.get(coords);
+      if (plane == null) {
+         return null;
+      }
+      if (plane.slot_ < 0) {
+         unspill(plane);
+      } else {
+         resident_.get(coords); // Mark as recently used
+      }
+      ByteBuffer slot = slotBuffer(plane.slot_);
+      Object pixels;
+      if (isShortPixels_) {
+         short[] shorts = new short[planeBytes_ / 2];
+         slot.asShortBuffer().get(shorts);
+         pixels = shorts;
+      } else {
+         byte[] bytes = new byte[planeBytes_];
+         slot.get(bytes);
+         pixels = bytes;
+      }
+      return new DefaultImage(pixels, firstImage_.getWidth(), firstImage_.getHeight(),
+            firstImage_.getBytesPerPixel(), firstImage_.getNumComponents(),
+            plane.coords_, plane.metadata_);
+   }
+
+   @Override
+   public synchronized Image getAnyImage() {
+      if (planes_ == null || planes_.isEmpty()) {
+         return null;
+      }
+      try {
+         return getImage(planes_.keySet().iterator().next());
+      } catch (IOException ex) {
+         ReportingUtils.logError(ex, "Failed to reload image from spill file");
+         return null;
+      }
+   }
+
+   @Override
+   public synchronized List<Image> getImagesMatching(Coords coords) {
+      List<String> ignoredAxes = new ArrayList<>();
+      for (String axis : axesInUse_) {
+         if (!coords.getAxes().contains(axis)) {
+            ignoredAxes.add(axis);
+         }
+      }
+      try {
+         return getImagesIgnoringAxes(coords, ignoredAxes.toArray(new String[0]));
+      } catch (IOException ex) {
+         ReportingUtils.logError(ex, "Failed to read image at " + coords);
+         return null;
+      }
+   }
+
+   @Override
+   public synchronized List<Image> getImagesIgnoringAxes(Coords coords,
+                                                         String... ignoreTheseAxes)
+         throws IOException {
+      if (planes_ == null) {
+         return null;
+      }
+      List<Image> result = new ArrayList<>();
+      List<String> ignoredAxesInUse = new ArrayList<>(ignoreTheseAxes.length);
+      for (String axis : ignoreTheseAxes) {
+         if (axesInUse_.contains(axis)) {
+            ignoredAxesInUse.add(axis);
+         }
+      }
+      if (ignoredAxesInUse.isEmpty()) {
+         Image image = getImage(coords);
+         if (image != null) {
+            result.add(image);
+         }
+         return result;
+      }
+      List<Coords> matching = coordsIndex_.getMatching(coords, ignoredAxesInUse,
+            planes_.keySet());
+      if (matching == null) {
+         matching = new ArrayList<>();
+         for (Coords candidate : planes_.keySet()) {
+            if (DefaultCoords.matchesRemovingAxes(coords, candidate, ignoreTheseAxes)) {
+               matching.add(candidate);
+            }
+         }
+      }
+      for (Coords match : matching) {
+         result.add(getImage(match));
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized Iterable<Coords> getUnorderedImageCoords() {
+      return planes_.keySet();
+   }
+
+   @Override
+   public synchronized boolean hasImage(Coords coords) {
+      return planes_ != null && planes_.containsKey(coords);
+   }
+
+   @Override
+   public int getMaxIndex(String axis) {
+      return maxIndex_.getIndex(axis);
+   }
+
+   // TODO: check that metadata axis are a reliable source of information
+   @Override
+   public List<String> getAxes() {
+      return summaryMetadata_.getOrderedAxes();
+   }
+
+   @Override
+   public Coords getMaxIndices() {
+      return maxIndex_;
+   }
+
+   @Override
+   public SummaryMetadata getSummaryMetadata() {
+      return summaryMetadata_;
+   }
+
+   /**
+    * Recieve the new summary through an event.  This is guaranteed to happen before
+    * putImage is called.
+    *
+    * @param event this gives use the summary metadata
+    */
+   @Subscribe
+   public void onNewSummary(DataProviderHasNewSummaryMetadataEvent event) {
+      summaryMetadata_ = event.getSummaryMetadata();
+   }
+
+   @Override
+   public synchronized int getNumImages() {
+      return planes_ == null ? 0 : planes_.size();
+   }
+
+   @Override
+   public synchronized void deleteImage(Coords coords) throws IllegalArgumentException {
+      Plane plane = planes_.remove(coords);
+      if (plane == null) {
+         throw new IllegalArgumentException("Storage does not contain image at " + coords);
+      }
+      release(plane);
+      coordsIndex_.remove(coords);
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      planes_ = null;
+      coordsIndex_ = null;
+      resident_.clear();
+      freeSlots_.clear();
+      freeSpillOffsets_.clear();
+      // The direct buffers are released once garbage collected
+      chunks_ = null;
+      if (spillExecutor_ != null) {
+         spillExecutor_.shutdownNow();
+         spillExecutor_ = null;
+      }
+      if (spillRAF_ != null) {
+         spillRAF_.close();
+         spillRAF_ = null;
+         spillChannel_ = null;
+         if (!spillFile_.delete()) {
+            ReportingUtils.logMessage("Failed to delete spill file " + spillFile_);
+         }
+      }
+   }
+
+   /**
+    * Whether acquisitions that are not saved to disk store their images
+    * off-heap (rather than in StorageRAM).
+    *
+    * @return true if StorageOffHeap should be used
+    */
+   public static boolean getUseForAcquisitions() {
+      return MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .getBoolean(USE_FOR_ACQUISITIONS, false);
+   }
+
+   public static void setUseForAcquisitions(boolean use) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .putBoolean(USE_FOR_ACQUISITIONS, use);
+   }
+
+   /**
+    * Estimates how much memory the JVM allows for direct buffers.
+    *
+    * @return -XX:MaxDirectMemorySize if given, otherwise the maximum heap
+    *     size (the JVM's default)
+    */
+   static long getMaxDirectMemory() {
+      final String option = "-XX:MaxDirectMemorySize=";
+      for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+         if (arg.startsWith(option)) {
+            String value = arg.substring(option.length()).trim().toLowerCase();
+            long multiplier = 1;
+            switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+               case 'k':
+                  multiplier = 1024L;
+                  break;
+               case 'm':
+                  multiplier = 1024L * 1024L;
+                  break;
+               case 'g':
+                  multiplier = 1024L * 1024L * 1024L;
+                  break;
+               case 't':
+                  multiplier = 1024L * 1024L * 1024L * 1024L;
+                  break;
+               default:
+                  break;
+            }
+            if (multiplier != 1) {
+               value = value.substring(0, value.length() - 1);
+            }
+            try {
+               return Long.parseLong(value) * multiplier;
+            } catch (NumberFormatException e) {
+               break;
+            }
+         }
+      }
+      return Runtime.getRuntime().maxMemory();
+   }
+
+   public static int getArenaSizeMB() {
+      return MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .getInteger(ARENA_SIZE_MB, DEFAULT_ARENA_SIZE_MB);
+   }
+
+   public static void setArenaSizeMB(int sizeMB) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .putInteger(ARENA_SIZE_MB, sizeMB);
+   }
+}
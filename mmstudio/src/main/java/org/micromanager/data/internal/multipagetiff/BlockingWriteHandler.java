@@ -0,0 +1,74 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2012-2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Handler for writing executors with a bounded work queue.  Rather than
+ * rejecting a task when the queue is full, the submitting thread is made
+ * to wait until the writing thread has made room.  This provides backpressure
+ * towards the thread producing images when the disk can not keep up, without
+ * having to poll the queue size.
+ */
+final class BlockingWriteHandler implements RejectedExecutionHandler {
+   // Only log every so many blocked submissions to avoid flooding the log
+   private static final long LOG_INTERVAL = 100;
+
+   private final String name_;
+   private final AtomicLong numBlocked_ = new AtomicLong(0);
+
+   BlockingWriteHandler(String name) {
+      name_ = name;
+   }
+
+   @Override
+   public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+         throw new RejectedExecutionException(name_ + " writing executor has been shut down");
+      }
+      long numBlocked = numBlocked_.getAndIncrement();
+      if (numBlocked % LOG_INTERVAL == 0) {
+         ReportingUtils.logMessage("Warning: " + name_ + " writing queue full ("
+               + executor.getQueue().size() + " tasks), waiting for disk. Blocked "
+               + (numBlocked + 1) + " times so far.");
+      }
+      try {
+         executor.getQueue().put(task);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RejectedExecutionException(
+               "Interrupted while waiting for space in the writing queue", e);
+      }
+   }
+
+   /**
+    * Number of times a submitting thread had to wait for the writing queue.
+    *
+    * @return number of blocked submissions since creation
+    */
+   long getNumBlocked() {
+      return numBlocked_.get();
+   }
+}
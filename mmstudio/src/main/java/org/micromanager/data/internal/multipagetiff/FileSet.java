@@ -31,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -62,6 +63,8 @@ class FileSet {
    private boolean expectedImageOrder_ = true;
    private int ifdCount_ = 0;
    private StorageMultipageTiff masterStorage_;
+   // All writes to our files are done by this (single threaded) executor
+   private final ThreadPoolExecutor writingExecutor_;
    int nextExpectedChannel_ = 0;
    int nextExpectedSlice_ = 0;
    int nextExpectedFrame_ = 0;
@@ -70,8 +73,10 @@ class FileSet {
 
    public FileSet(Image firstImage, StorageMultipageTiff masterStorage,
                   OMEMetadata omeMetadata,
-                  boolean splitByXYPosition, boolean separateMetadataFile) throws IOException {
+                  boolean splitByXYPosition, boolean separateMetadataFile,
+                  ThreadPoolExecutor writingExecutor) throws IOException {
       tiffWriters_ = new LinkedList<>();
+      writingExecutor_ = writingExecutor;
       masterStorage_ = masterStorage;
       omeMetadata_ = omeMetadata;
       splitByXYPosition_ = splitByXYPosition;
@@ -83,13 +88,17 @@ class FileSet {
       currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID();
       //make first writer
       tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-            firstImage, currentTiffFilename_));
+            firstImage, currentTiffFilename_, writingExecutor_));
 
       if (separateMetadataFile_) {
          startMetadataFile();
       }
    }
 
+   public ThreadPoolExecutor getWritingExecutor() {
+      return writingExecutor_;
+   }
+
    public String getCurrentUUID() {
       return currentTiffUUID_;
    }
@@ -168,7 +177,7 @@ class FileSet {
          currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID();
          ifdCount_ = 0;
          tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-               img, currentTiffFilename_));
+               img, currentTiffFilename_, writingExecutor_));
 
          //Add new filename to image tags
          img = img.copyWithMetadata(img.getMetadata()
@@ -0,0 +1,111 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2012-2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only memory mapping of a (possibly larger than 2 GB) file.
+ *
+ * <p>A single MappedByteBuffer can not exceed 2 GB, so the file is mapped in
+ * segments.  Consecutive segments overlap by MAX_REGION_SIZE bytes, so that
+ * any region of at most that size lies entirely within one segment, and can
+ * be handed out as a single (zero-copy) ByteBuffer.  Segments are mapped
+ * lazily, the first time a region inside them is requested.
+ *
+ * <p>Only use this for files that are no longer being written: the mapping
+ * is made against the file size at construction time.
+ *
+ * <p>After release(), no further regions are handed out. Regions handed out
+ * earlier stay valid, and keep their segment mapped until they are garbage
+ * collected.
+ */
+final class MappedFileSegments {
+   private static final long SEGMENT_SIZE = 1L << 30;
+   // Largest region that is guaranteed to be served by a single segment
+   static final long MAX_REGION_SIZE = 256L << 20;
+
+   private final FileChannel channel_;
+   private final long fileSize_;
+   private final ByteOrder byteOrder_;
+   private final MappedByteBuffer[] segments_;
+   private boolean released_ = false;
+
+   MappedFileSegments(FileChannel channel, ByteOrder byteOrder) throws IOException {
+      channel_ = channel;
+      fileSize_ = channel.size();
+      byteOrder_ = byteOrder;
+      segments_ = new MappedByteBuffer[(int) ((fileSize_ + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+   }
+
+   /**
+    * Returns a view of the given region of the file, without copying.
+    *
+    * @param position Offset in the file of the first byte
+    * @param length   Number of bytes in the region
+    * @return ByteBuffer in the file's byte order with position 0 and
+    *     capacity length, or null when the region can not be mapped or the
+    *     mapping was released (in which case the caller should read using
+    *     the FileChannel).
+    * @throws IOException when mapping fails
+    */
+   ByteBuffer getRegion(long position, int length) throws IOException {
+      if (position < 0 || length < 0 || length > MAX_REGION_SIZE
+            || position + length > fileSize_) {
+         return null;
+      }
+      int index = (int) (position / SEGMENT_SIZE);
+      MappedByteBuffer segment = getSegment(index);
+      if (segment == null) {
+         return null;
+      }
+      int offset = (int) (position - index * SEGMENT_SIZE);
+      // Work on a duplicate so that concurrent readers do not share position
+      ByteBuffer region = segment.duplicate();
+      region.position(offset);
+      region.limit(offset + length);
+      return region.slice().order(byteOrder_);
+   }
+
+   /**
+    * Drops the references to all mapped segments.
+    */
+   synchronized void release() {
+      released_ = true;
+      Arrays.fill(segments_, null);
+   }
+
+   private synchronized MappedByteBuffer getSegment(int index) throws IOException {
+      if (released_) {
+         return null;
+      }
+      if (segments_[index] == null) {
+         long start = index * SEGMENT_SIZE;
+         long size = Math.min(SEGMENT_SIZE + MAX_REGION_SIZE, fileSize_ - start);
+         segments_[index] = channel_.map(FileChannel.MapMode.READ_ONLY, start, size);
+      }
+      return segments_[index];
+   }
+}
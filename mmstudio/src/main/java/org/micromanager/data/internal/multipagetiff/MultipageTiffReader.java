@@ -92,6 +92,12 @@ public final class MultipageTiffReader {
    private HashMap<Coords, Long> coordsToOffset_;
    private long maxImageOffset_ = Long.MAX_VALUE;
 
+   // Only used for files that have been completely written
+   private boolean useMemoryMapping_ = false;
+   // Created by getMappedFile() and released by pause(), both synchronized
+   // (as is readImage())
+   private volatile MappedFileSegments mappedFile_;
+
    //
    // Buffer allocation and recycling, copied from MultipageTiffWriter
    //
@@ -205,6 +211,7 @@ public final class MultipageTiffReader {
          throws IOException, InvalidIndexMapException {
       masterStorage_ = masterStorage;
       file_ = file;
+      useMemoryMapping_ = masterStorage.getUseMemoryMapping();
       try {
          createFileChannel(false);
       } catch (Exception ex) {
@@ -401,10 +408,45 @@ public final class MultipageTiffReader {
 
    private ByteBuffer readIntoBuffer(long position, int length) throws IOException {
       ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder_);
-      fileChannel_.read(buffer, position);
+      ByteBuffer region = getMappedRegion(position, length);
+      if (region != null) {
+         buffer.put(region);
+      } else {
+         fileChannel_.read(buffer, position);
+      }
       return buffer;
    }
 
+   /**
+    * Provides the memory mapping of our file, creating it when needed.
+    *
+    * @return Mapping of the file, or null when memory mapping is not used
+    * @throws IOException when the file can not be mapped
+    */
+   private synchronized MappedFileSegments getMappedFile() throws IOException {
+      if (!useMemoryMapping_) {
+         return null;
+      }
+      if (mappedFile_ == null) {
+         if (fileChannel_ == null) {
+            createFileChannel(false);
+         }
+         mappedFile_ = new MappedFileSegments(fileChannel_, byteOrder_);
+      }
+      return mappedFile_;
+   }
+
+   /**
+    * Returns a zero-copy view of a region of the file.
+    *
+    * @return the region, or null when the file is not (or no longer) mapped,
+    *     in which case the caller should read through the FileChannel
+    */
+   private ByteBuffer getMappedRegion(long position, int length) throws IOException {
+      MappedFileSegments mappedFile = mappedFile_;
+      return mappedFile == null ? null : mappedFile.getRegion(position, length);
+   }
+
    private long readOffsetHeaderAndOffset(int offsetHeaderVal, int startOffset)
          throws IOException {
       ByteBuffer buffer1 = readIntoBuffer(startOffset, 8);
@@ -450,10 +492,10 @@ public final class MultipageTiffReader {
    }
 
    private IFDData readIFD(long byteOffset) throws IOException {
-      ByteBuffer buff = readIntoBuffer(byteOffset, 2);
+      ByteBuffer buff = readView(byteOffset, 2);
       int numEntries = buff.getChar(0);
 
-      ByteBuffer entries = readIntoBuffer(byteOffset + 2, numEntries * 12 + 4).order(byteOrder_);
+      ByteBuffer entries = readView(byteOffset + 2, numEntries * 12 + 4).order(byteOrder_);
       IFDData data = new IFDData();
       for (int i = 0; i < numEntries; i++) {
          IFDEntry entry = readDirectoryEntry(i * 12, entries);
@@ -477,6 +519,15 @@ public final class MultipageTiffReader {
       return data;
    }
 
+   /**
+    * Like readIntoBuffer, but avoids the copy when the file is memory mapped.
+    * The result is only suitable for absolute get methods.
+    */
+   private ByteBuffer readView(long position, int length) throws IOException {
+      ByteBuffer region = getMappedRegion(position, length);
+      return region != null ? region : readIntoBuffer(position, length);
+   }
+
    private String getString(ByteBuffer buffer) {
       try {
          return new String(buffer.array(), "UTF-8");
@@ -487,13 +538,16 @@ public final class MultipageTiffReader {
    }
 
    /**
-    * Reads image with given Coords from disk.
+    * Reads image with given Coords from disk. Safe to call from several
+    * threads: reads of this file are serialized with each other and with
+    * pause(), which would otherwise close the FileChannel mid-read. Reads of
+    * different files still run in parallel.
     *
     * @param coords Coords indicating which image should be retrieved.
     * @return Image matching Coords
     * @throws IOException When reading fails
     */
-   public DefaultImage readImage(Coords coords) throws IOException {
+   public synchronized DefaultImage readImage(Coords coords) throws IOException {
       if (!coordsToOffset_.containsKey(coords)) {
          // Coordinates not in our map; maybe the writer hasn't finished
          // writing it?
@@ -508,17 +562,28 @@ public final class MultipageTiffReader {
          ReportingUtils.logError("Attempted to read image on FileChannel that is null");
          return null;
       }
+      try {
+         getMappedFile();
+      } catch (IOException ioe) {
+         // Not fatal; keep reading through the FileChannel
+         ReportingUtils.logError(ioe, "Failed to memory map " + file_);
+         useMemoryMapping_ = false;
+      }
 
       IFDData data = readIFD(byteOffset);
       return (DefaultImage) readImage(data);
    }
 
    private Image readImage(IFDData data) throws IOException {
-      ByteBuffer pixelBuffer = getLargeBuffer((int) data.bytesPerImage, byteOrder_);
-      pixelBuffer.rewind();
-      ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
-      fileChannel_.read(pixelBuffer, data.pixelOffset);
-      fileChannel_.read(mdBuffer, data.mdOffset);
+      // When memory mapped, pixels are handed to the image without copying
+      ByteBuffer mappedPixels = getMappedRegion(data.pixelOffset, (int) data.bytesPerImage);
+      ByteBuffer pixelBuffer = mappedPixels;
+      if (pixelBuffer == null) {
+         pixelBuffer = getLargeBuffer((int) data.bytesPerImage, byteOrder_);
+         pixelBuffer.rewind();
+         fileChannel_.read(pixelBuffer, data.pixelOffset);
+      }
+      ByteBuffer mdBuffer = readIntoBuffer(data.mdOffset, (int) data.mdLength);
 
       String mdJSON = getString(mdBuffer);
       String tmp = mdJSON.substring(mdJSON.length() - 3);
@@ -583,6 +648,10 @@ public final class MultipageTiffReader {
          Image img = null;
          switch (pixelType) {
             case GRAY8: {
+               if (mappedPixels != null) {
+                  img = new DefaultImage(mappedPixels, formatPmap, coords, metadata);
+                  break;
+               }
                // make a copy of the array so that ByteBuffer can be recycled
                Object pixels;
                if (pixelBuffer.hasArray()) {
@@ -598,6 +667,11 @@ public final class MultipageTiffReader {
                break;
             }
             case GRAY16: {
+               if (mappedPixels != null) {
+                  img = new DefaultImage(mappedPixels.asShortBuffer(), formatPmap,
+                        coords, metadata);
+                  break;
+               }
                short[] pixels16 = new short[pixelBuffer.capacity() / 2];
                for (int i = 0; i < pixels16.length; i++) {
                   pixels16[i] = pixelBuffer.getShort(i * 2);
@@ -608,7 +682,9 @@ public final class MultipageTiffReader {
             case RGB32: {
                byte[] pixelsARGB = new byte[(int) (4 * data.bytesPerImage / 3)];
                int i = 0;
-               for (byte b : pixelBuffer.array()) {
+               // Do not use array(): the buffer may be direct or memory mapped
+               for (int j = 0; j < pixelBuffer.capacity(); j++) {
+                  byte b = pixelBuffer.get(j);
                   // need to swap byte 0 and 2: saved order is RGBA, but we want BGRA
                   if (i % 4 == 0) {
                      pixelsARGB[i + 2] = b;
@@ -629,7 +705,9 @@ public final class MultipageTiffReader {
             default:
                throw new IOException("Unknown pixel type: " + pixelType.name());
          }
-         tryRecycleLargeBuffer(pixelBuffer);
+         if (mappedPixels == null) {
+            tryRecycleLargeBuffer(pixelBuffer);
+         }
          return img;
       } catch (IllegalStateException ise) {
 
@@ -698,7 +776,13 @@ public final class MultipageTiffReader {
     *
     * @throws IOException Accessing disk can cause these
     */
-   void pause() throws IOException {
+   synchronized void pause() throws IOException {
+      // Drop our references to the mapped segments. The memory is unmapped
+      // once the images still holding regions of it are garbage collected.
+      if (mappedFile_ != null) {
+         mappedFile_.release();
+         mappedFile_ = null;
+      }
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
@@ -57,6 +57,7 @@ import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DisplaySettings;
+import org.micromanager.display.internal.DefaultChannelDisplaySettings;
 import org.micromanager.display.internal.DefaultDisplaySettings;
 import org.micromanager.display.internal.RememberedDisplaySettings;
 import org.micromanager.internal.MMStudio;
@@ -107,6 +108,10 @@ public final class MultipageTiffWriter {
 
    public static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
 
+   // Number of index map entries (20 bytes each) collected before they are
+   // written to disk, when index map writes are batched.
+   private static final int INDEX_MAP_BATCH_ENTRIES = 1024;
+
    private StorageMultipageTiff masterStorage_;
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
@@ -116,6 +121,11 @@ public final class MultipageTiffWriter {
    private long indexMapPosition_;
    // mark position of first entry so that number of entries can be written at end
    private long indexMapFirstEntry_;
+   // When batching, index map entries not yet handed to the writing thread,
+   // and the file position of the first of those entries
+   private final boolean batchIndexMap_;
+   private ByteBuffer indexMapBatch_;
+   private long indexMapBatchPosition_;
    private int bufferPosition_;
    private final int numChannels_;
    private int numSlices_;
@@ -146,12 +156,14 @@ public final class MultipageTiffWriter {
     * @param masterStorage Associated Storage instance
     * @param firstImage    image, needed to deduce certain metadata
     * @param filename      where to store the data
+    * @param writingExecutor single threaded executor doing all writes to this file
     * @throws IOException can happen when writing/reading to disk
     */
    public MultipageTiffWriter(
          final StorageMultipageTiff masterStorage,
          final Image firstImage,
-         final String filename)
+         final String filename,
+         final ThreadPoolExecutor writingExecutor)
          throws IOException {
       masterStorage_ = masterStorage;
 
@@ -228,7 +240,8 @@ public final class MultipageTiffWriter {
                "Insufficent space on disk: no room to write data");
       }
       fileChannel_ = raFile_.getChannel();
-      writingExecutor_ = masterStorage_.getWritingExecutor();
+      writingExecutor_ = writingExecutor;
+      batchIndexMap_ = masterStorage_.getBatchIndexMapWrites();
       coordsToOffset_ = new HashMap<>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -427,6 +440,7 @@ public final class MultipageTiffWriter {
     * @throws IOException can happen when writing to disk
     */
    public void finish() throws IOException {
+      flushIndexMapBatch();
       writeNullOffsetAfterLastImage();
       // go back to the index map header and change the number of entries from
       // the max value allotted early to the actual number written The
@@ -457,6 +471,7 @@ public final class MultipageTiffWriter {
     * @throws java.io.IOException can happen.
     */
    public void close(String omeXML, String ijDescriptionString) throws IOException {
+      flushIndexMapBatch();
       String summaryComment = CommentsHelper.getSummaryComment(
             masterStorage_.getDatastore());
       writeImageJMetadata(numChannels_, summaryComment);
@@ -568,23 +583,8 @@ public final class MultipageTiffWriter {
     * @throws IOException can happen
     */
    public void writeImage(Image img) throws IOException {
-      if (writingExecutor_ != null) {
-         int queueSize = writingExecutor_.getQueue().size();
-         int attemptCount = 0;
-         while (queueSize > 20) {
-            if (attemptCount == 0) {
-               ReportingUtils.logMessage("Warning: writing queue behind by "
-                     + queueSize + " images.");
-            }
-            ++attemptCount;
-            try {
-               Thread.sleep(5);
-               queueSize = writingExecutor_.getQueue().size();
-            } catch (InterruptedException ex) {
-               ReportingUtils.logError(ex);
-            }
-         }
-      }
+      // No need to check the queue here: the writing executor has a bounded
+      // queue, and will block us when the disk can not keep up.
       long offset = filePosition_;
       writeIFD(img);
       addToIndexMap(img.getCoords(), offset);
@@ -595,11 +595,23 @@ public final class MultipageTiffWriter {
       // If a duplicate key is received, forget about the previous one
       // this allows overwriting of images without loss of data
       coordsToOffset_.put(coords, offset);
-      ByteBuffer buffer = allocateByteBuffer(20);
-      int bufOffset = 0;
+      ByteBuffer buffer;
+      int bufOffset;
+      if (batchIndexMap_) {
+         if (indexMapBatch_ == null) {
+            indexMapBatch_ = ByteBuffer.allocateDirect(20 * INDEX_MAP_BATCH_ENTRIES)
+                  .order(BYTE_ORDER);
+            indexMapBatchPosition_ = indexMapPosition_;
+         }
+         buffer = indexMapBatch_;
+         bufOffset = indexMapBatch_.position();
+      } else {
+         buffer = allocateByteBuffer(20);
+         bufOffset = 0;
+      }
       for (String axis : MultipageTiffReader.ALLOWED_AXES) {
-         buffer.putInt(4 * bufOffset, coords.getIndex(axis));
-         bufOffset++;
+         buffer.putInt(bufOffset, coords.getIndex(axis));
+         bufOffset += 4;
       }
       // TODO: this probably doesn't help our performance any, but I want
       // the extra logging just in case.
@@ -610,9 +622,33 @@ public final class MultipageTiffWriter {
          }
       }
 
-      buffer.putInt(16, new Long(offset).intValue());
-      fileChannelWrite(buffer, indexMapPosition_);
+      buffer.putInt(bufOffset, new Long(offset).intValue());
+      if (batchIndexMap_) {
+         indexMapBatch_.position(bufOffset + 4);
+      } else {
+         fileChannelWrite(buffer, indexMapPosition_);
+      }
       indexMapPosition_ += 20;
+      if (batchIndexMap_ && !indexMapBatch_.hasRemaining()) {
+         flushIndexMapBatch();
+      }
+   }
+
+   /**
+    * Hands the index map entries collected so far to the writing thread as
+    * a single write.  Entries are contiguous in the file, so one positional
+    * write covers all of them.  The reader uses our in-memory index map while
+    * we are writing, so postponing these writes does not affect reading.
+    */
+   private void flushIndexMapBatch() {
+      if (indexMapBatch_ == null || indexMapBatch_.position() == 0) {
+         return;
+      }
+      ByteBuffer batch = indexMapBatch_;
+      batch.flip();
+      // The buffer now belongs to the writing thread; start a new one next time
+      indexMapBatch_ = null;
+      fileChannelWrite(batch, indexMapBatchPosition_);
    }
 
    private void writeBuffers() throws IOException {
@@ -809,6 +845,20 @@ public final class MultipageTiffWriter {
     * writes channel LUTs and display ranges for composite mode. Could also be
     * expanded to write ROIs, file info, slice labels, and overlays.
     */
+   /**
+    * Returns the display settings last used for the channel, or defaults when
+    * running without the GUI (and thus without a user profile).
+    */
+   private static ChannelDisplaySettings rememberedChannel(String channelGroup,
+                                                           String channelName) {
+      MMStudio studio = MMStudio.getInstance();
+      if (studio == null) {
+         return DefaultChannelDisplaySettings.builder().groupName(channelGroup)
+               .name(channelName).component(1).build();
+      }
+      return RememberedDisplaySettings.loadChannel(studio, channelGroup, channelName, null);
+   }
+
    private void writeImageJMetadata(int numChannels, String summaryComment) {
       String infoString = masterStorage_.getSummaryMetadataString();
       if (summaryComment != null && summaryComment.length() > 0) {
@@ -904,8 +954,7 @@ public final class MultipageTiffWriter {
       if (ds == null) {
          for (int ch = 0; ch < numChannels; ch++) {
             String name = summary.getSafeChannelName(ch);
-            ChannelDisplaySettings cds = RememberedDisplaySettings.loadChannel(
-                  MMStudio.getInstance(), channelGroup, name, null);
+            ChannelDisplaySettings cds = rememberedChannel(channelGroup, name);
             // Display Ranges: For each channel, write min then max
             // TODO: doesn't handle multi-component images.
             mdBuffer.putDouble(bufferPosition, (double)
@@ -932,8 +981,7 @@ public final class MultipageTiffWriter {
          Color color;
          if (ds == null) {
             String name = summary.getSafeChannelName(ch);
-            color = RememberedDisplaySettings.loadChannel(
-                  MMStudio.getInstance(), channelGroup, name, null).getColor();
+            color = rememberedChannel(channelGroup, name).getColor();
          } else {
             color = ds.getChannelColor(ch);
          }
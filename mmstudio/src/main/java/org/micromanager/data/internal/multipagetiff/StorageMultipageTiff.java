@@ -40,9 +40,7 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import org.micromanager.data.Coords;
@@ -64,7 +62,6 @@ import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.MMException;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
-import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 
 /**
@@ -79,6 +76,15 @@ public final class StorageMultipageTiff implements Storage {
          "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS =
          "generate a separate multipage TIFF file for each stage position";
+   private static final String SHOULD_BATCH_INDEX_MAP_WRITES =
+         "batch index map entries when saving multipage TIFF files";
+   private static final String SHOULD_MEMORY_MAP_FILES =
+         "memory map multipage TIFF files when reading saved datasets";
+   private static final String NUM_WRITING_THREADS =
+         "number of threads writing multipage TIFF files";
+   // Maximum number of pending writing tasks per writing thread before
+   // putImage() blocks
+   private static final int WRITING_QUEUE_CAPACITY = 64;
    private static final HashSet<String> ALLOWED_AXES = new HashSet<>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
                Coords.STAGE_POSITION));
@@ -93,11 +99,15 @@ public final class StorageMultipageTiff implements Storage {
    private final String directory_;
    private final boolean separateMetadataFile_;
    private boolean splitByXYPosition_ = true;
+   private final boolean batchIndexMapWrites_;
+   private final boolean useMemoryMapping_;
    private volatile boolean finished_ = false;
    private OMEMetadata omeMetadata_;
    private int lastFrame_ = 0;
    private int lastAcquiredPosition_ = 0;
-   private ThreadPoolExecutor writingExecutor_;
+   // Writing threads; each FileSet is written by one of them
+   private WritingLanes writingLanes_;
+   private int numWritingThreads_ = 1;
    private Image firstImage_;
 
    // Images that are currently being written. We keep them around until
@@ -112,7 +122,10 @@ public final class StorageMultipageTiff implements Storage {
 
    // Map of image Coords to files
    private Map<Coords, MultipageTiffReader> coordsToReader_;
+   // Reader used last by getImage(), which may be called from several
+   // threads; guarded by readerLock_
    private MultipageTiffReader lastReader_;
+   private final Object readerLock_ = new Object();
    private Map<Coords, List<Coords>> coordsIndexedMissingC_;
    // Cache the axes that are in use
    private final Set<String> axesInUse_;
@@ -124,7 +137,9 @@ public final class StorageMultipageTiff implements Storage {
                                Boolean amInWriteMode)
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
-            getShouldSplitPositions());
+            getShouldSplitPositions(), getShouldBatchIndexMapWrites(),
+            getShouldMemoryMapFiles());
+      numWritingThreads_ = getNumWritingThreadsSetting();
    }
 
    /**
@@ -144,6 +159,34 @@ public final class StorageMultipageTiff implements Storage {
    public StorageMultipageTiff(Component parent, Datastore store, String dir,
                                boolean amInWriteMode, boolean separateMDFile,
                                boolean separateFilesForPositions) throws IOException {
+      this(parent, store, dir, amInWriteMode, separateMDFile,
+            separateFilesForPositions, false, false);
+   }
+
+   /**
+    * Constructor that doesn't make reference to MMStudio so it can be used
+    * independently of MM GUI.
+    *
+    * @param parent                    GUI element on top of which a ProgressBar
+    *                                  (or other things) can be displayed
+    * @param store                     Datastore to be saved
+    * @param dir                       Directory in which to store the data
+    * @param amInWriteMode             whether or not we are also writing data
+    * @param separateMDFile            Whether or not to write a separate file with the MM metadata
+    * @param separateFilesForPositions If true, will store positions in separate files,
+    *                                  otherwise all data will go into a single file
+    * @param batchIndexMapWrites       If true, index map entries are collected in
+    *                                  memory and written in large chunks, rather than
+    *                                  with a separate small write for every image
+    * @param useMemoryMapping          If true, files of existing datasets are memory
+    *                                  mapped, and pixels are read without copying
+    * @throws java.io.IOException can happen
+    */
+   public StorageMultipageTiff(Component parent, Datastore store, String dir,
+                               boolean amInWriteMode, boolean separateMDFile,
+                               boolean separateFilesForPositions,
+                               boolean batchIndexMapWrites,
+                               boolean useMemoryMapping) throws IOException {
       store_ = (DefaultDatastore) store;
       parent_ = parent;
       // We must be notified of changes in the Datastore before everyone else,
@@ -151,6 +194,8 @@ public final class StorageMultipageTiff implements Storage {
       store_.registerForEvents(this, 0);
       separateMetadataFile_ = separateMDFile;
       splitByXYPosition_ = separateFilesForPositions;
+      batchIndexMapWrites_ = batchIndexMapWrites;
+      useMemoryMapping_ = useMemoryMapping;
 
       amInWriteMode_ = amInWriteMode;
       directory_ = dir;
@@ -192,8 +237,54 @@ public final class StorageMultipageTiff implements Storage {
       }
    }
 
-   public ThreadPoolExecutor getWritingExecutor() {
-      return writingExecutor_;
+   /**
+    * Sets the number of threads used to write files.  Images for different
+    * stage positions can be written concurrently when these are saved to
+    * separate files; writes to the same file always happen in order.
+    * Must be called before the first image is written.
+    *
+    * @param numThreads Number of writing threads, at least 1
+    */
+   public void setNumWritingThreads(int numThreads) {
+      if (writingLanes_ != null) {
+         throw new IllegalStateException(
+               "Number of writing threads can not be changed once writing has started");
+      }
+      numWritingThreads_ = Math.max(1, numThreads);
+   }
+
+   /**
+    * Provides the number of writing tasks waiting for each writing thread.
+    * Useful to monitor whether the disk keeps up with the acquisition.
+    *
+    * @return Queue depth for each writing thread, empty when not writing
+    */
+   public int[] getWritingQueueDepths() {
+      if (writingLanes_ == null) {
+         return new int[0];
+      }
+      return writingLanes_.getQueueDepths();
+   }
+
+   /**
+    * Whether our writers should collect index map entries in memory and
+    * write them in large chunks.
+    *
+    * @return true when index map writes are batched
+    */
+   public boolean getBatchIndexMapWrites() {
+      return batchIndexMapWrites_;
+   }
+
+   /**
+    * Whether readers of completely written files should memory map them.
+    * Files that are still being written are always read through their
+    * FileChannel.
+    *
+    * @return true when memory mapping is used for reading
+    */
+   public boolean getUseMemoryMapping() {
+      return useMemoryMapping_;
    }
 
    /**
@@ -369,9 +460,9 @@ public final class StorageMultipageTiff implements Storage {
 
    private void writeImage(DefaultImage image, boolean waitForWritingToFinish)
          throws MMException, InterruptedException, ExecutionException, IOException {
-      writeImage(image);
+      ThreadPoolExecutor lane = writeImage(image);
       if (waitForWritingToFinish) {
-         Future<?> f = writingExecutor_.submit(() -> {
+         Future<?> f = lane.submit(() -> {
          });
          f.get();
       }
@@ -384,8 +475,10 @@ public final class StorageMultipageTiff implements Storage {
     * MultipageTiffReader.readImage() returning a coherent (i.e.
     * finished-writing) image if our getImage() method is called before writing
     * is completed.
+    *
+    * @return the executor that is writing the image
     */
-   private void writeImage(DefaultImage image) throws MMException, IOException {
+   private ThreadPoolExecutor writeImage(DefaultImage image) throws MMException, IOException {
       if (!amInWriteMode_) {
          ReportingUtils.showError("Tried to write image to a finished data set");
          throw new MMException("This ImageFileManager is read-only.");
@@ -396,20 +489,25 @@ public final class StorageMultipageTiff implements Storage {
          coordsToPendingImage_.put(coords, image);
       }
 
-      startWritingTask(image);
+      ThreadPoolExecutor lane = startWritingTask(image);
 
-      writingExecutor_.submit(() -> {
+      // Runs after the image has been written, since lanes execute in order
+      lane.submit(() -> {
          synchronized (coordsToPendingImage_) {
             coordsToPendingImage_.remove(coords);
          }
       });
+      return lane;
    }
 
    /**
     * This method handles starting the process of writing images (which means
-    * that it ultimately submits a task to writingExecutor_).
+    * that it ultimately submits a task to the writing lane of a FileSet).
+    *
+    * @return the executor of the FileSet that the image is written to
     */
-   private void startWritingTask(DefaultImage image) throws MMException, IOException {
+   private ThreadPoolExecutor startWritingTask(DefaultImage image)
+         throws MMException, IOException {
       // Update maxIndices_
       if (maxIndices_ == null) {
          maxIndices_ = image.getCoords().copyBuilder().build();
@@ -422,12 +520,13 @@ public final class StorageMultipageTiff implements Storage {
          }
       }
 
-      // initialize writing executor
-      if (writingExecutor_ == null) {
-         writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
-               TimeUnit.NANOSECONDS,
-               new LinkedBlockingQueue<>(),
-               ThreadFactoryFactory.createThreadFactory("StorageMultiPageTiff"));
+      // initialize writing threads.  Queues are bounded, so that we block
+      // (rather than run out of memory) when the disk can not keep up.
+      // Without splitting by position there is only one file at a time,
+      // so extra threads would not be used.
+      if (writingLanes_ == null) {
+         writingLanes_ = new WritingLanes(splitByXYPosition_ ? numWritingThreads_ : 1,
+               WRITING_QUEUE_CAPACITY, "StorageMultiPageTiff");
       }
       int fileSetIndex = 0;
       if (splitByXYPosition_) {
@@ -445,7 +544,8 @@ public final class StorageMultipageTiff implements Storage {
       if (!positionToFileSet_.containsKey(fileSetIndex)) {
          positionToFileSet_.put(fileSetIndex,
                new FileSet(image, this, omeMetadata_,
-                     splitByXYPosition_, separateMetadataFile_));
+                     splitByXYPosition_, separateMetadataFile_,
+                     writingLanes_.assignLane()));
       }
       FileSet set = positionToFileSet_.get(fileSetIndex);
 
@@ -459,7 +559,7 @@ public final class StorageMultipageTiff implements Storage {
 
       int frame = image.getCoords().getTimePoint();
       lastFrameOpenedDataSet_ = Math.max(frame, lastFrameOpenedDataSet_);
-
+      return set.getWritingExecutor();
    }
 
    public Set<Coords> imageKeys() {
@@ -556,20 +656,8 @@ public final class StorageMultipageTiff implements Storage {
          // writing so that no attempt is made to close the dataset (and thus
          // the FileChannel) before everything has finished writing make sure
          // all images have finished writing if they are on separate thread
-         if (writingExecutor_ != null && !writingExecutor_.isShutdown()) {
-            writingExecutor_.shutdown();
-            try {
-               // Wait for tasks to finish.
-               int i = 0;
-               while (!writingExecutor_.awaitTermination(4, TimeUnit.SECONDS)) {
-                  ReportingUtils.logMessage(
-                        "Waiting for image stack to finish writing (" + i + ")...");
-                  i++;
-               }
-            } catch (InterruptedException e) {
-               ReportingUtils.logError("File finishing thread interrupted");
-               Thread.interrupted();
-            }
+         if (writingLanes_ != null && !writingLanes_.isShutdown()) {
+            writingLanes_.shutdownAndWait();
          }
       } catch (IOException ex) {
          ReportingUtils.logError(ex);
@@ -726,10 +814,14 @@ public final class StorageMultipageTiff implements Storage {
     * were used.
     *
     * @return DisplaySettings of a DataViewer that used this store for data, or
-    *         null when no such DataViewer was found.
+    *         null when no such DataViewer was found (or when running without
+    *         the GUI, e.g. in benchmarks or scripts).
     */
    DisplaySettings getDisplaySettings() {
       MMStudio studio = MMStudio.getInstance();
+      if (studio == null) {
+         return null;
+      }
       DataViewer activeDataViewer = studio.displays().getActiveDataViewer();
       try {
          if (activeDataViewer != null && isViewingOurStore(activeDataViewer)) {
@@ -942,7 +1034,7 @@ public final class StorageMultipageTiff implements Storage {
       HashSet<Image> result = new HashSet<>();
       synchronized (coordsToPendingImage_) {
          for (Coords imageCoords : coordsToPendingImage_.keySet()) {
-            if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
+            if (DefaultCoords.matchesRemovingAxes(coords, imageCoords, ignoreTheseAxes)) {
                result.add(coordsToPendingImage_.get(imageCoords));
             }
          }
@@ -977,7 +1069,7 @@ public final class StorageMultipageTiff implements Storage {
             // of a lock that could slow down insertions
             try {
                for (Coords imageCoords : coordsToReader_.keySet()) {
-                  if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
+                  if (DefaultCoords.matchesRemovingAxes(coords, imageCoords, ignoreTheseAxes)) {
                      try {
                         result.add(coordsToReader_.get(imageCoords).readImage(imageCoords));
                      } catch (IOException ex) {
@@ -1007,11 +1099,15 @@ public final class StorageMultipageTiff implements Storage {
       }
       try {
          MultipageTiffReader mptReader = coordsToReader_.get(coords);
-         if (!amInWriteMode_ && lastReader_ != null && mptReader != lastReader_) {
-            // this could be optional.  Not doing it can result in large memory leaks.
-            lastReader_.pause();
+         synchronized (readerLock_) {
+            if (!amInWriteMode_ && lastReader_ != null && mptReader != lastReader_) {
+               // this could be optional.  Not doing it can result in large memory leaks.
+               // Waits for reads of that file on other threads to complete; a
+               // later read reopens it.
+               lastReader_.pause();
+            }
+            lastReader_ = mptReader;
          }
-         lastReader_ = mptReader;
          return mptReader.readImage(coords);
       } catch (IOException ex) {
          ReportingUtils.logError(ex, "Failed to read image at " + coords);
@@ -1081,4 +1177,34 @@ public final class StorageMultipageTiff implements Storage {
       MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
             .putBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, shouldSplit);
    }
+
+   public static boolean getShouldBatchIndexMapWrites() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getBoolean(SHOULD_BATCH_INDEX_MAP_WRITES, false);
+   }
+
+   public static void setShouldBatchIndexMapWrites(boolean shouldBatch) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putBoolean(SHOULD_BATCH_INDEX_MAP_WRITES, shouldBatch);
+   }
+
+   public static int getNumWritingThreadsSetting() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getInteger(NUM_WRITING_THREADS, 1);
+   }
+
+   public static void setNumWritingThreadsSetting(int numThreads) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putInteger(NUM_WRITING_THREADS, numThreads);
+   }
+
+   public static boolean getShouldMemoryMapFiles() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getBoolean(SHOULD_MEMORY_MAP_FILES, false);
+   }
+
+   public static void setShouldMemoryMapFiles(boolean shouldMap) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putBoolean(SHOULD_MEMORY_MAP_FILES, shouldMap);
+   }
 }
@@ -0,0 +1,118 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2012-2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Pool of writing threads ("lanes") used by StorageMultipageTiff.
+ *
+ * <p>Each lane is a single threaded executor, so tasks submitted to the same
+ * lane are executed in order.  Every FileSet is assigned to one lane for its
+ * whole life, which preserves the order of writes within each file, while
+ * files on different lanes (e.g., different stage positions) are written
+ * concurrently.  With a single lane, this behaves exactly like a single
+ * writing thread.
+ */
+final class WritingLanes {
+   private final List<ThreadPoolExecutor> lanes_;
+   private int nextLane_ = 0;
+
+   /**
+    * Creates the lanes.  Threads are started when work is submitted.
+    *
+    * @param numLanes      Number of concurrent writing threads, at least 1
+    * @param queueCapacity Maximum number of pending tasks per lane, after which
+    *                      submitting threads block
+    * @param name          Used to name threads and in log messages
+    */
+   WritingLanes(int numLanes, int queueCapacity, String name) {
+      int n = Math.max(1, numLanes);
+      lanes_ = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+         String laneName = n == 1 ? name : name + " lane " + i;
+         lanes_.add(new ThreadPoolExecutor(1, 1, 0,
+               TimeUnit.NANOSECONDS,
+               new LinkedBlockingQueue<>(queueCapacity),
+               ThreadFactoryFactory.createThreadFactory(laneName),
+               new BlockingWriteHandler(laneName)));
+      }
+   }
+
+   /**
+    * Assigns a lane to a new FileSet.  Lanes are handed out round robin.
+    *
+    * @return executor that should be used for all writes to the FileSet
+    */
+   synchronized ThreadPoolExecutor assignLane() {
+      ThreadPoolExecutor lane = lanes_.get(nextLane_);
+      nextLane_ = (nextLane_ + 1) % lanes_.size();
+      return lane;
+   }
+
+   int getNumLanes() {
+      return lanes_.size();
+   }
+
+   /**
+    * Number of pending tasks for each lane, for monitoring.
+    *
+    * @return queue depth of each lane
+    */
+   int[] getQueueDepths() {
+      int[] depths = new int[lanes_.size()];
+      for (int i = 0; i < depths.length; i++) {
+         depths[i] = lanes_.get(i).getQueue().size();
+      }
+      return depths;
+   }
+
+   /**
+    * Shuts down all lanes, and waits until all pending writes are done.
+    */
+   void shutdownAndWait() {
+      for (ThreadPoolExecutor lane : lanes_) {
+         lane.shutdown();
+      }
+      try {
+         for (ThreadPoolExecutor lane : lanes_) {
+            int i = 0;
+            while (!lane.awaitTermination(4, TimeUnit.SECONDS)) {
+               ReportingUtils.logMessage(
+                     "Waiting for image stack to finish writing (" + i + ")...");
+               i++;
+            }
+         }
+      } catch (InterruptedException e) {
+         ReportingUtils.logError("File finishing thread interrupted");
+         Thread.interrupted();
+      }
+   }
+
+   boolean isShutdown() {
+      return lanes_.get(0).isShutdown();
+   }
+}
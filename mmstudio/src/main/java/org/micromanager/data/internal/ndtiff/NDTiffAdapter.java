@@ -1,8 +1,6 @@
 package org.micromanager.data.internal.ndtiff;
 
 import com.google.common.eventbus.Subscribe;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -24,12 +22,14 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.ImageSizeChecker;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.internal.propertymap.JSONObjectToGson;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.ndtiffstorage.EssentialImageMetadata;
@@ -286,7 +286,7 @@ public class NDTiffAdapter implements Storage {
          final List<Image> result = new ArrayList<>();
          getUnorderedImageCoords().iterator().forEachRemaining(
                coords1 -> {
-                  if (coords1.copyRemovingAxes(ignoreTheseAxes).equals(matchCoord)) {
+                  if (DefaultCoords.matchesRemovingAxes(matchCoord, coords1, ignoreTheseAxes)) {
                      try {
                         result.add(getImage(coords1));
                      } catch (IOException e) {
@@ -398,15 +398,8 @@ public class NDTiffAdapter implements Storage {
    }
 
    private Metadata studioMetadataFromJSON(JSONObject tags) {
-      JsonElement je;
-      try {
-         je = new JsonParser().parse(tags.toString());
-      } catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags",
-                 unlikely);
-      }
       return DefaultMetadata.fromPropertyMap(
-              NonPropertyMapJSONFormats.metadata().fromGson(je));
+              NonPropertyMapJSONFormats.metadata().fromGson(JSONObjectToGson.convert(tags)));
    }
 }
 
@@ -20,45 +20,145 @@
 
 package org.micromanager.data.internal.pipeline;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.PipelineStageOptions;
 import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
+/**
+ * Context that runs its Processor on its own thread(s), decoupled from the
+ * upstream stage by a bounded queue.
+ *
+ * <p>By default, a single thread processes images in order. Processors that
+ * implement PipelineStageOptions can ask for a deeper input queue and, when
+ * stateless, for multiple workers. In the latter case every input gets a
+ * sequence number, and the images output by the workers are held back until
+ * all earlier inputs have been processed, so that the next stage sees them
+ * in the original order.
+ */
 public final class AsynchronousContext extends BaseContext {
-   private boolean isFlushed_ = false;
-   private LinkedBlockingQueue<ImageWrapper> inputQueue_ = null;
+   private static final String DEFAULT_QUEUE_DEPTH =
+         "number of images queued in front of each asynchronous processor";
+   private static final int FALLBACK_QUEUE_DEPTH = 1;
 
+   private final String name_;
+   private final int queueDepth_;
+   private final int numWorkers_;
+   private final LinkedBlockingQueue<SequencedImage> inputQueue_;
+   private final PerformanceMonitor perfMon_;
+   private volatile boolean isFlushed_ = false;
+
+   private final Object insertLock_ = new Object();
+   private long nextInputSequence_ = 0; // Guarded by insertLock_
+
+   // Worker results waiting for earlier inputs; guarded by itself
+   private final Map<Long, SequencedImage> reorderBuffer_ = new HashMap<>();
+   private long nextOutputSequence_ = 0; // Guarded by reorderBuffer_
+
+   /**
+    * An input image along with its position in the input order and, once
+    * processed by a parallel worker, the images the processor output for it.
+    */
+   private static final class SequencedImage {
+      private final long sequence_;
+      private final ImageWrapper wrapper_;
+      private List<Image> outputs_;
+
+      private SequencedImage(long sequence, ImageWrapper wrapper) {
+         sequence_ = sequence;
+         wrapper_ = wrapper;
+      }
+   }
+
+   /**
+    * Collects the images output by a parallel worker, so that they can be
+    * passed on in order.
+    */
+   private final class WorkerContext implements ProcessorContext {
+      private List<Image> outputs_;
+
+      @Override
+      public void outputImage(Image image) {
+         outputs_.add(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return AsynchronousContext.this.getSummaryMetadata();
+      }
+   }
+
+   /**
+    * Constructor.
+    *
+    * @param processor         the Processor to run
+    * @param store             Datastore the pipeline ends in
+    * @param parent            the pipeline this context belongs to
+    * @param perfMon           PerformanceMonitor shared by the stages of the
+    *                          pipeline
+    * @param name              name of the stage, used in performance statistics
+    * @param defaultQueueDepth queue depth for Processors that do not ask for
+    *                          one through PipelineStageOptions
+    */
    public AsynchronousContext(Processor processor,
-                              Datastore store, DefaultPipeline parent) {
+                              Datastore store, DefaultPipeline parent,
+                              PerformanceMonitor perfMon, String name,
+                              int defaultQueueDepth) {
       super(processor, store, parent);
-      inputQueue_ = new LinkedBlockingQueue<ImageWrapper>(1);
-      // Create a new thread to do processing in.
-      new Thread(new Runnable() {
-         @Override
-         public void run() {
-            monitorQueue();
+      name_ = name;
+      perfMon_ = perfMon;
+      int queueDepth = 0;
+      int numWorkers = 1;
+      if (processor instanceof PipelineStageOptions) {
+         queueDepth = ((PipelineStageOptions) processor).getInputQueueDepth();
+         numWorkers = ((PipelineStageOptions) processor).getNumberOfWorkers();
+      }
+      queueDepth_ = queueDepth > 0 ? queueDepth : Math.max(1, defaultQueueDepth);
+      numWorkers_ = Math.max(1, numWorkers);
+      inputQueue_ = new LinkedBlockingQueue<>(queueDepth_);
+      // Create new threads to do processing in.
+      for (int i = 0; i < numWorkers_; ++i) {
+         String threadName = "Processor context for " + processor_;
+         if (numWorkers_ > 1) {
+            threadName += " (worker " + i + ")";
          }
-      }, "Processor context for " + processor_).start();
+         new Thread(new Runnable() {
+            @Override
+            public void run() {
+               monitorQueue();
+            }
+         }, threadName).start();
+      }
    }
 
    /**
-    * This method runs in a separate thread, and pulls images from the
+    * This method runs in separate thread(s), and pulls images from the
     * input queue, to feed into the processor. It only runs when the pipeline
     * is in asynchronous mode; in synchronous mode, the processor is invoked
     * directly by insertImage().
     */
    private void monitorQueue() {
+      WorkerContext workerContext = numWorkers_ > 1 ? new WorkerContext() : null;
       while (true) {
-         ImageWrapper wrapper = null;
+         SequencedImage item = null;
          try {
-            wrapper = inputQueue_.poll(1000, TimeUnit.MILLISECONDS);
+            item = inputQueue_.poll(1000, TimeUnit.MILLISECONDS);
          } catch (InterruptedException e) {
             // Ignore it.
             Thread.currentThread().interrupt();
          }
-         if (wrapper == null) {
+         if (item == null) {
             // Queue is empty.
             if (isFlushed_) {
                // All done.
@@ -68,28 +168,77 @@ public final class AsynchronousContext extends BaseContext {
                continue;
             }
          }
-         if (wrapper.getImage() == null) {
-            // Flushing the queue; cleanup the processor and pass the empty
-            // wrapper along.
-            processor_.cleanup(this);
-            if (sink_ != null) {
-               sink_.insertImage(wrapper);
-            }
-            isFlushed_ = true;
-            if (flushLatch_ != null) {
-               flushLatch_.countDown();
+         if (item.wrapper_.getImage() == null) {
+            // Flushing the queue; with multiple workers, only once all
+            // earlier images have been passed on.
+            if (workerContext == null) {
+               flush(item.wrapper_);
+            } else {
+               release(item);
             }
+            continue;
+         }
+         // Non-null image: process it.
+         isFlushed_ = false;
+         if (workerContext == null) {
+            process(item.wrapper_.getImage(), this);
          } else {
-            // Non-null image: process it.
-            isFlushed_ = false;
-            try {
-               processor_.processImage(wrapper.getImage(), this);
-            } catch (Exception e) {
-               ReportingUtils.logError(e, "Processor failed to process image");
-               // Pass the exception to our parent.
-               parent_.exceptionOccurred(e);
+            workerContext.outputs_ = new ArrayList<>(1);
+            process(item.wrapper_.getImage(), workerContext);
+            item.outputs_ = workerContext.outputs_;
+            release(item);
+         }
+      }
+   }
+
+   private void process(Image image, ProcessorContext context) {
+      long startNs = System.nanoTime();
+      try {
+         processor_.processImage(image, context);
+      } catch (Exception e) {
+         ReportingUtils.logError(e, "Processor failed to process image");
+         // Pass the exception to our parent.
+         parent_.exceptionOccurred(e);
+      }
+      perfMon_.sample(name_ + " processing time (ms)",
+            (System.nanoTime() - startNs) / 1e6);
+   }
+
+   /**
+    * Passes on the results for the given input once all earlier inputs have
+    * been passed on. Results are passed on while holding the lock, so that
+    * the next stage receives them in order, and so that workers wait when
+    * the next stage can not keep up.
+    */
+   private void release(SequencedImage item) {
+      synchronized (reorderBuffer_) {
+         reorderBuffer_.put(item.sequence_, item);
+         SequencedImage next;
+         while ((next = reorderBuffer_.remove(nextOutputSequence_)) != null) {
+            ++nextOutputSequence_;
+            if (next.wrapper_.getImage() == null) {
+               flush(next.wrapper_);
+            } else {
+               for (Image image : next.outputs_) {
+                  outputImage(image);
+               }
             }
          }
+         perfMon_.sample(name_ + " images awaiting reordering", reorderBuffer_.size());
+      }
+   }
+
+   /**
+    * Cleanup the processor and pass the empty wrapper along.
+    */
+   private void flush(ImageWrapper wrapper) {
+      processor_.cleanup(this);
+      if (sink_ != null) {
+         sink_.insertImage(wrapper);
+      }
+      isFlushed_ = true;
+      if (flushLatch_ != null) {
+         flushLatch_.countDown();
       }
    }
 
@@ -98,10 +247,50 @@ public final class AsynchronousContext extends BaseContext {
     * flush the pipeline instead, passing the null along to the next context.
     */
    public void insertImage(ImageWrapper wrapper) {
-      try {
-         inputQueue_.put(wrapper);
-      } catch (InterruptedException e) {
-         ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+      synchronized (insertLock_) {
+         perfMon_.sample(name_ + " input queue occupancy (%)",
+               100.0 * inputQueue_.size() / queueDepth_);
+         SequencedImage item = new SequencedImage(nextInputSequence_++, wrapper);
+         try {
+            if (!inputQueue_.offer(item)) {
+               long startNs = System.nanoTime();
+               inputQueue_.put(item);
+               perfMon_.sample(name_ + " upstream blocked (ms)",
+                     (System.nanoTime() - startNs) / 1e6);
+            }
+         } catch (InterruptedException e) {
+            // Do not leave a gap in the sequence, or reordering would stall
+            --nextInputSequence_;
+            ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+         }
+      }
+   }
+
+   public int getQueueDepth() {
+      return queueDepth_;
+   }
+
+   public int getNumberOfWorkers() {
+      return numWorkers_;
+   }
+
+   /**
+    * Queue depth from the user profile, for Processors that do not ask for
+    * one.
+    *
+    * @return queue depth; 1 when there is no profile, e.g. when running
+    *     without the GUI
+    */
+   public static int getDefaultQueueDepth() {
+      if (MMStudio.getInstance() == null) {
+         return FALLBACK_QUEUE_DEPTH;
       }
+      return MMStudio.getInstance().profile().getSettings(AsynchronousContext.class)
+            .getInteger(DEFAULT_QUEUE_DEPTH, FALLBACK_QUEUE_DEPTH);
+   }
+
+   public static void setDefaultQueueDepth(int depth) {
+      MMStudio.getInstance().profile().getSettings(AsynchronousContext.class)
+            .putInteger(DEFAULT_QUEUE_DEPTH, depth);
    }
 }
@@ -32,6 +32,7 @@ import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 public final class DefaultPipeline implements Pipeline {
 
@@ -43,19 +44,46 @@ public final class DefaultPipeline implements Pipeline {
    private boolean amHalting_ = false;
    private boolean isHalted_ = false;
    private final ArrayList<Exception> exceptions_;
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+
+   /**
+    * Creates a pipeline with the queue depth from the user profile.
+    *
+    * @param processors    Processors, in order
+    * @param store         Datastore in which the pipeline ends
+    * @param isSynchronous whether Processors run on the inserting thread
+    */
+   public DefaultPipeline(List<Processor> processors, Datastore store,
+                          boolean isSynchronous) {
+      this(processors, store, isSynchronous, AsynchronousContext.getDefaultQueueDepth());
+   }
 
+   /**
+    * Creates a pipeline.
+    *
+    * @param processors        Processors, in order
+    * @param store             Datastore in which the pipeline ends
+    * @param isSynchronous     whether Processors run on the inserting thread
+    * @param defaultQueueDepth number of images queued in front of each
+    *                          asynchronous Processor that does not ask for
+    *                          its own queue depth
+    */
    @SuppressWarnings("LeakingThisInConstructor")
    public DefaultPipeline(List<Processor> processors, Datastore store,
-                          boolean isSynchronous) {
+                          boolean isSynchronous, int defaultQueueDepth) {
       processors_ = processors;
       store_ = store;
       contexts_ = new ArrayList<>();
       exceptions_ = new ArrayList<>();
-      for (Processor processor : processors_) {
+      for (int i = 0; i < processors_.size(); ++i) {
+         Processor processor = processors_.get(i);
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
          } else {
-            contexts_.add(new AsynchronousContext(processor, store_, this));
+            String stageName = "Stage " + i + " (" + processor.getClass().getSimpleName() + ")";
+            contexts_.add(new AsynchronousContext(processor, store_, this,
+                  perfMon_, stageName, defaultQueueDepth));
          }
       }
       // Chain the contexts together. The last one goes to the Datastore by
@@ -173,6 +201,16 @@ public final class DefaultPipeline implements Pipeline {
       return processors_;
    }
 
+   /**
+    * Statistics on queue occupancy and processing times of the stages of an
+    * asynchronous pipeline.
+    *
+    * @return performance monitor shared by all stages of this pipeline
+    */
+   public PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
    public void exceptionOccurred(Exception e) {
       exceptions_.add(e);
    }
@@ -54,6 +54,9 @@ public class IntensityInspectorPanelController
       extends AbstractInspectorPanelController {
    public static final String HISTOGRAM_UPDATE_FREQUENCY = "HistogramUpdateFrequency";
    public static final String COLOR_PALETTE = "ColorPalette";
+   public static final String APPROXIMATE_LIVE_STATS = "ApproximateLiveStats";
+   // Autostretch quantile error tolerated with approximate stats
+   private static final double APPROXIMATE_STATS_MAX_ERROR = 0.005;
    private static final String COLOR_BLIND_FRIENDLY = "Colorblind-friendly";
    private static final String RGBCMYW = "RGBCMYW";
    private static final String CUSTOM = "Custom";
@@ -104,6 +107,8 @@ public class IntensityInspectorPanelController
          new JCheckBoxMenuItem("Use ROI for Histograms and Autostretch");
    private final JCheckBoxMenuItem gearMenuIgnoreZerosItem_ =
          new JCheckBoxMenuItem("Ignore zero value pixels in Autostretch and Stats");
+   private final JCheckBoxMenuItem gearMenuApproximateStatsItem_ =
+         new JCheckBoxMenuItem("Approximate Autostretch While Histograms Hidden");
 
    private final JPanel generalControlPanel_ = new JPanel();
    private final JComboBox<ColorModeCell.Item> colorModeComboBox_ = new JComboBox<>();
@@ -220,6 +225,21 @@ public class IntensityInspectorPanelController
       gearMenuIgnoreZerosItem_.addActionListener((ActionEvent e) ->
             handleIgnoreZeros(gearMenuIgnoreZerosItem_.isSelected()));
 
+      gearMenu_.add(gearMenuApproximateStatsItem_);
+      gearMenuApproximateStatsItem_.setToolTipText("<html>During live mode and "
+            + "acquisitions, compute autostretch from a subset of the pixels<br>"
+            + "unless this panel is expanded. Exact statistics are computed "
+            + "when the display pauses.</html>");
+      gearMenuApproximateStatsItem_.setSelected(studio_.profile().getSettings(
+            IntensityInspectorPanelController.class).getBoolean(
+            APPROXIMATE_LIVE_STATS, false));
+      gearMenuApproximateStatsItem_.addActionListener((ActionEvent e) -> {
+         studio_.profile().getSettings(
+               IntensityInspectorPanelController.class).putBoolean(
+               APPROXIMATE_LIVE_STATS, gearMenuApproximateStatsItem_.isSelected());
+         handleApproximateStats();
+      });
+
    }
 
    private void setUpGeneralControlPanel() {
@@ -344,6 +364,17 @@ public class IntensityInspectorPanelController
       }
    }
 
+   private void handleApproximateStats() {
+      if (viewer_ instanceof DisplayController) {
+         DisplayController controller = (DisplayController) viewer_;
+         controller.setApproximateStatsMaxError(
+               gearMenuApproximateStatsItem_.isSelected()
+                     ? APPROXIMATE_STATS_MAX_ERROR : 0.0);
+         // Histograms are only shown while the panel is expanded
+         controller.setExactStatsRequested(expanded_);
+      }
+   }
+
    private void handleHistogramUseROI(boolean useROI) {
       DisplaySettings oldSettings;
       DisplaySettings newSettings;
@@ -526,6 +557,7 @@ public class IntensityInspectorPanelController
          if (histogramMenuMap_.get(updateRate) != null) {
             handleHistogramUpdateRate(histogramMenuMap_.get(updateRate));
          }
+         handleApproximateStats();
       });
    }
 
@@ -537,6 +569,9 @@ public class IntensityInspectorPanelController
       }
       viewer_.getDataProvider().unregisterForEvents(this);
       viewer_.unregisterForEvents(this);
+      if (viewer_ instanceof DisplayController) {
+         ((DisplayController) viewer_).setExactStatsRequested(false);
+      }
       setUpChannelHistogramsPanel(0);
       viewer_ = null;
    }
@@ -550,6 +585,7 @@ public class IntensityInspectorPanelController
    @Override
    public void setExpanded(boolean status) {
       expanded_ = status;
+      handleApproximateStats();
    }
 
    @Override
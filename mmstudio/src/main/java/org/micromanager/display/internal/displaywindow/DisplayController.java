@@ -103,7 +103,18 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
    private final Set<String> playbackAxes_ = new HashSet<>();
 
+   // Cache with read-ahead for disk-backed data; null otherwise. Set only
+   // upon creation.
+   private PlaneCache planeCache_;
+   // Previous position passed to handleDisplayPosition(), used to predict
+   // the next one
+   private Coords lastHandledPosition_;
+
    private final StatsComputeQueue computeQueue_ = StatsComputeQueue.create();
+   // Quantile error tolerated for stats during acquisition; 0.0 for exact
+   private volatile double approximateStatsMaxError_ = 0.0;
+   // Set while the histograms are shown
+   private volatile boolean exactStatsRequested_ = false;
    private static final long MIN_REPAINT_PERIOD_NS = Math.round(1e9 / 60.0);
    private static final double HIGH_SPEED_THRESHOLD_FPS = 30.0;
 
@@ -276,6 +287,11 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
       computeQueue_.setPerformanceMonitor(perfMon_);
 
+      if (dataProvider instanceof Datastore
+            && ((Datastore) dataProvider).getSavePath() != null) {
+         planeCache_ = PlaneCache.create(dataProvider);
+      }
+
       ReportingUtils.logMessage("Class: " + this.getClass());
       ReportingUtils.logMessage("Classloader: " + this.getClass().getClassLoader());
    }
@@ -609,9 +625,15 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       // Always compute stats for all channels
       List<Image> images;
       try {
-         images = dataProvider_.getImagesIgnoringAxes(
-               position.copyRemovingAxes(Coords.CHANNEL),
-               Coords.CHANNEL);
+         if (planeCache_ != null) {
+            Coords positionNoChannel = position.copyRemovingAxes(Coords.CHANNEL);
+            images = planeCache_.getImages(positionNoChannel);
+            readAhead(positionNoChannel);
+         } else {
+            images = dataProvider_.getImagesIgnoringAxes(
+                  position.copyRemovingAxes(Coords.CHANNEL),
+                  Coords.CHANNEL);
+         }
       } catch (IOException e) {
          // TODO Should display error
          images = Collections.emptyList();
@@ -712,14 +734,57 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       if (perfMon_ != null) {
          perfMon_.sampleTimeInterval("Submitting compute request");
       }
-      computeQueue_.submitRequest(ImageStatsRequest.create(position,
-            images,
-            selection));
+      // While acquiring, autostretch can make do with approximate stats
+      // (exact stats follow when the display stops changing).
+      boolean approximate = approximateStatsMaxError_ > 0.0 && !exactStatsRequested_
+            && (isLiveAcquisition || studio_.live().isLiveModeOn());
+      computeQueue_.submitRequest(approximate
+            ? ImageStatsRequest.createApproximate(position, images, selection,
+                  approximateStatsMaxError_)
+            : ImageStatsRequest.create(position, images, selection));
 
       return position;
    }
 
 
+   /**
+    * Start loading the positions that are likely to be displayed next: those
+    * following the current one along the axis that changed last (or the
+    * animated axis), in the same direction. While images are still
+    * arriving, only planes that already exist are read.
+    */
+   private void readAhead(Coords positionNoChannel) {
+      Coords last = lastHandledPosition_;
+      lastHandledPosition_ = positionNoChannel;
+      if (last == null) {
+         return;
+      }
+      // Axes at index 0 are absent from Coords, so look at both
+      Set<String> axes = new HashSet<>(positionNoChannel.getAxes());
+      axes.addAll(last.getAxes());
+      String changedAxis = null;
+      for (String axis : axes) {
+         if (positionNoChannel.getIndex(axis) != last.getIndex(axis)) {
+            if (changedAxis != null) {
+               return; // A jump rather than scrolling; nothing to predict
+            }
+            changedAxis = axis;
+         }
+      }
+      if (changedAxis == null) {
+         return;
+      }
+      int delta = positionNoChannel.getIndex(changedAxis) - last.getIndex(changedAxis);
+      int direction = delta > 0 ? 1 : -1;
+      boolean wrap = false;
+      if (isAnimating() && getAnimatedAxes().contains(changedAxis)) {
+         // Animation only goes forward, wrapping around at the end
+         direction = 1;
+         wrap = true;
+      }
+      planeCache_.readAhead(positionNoChannel, changedAxis, direction, wrap);
+   }
+
    //
    // Implementation of AnimationController.Listener<Coords>
    //
@@ -903,6 +968,31 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       return 1e9 / intervalNs;
    }
 
+   /**
+    * Sets the quantile error tolerated for image statistics computed during
+    * live mode or acquisition, when the histograms are not shown.
+    *
+    * @param maxError maximum error of autostretch quantiles, as a fraction of
+    *                 the pixel count; 0.0 to always compute exact statistics
+    */
+   public void setApproximateStatsMaxError(double maxError) {
+      approximateStatsMaxError_ = Math.max(0.0, maxError);
+   }
+
+   public double getApproximateStatsMaxError() {
+      return approximateStatsMaxError_;
+   }
+
+   /**
+    * Requests exact image statistics regardless of the approximate stats
+    * setting, e.g. while the histograms are visible.
+    *
+    * @param requested true to require exact statistics
+    */
+   public void setExactStatsRequested(boolean requested) {
+      exactStatsRequested_ = requested;
+   }
+
    /**
     * Sets the axes that will be animated.
     *
@@ -1003,6 +1093,10 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       // any ongoing playback animation. Actual display of new images happens
       // upon receiving callbacks via the AnimationController.Listener
       // interface.
+      if (planeCache_ != null) {
+         planeCache_.invalidate(
+               event.getImage().getCoords().copyRemovingAxes(Coords.CHANNEL));
+      }
       animationController_.newDataPosition(event.getImage().getCoords());
    }
 
@@ -1203,6 +1297,9 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          try {
             computeQueue_.removeListener(this);
             computeQueue_.shutdown();
+            if (planeCache_ != null) {
+               planeCache_.shutdown();
+            }
          } catch (InterruptedException ie) {
             // TODO: report exception
          }
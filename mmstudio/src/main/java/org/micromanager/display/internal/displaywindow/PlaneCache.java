@@ -0,0 +1,313 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Display implementation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Image;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Cache of the images (all channels) at recently displayed positions of a
+ * disk-backed data provider, with read-ahead along the axis being scrolled
+ * or animated.
+ *
+ * <p>Entries are keyed by position without the channel axis and evicted in
+ * least-recently-used order once their pixel data exceed the size budget.
+ * The entries of a data provider are shared by all its display windows, so
+ * the budget applies per data set, and a plane read for one window is not
+ * read again for another. Each window has its own read-ahead, which runs on
+ * a background thread and is abandoned as soon as that window moves on.
+ * Entries for a position are dropped when a new image arrives there.
+ */
+public final class PlaneCache {
+   private static final String CACHE_SIZE_MB = "display plane cache size (MB)";
+   private static final String READ_AHEAD_COUNT = "display plane read-ahead count";
+
+   // Entries of each data provider with a cache; guarded by PlaneCache.class
+   private static final Map<DataProvider, Entries> SHARED_ENTRIES = new HashMap<>();
+
+   private final DataProvider dataProvider_;
+   private final Entries entries_;
+   private final int readAheadCount_;
+
+   // Incremented for each read-ahead request; older requests stop early
+   private volatile long readAheadGeneration_ = 0;
+   private final ExecutorService readAheadExecutor_ =
+         Executors.newSingleThreadExecutor(ThreadFactoryFactory
+               .createThreadFactory("Display plane read-ahead"));
+
+   /**
+    * Cached images of one data provider, shared by the caches of all its
+    * display windows.
+    */
+   private static final class Entries {
+      private final long maxBytes_;
+      // Number of PlaneCaches using these entries; guarded by PlaneCache.class
+      private int users_ = 0;
+
+      // Guarded by this
+      private final LinkedHashMap<Coords, List<Image>> map_ =
+            new LinkedHashMap<>(16, 0.75f, true);
+      private long totalBytes_ = 0;
+      // Incremented on invalidation, so that loads started before then are
+      // not cached
+      private long invalidationCount_ = 0;
+
+      Entries(long maxBytes) {
+         maxBytes_ = maxBytes;
+      }
+
+      synchronized List<Image> get(Coords positionNoChannel) {
+         return map_.get(positionNoChannel);
+      }
+
+      synchronized boolean contains(Coords positionNoChannel) {
+         // Unlike get(), does not disturb the LRU order
+         return map_.containsKey(positionNoChannel);
+      }
+
+      synchronized long getInvalidationCount() {
+         return invalidationCount_;
+      }
+
+      /**
+       * Adds images loaded when the invalidation count was as given, unless
+       * an invalidation happened since.
+       */
+      synchronized void put(Coords positionNoChannel, List<Image> images,
+                            long invalidationCount) {
+         if (invalidationCount != invalidationCount_ || images.isEmpty()) {
+            return;
+         }
+         List<Image> old = map_.put(positionNoChannel, images);
+         if (old != null) {
+            totalBytes_ -= sizeOf(old);
+         }
+         totalBytes_ += sizeOf(images);
+         Iterator<Map.Entry<Coords, List<Image>>> lru = map_.entrySet().iterator();
+         // Keep at least the entry just loaded
+         while (totalBytes_ > maxBytes_ && map_.size() > 1) {
+            Map.Entry<Coords, List<Image>> eldest = lru.next();
+            totalBytes_ -= sizeOf(eldest.getValue());
+            lru.remove();
+         }
+      }
+
+      synchronized void invalidate(Coords positionNoChannel) {
+         ++invalidationCount_;
+         List<Image> old = map_.remove(positionNoChannel);
+         if (old != null) {
+            totalBytes_ -= sizeOf(old);
+         }
+      }
+
+      synchronized void clear() {
+         map_.clear();
+         totalBytes_ = 0;
+      }
+   }
+
+   /**
+    * Create a cache for a display window of the data provider. It shares its
+    * entries with the caches of the provider's other windows. The size
+    * budget and read-ahead count come from the user profile. Call
+    * {@link #shutdown()} when the window closes.
+    *
+    * @param dataProvider provider of the images
+    * @return the cache
+    */
+   public static PlaneCache create(DataProvider dataProvider) {
+      return create(dataProvider, getCacheSizeMB() * 1024L * 1024L,
+            getReadAheadCount());
+   }
+
+   static PlaneCache create(DataProvider dataProvider, long maxBytes,
+                            int readAheadCount) {
+      Entries entries;
+      synchronized (PlaneCache.class) {
+         entries = SHARED_ENTRIES.get(dataProvider);
+         if (entries == null) {
+            entries = new Entries(maxBytes);
+            SHARED_ENTRIES.put(dataProvider, entries);
+         }
+         ++entries.users_;
+      }
+      return new PlaneCache(dataProvider, entries, readAheadCount);
+   }
+
+   private PlaneCache(DataProvider dataProvider, Entries entries, int readAheadCount) {
+      dataProvider_ = dataProvider;
+      entries_ = entries;
+      readAheadCount_ = readAheadCount;
+   }
+
+   /**
+    * Returns the images of all channels at the given position, as
+    * {@code getImagesIgnoringAxes(position, Coords.CHANNEL)} would.
+    *
+    * @param positionNoChannel position, without the channel axis
+    * @return images at the position, in a list that the caller may modify
+    * @throws IOException if reading the images failed
+    */
+   public List<Image> getImages(Coords positionNoChannel) throws IOException {
+      List<Image> images = entries_.get(positionNoChannel);
+      if (images == null) {
+         images = load(positionNoChannel);
+      }
+      return new ArrayList<>(images);
+   }
+
+   private List<Image> load(Coords positionNoChannel) throws IOException {
+      long invalidationCount = entries_.getInvalidationCount();
+      List<Image> images = dataProvider_.getImagesIgnoringAxes(positionNoChannel,
+            Coords.CHANNEL);
+      if (images == null) {
+         return Collections.emptyList();
+      }
+      entries_.put(positionNoChannel, images, invalidationCount);
+      return images;
+   }
+
+   /**
+    * Start loading the positions following the given one along an axis, in
+    * the background, replacing any read-ahead in progress for this window.
+    * Positions that hold no images (yet) are skipped.
+    *
+    * @param positionNoChannel the current position, without the channel axis
+    * @param axis              the axis being scrolled or animated
+    * @param direction         +1 or -1
+    * @param wrap              whether to wrap around at the ends of the axis,
+    *                          as animation does; otherwise stop there
+    */
+   public void readAhead(final Coords positionNoChannel, final String axis,
+                         final int direction, final boolean wrap) {
+      final long generation = ++readAheadGeneration_;
+      if (readAheadCount_ <= 0) {
+         return;
+      }
+      readAheadExecutor_.submit(new Runnable() {
+         @Override
+         public void run() {
+            int length = dataProvider_.getNextIndex(axis);
+            int index = positionNoChannel.getIndex(axis);
+            for (int i = 1; i <= Math.min(readAheadCount_, length - 1); ++i) {
+               if (generation != readAheadGeneration_) {
+                  return;
+               }
+               int next = index + i * direction;
+               if (wrap) {
+                  next = Math.floorMod(next, length);
+               } else if (next < 0 || next >= length) {
+                  return;
+               }
+               Coords position = positionNoChannel.copyBuilder().index(axis, next).build();
+               if (entries_.contains(position)) {
+                  continue;
+               }
+               // While images are still arriving, only read planes that exist;
+               // the position without channel is that of the first channel
+               if (!dataProvider_.isFrozen() && !dataProvider_.hasImage(position)) {
+                  continue;
+               }
+               try {
+                  load(position);
+               } catch (IOException | RuntimeException e) {
+                  ReportingUtils.logError(e, "Read-ahead failed at " + position);
+                  return;
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Forget the images at a position, e.g. because a new image arrived.
+    *
+    * @param positionNoChannel position, without the channel axis
+    */
+   public void invalidate(Coords positionNoChannel) {
+      entries_.invalidate(positionNoChannel);
+   }
+
+   /**
+    * Stops read-ahead for this window. The shared entries are dropped when
+    * the last window of the data provider shuts its cache down.
+    */
+   public void shutdown() {
+      ++readAheadGeneration_;
+      readAheadExecutor_.shutdown();
+      synchronized (PlaneCache.class) {
+         if (--entries_.users_ > 0) {
+            return;
+         }
+         SHARED_ENTRIES.remove(dataProvider_);
+      }
+      entries_.clear();
+   }
+
+   private static long sizeOf(List<Image> images) {
+      long bytes = 0;
+      for (Image image : images) {
+         if (image != null) {
+            bytes += (long) image.getWidth() * image.getHeight() * image.getBytesPerPixel();
+         }
+      }
+      return bytes;
+   }
+
+   /**
+    * Size budget of the cache of each data set. Defaults to an eighth of the
+    * maximum heap size.
+    *
+    * @return size in MB
+    */
+   public static int getCacheSizeMB() {
+      int defaultMB = (int) Math.max(1, Runtime.getRuntime().maxMemory() / 8 / 1024 / 1024);
+      return MMStudio.getInstance().profile().getSettings(PlaneCache.class)
+            .getInteger(CACHE_SIZE_MB, defaultMB);
+   }
+
+   public static void setCacheSizeMB(int sizeMB) {
+      MMStudio.getInstance().profile().getSettings(PlaneCache.class)
+            .putInteger(CACHE_SIZE_MB, sizeMB);
+   }
+
+   public static int getReadAheadCount() {
+      return MMStudio.getInstance().profile().getSettings(PlaneCache.class)
+            .getInteger(READ_AHEAD_COUNT, 8);
+   }
+
+   public static void setReadAheadCount(int count) {
+      MMStudio.getInstance().profile().getSettings(PlaneCache.class)
+            .putInteger(READ_AHEAD_COUNT, count);
+   }
+}
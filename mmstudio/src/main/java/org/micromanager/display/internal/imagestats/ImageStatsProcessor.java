@@ -13,7 +13,6 @@
 
 package org.micromanager.display.internal.imagestats;
 
-import com.google.common.base.Preconditions;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.List;
@@ -24,21 +23,6 @@ import java.util.concurrent.Future;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.histogram.BinMapper1d;
-import net.imglib2.histogram.Histogram1d;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.transform.integer.MixedTransform;
-import net.imglib2.type.numeric.IntegerType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.util.ConstantUtils;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.MixedTransformView;
-import net.imglib2.view.Views;
 import org.micromanager.data.Image;
 import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.CPUTimer;
@@ -50,6 +34,12 @@ import org.micromanager.internal.utils.performance.WallTimer;
  */
 public final class ImageStatsProcessor {
    private static final int MASK_THRESH = 128;
+   // Images smaller than this are not worth splitting across threads
+   private static final long PARALLEL_MIN_PIXELS = 1024 * 1024;
+   private static final int MIN_ROWS_PER_STRIPE = 32;
+   // Probability with which approximate quantiles may exceed the requested
+   // error bound
+   private static final double APPROXIMATE_STATS_FAILURE_PROBABILITY = 0.01;
 
    private final ExecutorService executor_;
 
@@ -159,181 +149,117 @@ public final class ImageStatsProcessor {
       }
 
       // If (the used part of) the mask has no pixels, revert to full image
-      IterableInterval<UnsignedByteType> mask =
-            wrapROIMask(maskBytes, nComponents, maskBounds, statsBounds);
-      boolean maskEmpty = true;
-      for (Cursor<UnsignedByteType> c = mask.cursor(); c.hasNext(); c.fwd()) {
-         if (c.get().getInteger() >= MASK_THRESH) {
-            maskEmpty = false;
-            break;
-         }
-      }
-      if (maskEmpty) {
+      final Object pixels = image.getRawPixels();
+      PixelStatsKernel kernel = new PixelStatsKernel(pixels, image.getWidth(),
+            nComponents, statsBounds, maskBytes, maskBounds, MASK_THRESH,
+            bitDepth, binCountPowerOf2, 1);
+      if (!kernel.hasUnmaskedPixels()) {
          statsBounds = imageBounds;
-         mask = wrapROIMask(null, nComponents, imageBounds, statsBounds);
+         maskBytes = null;
+         kernel = new PixelStatsKernel(pixels, image.getWidth(), nComponents,
+               statsBounds, null, null, MASK_THRESH, bitDepth, binCountPowerOf2, 1);
          useROI = false;
       }
 
-      ImageStats result = null;
-      if (bytesPerSample == 1) {
-         Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
-      } else if (bytesPerSample == 2) {
-         Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
+      PixelStatsKernel.Accumulator acc = null;
+      if (request.isApproximate()) {
+         long minSamples = getMinSampleCount(request.getMaxQuantileError());
+         int stride = (int) Math.sqrt(
+               (double) statsBounds.width * statsBounds.height / minSamples);
+         if (stride > 1) {
+            PixelStatsKernel sampler = new PixelStatsKernel(pixels,
+                  image.getWidth(), nComponents, statsBounds, maskBytes,
+                  maskBounds, MASK_THRESH, bitDepth, binCountPowerOf2, stride);
+            acc = accumulate(sampler, statsBounds);
+            // With a sparse mask, too few pixels may have been sampled
+            if (acc.getPixelCount() < minSamples) {
+               acc = null;
+            }
+         }
+      }
+      if (acc == null) {
+         acc = accumulate(kernel, statsBounds);
       }
 
+      ImageStats result = ImageStats.create(index, acc.toComponentStats(useROI));
+
       if (perfMon_ != null) {
          perfMon_.sample("Process CPU time (ms)", cpuTimer.getMs());
       }
 
-      return result; // null if we don't know how to compute (TODO FIX)
+      return result;
    }
 
-   private <T extends IntegerType<T>> ImageStats compute(
-         IterableInterval<T> img, IterableInterval<UnsignedByteType> mask,
-         int nComponents, int sampleBitDepth, int binCountPowerOf2,
-         boolean isROI, int index) {
-      // It's easier to debug if we check first...
-      Preconditions.checkArgument(img.numDimensions() == 3);
-      Preconditions.checkArgument(img.dimension(0) == nComponents);
-      for (int d = 0; d < 3; ++d) {
-         Preconditions.checkArgument(img.dimension(d) == mask.dimension(d));
-      }
-
-      BinMapper1d<T> binMapper =
-            PowerOf2BinMapper.create(sampleBitDepth, binCountPowerOf2);
-
-      // Some ugliness to allow us to compute stats for multiple components in
-      // a single interation over the pixels.
-      List<Histogram1d<T>> histograms = new ArrayList<Histogram1d<T>>();
-      long[] counts = new long[nComponents];
-      long[] countsExcludingZeros = new long[nComponents];
-      long[] minima = new long[nComponents];
-      long[] minimaExcludingZeros = new long[nComponents];
-      long[] maxima = new long[nComponents];
-      long[] sums = new long[nComponents];
-      long[] sumsOfSquares = new long[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         histograms.add(new Histogram1d<T>(binMapper));
-         counts[component] = 0;
-         countsExcludingZeros[component] = 0;
-         minima[component] = Long.MAX_VALUE;
-         minimaExcludingZeros[component] = Long.MAX_VALUE;
-         maxima[component] = Long.MIN_VALUE;
-         sums[component] = 0;
-         sumsOfSquares[component] = 0;
-      }
+   /**
+    * Number of samples needed so that, by the Dvoretzky-Kiefer-Wolfowitz
+    * inequality, the sampled distribution is within the given error of that
+    * of the whole image (assuming the pixels sampled are representative).
+    */
+   private static long getMinSampleCount(double maxQuantileError) {
+      return (long) Math.ceil(Math.log(2.0 / APPROXIMATE_STATS_FAILURE_PROBABILITY)
+            / (2.0 * maxQuantileError * maxQuantileError));
+   }
 
+   /**
+    * Run the kernel over the stats rectangle, splitting large images into
+    * row stripes that are processed in parallel.
+    */
+   private PixelStatsKernel.Accumulator accumulate(
+         final PixelStatsKernel kernel, Rectangle statsBounds) {
       // Note: sums of squares could overflow with a huge image (65k by 65k or
-      // greater). If we ever deal with such images, we should split the image
-      // before computing partial statistics.
-      // The reason for computing sums of squares, rather than a running stdev,
-      // is to make it easy to parallelize these computations within a single
-      // image.
-
-      // Perform the actual computations:
-      Cursor<T> dataCursor = img.localizingCursor();
-      Cursor<UnsignedByteType> maskCursor = mask.cursor();
-      for (int i = 0; dataCursor.hasNext(); ++i) {
-         int component = i % nComponents;
-         T dataSample = dataCursor.next();
-         UnsignedByteType maskSample = maskCursor.next();
-
-         if (maskSample.getInteger() < MASK_THRESH) {
-            continue;
-         }
-
-         long dataValue = dataSample.getIntegerLong();
-
-         histograms.get(component).increment(dataSample);
-         counts[component]++;
-         if (dataValue > 0) {
-            countsExcludingZeros[component]++;
-         }
-         if (dataValue < minima[component]) {
-            minima[component] = dataValue;
-         }
-         if (dataValue < minimaExcludingZeros[component] && dataValue > 0) {
-            minimaExcludingZeros[component] = dataValue;
-         }
-         if (dataValue > maxima[component]) {
-            maxima[component] = dataValue;
-         }
-         sums[component] += dataValue;
-         sumsOfSquares[component] += dataValue * dataValue;
+      // greater); the stripes do not help, since they are summed in the end.
+      final int yStart = statsBounds.y;
+      final int yEnd = statsBounds.y + statsBounds.height;
+      int nStripes = 1;
+      if ((long) statsBounds.width * statsBounds.height >= PARALLEL_MIN_PIXELS) {
+         nStripes = Math.min(Runtime.getRuntime().availableProcessors(),
+               statsBounds.height / MIN_ROWS_PER_STRIPE);
       }
-
-      IntegerComponentStats[] componentStats =
-            new IntegerComponentStats[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         componentStats[component] = IntegerComponentStats.builder()
-               .histogram(histograms.get(component).toLongArray(),
-                     Math.max(0, sampleBitDepth - binCountPowerOf2))
-               .pixelCount(counts[component])
-               .pixelCountExcludingZeros(countsExcludingZeros[component])
-               .usedROI(isROI)
-               .minimum(minima[component])
-               .minimumExcludingZeros(minimaExcludingZeros[component])
-               .maximum(maxima[component])
-               .sum(sums[component])
-               .sumOfSquares(sumsOfSquares[component])
-               .build();
+      if (nStripes <= 1) {
+         PixelStatsKernel.Accumulator acc = kernel.createAccumulator();
+         kernel.accumulateRows(acc, yStart, yEnd);
+         return acc;
       }
 
-      return ImageStats.create(index, componentStats);
-   }
-
-   private <T extends IntegerType<T>> IterableInterval<T> clipToRect(
-         Img<T> fullImg, int nComponents, Rectangle statsBounds) {
-      Preconditions.checkNotNull(statsBounds);
-      return Views.interval(fullImg,
-            Intervals.createMinSize(
-                  0, statsBounds.x, statsBounds.y,
-                  nComponents, statsBounds.width, statsBounds.height)
-      );
-   }
-
-   private IterableInterval<UnsignedByteType> wrapROIMask(
-         byte[] rawMask, int nComponents, Rectangle maskBounds, Rectangle statsBounds) {
-      Preconditions.checkNotNull(maskBounds);
-      Preconditions.checkNotNull(statsBounds);
-      if (rawMask == null) {
-         return Views.iterable(
-               ConstantUtils.constantRandomAccessibleInterval(
-                     new UnsignedByteType(255),
-                     3,
-                     Intervals.createMinSize(0, statsBounds.x, statsBounds.y,
-                           nComponents, statsBounds.width, statsBounds.height)));
+      List<Future<PixelStatsKernel.Accumulator>> futures =
+            new ArrayList<Future<PixelStatsKernel.Accumulator>>();
+      for (int stripe = 1; stripe < nStripes; ++stripe) {
+         final int rowStart = yStart + (int) ((long) statsBounds.height * stripe / nStripes);
+         final int rowEnd = yStart + (int) ((long) statsBounds.height * (stripe + 1) / nStripes);
+         futures.add(executor_.submit(new Callable<PixelStatsKernel.Accumulator>() {
+            @Override
+            public PixelStatsKernel.Accumulator call() {
+               PixelStatsKernel.Accumulator acc = kernel.createAccumulator();
+               kernel.accumulateRows(acc, rowStart, rowEnd);
+               return acc;
+            }
+         }));
       }
-
-      // The 2D mask, positioned in the image's coordinate system
-      IntervalView<UnsignedByteType> mask = Views.translate(
-            ArrayImgs.unsignedBytes(rawMask,
-                  maskBounds.width, maskBounds.height),
-            maskBounds.x, maskBounds.y);
-
-      // Add the component dimension and clip to the intersection with the image
-      long[] min = {0, statsBounds.x, statsBounds.y};
-      long[] max = {nComponents - 1, statsBounds.x + statsBounds.width - 1,
-            statsBounds.y + statsBounds.height - 1};
-      MixedTransform t = new MixedTransform(3, 2);
-      t.setComponentMapping(new int[] {1, 2});
-      return Views.iterable(Views.interval(
-            new MixedTransformView<UnsignedByteType>(mask, t),
-            min, max
-      ));
+      // The first stripe is done on this thread
+      PixelStatsKernel.Accumulator result = kernel.createAccumulator();
+      kernel.accumulateRows(result, yStart,
+            yStart + statsBounds.height / nStripes);
+      for (Future<PixelStatsKernel.Accumulator> future : futures) {
+         boolean interrupted = false;
+         try {
+            while (true) {
+               try {
+                  result.merge(future.get());
+                  break;
+               } catch (InterruptedException ie) {
+                  // The stripes are short; finish them so that the
+                  // statistics are complete
+                  interrupted = true;
+               }
+            }
+         } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+         } finally {
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+      return result;
    }
 }
\ No newline at end of file
@@ -30,21 +30,55 @@ public final class ImageStatsRequest {
    private final Coords nominalCoords_;
    private final List<Image> images_ = new ArrayList<>();
    private final BoundsRectAndMask roi_;
+   private final double maxQuantileError_;
 
    public static ImageStatsRequest create(Coords nominalCoords,
                                           List<Image> images,
                                           BoundsRectAndMask roi) {
-      return new ImageStatsRequest(nominalCoords, images, roi);
+      return new ImageStatsRequest(nominalCoords, images, roi, 0.0);
+   }
+
+   /**
+    * Create a request for approximate stats, computed from a subset of the
+    * pixels.
+    *
+    * @param nominalCoords    position of the images
+    * @param images           images to compute stats for
+    * @param roi              ROI to restrict stats to
+    * @param maxQuantileError tolerated error in quantiles (as a fraction of
+    *                         the pixel count); 0.0 for exact stats
+    * @return the request
+    */
+   public static ImageStatsRequest createApproximate(Coords nominalCoords,
+                                                     List<Image> images,
+                                                     BoundsRectAndMask roi,
+                                                     double maxQuantileError) {
+      return new ImageStatsRequest(nominalCoords, images, roi, maxQuantileError);
    }
 
    private ImageStatsRequest(Coords nominalCoords,
                              List<Image> images,
-                             BoundsRectAndMask roi) {
+                             BoundsRectAndMask roi,
+                             double maxQuantileError) {
       Preconditions.checkNotNull(nominalCoords);
       Preconditions.checkNotNull(images);
+      Preconditions.checkArgument(maxQuantileError >= 0.0);
       nominalCoords_ = nominalCoords;
       images_.addAll(images);
       roi_ = roi;
+      maxQuantileError_ = maxQuantileError;
+   }
+
+   /**
+    * Returns a request for exact stats of the same images.
+    *
+    * @return this request if it is already exact
+    */
+   public ImageStatsRequest copyForExactStats() {
+      if (!isApproximate()) {
+         return this;
+      }
+      return new ImageStatsRequest(nominalCoords_, images_, roi_, 0.0);
    }
 
    public Coords getNominalCoords() {
@@ -67,6 +101,14 @@ public final class ImageStatsRequest {
       return 16; // TODO Should be configurable
    }
 
+   public boolean isApproximate() {
+      return maxQuantileError_ > 0.0;
+   }
+
+   public double getMaxQuantileError() {
+      return maxQuantileError_;
+   }
+
    public Rectangle getROIBounds() {
       return roi_.getBounds();
    }
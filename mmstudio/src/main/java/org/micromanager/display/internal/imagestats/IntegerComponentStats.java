@@ -27,6 +27,7 @@ public final class IntegerComponentStats {
    private final long pixelCount_;
    private final long pixelCountExcludingZeros_;
    private final boolean usedROI_;
+   private final boolean approximate_;
    private final long minimum_;
    private final long minimumExcludingZeros_;
    private final long maximum_;
@@ -40,6 +41,7 @@ public final class IntegerComponentStats {
       private long pixelCount_;
       private long pixelCountExcludingZeros_;
       private boolean usedROI_;
+      private boolean approximate_;
       private long minimum_;
       private long minimumExcludingZeros_;
       private long maximum_;
@@ -71,6 +73,11 @@ public final class IntegerComponentStats {
          return this;
       }
 
+      public Builder approximate(boolean approximate) {
+         approximate_ = approximate;
+         return this;
+      }
+
       public Builder minimum(long min) {
          minimum_ = min;
          return this;
@@ -136,6 +143,7 @@ public final class IntegerComponentStats {
             .sum(a.getSum() + b.getSum())
             .sumOfSquares(a.getSumOfSquares() + b.getSumOfSquares())
             .usedROI(a.isROIStats() || b.isROIStats())
+            .approximate(a.isApproximate() || b.isApproximate())
             .build();
    }
 
@@ -156,6 +164,7 @@ public final class IntegerComponentStats {
       pixelCount_ = b.pixelCount_;
       pixelCountExcludingZeros_ = b.pixelCountExcludingZeros_;
       usedROI_ = b.usedROI_;
+      approximate_ = b.approximate_;
       minimum_ = b.minimum_;
       minimumExcludingZeros_ = b.minimumExcludingZeros_;
       maximum_ = b.maximum_;
@@ -222,6 +231,19 @@ public final class IntegerComponentStats {
       return usedROI_;
    }
 
+   /**
+    * Whether the stats were computed from a subset of the pixels.
+    *
+    * <p>If so, the histogram and pixel counts are those of the sampled
+    * pixels; quantiles, mean, and standard deviation are estimates, and the
+    * minimum and maximum may be off.</p>
+    *
+    * @return true if the stats are approximate
+    */
+   public boolean isApproximate() {
+      return approximate_;
+   }
+
    public long getMeanIntensity() {
       if (pixelCount_ == 0) {
          return 0;
@@ -0,0 +1,285 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+
+/**
+ * Computes histogram, minimum, maximum, sum, and sum of squares of an
+ * interleaved byte[] or short[] pixel array in a single pass.
+ *
+ * <p>The statistics are collected over a rectangle, optionally restricted by
+ * a mask. Instead of testing the mask for every sample, each row of the
+ * rectangle is split into spans of consecutive unmasked pixels, over which a
+ * tight loop runs. Rows can be accumulated in separate stripes (e.g., on
+ * different threads) and merged afterwards; the result does not depend on
+ * the split.
+ *
+ * <p>Histogram binning is identical to that of {@link PowerOf2BinMapper}:
+ * the first and last bins count samples below and above the range.
+ *
+ * <p>For approximate statistics, a stride greater than 1 restricts the
+ * computation to every stride-th pixel of every stride-th row of the
+ * rectangle (the grid starting at its top left corner).
+ *
+ * @author Mark A. Tsuchida
+ */
+final class PixelStatsKernel {
+   private final Object pixels_;
+   private final int imageWidth_;
+   private final int nComponents_;
+   private final Rectangle statsBounds_;
+   private final byte[] mask_;
+   private final Rectangle maskBounds_;
+   private final int maskThreshold_;
+   private final int sampleShift_;
+   private final long endOfRange_;
+   private final int binCount_;
+   private final int stride_;
+
+   /**
+    * Partial statistics for all components, over some rows.
+    */
+   final class Accumulator {
+      private final long[][] histograms_;
+      private final long[] counts_;
+      private final long[] countsExcludingZeros_;
+      private final long[] minima_;
+      private final long[] minimaExcludingZeros_;
+      private final long[] maxima_;
+      private final long[] sums_;
+      private final long[] sumsOfSquares_;
+
+      private Accumulator() {
+         histograms_ = new long[nComponents_][binCount_];
+         counts_ = new long[nComponents_];
+         countsExcludingZeros_ = new long[nComponents_];
+         minima_ = new long[nComponents_];
+         minimaExcludingZeros_ = new long[nComponents_];
+         maxima_ = new long[nComponents_];
+         sums_ = new long[nComponents_];
+         sumsOfSquares_ = new long[nComponents_];
+         for (int component = 0; component < nComponents_; ++component) {
+            minima_[component] = Long.MAX_VALUE;
+            minimaExcludingZeros_[component] = Long.MAX_VALUE;
+            maxima_[component] = Long.MIN_VALUE;
+         }
+      }
+
+      /**
+       * Adds the partial statistics of another accumulator to this one.
+       */
+      void merge(Accumulator other) {
+         for (int component = 0; component < nComponents_; ++component) {
+            long[] histogram = histograms_[component];
+            long[] otherHistogram = other.histograms_[component];
+            for (int bin = 0; bin < binCount_; ++bin) {
+               histogram[bin] += otherHistogram[bin];
+            }
+            counts_[component] += other.counts_[component];
+            countsExcludingZeros_[component] += other.countsExcludingZeros_[component];
+            minima_[component] = Math.min(minima_[component], other.minima_[component]);
+            minimaExcludingZeros_[component] = Math.min(minimaExcludingZeros_[component],
+                  other.minimaExcludingZeros_[component]);
+            maxima_[component] = Math.max(maxima_[component], other.maxima_[component]);
+            sums_[component] += other.sums_[component];
+            sumsOfSquares_[component] += other.sumsOfSquares_[component];
+         }
+      }
+
+      /**
+       * Number of pixels accumulated so far.
+       */
+      long getPixelCount() {
+         return counts_[0];
+      }
+
+      IntegerComponentStats[] toComponentStats(boolean isROI) {
+         IntegerComponentStats[] componentStats = new IntegerComponentStats[nComponents_];
+         for (int component = 0; component < nComponents_; ++component) {
+            componentStats[component] = IntegerComponentStats.builder()
+                  .histogram(histograms_[component], sampleShift_)
+                  .pixelCount(counts_[component])
+                  .pixelCountExcludingZeros(countsExcludingZeros_[component])
+                  .usedROI(isROI)
+                  .approximate(stride_ > 1)
+                  .minimum(minima_[component])
+                  .minimumExcludingZeros(minimaExcludingZeros_[component])
+                  .maximum(maxima_[component])
+                  .sum(sums_[component])
+                  .sumOfSquares(sumsOfSquares_[component])
+                  .build();
+         }
+         return componentStats;
+      }
+
+      private void add(int component, long value) {
+         int bin = value > endOfRange_ ? binCount_ - 1 : (int) (value >> sampleShift_) + 1;
+         histograms_[component][bin]++;
+         counts_[component]++;
+         if (value > 0) {
+            countsExcludingZeros_[component]++;
+            if (value < minimaExcludingZeros_[component]) {
+               minimaExcludingZeros_[component] = value;
+            }
+         }
+         if (value < minima_[component]) {
+            minima_[component] = value;
+         }
+         if (value > maxima_[component]) {
+            maxima_[component] = value;
+         }
+         sums_[component] += value;
+         sumsOfSquares_[component] += value * value;
+      }
+   }
+
+   /**
+    * Creates a kernel for an image.
+    *
+    * @param pixels           byte[] or short[] with interleaved components
+    * @param imageWidth       width of the image in pixels
+    * @param nComponents      number of components per pixel
+    * @param statsBounds      rectangle (within the image) to compute stats for
+    * @param mask             mask, one byte per pixel, or null to use the whole
+    *                         rectangle
+    * @param maskBounds       position of the mask in the image; ignored if
+    *                         mask is null
+    * @param maskThreshold    mask values below which pixels are excluded
+    * @param sampleBitDepth   bit depth of the samples
+    * @param binCountPowerOf2 log2 of the number of in-range histogram bins
+    * @param stride           sample only every stride-th pixel in x and y
+    */
+   PixelStatsKernel(Object pixels, int imageWidth, int nComponents,
+                    Rectangle statsBounds, byte[] mask, Rectangle maskBounds,
+                    int maskThreshold, int sampleBitDepth, int binCountPowerOf2,
+                    int stride) {
+      if (!(pixels instanceof byte[]) && !(pixels instanceof short[])) {
+         throw new IllegalArgumentException("Unsupported pixel array type");
+      }
+      pixels_ = pixels;
+      imageWidth_ = imageWidth;
+      nComponents_ = nComponents;
+      statsBounds_ = statsBounds;
+      mask_ = mask;
+      maskBounds_ = maskBounds;
+      maskThreshold_ = maskThreshold;
+      sampleShift_ = Math.max(0, sampleBitDepth - binCountPowerOf2);
+      endOfRange_ = (1L << sampleBitDepth) - 1;
+      binCount_ = (1 << binCountPowerOf2) + 2;
+      stride_ = Math.max(1, stride);
+   }
+
+   Accumulator createAccumulator() {
+      return new Accumulator();
+   }
+
+   /**
+    * Adds the samples in the given rows to the accumulator.
+    *
+    * @param acc      accumulator created by this kernel
+    * @param rowStart first row (image coordinates), inclusive
+    * @param rowEnd   last row (image coordinates), exclusive
+    */
+   void accumulateRows(Accumulator acc, int rowStart, int rowEnd) {
+      final int x0 = statsBounds_.x;
+      final int x1 = statsBounds_.x + statsBounds_.width;
+      for (int y = rowStart; y < rowEnd; ++y) {
+         if ((y - statsBounds_.y) % stride_ != 0) {
+            continue;
+         }
+         if (mask_ == null) {
+            accumulateSpan(acc, y, x0, x1);
+            continue;
+         }
+         final int maskRow = (y - maskBounds_.y) * maskBounds_.width - maskBounds_.x;
+         int x = x0;
+         while (x < x1) {
+            while (x < x1 && (mask_[maskRow + x] & 0xff) < maskThreshold_) {
+               ++x;
+            }
+            int spanStart = x;
+            while (x < x1 && (mask_[maskRow + x] & 0xff) >= maskThreshold_) {
+               ++x;
+            }
+            if (x > spanStart) {
+               accumulateSpan(acc, y, spanStart, x);
+            }
+         }
+      }
+   }
+
+   private void accumulateSpan(Accumulator acc, int y, int xStart, int xEnd) {
+      if (stride_ > 1) {
+         accumulateStridedSpan(acc, y, xStart, xEnd);
+         return;
+      }
+      final int start = (y * imageWidth_ + xStart) * nComponents_;
+      final int end = (y * imageWidth_ + xEnd) * nComponents_;
+      if (pixels_ instanceof short[]) {
+         final short[] pixels = (short[]) pixels_;
+         if (nComponents_ == 1) {
+            for (int i = start; i < end; ++i) {
+               acc.add(0, pixels[i] & 0xffff);
+            }
+         } else {
+            for (int i = start; i < end; ++i) {
+               acc.add((i - start) % nComponents_, pixels[i] & 0xffff);
+            }
+         }
+      } else {
+         final byte[] pixels = (byte[]) pixels_;
+         if (nComponents_ == 1) {
+            for (int i = start; i < end; ++i) {
+               acc.add(0, pixels[i] & 0xff);
+            }
+         } else {
+            for (int i = start; i < end; ++i) {
+               acc.add((i - start) % nComponents_, pixels[i] & 0xff);
+            }
+         }
+      }
+   }
+
+   private void accumulateStridedSpan(Accumulator acc, int y, int xStart, int xEnd) {
+      // First grid column at or after xStart
+      int x = xStart + Math.floorMod(statsBounds_.x - xStart, stride_);
+      for (; x < xEnd; x += stride_) {
+         final int start = (y * imageWidth_ + x) * nComponents_;
+         for (int component = 0; component < nComponents_; ++component) {
+            acc.add(component, pixels_ instanceof short[]
+                  ? ((short[]) pixels_)[start + component] & 0xffff
+                  : ((byte[]) pixels_)[start + component] & 0xff);
+         }
+      }
+   }
+
+   /**
+    * Whether any pixel within the stats rectangle passes the mask.
+    */
+   boolean hasUnmaskedPixels() {
+      if (mask_ == null) {
+         return statsBounds_.width > 0 && statsBounds_.height > 0;
+      }
+      for (int y = statsBounds_.y; y < statsBounds_.y + statsBounds_.height; ++y) {
+         final int maskRow = (y - maskBounds_.y) * maskBounds_.width - maskBounds_.x;
+         for (int x = statsBounds_.x; x < statsBounds_.x + statsBounds_.width; ++x) {
+            if ((mask_[maskRow + x] & 0xff) >= maskThreshold_) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+}
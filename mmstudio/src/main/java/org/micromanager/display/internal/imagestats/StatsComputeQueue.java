@@ -27,6 +27,10 @@ import org.micromanager.internal.utils.performance.PerformanceMonitor;
 /**
  * Facade to manage background, rate-limited image stats computation.
  *
+ * <p>Requests for approximate stats are followed by an exact computation
+ * for the same images once no further requests have arrived for a short
+ * while, so that a paused display ends up with exact stats.
+ *
  * @author Mark A. Tsuchida
  */
 public final class StatsComputeQueue {
@@ -71,6 +75,11 @@ public final class StatsComputeQueue {
          new ArrayList<Deque<Future<?>>>();
    private static final int RESULT_BUFFER_SIZE = 2;
 
+   // When approximate stats were computed for the latest request, exact
+   // stats are computed if no new request arrives within this time (i.e.,
+   // once the display has settled).
+   private static final long EXACT_STATS_DELAY_NS = 250000000L;
+
    // Serial number for each request received
    private long nextRequestSequenceNumber_ = 0;
    private long lastResultSequenceNumber_ = -1;
@@ -194,6 +203,15 @@ public final class StatsComputeQueue {
                   storedStats_.set(p, null);
                }
                storedStats_.set(priority, result);
+
+               if (request.isApproximate()
+                     && sequenceNumber == nextRequestSequenceNumber_ - 1) {
+                  // This future is done; don't let the exact compute cancel it
+                  computeFutures_.set(priority, null);
+                  submitCompute(nextRequestSequenceNumber_++, priority,
+                        request.copyForExactStats(),
+                        System.nanoTime() + EXACT_STATS_DELAY_NS);
+               }
             }
          }
       }));
@@ -40,6 +40,7 @@ import org.micromanager.ApplicationSkin.SkinMode;
 import org.micromanager.Studio;
 import org.micromanager.UserProfile;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
+import org.micromanager.data.internal.pipeline.AsynchronousContext;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.MainFrame;
 import org.micromanager.internal.StartupSettings;
@@ -62,6 +63,7 @@ public final class OptionsDlg extends JDialog {
 
    private final JTextField startupScriptFile_;
    private final JTextField bufSizeField_;
+   private final JTextField pipelineQueueDepthField_;
    private final JTextField logDeleteDaysField_;
    private final JComboBox<String> comboDisplayBackground_;
 
@@ -206,6 +208,9 @@ public final class OptionsDlg extends JDialog {
       bufSizeField_ = new JTextField(
             Integer.toString(mmStudio_.settings().getCircularBufferSize()), 5);
 
+      pipelineQueueDepthField_ = new JTextField(
+            Integer.toString(AsynchronousContext.getDefaultQueueDepth()), 5);
+
       String[] options = new String[SkinMode.values().length];
       for (int i = 0; i < SkinMode.values().length; ++i) {
          options[i] = SkinMode.values()[i].getDesc();
@@ -323,6 +328,10 @@ public final class OptionsDlg extends JDialog {
       super.add(bufSizeField_, "gapright related");
       super.add(new JLabel("MB"), "wrap");
 
+      super.add(new JLabel("Images Queued per Image Processor:"),
+            "split 2, gapright push");
+      super.add(pipelineQueueDepthField_, "wrap");
+
       super.add(new JSeparator(), "wrap");
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
@@ -374,10 +383,13 @@ public final class OptionsDlg extends JDialog {
 
    private void closeRequested() {
       int seqBufSize;
+      int pipelineQueueDepth;
       int deleteLogDays;
       try {
          seqBufSize =
                NumberUtils.displayStringToInt(bufSizeField_.getText());
+         pipelineQueueDepth =
+               NumberUtils.displayStringToInt(pipelineQueueDepthField_.getText());
          deleteLogDays =
                NumberUtils.displayStringToInt(logDeleteDaysField_.getText());
       } catch (ParseException ex) {
@@ -386,6 +398,8 @@ public final class OptionsDlg extends JDialog {
       }
 
       mmStudio_.settings().setCircularBufferSize(seqBufSize);
+      // Takes effect for pipelines created from now on
+      AsynchronousContext.setDefaultQueueDepth(Math.max(1, pipelineQueueDepth));
       mmStudio_.settings().setCoreLogLifetimeDays(deleteLogDays);
 
       ScriptPanel.setStartupScript(mmStudio_, startupScriptFile_.getText());
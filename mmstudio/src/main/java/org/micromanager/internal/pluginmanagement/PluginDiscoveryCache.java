@@ -0,0 +1,205 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//COPYRIGHT:     University of California, San Francisco
+//LICENSE:       This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.internal.pluginmanagement;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Remembers which plugin classes SciJava found in each plugin jar, so that
+ * jars that did not change since the last launch need not be searched again.
+ *
+ * <p>Entries are keyed by the absolute path of the jar, and are only used if
+ * the size and modification time of the jar still match. The cache is
+ * stored as a text file, one line per jar: path, size and modification time,
+ * followed by the priority and name of each plugin class, all separated by
+ * tabs. An unreadable or outdated file is treated as empty.
+ *
+ * <p>Safe to use from multiple threads.
+ */
+final class PluginDiscoveryCache {
+   private static final String HEADER = "# Micro-Manager plugin discovery cache, version 1";
+   private static final String SEPARATOR = "\t";
+
+   /**
+    * A plugin class found in a jar.
+    */
+   static final class Entry {
+      final String className;
+      final double priority;
+
+      Entry(String className, double priority) {
+         this.className = className;
+         this.priority = priority;
+      }
+   }
+
+   private static final class JarRecord {
+      final long size;
+      final long lastModified;
+      final List<Entry> entries;
+
+      JarRecord(long size, long lastModified, List<Entry> entries) {
+         this.size = size;
+         this.lastModified = lastModified;
+         this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+      }
+
+      boolean matches(File jar) {
+         return jar.length() == size && jar.lastModified() == lastModified;
+      }
+   }
+
+   private final File file_;
+   private final Map<String, JarRecord> records_ = new ConcurrentHashMap<>();
+
+   /**
+    * Creates a cache backed by the given file, and reads the file if it
+    * exists.
+    *
+    * @param file where the cache is stored, or null to keep it in memory only
+    */
+   PluginDiscoveryCache(File file) {
+      file_ = file;
+      if (file_ != null && file_.isFile()) {
+         try {
+            read();
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Unable to read plugin cache " + file_);
+            records_.clear();
+         }
+      }
+   }
+
+   /**
+    * Returns the plugin classes recorded for the jar.
+    *
+    * @param jar plugin jar
+    * @return plugin classes in the jar (possibly none), or null if the jar
+    *     is not in the cache or has changed since it was recorded
+    */
+   List<Entry> get(File jar) {
+      JarRecord record = records_.get(jar.getAbsolutePath());
+      if (record == null || !record.matches(jar)) {
+         return null;
+      }
+      return record.entries;
+   }
+
+   /**
+    * Records the plugin classes found in the jar.
+    *
+    * @param jar plugin jar
+    * @param entries plugin classes in the jar, empty if there are none
+    */
+   void put(File jar, List<Entry> entries) {
+      String path = jar.getAbsolutePath();
+      if (path.contains(SEPARATOR) || path.contains("\n")) {
+         return;
+      }
+      records_.put(path, new JarRecord(jar.length(), jar.lastModified(), entries));
+   }
+
+   /**
+    * Writes the cache to its file, leaving out jars that no longer exist.
+    * Does nothing for a cache that is kept in memory only.
+    *
+    * @throws IOException if the file could not be written
+    */
+   void save() throws IOException {
+      if (file_ == null) {
+         return;
+      }
+      // sorted, so that an unchanged cache is written identically
+      Map<String, JarRecord> records = new TreeMap<>(records_);
+      File dir = file_.getAbsoluteFile().getParentFile();
+      if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+         throw new IOException("Unable to create directory " + dir);
+      }
+      // Write (almost) atomically by writing to a temporary file next to
+      // the cache file and moving it in place.
+      File tempFile = new File(dir, file_.getName() + ".tmp");
+      BufferedWriter writer = Files.newWriter(tempFile, Charsets.UTF_8);
+      try {
+         writer.write(HEADER);
+         writer.newLine();
+         for (Map.Entry<String, JarRecord> e : records.entrySet()) {
+            if (!new File(e.getKey()).isFile()) {
+               continue;
+            }
+            JarRecord record = e.getValue();
+            StringBuilder line = new StringBuilder(e.getKey());
+            line.append(SEPARATOR).append(record.size);
+            line.append(SEPARATOR).append(record.lastModified);
+            for (Entry entry : record.entries) {
+               line.append(SEPARATOR).append(entry.priority);
+               line.append(SEPARATOR).append(entry.className);
+            }
+            writer.write(line.toString());
+            writer.newLine();
+         }
+      } finally {
+         writer.close();
+      }
+      try {
+         Files.move(tempFile, file_);
+      } catch (FileNotFoundException fne) {
+         tempFile.delete();
+         throw fne;
+      }
+   }
+
+   private void read() throws IOException {
+      BufferedReader reader = Files.newReader(file_, Charsets.UTF_8);
+      try {
+         if (!HEADER.equals(reader.readLine())) {
+            // Written by another version; start afresh
+            return;
+         }
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length < 3 || (fields.length - 3) % 2 != 0) {
+               throw new IOException("Malformed line in plugin cache: " + line);
+            }
+            try {
+               List<Entry> entries = new ArrayList<>();
+               for (int i = 3; i < fields.length; i += 2) {
+                  entries.add(new Entry(fields[i + 1], Double.parseDouble(fields[i])));
+               }
+               records_.put(fields[0], new JarRecord(Long.parseLong(fields[1]),
+                     Long.parseLong(fields[2]), entries));
+            } catch (NumberFormatException e) {
+               throw new IOException("Malformed line in plugin cache: " + line, e);
+            }
+         }
+      } finally {
+         reader.close();
+      }
+   }
+}
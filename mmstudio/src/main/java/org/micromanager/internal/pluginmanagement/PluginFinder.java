@@ -25,10 +25,18 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.JavaUtils;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.scijava.InstantiableException;
 import org.scijava.plugin.DefaultPluginFinder;
 import org.scijava.plugin.PluginIndex;
@@ -40,6 +48,9 @@ import org.scijava.plugin.PluginInfo;
  * Just a passthrough to the actual recursive method.
  */
 public final class PluginFinder {
+   private static final String CACHE_FILE = "PluginDiscoveryCache.txt";
+   private static PluginDiscoveryCache cache_;
+
    private static ArrayList<String> findPaths(String root, String extension) {
       ArrayList<String> result = new ArrayList<>();
       // Short-circuit if we're called with a non-directory.
@@ -69,34 +80,142 @@ public final class PluginFinder {
     * Find all jars under the given root, check them for the META-INF file that
     * indicates that they're annotated with the @Plugin annotation, and return
     * a list of the corresponding annotated classes.
+    *
+    * <p>The jars are searched in parallel. Jars that did not change since they
+    * were last searched are not searched again; their plugin classes are
+    * taken from the discovery cache. The classes are returned highest
+    * priority first, as SciJava would.
     */
    public static List<Class<?>> findPlugins(String root) {
       ArrayList<Class<?>> result = new ArrayList<>();
+      List<File> jars = new ArrayList<>();
       List<URL> jarURLs = new ArrayList<>();
       for (String jarPath : findPaths(root, ".jar")) {
          try {
-            URL jarURL = new File(jarPath).toURI().toURL();
-            jarURLs.add(jarURL);
+            File jar = new File(jarPath);
+            jarURLs.add(jar.toURI().toURL());
+            jars.add(jar);
          } catch (MalformedURLException e) {
             ReportingUtils.logError("Unable to generate URL from path " + jarPath + "; skipping");
          }
       }
+      if (jars.isEmpty()) {
+         return result;
+      }
 
       // The class loader used by the plugin should find classes and
       // resources within the plugin JAR first, then fall back to the
-      // default class loader.
-      // However, when SciJava is discovering plugin classes, we do NOT
-      // want to search all JARs on the class path.
-      // So we temporarily set the class loader to look only at the given
-      // URL for resources.
+      // default class loader. All jars share it, so that plugins can use
+      // classes from other jars.
+      ExecutorService executor = null;
       try {
-         PluginClassLoader loader = new PluginClassLoader(jarURLs.toArray(new URL[0]),
+         final PluginClassLoader loader = new PluginClassLoader(jarURLs.toArray(new URL[0]),
                MMStudio.getInstance().getClass().getClassLoader());
-         loader.setBlockInheritedResources(true);
-         result.addAll(findPluginsWithLoader(loader));
-         loader.setBlockInheritedResources(false);
+         final PluginDiscoveryCache cache = getCache();
+         executor = Executors.newFixedThreadPool(
+               Math.min(jars.size(), Runtime.getRuntime().availableProcessors()),
+               ThreadFactoryFactory.createThreadFactory("Plugin discovery"));
+         List<Future<List<FoundPlugin>>> futures = new ArrayList<>(jars.size());
+         for (final File jar : jars) {
+            futures.add(executor.submit(() -> findPluginsInJar(jar, loader, cache)));
+         }
+         List<FoundPlugin> found = new ArrayList<>();
+         for (Future<List<FoundPlugin>> future : futures) {
+            try {
+               found.addAll(future.get());
+            } catch (ExecutionException e) {
+               ReportingUtils.logError(e.getCause(), "Unable to search JAR for plugins");
+            }
+         }
+         Collections.sort(found, Comparator
+               .comparingDouble((FoundPlugin p) -> -p.entry.priority)
+               .thenComparing(p -> p.entry.className));
+         for (FoundPlugin plugin : found) {
+            result.add(plugin.pluginClass);
+         }
+         try {
+            cache.save();
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Unable to save plugin cache");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         ReportingUtils.logError(e, "Interrupted while loading JARs at " + root);
       } catch (Throwable e) {
          ReportingUtils.logError(e, "Unable to load JARs at " + root);
+      } finally {
+         if (executor != null) {
+            executor.shutdownNow();
+         }
+      }
+      return result;
+   }
+
+   /*
+    * A plugin class, loaded by the shared plugin class loader
+    */
+   private static final class FoundPlugin {
+      final PluginDiscoveryCache.Entry entry;
+      final Class<?> pluginClass;
+
+      FoundPlugin(PluginDiscoveryCache.Entry entry, Class<?> pluginClass) {
+         this.entry = entry;
+         this.pluginClass = pluginClass;
+      }
+   }
+
+   private static synchronized PluginDiscoveryCache getCache() {
+      if (cache_ == null) {
+         String dir = JavaUtils.getApplicationDataPath();
+         cache_ = new PluginDiscoveryCache(dir == null ? null : new File(dir, CACHE_FILE));
+      }
+      return cache_;
+   }
+
+   /*
+    * Finds the plugin classes in one jar, from the cache if the jar did not
+    * change, and loads them with the given (shared) loader.
+    */
+   private static List<FoundPlugin> findPluginsInJar(File jar, ClassLoader loader,
+                                                     PluginDiscoveryCache cache)
+         throws IOException {
+      List<PluginDiscoveryCache.Entry> entries = cache.get(jar);
+      if (entries == null) {
+         entries = discoverPlugins(jar, loader);
+         cache.put(jar, entries);
+      }
+      List<FoundPlugin> result = new ArrayList<>(entries.size());
+      for (PluginDiscoveryCache.Entry entry : entries) {
+         try {
+            result.add(new FoundPlugin(entry, loader.loadClass(entry.className)));
+         } catch (ClassNotFoundException | LinkageError e) {
+            ReportingUtils.logError(e, "Unable to instantiate class for " + entry.className);
+         }
+      }
+      return result;
+   }
+
+   /*
+    * Asks SciJava for the plugin classes in one jar. When SciJava is
+    * discovering plugin classes, we do NOT want to search all JARs on the
+    * class path, so discovery uses a loader that only looks at the given
+    * jar for resources (and at the shared loader for classes).
+    */
+   private static List<PluginDiscoveryCache.Entry> discoverPlugins(File jar, ClassLoader parent)
+         throws IOException {
+      List<PluginDiscoveryCache.Entry> result = new ArrayList<>();
+      PluginClassLoader loader = new PluginClassLoader(new URL[] {jar.toURI().toURL()},
+            parent);
+      try {
+         loader.setBlockInheritedResources(true);
+         DefaultPluginFinder finder = new DefaultPluginFinder(loader);
+         PluginIndex index = new PluginIndex(finder);
+         index.discover();
+         for (PluginInfo<?> info : index.getAll()) {
+            result.add(new PluginDiscoveryCache.Entry(info.getClassName(), info.getPriority()));
+         }
+      } finally {
+         loader.close();
       }
       return result;
    }
@@ -123,7 +242,12 @@ public final class PluginFinder {
     * blockage of resource enumeration and loading from the parent loader.
     */
    private static class PluginClassLoader extends URLClassLoader {
-      private boolean blockInheritedResources_ = false;
+      static {
+         // plugin jars are searched and loaded from several threads
+         registerAsParallelCapable();
+      }
+
+      private volatile boolean blockInheritedResources_ = false;
 
       public PluginClassLoader(URL[] jarURLs, ClassLoader parent) {
          super(jarURLs, parent);
@@ -0,0 +1,119 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//COPYRIGHT:     University of California, San Francisco
+//LICENSE:       This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import mmcorej.org.json.JSONArray;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+
+/**
+ * Converts a json.org tree (as found in TaggedImage tags) directly into a
+ * Gson tree, so that it can be read by NonPropertyMapJSONFormats.
+ *
+ * <p>This replaces serializing the JSONObject to a String and parsing that
+ * String with Gson, which used to dominate the cost of converting
+ * TaggedImages into Images. The result is equivalent to the result of that
+ * round trip: floating point numbers are converted from the text that
+ * json.org would have written, so that they are read as the same values.
+ * Like the String round trip, the conversion fails right away on values
+ * that can not be written as JSON.
+ */
+public final class JSONObjectToGson {
+   private JSONObjectToGson() {
+   }
+
+   /**
+    * Converts a JSONObject into an equivalent Gson JsonObject.
+    *
+    * <p>The returned tree does not share any state with the input, so the
+    * input can be modified afterwards.
+    *
+    * @param jo JSONObject to convert
+    * @return Gson representation of jo
+    * @throws IllegalArgumentException if jo contains values that can not be
+    *                                  represented in JSON (e.g., NaN)
+    */
+   public static JsonObject convert(JSONObject jo) {
+      JsonObject result = new JsonObject();
+      Iterator<?> keys = jo.keys();
+      while (keys.hasNext()) {
+         String key = keys.next().toString();
+         JsonElement value = convertValue(jo.opt(key));
+         // json.org objects can not hold null values; JSONObject.NULL is
+         // converted to JsonNull, just like the String round trip would do
+         if (value != null) {
+            result.add(key, value);
+         }
+      }
+      return result;
+   }
+
+   private static JsonArray convertArray(JSONArray ja) {
+      JsonArray result = new JsonArray();
+      for (int i = 0; i < ja.length(); ++i) {
+         JsonElement value = convertValue(ja.opt(i));
+         result.add(value == null ? JsonNull.INSTANCE : value);
+      }
+      return result;
+   }
+
+   private static JsonElement convertValue(Object value) {
+      if (value == null) {
+         return null;
+      }
+      if (value == JSONObject.NULL) {
+         return JsonNull.INSTANCE;
+      }
+      if (value instanceof JSONObject) {
+         return convert((JSONObject) value);
+      }
+      if (value instanceof JSONArray) {
+         return convertArray((JSONArray) value);
+      }
+      if (value instanceof String) {
+         return new JsonPrimitive((String) value);
+      }
+      if (value instanceof Boolean) {
+         return new JsonPrimitive((Boolean) value);
+      }
+      if (value instanceof Integer || value instanceof Long
+            || value instanceof Short || value instanceof Byte) {
+         return new JsonPrimitive((Number) value);
+      }
+      if (value instanceof Number) {
+         // Floating point (and big) numbers are written by json.org without
+         // trailing zeros; go through that form so that Gson reads the same
+         // value (e.g., a float 0.1f becomes 0.1, not 0.10000000149011612)
+         try {
+            return new JsonPrimitive(new BigDecimal(
+                  JSONObject.numberToString((Number) value)));
+         } catch (JSONException e) {
+            throw new IllegalArgumentException("Non-finite number in JSON: " + value, e);
+         } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in JSON: " + value, e);
+         }
+      }
+      // json.org writes any other object using its toString()
+      return new JsonPrimitive(value.toString());
+   }
+}
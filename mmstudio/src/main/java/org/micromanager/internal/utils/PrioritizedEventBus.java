@@ -2,31 +2,170 @@ package org.micromanager.internal.utils;
 
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
 
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ *
+ * <p>Subscribers are found the same way as Guava's EventBus does it (public or
+ * non-public methods annotated with @Subscribe, taking a single argument,
+ * including inherited ones), and are invoked with the same guarantees
+ * (methods without @AllowConcurrentEvents are never invoked concurrently).
+ * Events are delivered in the same order as they were when each priority had
+ * its own Guava EventBus: on a synchronous bus, an event posted from within a
+ * subscriber is queued (per thread) behind the current event for the
+ * priorities that are still dispatching it, and delivered right away to the
+ * other priorities. Unlike using one Guava EventBus per priority, posting
+ * does no sorting, and allocates nothing unless events are posted from within
+ * subscribers: the subscribers are kept in a table sorted by priority that is
+ * replaced (copy-on-write) on registration, and the subscribers for each
+ * event class are looked up once per table.
+ *
+ * <p>Exceptions thrown by subscribers are logged, and do not keep the event
+ * from reaching the other subscribers. Errors are passed on to the poster (or,
+ * on an asynchronous bus, to the dispatch thread).
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
    public static final int DEFAULT_PRIORITY = 100;
+
+   private static final MethodType HANDLER_TYPE =
+         MethodType.methodType(void.class, Object.class, Object.class);
+   private static final Map<Class<?>, List<Method>> SUBSCRIBER_METHODS =
+         new ConcurrentHashMap<>();
+   private static final Map<Class<?>, Set<Class<?>>> EVENT_TYPES =
+         new ConcurrentHashMap<>();
+
+   private volatile SubscriberTable table_ = new SubscriberTable(new Subscriber[0]);
+   private long registrationCount_ = 0; // Guarded by this
+   private final boolean async_;
+   private volatile boolean shutDown_ = false;
+   private ExecutorService executorService_;
+   // Dispatch state of each priority, for the current thread
+   private final ThreadLocal<Map<Integer, DispatchState>> dispatchStates_ =
+         ThreadLocal.withInitial(HashMap::new);
+
    /**
-    * Each priority level corresponds to a different EventBus instance.
+    * A subscriber method bound to its target.
     */
-   private HashMap<Integer, EventBus> prioritizedBuses_;
-   private boolean async_ = false;
-   private boolean shutDown_ = false;
-   private ExecutorService executorService_;
+   private static final class Subscriber {
+      private final Object target_;
+      private final Method method_;
+      private final MethodHandle handle_;
+      private final Class<?> eventType_;
+      private final boolean allowConcurrent_;
+      private final int priority_;
+      private final long registrationIndex_;
+
+      private Subscriber(Object target, Method method, int priority,
+                         long registrationIndex) {
+         target_ = target;
+         method_ = method;
+         eventType_ = method.getParameterTypes()[0];
+         allowConcurrent_ = method.isAnnotationPresent(AllowConcurrentEvents.class);
+         priority_ = priority;
+         registrationIndex_ = registrationIndex;
+         try {
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+               handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            handle_ = handle.asType(HANDLER_TYPE);
+         } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(
+                  "Cannot access subscriber method " + method, e);
+         }
+      }
+
+      private void invoke(Object event) throws Throwable {
+         if (allowConcurrent_) {
+            handle_.invokeExact(target_, event);
+         } else {
+            synchronized (this) {
+               handle_.invokeExact(target_, event);
+            }
+         }
+      }
+   }
+
+   /**
+    * Immutable snapshot of all subscribers, sorted by priority and then by
+    * order of registration, along with the subscribers for each event class
+    * seen so far.
+    */
+   private static final class SubscriberTable {
+      private final Subscriber[] subscribers_;
+      private final Map<Class<?>, Subscriber[]> byEventClass_ =
+            new ConcurrentHashMap<>();
+
+      private SubscriberTable(Subscriber[] subscribers) {
+         subscribers_ = subscribers;
+      }
+
+      private Subscriber[] getSubscribers(Class<?> eventClass) {
+         Subscriber[] result = byEventClass_.get(eventClass);
+         if (result == null) {
+            Set<Class<?>> eventTypes = getEventTypes(eventClass);
+            List<Subscriber> matching = new ArrayList<>();
+            for (Subscriber subscriber : subscribers_) {
+               if (eventTypes.contains(subscriber.eventType_)) {
+                  matching.add(subscriber);
+               }
+            }
+            result = matching.toArray(new Subscriber[0]);
+            byEventClass_.put(eventClass, result);
+         }
+         return result;
+      }
+   }
+
+   /**
+    * An event waiting to be delivered to the subscribers of one priority.
+    */
+   private static final class PendingEvent {
+      private final Object event_;
+      private final Subscriber[] subscribers_;
+      private final int from_;
+      private final int to_;
+
+      private PendingEvent(Object event, Subscriber[] subscribers, int from, int to) {
+         event_ = event;
+         subscribers_ = subscribers;
+         from_ = from;
+         to_ = to;
+      }
+   }
+
+   /**
+    * Whether the current thread is delivering events to the subscribers of
+    * one priority, and the events posted meanwhile.
+    */
+   private static final class DispatchState {
+      private boolean isDispatching_ = false;
+      private final ArrayDeque<PendingEvent> queue_ = new ArrayDeque<>();
+   }
 
    public PrioritizedEventBus(boolean async) {
-      prioritizedBuses_ = new HashMap<>();
       async_ = async;
 
       if (async) {
@@ -40,50 +179,111 @@ public final class PrioritizedEventBus {
       register(o, DEFAULT_PRIORITY);
    }
 
-   public void register(Object o, Integer priority) {
+   public synchronized void register(Object o, Integer priority) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
-      EventBus subBus;
-      if (!prioritizedBuses_.containsKey(priority)) {
-         if (async_) {
-            subBus = new AsyncEventBus(executorService_, EventBusExceptionLogger.getInstance());
-         } else {
-            subBus = new EventBus(EventBusExceptionLogger.getInstance());
+      Subscriber[] old = table_.subscribers_;
+      List<Subscriber> subscribers = new ArrayList<>(Arrays.asList(old));
+      for (Method method : getSubscriberMethods(o.getClass())) {
+         // As with EventBus, registering the same object twice (at the same
+         // priority) has no further effect
+         boolean isDuplicate = false;
+         for (Subscriber s : old) {
+            if (s.target_ == o && s.priority_ == priority && s.method_.equals(method)) {
+               isDuplicate = true;
+               break;
+            }
+         }
+         if (!isDuplicate) {
+            subscribers.add(new Subscriber(o, method, priority, registrationCount_++));
          }
-         prioritizedBuses_.put(priority, subBus);
-      } else {
-         subBus = prioritizedBuses_.get(priority);
       }
-      subBus.register(o);
+      subscribers.sort(Comparator.<Subscriber>comparingInt(s -> s.priority_)
+            .thenComparingLong(s -> s.registrationIndex_));
+      table_ = new SubscriberTable(subscribers.toArray(new Subscriber[0]));
    }
 
-   public void unregister(Object o) {
+   public synchronized void unregister(Object o) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
-      for (Integer priority : prioritizedBuses_.keySet()) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         // TODO: I can't find any way to test if a given EventBus has a given
-         // object subscribed to it, hence the try/catch logic here, which is
-         // unpleasant. However, objects should not be frequently unregistering
-         // so I don't think it's a huge issue.
-         // Similarly I'm not too fussed that we may have empty
-         // SubscriberRegistries lying around after unregister is called.
-         try {
-            subBus.unregister(o);
-         } catch (IllegalArgumentException ignored) {
-            // Wasn't registered to begin with.
+      // Objects that were not registered are silently ignored
+      List<Subscriber> subscribers = new ArrayList<>();
+      for (Subscriber s : table_.subscribers_) {
+         if (s.target_ != o) {
+            subscribers.add(s);
          }
       }
+      if (subscribers.size() != table_.subscribers_.length) {
+         table_ = new SubscriberTable(subscribers.toArray(new Subscriber[0]));
+      }
    }
 
    public void post(Object event) {
-      ArrayList<Integer> priorities = new ArrayList<Integer>(prioritizedBuses_.keySet());
-      Collections.sort(priorities);
-      for (Integer priority : priorities) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         subBus.post(event);
+      final Subscriber[] subscribers = table_.getSubscribers(event.getClass());
+      if (subscribers.length == 0) {
+         return;
+      }
+      if (async_) {
+         // A single thread delivers the events in the order they were posted
+         executorService_.execute(() -> dispatch(event, subscribers, 0, subscribers.length));
+         return;
+      }
+      Map<Integer, DispatchState> states = dispatchStates_.get();
+      int from = 0;
+      while (from < subscribers.length) {
+         int priority = subscribers[from].priority_;
+         int to = from + 1;
+         while (to < subscribers.length && subscribers[to].priority_ == priority) {
+            ++to;
+         }
+         DispatchState state = states.get(priority);
+         if (state == null) {
+            state = new DispatchState();
+            states.put(priority, state);
+         }
+         dispatchInOrder(state, event, subscribers, from, to);
+         from = to;
+      }
+   }
+
+   /**
+    * Delivers the event to the subscribers of one priority, unless the
+    * current thread is already delivering an event to them, in which case
+    * the event is delivered once that event (and any events queued before)
+    * are done.
+    */
+   private void dispatchInOrder(DispatchState state, Object event,
+                                Subscriber[] subscribers, int from, int to) {
+      if (state.isDispatching_) {
+         state.queue_.add(new PendingEvent(event, subscribers, from, to));
+         return;
+      }
+      state.isDispatching_ = true;
+      try {
+         dispatch(event, subscribers, from, to);
+         PendingEvent pending;
+         while ((pending = state.queue_.poll()) != null) {
+            dispatch(pending.event_, pending.subscribers_, pending.from_, pending.to_);
+         }
+      } finally {
+         state.isDispatching_ = false;
+         state.queue_.clear();
+      }
+   }
+
+   private void dispatch(Object event, Subscriber[] subscribers, int from, int to) {
+      for (int i = from; i < to; ++i) {
+         Subscriber subscriber = subscribers[i];
+         try {
+            subscriber.invoke(event);
+         } catch (Error e) {
+            throw e;
+         } catch (Throwable e) {
+            EventBusExceptionLogger.logException(e, event, this,
+                  subscriber.target_, subscriber.method_);
+         }
       }
    }
 
@@ -93,4 +293,42 @@ public final class PrioritizedEventBus {
          executorService_.shutdown();
       }
    }
+
+   private static List<Method> getSubscriberMethods(Class<?> clazz) {
+      List<Method> methods = SUBSCRIBER_METHODS.get(clazz);
+      if (methods == null) {
+         // Methods overridden in subclasses are only included once
+         Map<String, Method> identified = new HashMap<>();
+         for (Class<?> supertype : TypeToken.of(clazz).getTypes().rawTypes()) {
+            for (Method method : supertype.getDeclaredMethods()) {
+               if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+                  continue;
+               }
+               Class<?>[] parameterTypes = method.getParameterTypes();
+               if (parameterTypes.length != 1) {
+                  throw new IllegalArgumentException("Method " + method
+                        + " has @Subscribe annotation but has " + parameterTypes.length
+                        + " parameters. Subscriber methods must have exactly 1 parameter.");
+               }
+               String key = method.getName() + Arrays.toString(parameterTypes);
+               if (!identified.containsKey(key)) {
+                  method.setAccessible(true);
+                  identified.put(key, method);
+               }
+            }
+         }
+         methods = new ArrayList<>(identified.values());
+         SUBSCRIBER_METHODS.put(clazz, methods);
+      }
+      return methods;
+   }
+
+   private static Set<Class<?>> getEventTypes(Class<?> eventClass) {
+      Set<Class<?>> types = EVENT_TYPES.get(eventClass);
+      if (types == null) {
+         types = ImmutableSet.<Class<?>>copyOf(TypeToken.of(eventClass).getTypes().rawTypes());
+         EVENT_TYPES.put(eventClass, types);
+      }
+      return types;
+   }
 }
@@ -233,7 +233,23 @@ public final class BoofCVImageConverter {
       Coords coord = cb.t(frame).build();
       Image img = dp.getImage(coord);
 
-      ImageGray<? extends ImageGray<?>> ig = BoofCVImageConverter.mmToBoofCV(img, false);
+      return subImage(BoofCVImageConverter.mmToBoofCV(img, false), p, halfBoxSize);
+   }
+
+   /**
+    * Utility function.  Extracts region from a BoofCV image.
+    * Points to the same pixel data as the original
+    *
+    * @param ig          Image from which to extract the region
+    * @param p           point around which to build the ROI
+    * @param halfBoxSize Half the width and length of the ROI
+    * @return ImageGray Note that the pixels are not copied.  Null when the
+    *     ROI does not fit in the image.
+    */
+   public static ImageGray<? extends ImageGray<?>> subImage(
+         final ImageGray<? extends ImageGray<?>> ig,
+         final Point2D_I32 p,
+         final int halfBoxSize) {
       if (p.getX() - halfBoxSize < 0
             || p.getY() - halfBoxSize < 0
             || p.getX() + halfBoxSize >= ig.getWidth()
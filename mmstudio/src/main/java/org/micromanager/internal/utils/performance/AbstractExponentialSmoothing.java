@@ -17,7 +17,7 @@ package org.micromanager.internal.utils.performance;
  * Base implementation for exponential smoothing of time series statistic.
  *
  * <p>This provides a common implementation for {@link ExponentialSmoothing} and
- * {@link TimeIntervalExponentialSmoothing}.
+ * {@link TimeIntervalExponentialSmoothing}. Thread safe.
  *
  * <p>See https://en.wikipedia.org/wiki/Exponential_smoothing
  *
@@ -40,20 +40,20 @@ public class AbstractExponentialSmoothing {
       return timeConstantMs_;
    }
 
-   public long getCount() {
+   public synchronized long getCount() {
       return count_;
    }
 
-   public double getAverage() {
+   public synchronized double getAverage() {
       return rollingAverage_;
    }
 
-   public double getStandardDeviation() {
+   public synchronized double getStandardDeviation() {
       return Math.sqrt(rollingSquareAverage_ - rollingAverage_ * rollingAverage_);
    }
 
    @Override
-   public String toString() {
+   public synchronized String toString() {
       return String.format("Avg = %g, Stdev = %g", getAverage(), getStandardDeviation());
    }
 
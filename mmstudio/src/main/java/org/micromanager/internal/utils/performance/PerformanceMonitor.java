@@ -22,7 +22,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Collection of exponentially smoothed statistics for monitoring dynamic
- * performance.
+ * performance. Statistics can be sampled from multiple threads.
  *
  * <p>Performance Monitor UI is enabled by setting the system property
  * "org.micromanager.showperfmon". This can be done from code/script panel:
@@ -76,7 +76,10 @@ public final class PerformanceMonitor {
       ExponentialSmoothing stat = stats_.get(statLabel);
       if (stat == null) {
          stat = ExponentialSmoothing.createWithTimeConstantMs(timeConstantMs_);
-         stats_.putIfAbsent(statLabel, stat);
+         ExponentialSmoothing existing = stats_.putIfAbsent(statLabel, stat);
+         if (existing != null) {
+            stat = existing;
+         }
       }
       stat.sample(value);
    }
@@ -86,7 +89,11 @@ public final class PerformanceMonitor {
       if (stat == null) {
          stat = TimeIntervalExponentialSmoothing.createWithTimeConstantMs(
                timeConstantMs_);
-         intervalStats_.putIfAbsent(startLabel, stat);
+         TimeIntervalExponentialSmoothing existing =
+               intervalStats_.putIfAbsent(startLabel, stat);
+         if (existing != null) {
+            stat = existing;
+         }
       }
       stat.sample();
    }
@@ -0,0 +1,147 @@
+package org.micromanager.data.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+
+public class StorageOffHeapTest {
+   private static final int WIDTH = 4;
+   private static final int HEIGHT = 3;
+   private static final int PLANE_BYTES = WIDTH * HEIGHT * 2;
+
+   private StorageOffHeap storage;
+
+   @Before
+   public void setUp() {
+      // Room for two planes; any further plane evicts one to the spill file
+      storage = new StorageOffHeap(new DefaultDatastore(null), 2 * PLANE_BYTES);
+   }
+
+   @After
+   public void tearDown() throws IOException {
+      storage.close();
+   }
+
+   private static Coords coords(int t) {
+      return new DefaultCoords.Builder().t(t).build();
+   }
+
+   private static short[] pixels(int seed) {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; i++) {
+         pixels[i] = (short) (seed * 1000 + i * 7 - 30000);
+      }
+      return pixels;
+   }
+
+   private void put(int t, int seed) throws IOException {
+      storage.putImage(new DefaultImage(pixels(seed), WIDTH, HEIGHT, 2, 1, coords(t),
+            new DefaultMetadata.Builder().build()));
+   }
+
+   private short[] get(int t) throws IOException {
+      return (short[]) storage.getImage(coords(t)).getRawPixels();
+   }
+
+   @Test
+   public void testEvictedPlanesAreReloaded() throws IOException {
+      for (int t = 0; t < 10; t++) {
+         put(t, t);
+      }
+      assertEquals(10, storage.getNumImages());
+      // Forward and backward, so that every plane is evicted and reloaded
+      for (int t = 0; t < 10; t++) {
+         assertArrayEquals(pixels(t), get(t));
+      }
+      for (int t = 9; t >= 0; t--) {
+         assertArrayEquals(pixels(t), get(t));
+      }
+   }
+
+   @Test
+   public void testReplacedAndDeletedPlanes() throws IOException {
+      for (int t = 0; t < 6; t++) {
+         put(t, t);
+      }
+      // Plane 0 and 1 have been spilled by now
+      put(0, 42);
+      storage.deleteImage(coords(1));
+      for (int t = 6; t < 9; t++) {
+         put(t, t);
+      }
+      assertArrayEquals(pixels(42), get(0));
+      assertFalse(storage.hasImage(coords(1)));
+      assertNull(storage.getImage(coords(1)));
+      for (int t = 2; t < 9; t++) {
+         assertArrayEquals(pixels(t), get(t));
+      }
+      assertEquals(8, storage.getNumImages());
+   }
+
+   @Test
+   public void testSpillSpaceIsReused() throws IOException {
+      for (int t = 0; t < 10; t++) {
+         put(t, t);
+      }
+      // Overwriting every plane several times would need 60 planes in the
+      // spill file if the space of the replaced planes were not reused.
+      // With reuse, there are the current planes, and at most a few more
+      // that were being written in the background.
+      for (int round = 1; round <= 5; round++) {
+         for (int t = 0; t < 10; t++) {
+            put(t, 10 * round + t);
+         }
+      }
+      for (int t = 0; t < 10; t++) {
+         assertArrayEquals(pixels(50 + t), get(t));
+      }
+      assertTrue("Spill file holds " + storage.getSpillFileSize() / PLANE_BYTES + " planes",
+            storage.getSpillFileSize() <= 15 * PLANE_BYTES);
+   }
+
+   @Test
+   public void testReturnedPixelsAreCopies() throws IOException {
+      for (int t = 0; t < 4; t++) {
+         put(t, t);
+      }
+      short[] first = get(0);
+      first[0] = 12345;
+      // Evict plane 0 again, then reload it
+      get(1);
+      get(2);
+      get(3);
+      assertArrayEquals(pixels(0), get(0));
+   }
+
+   @Test
+   public void testEightBitPlanes() throws IOException {
+      StorageOffHeap bytes = new StorageOffHeap(new DefaultDatastore(null), WIDTH * HEIGHT);
+      try {
+         for (int t = 0; t < 5; t++) {
+            byte[] pixels = new byte[WIDTH * HEIGHT];
+            for (int i = 0; i < pixels.length; i++) {
+               pixels[i] = (byte) (t * 31 + i);
+            }
+            bytes.putImage(new DefaultImage(pixels, WIDTH, HEIGHT, 1, 1, coords(t),
+                  new DefaultMetadata.Builder().build()));
+         }
+         for (int t = 4; t >= 0; t--) {
+            byte[] pixels = (byte[]) bytes.getImage(coords(t)).getRawPixels();
+            for (int i = 0; i < pixels.length; i++) {
+               assertEquals((byte) (t * 31 + i), pixels[i]);
+            }
+         }
+      } finally {
+         bytes.close();
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package org.micromanager.display.internal.imagestats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import org.junit.Test;
+
+public class PixelStatsKernelTest {
+   private static final int WIDTH = 37;
+   private static final int HEIGHT = 23;
+
+   @Test
+   public void testMaskedShortsMatchReference() {
+      Random random = new Random(42);
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         // 12-bit data with some out-of-range samples
+         pixels[i] = (short) random.nextInt(5000);
+      }
+      Rectangle maskBounds = new Rectangle(-3, 4, 30, 15);
+      byte[] mask = new byte[maskBounds.width * maskBounds.height];
+      for (int i = 0; i < mask.length; ++i) {
+         mask[i] = (byte) random.nextInt(256);
+      }
+      Rectangle statsBounds = new Rectangle(0, 4, 27, 15);
+
+      PixelStatsKernel kernel = new PixelStatsKernel(pixels, WIDTH, 1,
+            statsBounds, mask, maskBounds, 128, 12, 8, 1);
+      PixelStatsKernel.Accumulator acc = kernel.createAccumulator();
+      kernel.accumulateRows(acc, 4, 19);
+      IntegerComponentStats stats = acc.toComponentStats(true)[0];
+
+      long[] histogram = new long[258];
+      long count = 0;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      for (int y = 4; y < 19; ++y) {
+         for (int x = 0; x < 27; ++x) {
+            int m = mask[(x - maskBounds.x) + (y - maskBounds.y) * maskBounds.width] & 0xff;
+            if (m < 128) {
+               continue;
+            }
+            long v = pixels[y * WIDTH + x] & 0xffff;
+            histogram[v > 4095 ? 257 : (int) (v >> 4) + 1]++;
+            ++count;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            sumOfSquares += v * v;
+         }
+      }
+
+      assertEquals(count, stats.getPixelCount());
+      assertEquals(min, stats.getMinIntensity());
+      assertEquals(max, stats.getMaxIntensity());
+      assertEquals(sum, stats.getSum());
+      assertEquals(sumOfSquares, stats.getSumOfSquares());
+      assertEquals(histogram[257], stats.getPixelCountAboveRange());
+      long[] inRange = new long[256];
+      System.arraycopy(histogram, 1, inRange, 0, 256);
+      assertArrayEquals(inRange, stats.getInRangeHistogram());
+   }
+
+   @Test
+   public void testStripesMatchSinglePass() {
+      Random random = new Random(7);
+      byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+      random.nextBytes(pixels);
+      Rectangle bounds = new Rectangle(0, 0, WIDTH, HEIGHT);
+      PixelStatsKernel kernel = new PixelStatsKernel(pixels, WIDTH, 3,
+            bounds, null, null, 128, 8, 8, 1);
+
+      PixelStatsKernel.Accumulator whole = kernel.createAccumulator();
+      kernel.accumulateRows(whole, 0, HEIGHT);
+      PixelStatsKernel.Accumulator merged = kernel.createAccumulator();
+      kernel.accumulateRows(merged, 0, 10);
+      PixelStatsKernel.Accumulator rest = kernel.createAccumulator();
+      kernel.accumulateRows(rest, 10, HEIGHT);
+      merged.merge(rest);
+
+      IntegerComponentStats[] expected = whole.toComponentStats(false);
+      IntegerComponentStats[] actual = merged.toComponentStats(false);
+      for (int c = 0; c < 3; ++c) {
+         assertEquals(WIDTH * HEIGHT, actual[c].getPixelCount());
+         assertEquals(expected[c].getMinIntensity(), actual[c].getMinIntensity());
+         assertEquals(expected[c].getMaxIntensity(), actual[c].getMaxIntensity());
+         assertEquals(expected[c].getSumOfSquares(), actual[c].getSumOfSquares());
+         assertArrayEquals(expected[c].getInRangeHistogram(),
+               actual[c].getInRangeHistogram());
+      }
+   }
+
+   @Test
+   public void testStrideSamplesGrid() {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) i;
+      }
+      // 10 columns (x = 5, 8, ..., 32) and 5 rows (y = 2, 5, ..., 14)
+      Rectangle bounds = new Rectangle(5, 2, 30, 15);
+      PixelStatsKernel kernel = new PixelStatsKernel(pixels, WIDTH, 1,
+            bounds, null, null, 128, 16, 8, 3);
+      PixelStatsKernel.Accumulator acc = kernel.createAccumulator();
+      kernel.accumulateRows(acc, 2, 10);
+      PixelStatsKernel.Accumulator rest = kernel.createAccumulator();
+      kernel.accumulateRows(rest, 10, 17);
+      acc.merge(rest);
+      IntegerComponentStats stats = acc.toComponentStats(false)[0];
+      assertEquals(50, stats.getPixelCount());
+      assertEquals(2 * WIDTH + 5, stats.getMinIntensity());
+      assertEquals(14 * WIDTH + 32, stats.getMaxIntensity());
+      assertTrue(stats.isApproximate());
+   }
+
+   @Test
+   public void testEmptyMask() {
+      byte[] mask = new byte[WIDTH * HEIGHT];
+      Rectangle bounds = new Rectangle(0, 0, WIDTH, HEIGHT);
+      PixelStatsKernel kernel = new PixelStatsKernel(new short[WIDTH * HEIGHT],
+            WIDTH, 1, bounds, mask, bounds, 128, 16, 8, 1);
+      assertFalse(kernel.hasUnmaskedPixels());
+   }
+}
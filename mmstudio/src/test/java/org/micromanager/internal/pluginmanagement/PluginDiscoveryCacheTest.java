@@ -0,0 +1,86 @@
+package org.micromanager.internal.pluginmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PluginDiscoveryCacheTest {
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private File createJar(String name, String contents) throws IOException {
+      File jar = folder.newFile(name);
+      Files.write(contents, jar, Charsets.UTF_8);
+      return jar;
+   }
+
+   @Test
+   public void testEntriesSurviveSaveAndLoad() throws IOException {
+      File cacheFile = new File(folder.getRoot(), "cache.txt");
+      File jar = createJar("a.jar", "a");
+      File emptyJar = createJar("b.jar", "b");
+
+      PluginDiscoveryCache cache = new PluginDiscoveryCache(cacheFile);
+      assertNull(cache.get(jar));
+      cache.put(jar, Arrays.asList(
+            new PluginDiscoveryCache.Entry("org.example.First", 0.0),
+            new PluginDiscoveryCache.Entry("org.example.Second", -100.5)));
+      cache.put(emptyJar, new ArrayList<PluginDiscoveryCache.Entry>());
+      cache.save();
+
+      PluginDiscoveryCache loaded = new PluginDiscoveryCache(cacheFile);
+      List<PluginDiscoveryCache.Entry> entries = loaded.get(jar);
+      assertNotNull(entries);
+      assertEquals(2, entries.size());
+      assertEquals("org.example.First", entries.get(0).className);
+      assertEquals(0.0, entries.get(0).priority, 0.0);
+      assertEquals("org.example.Second", entries.get(1).className);
+      assertEquals(-100.5, entries.get(1).priority, 0.0);
+      // A jar without plugins is remembered, so it need not be searched
+      assertNotNull(loaded.get(emptyJar));
+      assertTrue(loaded.get(emptyJar).isEmpty());
+   }
+
+   @Test
+   public void testChangedOrRemovedJarsAreForgotten() throws IOException {
+      File cacheFile = new File(folder.getRoot(), "cache.txt");
+      File changed = createJar("changed.jar", "old");
+      File removed = createJar("removed.jar", "removed");
+
+      PluginDiscoveryCache cache = new PluginDiscoveryCache(cacheFile);
+      cache.put(changed, Arrays.asList(
+            new PluginDiscoveryCache.Entry("org.example.Plugin", 0.0)));
+      cache.put(removed, Arrays.asList(
+            new PluginDiscoveryCache.Entry("org.example.Gone", 0.0)));
+      Files.write("new contents", changed, Charsets.UTF_8);
+      assertNull(cache.get(changed));
+
+      assertTrue(removed.delete());
+      cache.save();
+      assertNull(new PluginDiscoveryCache(cacheFile).get(removed));
+   }
+
+   @Test
+   public void testUnreadableCacheIsEmpty() throws IOException {
+      File cacheFile = new File(folder.getRoot(), "cache.txt");
+      File jar = createJar("a.jar", "a");
+      Files.write("not a cache\n", cacheFile, Charsets.UTF_8);
+      assertNull(new PluginDiscoveryCache(cacheFile).get(jar));
+
+      Files.write("# Micro-Manager plugin discovery cache, version 1\n"
+            + jar.getAbsolutePath() + "\tgarbage\n", cacheFile, Charsets.UTF_8);
+      assertNull(new PluginDiscoveryCache(cacheFile).get(jar));
+   }
+}
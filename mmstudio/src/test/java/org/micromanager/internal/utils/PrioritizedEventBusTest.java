@@ -0,0 +1,106 @@
+package org.micromanager.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class PrioritizedEventBusTest {
+   private final List<String> received = new ArrayList<>();
+
+   /**
+    * Records the events it receives, and optionally posts another event
+    * when receiving a String.
+    */
+   public class Recorder {
+      private final String name;
+      private final PrioritizedEventBus bus;
+      private final Object toPost;
+
+      Recorder(String name, PrioritizedEventBus bus, Object toPost) {
+         this.name = name;
+         this.bus = bus;
+         this.toPost = toPost;
+      }
+
+      @Subscribe
+      public void onString(String event) {
+         received.add(name + ":" + event);
+         if (toPost != null) {
+            bus.post(toPost);
+         }
+      }
+
+      @Subscribe
+      public void onInteger(Integer event) {
+         received.add(name + ":" + event);
+      }
+   }
+
+   @Test
+   public void testLowerPriorityNumbersAreNotifiedFirst() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.register(new Recorder("late", bus, null), 200);
+      bus.register(new Recorder("early", bus, null), 0);
+      bus.register(new Recorder("default", bus, null));
+      bus.post("E");
+      assertEquals(Arrays.asList("early:E", "default:E", "late:E"), received);
+   }
+
+   @Test
+   public void testNestedPostsAreQueuedPerPriority() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.register(new Recorder("A", bus, 1), 0);
+      bus.register(new Recorder("B", bus, null), 0);
+      bus.register(new Recorder("C", bus, null), 100);
+      bus.post("E");
+      // As with one EventBus per priority: the nested event waits behind
+      // "E" at priority 0, but reaches priority 100 before "E" does.
+      assertEquals(Arrays.asList("A:E", "C:1", "B:E", "A:1", "B:1", "C:E"), received);
+   }
+
+   @Test
+   public void testExceptionsDoNotStopDelivery() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.register(new Object() {
+         @Subscribe
+         public void onString(String event) {
+            throw new IllegalStateException("expected by test");
+         }
+      }, 0);
+      bus.register(new Recorder("after", bus, null), 100);
+      bus.post("E");
+      assertEquals(Arrays.asList("after:E"), received);
+   }
+
+   @Test
+   public void testErrorsArePassedOn() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.register(new Object() {
+         @Subscribe
+         public void onString(String event) {
+            throw new AssertionError("expected by test");
+         }
+      });
+      boolean thrown = false;
+      try {
+         bus.post("E");
+      } catch (AssertionError e) {
+         thrown = true;
+      }
+      assertTrue(thrown);
+      // The bus still works after an Error
+      bus.register(new Recorder("later", bus, null), 200);
+      try {
+         bus.post("F");
+      } catch (AssertionError e) {
+         // Still thrown by the first subscriber
+      }
+      bus.post(3);
+      assertEquals(Arrays.asList("later:3"), received);
+   }
+}
@@ -49,6 +49,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.text.ParseException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
@@ -121,6 +122,7 @@ import org.micromanager.asidispim.data.Devices.Sides;
 import org.micromanager.asidispim.events.SPIMAcquisitionEndedEvent;
 import org.micromanager.asidispim.events.SPIMAcquisitionStartedEvent;
 import org.micromanager.asidispim.utils.ControllerUtils;
+import org.micromanager.asidispim.utils.ImageDrain;
 import org.micromanager.asidispim.utils.AutofocusUtils;
 import org.micromanager.asidispim.utils.MovementDetector;
 import org.micromanager.asidispim.utils.MovementDetector.Method;
@@ -2354,6 +2356,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             }
 
             Datastore store = null;
+            ImageDrain drain = null;
 
             long extraStageScanTimeout = 0;
             if (acqSettings.isStageScanning) {
@@ -2521,6 +2524,17 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                 // do once here but not per-trigger; need to ensure ROI changes registered
                 core_.initializeCircularBuffer();
 
+                // images are stored on the drain's writer thread so that this thread
+                //   can keep emptying the circular buffer while the disk catches up
+                final Datastore acqStore = store;
+                drain = new ImageDrain(core_, new ImageDrain.FrameWriter() {
+                    @Override
+                    public void write(ImageDrain.Frame frame) throws Exception {
+                        addImageToAcquisition(acqStore, frame.timePoint, frame.channel,
+                                frame.slice, frame.position, frame.elapsedMs, frame.image);
+                    }
+                }, ImageDrain.defaultCapacity(core_));
+
                 // only used when motion correction was requested
                 MovementDetector[] movementDetectors = new MovementDetector[nrPositions];
 
@@ -2724,6 +2738,8 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                     }
                                 }
 
+                                final int nrImagesExpected = nrSlicesSoftware * (twoSided ? 2 : 1);
+                                int nrImagesReceived = 0;
                                 start = System.currentTimeMillis();
                                 long last = start;
                                 try {
@@ -2731,13 +2747,15 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             || core_.isSequenceRunning(firstCamera)
                                             || (twoSided && core_.isSequenceRunning(secondCamera)))
                                             && !done) {
+                                        // take everything the cameras have sent so far, waiting briefly if nothing yet
+                                        List<TaggedImage> batch = drain.takeBatch(5);
                                         now = System.currentTimeMillis();
-                                        if (core_.getRemainingImageCount() > 0) {  // we have an image to grab
-                                            TaggedImage timg = core_.popNextTaggedImage();
+                                        for (TaggedImage timg : batch) {
+                                            nrImagesReceived++;
 
                                             if (checkForSkips && imagesToSkip != 0) {
                                                 imagesToSkip--;
-                                                continue;  // goes to next iteration of this loop without doing anything else 
+                                                continue;  // goes to next image of this batch without doing anything else 
                                             }
 
                                             // figure out which channel index this frame belongs to 
@@ -2781,17 +2799,16 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             }
                                             // note that hardwareTimepoints and separateTimepoints can never both be true
 
-                                            // add image to acquisition
+                                            // add image to acquisition (written asynchronously by the drain)
                                             if (spimMode == AcquisitionModes.Keys.NO_SCAN && !acqSettings.separateTimepoints) {
                                                 // create time series for no scan
-
-                                                addImageToAcquisition(store,
-                                                        frNumber[channelIndex], channelIndex, timePoint,
-                                                        positionNum, now - acqStart, timg);
+                                                drain.submit(new ImageDrain.Frame(frNumber[channelIndex],
+                                                        positionNum, channelIndex, timePoint, cameraIndex,
+                                                        now - acqStart, timg));
                                             } else { // standard, create Z-stacks
-                                                addImageToAcquisition(store, timePoint, channelIndex,
-                                                        frNumber[channelIndex], positionNum,
-                                                        now - acqStart, timg);
+                                                drain.submit(new ImageDrain.Frame(timePoint, positionNum,
+                                                        channelIndex, frNumber[channelIndex], cameraIndex,
+                                                        now - acqStart, timg));
                                             }
 
                                             // update our counters to be ready for next image
@@ -2825,11 +2842,12 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                                     updateAcquisitionStatus(AcquisitionStatus.ACQUIRING);
                                                 }
                                             }
-                                            last = now;  // keep track of last image timestamp
+                                        }
 
+                                        if (!batch.isEmpty()) {
+                                            last = now;  // keep track of last image timestamp
                                         } else {  // no image ready yet
                                             done = cancelAcquisition_.get();
-                                            Thread.sleep(1);
                                             if (now - last >= timeout2) {
                                                 ReportingUtils.logError("Camera did not send all expected images within"
                                                         + " a reasonable period for timepoint " + (timePoint + 1) + ".  Continuing anyway.");
@@ -2842,6 +2860,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                     // update count if we stopped in the middle
                                     if (cancelAcquisition_.get()) {
                                         numTimePointsDone_--;
+                                    } else if (nrImagesReceived < nrImagesExpected) {
+                                        drain.addDroppedFrames(nrImagesExpected - nrImagesReceived);
+                                        ReportingUtils.logError("Received " + nrImagesReceived + " of " + nrImagesExpected
+                                                + " expected images for timepoint " + (timePoint + 1)
+                                                + (core_.isBufferOverflowed() ? ", circular buffer overflowed" : ""));
                                     }
 
                                     // if we are using demo camera then add some extra time to let controller finish
@@ -2943,6 +2966,17 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             } finally {  // end of this acquisition (could be about to restart if separate viewers)
                 try {
 
+                    // store the images still waiting in the drain before freezing
+                    if (drain != null) {
+                        try {
+                            drain.finish();
+                        } catch (InterruptedException ie) {
+                            ReportingUtils.logError(ie, "Interrupted while storing remaining images");
+                            Thread.currentThread().interrupt();
+                        }
+                        ReportingUtils.logMessage("diSPIM plugin image drain " + drain.toString());
+                    }
+
                     if (store != null) {
                         store.freeze();
                     }
@@ -0,0 +1,357 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ImageDrain.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2014
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Moves images from the core's circular buffer (filled by one or both
+ * cameras) to the acquisition's datastore.
+ *
+ * The acquisition thread pulls all images that are available in one batch,
+ * works out where each belongs and submits it here.  Submitted images wait in
+ * a bounded queue that is sorted by (timepoint, position, channel, slice),
+ * where the channel includes the side, so that when the disk falls behind,
+ * the images of the two cameras are written back in stack order.  A single
+ * writer thread takes the first image from that queue and stores it, so the
+ * acquisition thread never waits on the disk unless the queue is full.
+ *
+ * Counts the highest number of images seen waiting in the circular buffer
+ * and in the queue, and the images that were dropped (never arrived, or
+ * could not be stored), so that they can be reported after acquisition.
+ */
+public class ImageDrain {
+
+   /**
+    * Stores one image, called on the writer thread in queue order.
+    */
+   public interface FrameWriter {
+      void write(Frame frame) throws Exception;
+   }
+
+   /**
+    * An image with the coordinates it is to be stored at.
+    */
+   public static final class Frame implements Comparable<Frame> {
+      public final int timePoint;
+      public final int position;
+      public final int channel;  // MM channel, i.e. includes the side
+      public final int slice;
+      public final int side;     // camera index, 0 for first camera
+      public final long elapsedMs;
+      public final TaggedImage image;
+
+      public Frame(int timePoint, int position, int channel, int slice, int side,
+            long elapsedMs, TaggedImage image) {
+         this.timePoint = timePoint;
+         this.position = position;
+         this.channel = channel;
+         this.slice = slice;
+         this.side = side;
+         this.elapsedMs = elapsedMs;
+         this.image = image;
+      }
+
+      @Override
+      public int compareTo(Frame other) {
+         if (timePoint != other.timePoint) {
+            return timePoint < other.timePoint ? -1 : 1;
+         }
+         if (position != other.position) {
+            return position < other.position ? -1 : 1;
+         }
+         if (channel != other.channel) {
+            return channel < other.channel ? -1 : 1;
+         }
+         if (slice != other.slice) {
+            return slice < other.slice ? -1 : 1;
+         }
+         return 0;
+      }
+   }
+
+   // most images to pop in one batch, so the caller gets to check for
+   //   cancellation even if the cameras outrun us
+   private static final int MAX_BATCH = 64;
+   // how long to wait between checks of the circular buffer when it is empty
+   private static final long POLL_INTERVAL_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+   private final CMMCore core_;
+   private final FrameWriter writer_;
+   private final int capacity_;
+   private final Thread writerThread_;
+
+   // all fields below are guarded by lock_
+   private final ReentrantLock lock_ = new ReentrantLock();
+   private final Condition notEmpty_ = lock_.newCondition();
+   private final Condition notFull_ = lock_.newCondition();
+   private final PriorityQueue<Frame> queue_ = new PriorityQueue<Frame>();
+   private boolean finishing_ = false;
+   private Exception error_ = null;
+   private int bufferHighWaterMark_ = 0;
+   private int queueHighWaterMark_ = 0;
+   private int droppedFrames_ = 0;
+   private int framesWritten_ = 0;
+
+   /**
+    * Starts the writer thread.
+    *
+    * @param core
+    * @param writer stores the images
+    * @param capacity most images to hold in the queue before submit() blocks
+    */
+   public ImageDrain(CMMCore core, FrameWriter writer, int capacity) {
+      core_ = core;
+      writer_ = writer;
+      capacity_ = Math.max(1, capacity);
+      writerThread_ = ThreadFactoryFactory.createThreadFactory("diSPIM image writer")
+            .newThread(new Runnable() {
+               @Override
+               public void run() {
+                  writeFrames();
+               }
+            });
+      writerThread_.start();
+   }
+
+   /**
+    * Queue capacity that uses at most a quarter of the free heap for images
+    * of the current camera's size, but at least 4 images.
+    *
+    * @param core
+    * @return number of images
+    */
+   public static int defaultCapacity(CMMCore core) {
+      long imageBytes = Math.max(1L,
+            core.getImageWidth() * core.getImageHeight() * core.getBytesPerPixel());
+      Runtime rt = Runtime.getRuntime();
+      long freeBytes = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+      return (int) Math.max(4, Math.min(4096, freeBytes / 4 / imageBytes));
+   }
+
+   /**
+    * Pops all images that are waiting in the circular buffer (up to a
+    * limit).  If none are waiting, checks again every 100 us until one
+    * arrives or the timeout is over.
+    *
+    * @param timeoutMs longest time to wait for the first image
+    * @return the images, in the order the cameras sent them; empty if none
+    *    arrived in time
+    * @throws Exception if the core fails to return an image
+    */
+   public List<TaggedImage> takeBatch(long timeoutMs) throws Exception {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      int remaining = core_.getRemainingImageCount();
+      while (remaining == 0 && System.nanoTime() < deadline) {
+         LockSupport.parkNanos(POLL_INTERVAL_NS);
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         remaining = core_.getRemainingImageCount();
+      }
+      if (remaining > 0) {
+         lock_.lock();
+         try {
+            bufferHighWaterMark_ = Math.max(bufferHighWaterMark_, remaining);
+         } finally {
+            lock_.unlock();
+         }
+      }
+      List<TaggedImage> batch = new ArrayList<TaggedImage>(Math.min(remaining, MAX_BATCH));
+      while (remaining > 0 && batch.size() < MAX_BATCH) {
+         batch.add(core_.popNextTaggedImage());
+         remaining--;
+      }
+      return batch;
+   }
+
+   /**
+    * Queues an image to be stored.  Blocks while the queue is full, in which
+    * case the images wait in the circular buffer instead.
+    *
+    * @param frame
+    * @throws Exception if storing an earlier image failed, or if interrupted
+    */
+   public void submit(Frame frame) throws Exception {
+      lock_.lock();
+      try {
+         while (queue_.size() >= capacity_ && error_ == null) {
+            notFull_.await();
+         }
+         if (error_ != null) {
+            droppedFrames_++;
+            throw new Exception("Could not store acquired image", error_);
+         }
+         if (finishing_) {
+            droppedFrames_++;
+            throw new IllegalStateException("Image submitted after drain was finished");
+         }
+         queue_.add(frame);
+         queueHighWaterMark_ = Math.max(queueHighWaterMark_, queue_.size());
+         notEmpty_.signal();
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * Records images that the cameras should have sent but did not.
+    *
+    * @param nrFrames
+    */
+   public void addDroppedFrames(int nrFrames) {
+      lock_.lock();
+      try {
+         droppedFrames_ += nrFrames;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * Stores the images still in the queue and stops the writer thread.  No
+    * images can be submitted afterwards.
+    *
+    * @throws InterruptedException
+    */
+   public void finish() throws InterruptedException {
+      lock_.lock();
+      try {
+         finishing_ = true;
+         notEmpty_.signal();
+      } finally {
+         lock_.unlock();
+      }
+      writerThread_.join();
+   }
+
+   private void writeFrames() {
+      while (true) {
+         Frame frame;
+         lock_.lock();
+         try {
+            while (queue_.isEmpty() && !finishing_) {
+               notEmpty_.awaitUninterruptibly();
+            }
+            frame = queue_.poll();
+            if (frame == null) {
+               return;
+            }
+            notFull_.signal();
+         } finally {
+            lock_.unlock();
+         }
+         Exception error = null;
+         try {
+            writer_.write(frame);
+         } catch (Exception ex) {
+            error = ex;
+         }
+         lock_.lock();
+         try {
+            if (error == null) {
+               framesWritten_++;
+            } else {
+               droppedFrames_++;
+               if (error_ == null) {
+                  error_ = error;
+                  ReportingUtils.logError(error, "diSPIM plugin could not store image");
+                  // let a blocked submit() see the error
+                  notFull_.signalAll();
+               }
+            }
+         } finally {
+            lock_.unlock();
+         }
+      }
+   }
+
+   /**
+    * @return most images seen waiting in the circular buffer
+    */
+   public int getBufferHighWaterMark() {
+      lock_.lock();
+      try {
+         return bufferHighWaterMark_;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * @return most images seen waiting to be stored
+    */
+   public int getQueueHighWaterMark() {
+      lock_.lock();
+      try {
+         return queueHighWaterMark_;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * @return images that never arrived or could not be stored
+    */
+   public int getDroppedFrames() {
+      lock_.lock();
+      try {
+         return droppedFrames_;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * @return images stored so far
+    */
+   public int getFramesWritten() {
+      lock_.lock();
+      try {
+         return framesWritten_;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   @Override
+   public String toString() {
+      lock_.lock();
+      try {
+         return "stored " + framesWritten_ + " images, dropped " + droppedFrames_
+               + ", at most " + bufferHighWaterMark_ + " images waiting in circular buffer"
+               + " and " + queueHighWaterMark_ + " of " + capacity_ + " in write queue";
+      } finally {
+         lock_.unlock();
+      }
+   }
+}
@@ -2,9 +2,7 @@ package org.micromanager.assembledata;
 
 import boofcv.abst.distort.FDistort;
 import boofcv.alg.misc.GImageMiscOps;
-import boofcv.core.image.ConvertImage;
 import boofcv.struct.border.BorderType;
-import boofcv.struct.image.GrayF32;
 import boofcv.struct.image.GrayS32;
 import boofcv.struct.image.GrayU16;
 import boofcv.struct.image.GrayU8;
@@ -13,8 +11,15 @@ import georegression.struct.affine.Affine2D_F64;
 import georegression.struct.homography.Homography2D_F64;
 import java.awt.geom.AffineTransform;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.micromanager.Studio;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
@@ -24,6 +29,7 @@ import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.imageanalysis.BoofCVImageConverter;
 
 /**
@@ -153,155 +159,40 @@ public class AssembleDataAlgo {
          singlePositionAf64I.tx = widthPixels / 2.0 + xOffset;
          singlePositionAf64I.ty = heightPixels / 2.0 + yOffset;
 
-         //for (DataProvider data : datas) {
-         cb.t(0).c(0).p(0).z(0);
-         ImageGray newImgBoof;
-         ImageGray oldImgBoof;
-         ImageGray tmpImgBoof;
-         if (bytesPerPixel == 1) {
-            newImgBoof = new GrayU8(widthPixels, heightPixels);
-            tmpImgBoof = new GrayU8(widthPixels, heightPixels);
-         } else { // bytesPerPixel == 2
-            newImgBoof = new GrayU16(widthPixels, heightPixels);
-            tmpImgBoof = new GrayU16(widthPixels, heightPixels);
-         }
-         
-         GrayF32 tmpImgNF32 = new GrayF32(
-               mpd.getAnyImage().getWidth(), mpd.getAnyImage().getHeight());
-
          // single position data
          final int spdTLength = test ? 1 : spd.getNextIndex(Coords.T);
          final int spdCLength = test ? 1 : spd.getNextIndex(Coords.C);
-         Metadata.Builder newMetadataB;
+         // multi position data
+         final int mpdTLength = test ? 1 : mpd.getNextIndex(Coords.T);
+         final int mpdCLength = test ? 1 : mpd.getNextIndex(Coords.C);
+
+         // Every (t, c) output image is assembled independently, on a pool of
+         // threads that each reuse their own BoofCV images.
+         final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(
+               () -> new Workspace(bytesPerPixel, widthPixels, heightPixels));
+         final double finalBasePixelSize = basePixelSize;
+         final int mpdPLength = mpd.getNextIndex(Coords.STAGE_POSITION);
+         List<Callable<Image>> tasks = new ArrayList<>();
          for (int t = 0; t < spdTLength; t++) {
             for (int c = 0; c < spdCLength; c++) {
-               cb.t(t).c(c).p(0).z(0);
-               Image img = spd.getImage(cb.p(0).build());
-               if (img != null) {
-                  newMetadataB = img.getMetadata()
-                        .copyBuilderWithNewUUID().pixelSizeUm(basePixelSize);
-                  /*
-                  TODO: use stage position informatoin to correct for inaccuracies
-                  this will currently cause errors in the GImageMiscOps.copy step
-                  double pSize = img.getMetadata().getPixelSizeUm();
-                  double tmpXMinUm = img.getMetadata().getXPositionUm()
-                           - (0.5 * img.getWidth() * pSize);
-                  double tmpYMinUm = img.getMetadata().getYPositionUm()
-                           - (0.5 * img.getHeight() * pSize);
-
-                  int xMinPixel = (int) ((tmpXMinUm - xMinUm) / basePixelSize);
-                  int yMinPixel = (int) ((tmpYMinUm - yMinUm) / basePixelSize);
-                   */
-
-                  if (bytesPerPixel == 1) {
-                     GrayU8 tmp = new GrayU8(img.getWidth(), img.getHeight());
-                     tmp.setData((byte[]) img.getRawPixels());
-                     oldImgBoof = tmp;
-                  } else { // bytesPerPixel == 2
-                     GrayU16 tmp = new GrayU16(img.getWidth(), img.getHeight());
-                     tmp.setData((short[]) img.getRawPixels());
-                     oldImgBoof = tmp;
-                  }
-                  //GImageMiscOps.copy(0, 0, xMinPixel, yMinPixel, img.getWidth(), img.getHeight(),
-                  //        oldImgBoof, newImgBoof);
-                  GImageMiscOps.copy(0, 0, 0, 0, img.getWidth(), img.getHeight(),
-                          oldImgBoof, newImgBoof);
-                  Coords coords = cb.p(targetPosition).c(c).t(t).build();
-                  System.out.println(coords.toString());
-                  newMetadataB.positionName("Site-" + targetPosition);
-                  Image newImage = BoofCVImageConverter.boofCVToMM(newImgBoof,
-                          cb.p(targetPosition).c(c).t(t).build(), newMetadataB.build());
-                  output.putImage(newImage);
-                  GImageMiscOps.fill(newImgBoof, 0.0);
-               }
+               final Coords inCoords = Coordinates.builder().t(t).c(c).p(0).z(0).build();
+               final Coords outCoords = Coordinates.builder().t(t).c(c)
+                     .p(targetPosition).z(0).build();
+               tasks.add(() -> copySinglePosition(workspaces.get(), spd, inCoords,
+                     outCoords, finalBasePixelSize, targetPosition));
             }
-            int progress = (int) (50.0 * t / spd.getNextIndex(Coords.T));
-            form.setStatus(" " + progress + "%");
          }
-
-         // multi position data
-         final int mpdTLength = test ? 1 : mpd.getNextIndex(Coords.T);
-         final int mpdCLenghth = test ? 1 : mpd.getNextIndex(Coords.C);
          for (int t = 0; t < mpdTLength; t++) {
-            for (int c = 0; c < mpdCLenghth; c++) {
-               newMetadataB = null;
-               for (int p = 0; p < mpd.getNextIndex(Coords.STAGE_POSITION); p++) {
-                  Image img = mpd.getImage(cb.c(c).t(t).p(p).build());
-                  if (img != null) {
-                     newMetadataB = img.getMetadata()
-                           .copyBuilderWithNewUUID().pixelSizeUm(basePixelSize);
-                     if (bytesPerPixel == 1) {
-                        GrayU8 tmp = new GrayU8(img.getWidth(), img.getHeight());
-                        tmp.setData((byte[]) img.getRawPixels());
-                        oldImgBoof = tmp;
-                     } else { // bytesPerPixel == 2
-                        GrayU16 tmp = new GrayU16(img.getWidth(), img.getHeight());
-                        tmp.setData((short[]) img.getRawPixels());
-                        //oldImgBoof = new GrayF32(img.getWidth(), img.getHeight());
-                        ConvertImage.convert(tmp, tmpImgNF32);
-                        oldImgBoof = tmp;
-                     }
-                     double diffX = centerXUm - img.getMetadata().getXPositionUm();
-                     double diffY = centerYUm - img.getMetadata().getYPositionUm();
-
-                     Affine2D_F64 aff = multiPositionAf64.copy();
-
-                     aff.tx = -(diffX);
-                     aff.ty = -(diffY);
-                     //centerXUm - img.getMetadata().getXPositionUm(),.0
-                     //centerYUm - img.getMetadata().getYPositionUm());
-
-                     aff = aff.concat(singlePositionAf64I, null);
-                     //
-                     FDistort fd = new FDistort();
-                     fd.input(oldImgBoof);
-                     fd.output(tmpImgBoof);
-                     fd.affine(aff);
-                     fd.interpNN();
-                     fd.border(BorderType.SKIP);
-                     fd.apply();
-                     // GPixelMath.add(newImgBoof, tmpImgBoof, tmp2ImgBoof);
-                     // GConvertImage.convert(tmp2ImgBoof, newImgBoof);
-                     /*
-                     Affine2D_F32 a32 = new Affine2D_F32((float) aff.a11,
-                              (float) aff.a12,
-                              (float) aff.a21,
-                              (float) aff.a22,
-                              (float) aff.tx,
-                              (float) aff.ty );
-                     PixelTransformAffine_F32 model = new PixelTransformAffine_F32(a32);
-                     //PixelTransformHomography_F32 model =
-                        new PixelTransformHomography_F32();
-                     //model.set(pf);
-                     InterpolatePixelS<GrayF32> interp = FactoryInterpolation.bilinearPixelS(
-                             GrayF32.class, BorderType.ZERO);
-                     AssignPixelValue_SB.F32 f32 = new AssignPixelValue_SB.F32();
-                     ImageDistort<GrayF32, GrayF32> distort = new ImageDistortBasic_SB(
-                                    f32, interp);
-                     // ImageDistort<Planar<GrayF32>,Planar<GrayF32>> distort =
-                     //               DistortSupport.createDistortPL(
-                                          GrayF32.class, model, interp, false);
-                     distort.setModel(model);
-                     distort.setRenderAll(false);
-                     distort.apply(tmpImgNF32, tmpImgSF32);
-                     */
-                  }
-               }
-               if (newMetadataB != null) {
-                  Coords coords = cb.p(targetPosition).c(c + spdCLength).t(t).build();
-                  System.out.println(coords.toString());                  
-                  newMetadataB.positionName("Site-" + targetPosition);
-                  //GrayU16 g = new GrayU16(tmpImgSF32.width, tmpImgSF32.height);
-                  //ConvertImage.convert(tmpImgSF32, g);
-                  Image newImage = BoofCVImageConverter.boofCVToMM(tmpImgBoof, 
-                          coords, newMetadataB.build());
-                  output.putImage(newImage);
-                  GImageMiscOps.fill(tmpImgBoof, 0.0);
-               }
+            for (int c = 0; c < mpdCLength; c++) {
+               final Coords inCoords = Coordinates.builder().t(t).c(c).p(0).z(0).build();
+               final Coords outCoords = Coordinates.builder().t(t).c(c + spdCLength)
+                     .p(targetPosition).z(0).build();
+               tasks.add(() -> warpMultiPosition(workspaces.get(), mpd, mpdPLength,
+                     inCoords, outCoords, finalBasePixelSize, targetPosition, multiPositionAf64,
+                     singlePositionAf64I, centerXUm, centerYUm));
             }
-            int progress = (int) (50.0 + 50.0 * t / spdTLength);
-            form.setStatus(" " + progress + "%");
          }
+         putAll(form, output, tasks);
 
          return output;
 
@@ -312,6 +203,155 @@ public class AssembleDataAlgo {
       return null;
    }
 
+   /**
+    * BoofCV images reused by one assembly thread.
+    */
+   private static final class Workspace {
+      final ImageGray output;
+      final ImageGray tile;
+      FDistort distort;
+
+      Workspace(int bytesPerPixel, int width, int height) {
+         if (bytesPerPixel == 1) {
+            output = new GrayU8(width, height);
+            tile = new GrayU8();
+         } else { // bytesPerPixel == 2
+            output = new GrayU16(width, height);
+            tile = new GrayU16();
+         }
+      }
+
+      /**
+       * Points the tile image at the pixels of a Micro-Manager image,
+       * without copying them.
+       */
+      ImageGray wrap(Image img) {
+         if (tile instanceof GrayU8) {
+            ((GrayU8) tile).data = (byte[]) img.getRawPixels();
+         } else {
+            ((GrayU16) tile).data = (short[]) img.getRawPixels();
+         }
+         tile.width = img.getWidth();
+         tile.height = img.getHeight();
+         tile.stride = img.getWidth();
+         tile.startIndex = 0;
+         return tile;
+      }
+   }
+
+   private static Image copySinglePosition(Workspace ws, DataProvider spd, Coords inCoords,
+         Coords outCoords, double basePixelSize, int targetPosition) throws IOException {
+      Image img = spd.getImage(inCoords);
+      if (img == null) {
+         return null;
+      }
+      Metadata.Builder newMetadataB = img.getMetadata()
+            .copyBuilderWithNewUUID().pixelSizeUm(basePixelSize);
+      /*
+      TODO: use stage position informatoin to correct for inaccuracies
+      this will currently cause errors in the GImageMiscOps.copy step
+      double pSize = img.getMetadata().getPixelSizeUm();
+      double tmpXMinUm = img.getMetadata().getXPositionUm()
+               - (0.5 * img.getWidth() * pSize);
+      double tmpYMinUm = img.getMetadata().getYPositionUm()
+               - (0.5 * img.getHeight() * pSize);
+
+      int xMinPixel = (int) ((tmpXMinUm - xMinUm) / basePixelSize);
+      int yMinPixel = (int) ((tmpYMinUm - yMinUm) / basePixelSize);
+       */
+      GImageMiscOps.fill(ws.output, 0.0);
+      //GImageMiscOps.copy(0, 0, xMinPixel, yMinPixel, img.getWidth(), img.getHeight(),
+      //        oldImgBoof, newImgBoof);
+      GImageMiscOps.copy(0, 0, 0, 0, img.getWidth(), img.getHeight(),
+              ws.wrap(img), ws.output);
+      newMetadataB.positionName("Site-" + targetPosition);
+      return BoofCVImageConverter.boofCVToMM(ws.output, outCoords, newMetadataB.build());
+   }
+
+   private static Image warpMultiPosition(Workspace ws, DataProvider mpd, int nrPositions,
+         Coords inCoords, Coords outCoords, double basePixelSize, int targetPosition,
+         Affine2D_F64 multiPositionAf64, Affine2D_F64 singlePositionAf64I,
+         double centerXUm, double centerYUm) throws IOException {
+      Metadata.Builder newMetadataB = null;
+      GImageMiscOps.fill(ws.output, 0.0);
+      for (int p = 0; p < nrPositions; p++) {
+         Image img = mpd.getImage(inCoords.copyBuilder().p(p).build());
+         if (img != null) {
+            newMetadataB = img.getMetadata()
+                  .copyBuilderWithNewUUID().pixelSizeUm(basePixelSize);
+            double diffX = centerXUm - img.getMetadata().getXPositionUm();
+            double diffY = centerYUm - img.getMetadata().getYPositionUm();
+
+            Affine2D_F64 aff = multiPositionAf64.copy();
+
+            aff.tx = -(diffX);
+            aff.ty = -(diffY);
+            //centerXUm - img.getMetadata().getXPositionUm(),.0
+            //centerYUm - img.getMetadata().getYPositionUm());
+
+            aff = aff.concat(singlePositionAf64I, null);
+            ws.wrap(img);
+            if (ws.distort == null) {
+               ws.distort = new FDistort();
+               ws.distort.input(ws.tile);
+               ws.distort.output(ws.output);
+               ws.distort.affine(aff);
+               ws.distort.interpNN();
+               ws.distort.border(BorderType.SKIP);
+            } else {
+               ws.distort.affine(aff);
+            }
+            ws.distort.apply();
+         }
+      }
+      if (newMetadataB == null) {
+         return null;
+      }
+      newMetadataB.positionName("Site-" + targetPosition);
+      return BoofCVImageConverter.boofCVToMM(ws.output, outCoords, newMetadataB.build());
+   }
+
+   /**
+    * Runs the tasks on one thread per core and puts their images into the
+    * output in task order, as they become available. Only a few more tasks
+    * than there are threads are started ahead, so that finished images are
+    * written out rather than accumulating in memory.
+    */
+   private static void putAll(AssembleDataForm form, Datastore output,
+                              List<Callable<Image>> tasks) throws IOException {
+      int nrThreads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads,
+            ThreadFactoryFactory.createThreadFactory("AssembleData"));
+      Deque<Future<Image>> inProgress = new ArrayDeque<>();
+      int done = 0;
+      try {
+         int next = 0;
+         while (next < tasks.size() || !inProgress.isEmpty()) {
+            while (next < tasks.size() && inProgress.size() < 2 * nrThreads) {
+               inProgress.add(executor.submit(tasks.get(next++)));
+            }
+            Image newImage;
+            try {
+               newImage = inProgress.removeFirst().get();
+            } catch (ExecutionException ee) {
+               if (ee.getCause() instanceof IOException) {
+                  throw (IOException) ee.getCause();
+               }
+               throw new RuntimeException(ee.getCause());
+            }
+            if (newImage != null) {
+               output.putImage(newImage);
+            }
+            done++;
+            form.setStatus(" " + (100 * done / tasks.size()) + "%");
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
    /**
     * TODO: check if this is this used.
     *
@@ -30,6 +30,7 @@ public class FrameCombiner implements Processor {
    private boolean imageCanBeProcessed_ = true;
    private final ImgSharpnessAnalysis.Method sharpnessMethod_;
    private final boolean showGraph_;
+   private final boolean slidingWindow_;
    private boolean snapLive_ = false;
 
    private HashMap<Coords, SingleCombinationProcessor> singleAquisitions_;
@@ -41,7 +42,8 @@ public class FrameCombiner implements Processor {
                         String channelsToAvoidString,
                         String processorAlgo,
                         String sharpnessMethodsName,
-                        boolean showGraph) {
+                        boolean showGraph,
+                        boolean slidingWindow) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -64,6 +66,8 @@ public class FrameCombiner implements Processor {
       processorAlgo_ = processorAlgo;
       sharpnessMethod_ = ImgSharpnessAnalysis.Method.valueOf(sharpnessMethodsName);
       showGraph_ = showGraph;
+      // Sliding windows need a running accumulator, which "Sharpest" does not use
+      slidingWindow_ = slidingWindow && FrameCombinerPlugin.getStatistic(processorAlgo) != null;
 
       // Initialize a hashmap of all combinations of the different acquisitions
       // Each index will be a combination of Z, Channel and StagePosition
@@ -113,7 +117,8 @@ public class FrameCombiner implements Processor {
 
          singleAcquProc = new SingleCombinationProcessor(studio_,
                processorAlgo_, processorDimension_, numberOfImagesToProcess_,
-               processCombinations, !channelsToAvoid_.isEmpty(), sharpnessMethod_, showGraph_);
+               processCombinations, !channelsToAvoid_.isEmpty(), sharpnessMethod_, showGraph_,
+               slidingWindow_);
          singleAquisitions_.put(coords, singleAcquProc);
       } else {
          singleAcquProc = singleAquisitions_.get(coords);
@@ -137,15 +142,13 @@ public class FrameCombiner implements Processor {
          // Calculate new number of corresponding dimension number
          int newIntendedDimNumber;
          if (processorDimension_.equals(FrameCombinerPlugin.PROCESSOR_DIMENSION_TIME)) {
-            newIntendedDimNumber =
-                  summary.getIntendedDimensions().getT() / numberOfImagesToProcess_;
+            newIntendedDimNumber = numberOfOutputs(summary.getIntendedDimensions().getT());
             builder.intendedDimensions(coordsBuilder.time(newIntendedDimNumber).build());
          } else if (processorDimension_.equals(FrameCombinerPlugin.PROCESSOR_DIMENSION_Z)) {
             if (useWholeStack_) {
                numberOfImagesToProcess_ = summary.getIntendedDimensions().getZ();
             }
-            newIntendedDimNumber =
-                  summary.getIntendedDimensions().getZ() / numberOfImagesToProcess_;
+            newIntendedDimNumber = numberOfOutputs(summary.getIntendedDimensions().getZ());
             builder.intendedDimensions(coordsBuilder.z(newIntendedDimNumber).build());
          }
          return builder.build();
@@ -154,6 +157,13 @@ public class FrameCombiner implements Processor {
       }
    }
 
+   private int numberOfOutputs(int numberOfInputs) {
+      if (slidingWindow_) {
+         return Math.max(0, numberOfInputs - numberOfImagesToProcess_ + 1);
+      }
+      return numberOfInputs / numberOfImagesToProcess_;
+   }
+
    /**
     * Check if the image can be processed or not.
     *
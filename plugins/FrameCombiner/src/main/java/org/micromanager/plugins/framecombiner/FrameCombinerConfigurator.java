@@ -32,6 +32,7 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
    private static final String PROCESSOR_ALGO = "Algorithm to apply on stack images";
    private static final String NUMBER_TO_PROCESS = "Number of images to process";
    private static final String CHANNEL_TO_AVOID = "Avoid Channel(s) (eg. 1,2 or 1-5)";
+   private static final String SLIDING_WINDOW = "Sliding window";
 
    private final Studio studio_;
    private final PropertyMap settings_;
@@ -45,6 +46,8 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
    private JComboBox<String> processorAlgoBox_;
    private JComboBox<String> sharpnessAlgoBox_;
    private JCheckBox sharpnessShowGraphCheckBox_;
+   private JLabel slidingWindowLabel_;
+   private JCheckBox slidingWindowCheckBox_;
    private JFormattedTextField channelsToAvoidField_;
 
    public FrameCombinerConfigurator(PropertyMap settings, Studio studio) {
@@ -80,6 +83,7 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       processorAlgoBox_ = new JComboBox<>();
       sharpnessAlgoBox_ = new JComboBox<>();
       sharpnessShowGraphCheckBox_ = new JCheckBox();
+      slidingWindowCheckBox_ = new JCheckBox();
 
       setDefaultCloseOperation(DISPOSE_ON_CLOSE);
 
@@ -121,12 +125,18 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_SUM);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MAX);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MIN);
+      processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_STD);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST);
       processorAlgoBox_.addActionListener(e -> {
          updateUISelectedItems();
       });
       jPanel1.add(processorAlgoBox_, "wrap");
 
+      slidingWindowLabel_ = new JLabel("<html>Sliding window<br/>(output an image for every "
+            + "new image)</html>");
+      jPanel1.add(slidingWindowLabel_);
+      jPanel1.add(slidingWindowCheckBox_, "wrap");
+
       jPanel1.add(sharpnessAlgoLabel_);
       for (ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
          sharpnessAlgoBox_.addItem(method.name());
@@ -160,11 +170,15 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
          sharpnessAlgoLabel_.setEnabled(true);
          sharpnessShowGraphCheckBox_.setEnabled(true);
          sharpnessShowGraphLabel_.setEnabled(true);
+         slidingWindowCheckBox_.setEnabled(false);
+         slidingWindowLabel_.setEnabled(false);
       } else {
          sharpnessAlgoBox_.setEnabled(false);
          sharpnessAlgoLabel_.setEnabled(false);
          sharpnessShowGraphCheckBox_.setEnabled(false);
          sharpnessShowGraphLabel_.setEnabled(false);
+         slidingWindowCheckBox_.setEnabled(true);
+         slidingWindowLabel_.setEnabled(true);
       }
    }
 
@@ -199,6 +213,10 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
                .getBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, false);
       sharpnessShowGraphCheckBox_.setSelected(settings_.getBoolean(
                FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, sharpnessShowGraph));
+      boolean slidingWindow = studio_.profile().getSettings(FrameCombinerConfigurator.class)
+               .getBoolean(SLIDING_WINDOW, false);
+      slidingWindowCheckBox_.setSelected(settings_.getBoolean(
+               FrameCombinerPlugin.PREF_SLIDING_WINDOW, slidingWindow));
       updateUISelectedItems();
    }
 
@@ -233,6 +251,8 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       studio_.profile().getSettings(FrameCombinerConfigurator.class)
                .putBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH,
                        sharpnessShowGraphCheckBox_.isSelected());
+      studio_.profile().getSettings(FrameCombinerConfigurator.class)
+               .putBoolean(SLIDING_WINDOW, slidingWindowCheckBox_.isSelected());
 
       PropertyMap.Builder builder = PropertyMaps.builder();
       builder.putString(FrameCombinerPlugin.PREF_PROCESSOR_DIMENSION,
@@ -249,6 +269,8 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
                (String) sharpnessAlgoBox_.getSelectedItem());
       builder.putBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH,
                sharpnessShowGraphCheckBox_.isSelected());
+      builder.putBoolean(FrameCombinerPlugin.PREF_SLIDING_WINDOW,
+               slidingWindowCheckBox_.isSelected());
       return builder.build();
    }
 
@@ -5,6 +5,7 @@ import org.micromanager.Studio;
 import org.micromanager.data.ProcessorConfigurator;
 import org.micromanager.data.ProcessorFactory;
 import org.micromanager.data.ProcessorPlugin;
+import org.micromanager.imageprocessing.PixelAccumulator;
 import org.scijava.plugin.Plugin;
 import org.scijava.plugin.SciJavaPlugin;
 
@@ -13,7 +14,7 @@ public class FrameCombinerPlugin implements ProcessorPlugin, SciJavaPlugin {
 
    public static final String MENU_NAME = "Frame Combiner";
    public static final  String TOOL_TIP_DESCRIPTION =
-         "Combine multiple images into a single output image (mean/sum/max/min)";
+         "Combine multiple images into a single output image (mean/sum/max/min/std)";
    public static final  String VERSION_NUMBER = "1.0";
    public static final String COPYRIGHT = "Hadrien Mary";
 
@@ -21,6 +22,7 @@ public class FrameCombinerPlugin implements ProcessorPlugin, SciJavaPlugin {
    public static final String PROCESSOR_ALGO_SUM = "Sum";
    public static final String PROCESSOR_ALGO_MAX = "Max";
    public static final String PROCESSOR_ALGO_MIN = "Min";
+   public static final String PROCESSOR_ALGO_STD = "Std";
    public static final String PROCESSOR_ALGO_SHARPEST = "Sharpest";
    public static final String PROCESSOR_DIMENSION_TIME = "Time";
    public static final String PROCESSOR_DIMENSION_Z = "Z";
@@ -31,10 +33,36 @@ public class FrameCombinerPlugin implements ProcessorPlugin, SciJavaPlugin {
    public static String PREF_SHARPNESS_SHOW_GRAPH = "sharpnessShowGraph";
    public static String PREF_NUMBER_OF_IMAGES_TO_PROCESS = "numberOfImagesToProcess";
    public static String PREF_CHANNELS_TO_AVOID = "channelsToAvoid";
+   public static String PREF_SLIDING_WINDOW = "slidingWindow";
 
 
    private Studio studio_;
 
+   /**
+    * Translates one of the PROCESSOR_ALGO_ values into the statistic that
+    * PixelAccumulator computes for it.
+    *
+    * @param processorAlgo Name of the algorithm
+    * @return the statistic, or null for algorithms that are not accumulated
+    *     ("Sharpest")
+    */
+   static PixelAccumulator.Statistic getStatistic(String processorAlgo) {
+      switch (processorAlgo) {
+         case PROCESSOR_ALGO_MEAN:
+            return PixelAccumulator.Statistic.MEAN;
+         case PROCESSOR_ALGO_SUM:
+            return PixelAccumulator.Statistic.SUM;
+         case PROCESSOR_ALGO_MAX:
+            return PixelAccumulator.Statistic.MAX;
+         case PROCESSOR_ALGO_MIN:
+            return PixelAccumulator.Statistic.MIN;
+         case PROCESSOR_ALGO_STD:
+            return PixelAccumulator.Statistic.STD_DEV;
+         default:
+            return null;
+      }
+   }
+
    @Override
    public void setContext(Studio studio) {
       studio_ = studio;
@@ -1,7 +1,9 @@
 package org.micromanager.plugins.framecombiner;
 
 import ij.process.ImageProcessor;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import org.jfree.data.xy.XYSeries;
@@ -13,13 +15,18 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+import org.micromanager.imageprocessing.PixelAccumulator;
 import org.micromanager.imageprocessing.curvefit.Fitter;
 import org.micromanager.imageprocessing.curvefit.PlotUtils;
 
 /**
  * This class processes a single combination of Z, T, Channel, Stage Position.
- * It buffers the images and processes them when the buffer is full.
+ * Images are added to a running accumulator as they arrive (or, for
+ * "Sharpest", buffered) and processed when the window is complete.
  * The single, "projected" processed image is then outputted.
+ * With a sliding window, an image is output for every new image once the
+ * window is full; the images in the window are then kept to be removed
+ * from the accumulator again.
  */
 public class SingleCombinationProcessor {
 
@@ -35,10 +42,18 @@ public class SingleCombinationProcessor {
    private final boolean isAnyChannelToAvoid_;
    private final ImgSharpnessAnalysis.Method sharpnessMethod_;
    private final boolean showGraph_;
+   private final boolean slidingWindow_;
    private int currentFrameIndex;
    private int processedFrameIndex;
    private Image[] bufferImages_;
 
+   // Used instead of bufferImages_ for all algorithms except "Sharpest"
+   private final PixelAccumulator.Statistic statistic_;
+   private PixelAccumulator accumulator_;
+   private final ArrayDeque<Image> window_ = new ArrayDeque<>();
+   private Coords windowCoords_;
+   private Metadata windowMetadata_;
+
    /**
     * Constructor for the SingleCombinationProcessor.
     *
@@ -48,6 +63,8 @@ public class SingleCombinationProcessor {
     * @param numberOfImagesToProcess The number of images to process.
     * @param processCombinations Whether to process the combinations.
     * @param isAnyChannelToAvoid Whether to avoid any channel.
+    * @param slidingWindow Whether to output an image for every image once the
+    *                      first window is complete, instead of one per window.
     */
    public SingleCombinationProcessor(Studio studio, String processorAlgo,
                                      String processorDimension,
@@ -55,7 +72,8 @@ public class SingleCombinationProcessor {
                                      boolean processCombinations,
                                      boolean isAnyChannelToAvoid,
                                      ImgSharpnessAnalysis.Method sharpnessMethod,
-                                     boolean showGraph) {
+                                     boolean showGraph,
+                                     boolean slidingWindow) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -67,12 +85,13 @@ public class SingleCombinationProcessor {
       isAnyChannelToAvoid_ = isAnyChannelToAvoid;
       sharpnessMethod_ = sharpnessMethod;
       showGraph_ = showGraph;
+      statistic_ = FrameCombinerPlugin.getStatistic(processorAlgo);
+      slidingWindow_ = slidingWindow && statistic_ != null;
 
       currentFrameIndex = 0;
       processedFrameIndex = 0;
-      bufferImages_ = new Image[numberOfImagesToProcess_];
-      for (int i = 0; i < numberOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
+      if (statistic_ == null) {
+         bufferImages_ = new Image[numberOfImagesToProcess_];
       }
    }
 
@@ -84,27 +103,33 @@ public class SingleCombinationProcessor {
          return;
       }
 
-      int currentBufferIndex = currentFrameIndex % numberOfImagesToProcess_;
-      bufferImages_[currentBufferIndex] = image;
-
       Image processedImage = null;
-      if (currentBufferIndex == (numberOfImagesToProcess_ - 1)) {
-         try {
-            // Process last `numberOfImagesToProcess_` images
-            processedImage = processBufferImages();
-         } catch (Exception ex) {
-            log_.logError(ex);
-         }
+      if (statistic_ != null) {
+         processedImage = accumulateImage(image);
+      } else {
+         int currentBufferIndex = currentFrameIndex % numberOfImagesToProcess_;
+         bufferImages_[currentBufferIndex] = image;
+
+         if (currentBufferIndex == (numberOfImagesToProcess_ - 1)) {
+            try {
+               // Process last `numberOfImagesToProcess_` images
+               processedImage = processBufferImages();
+            } catch (Exception ex) {
+               log_.logError(ex);
+            }
 
-         if (processedImage == null) {
-            return;
-         }
+            if (processedImage == null) {
+               return;
+            }
 
-         // Clean buffered images
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-            bufferImages_[i] = null;
+            // Clean buffered images
+            for (int i = 0; i < numberOfImagesToProcess_; i++) {
+               bufferImages_[i] = null;
+            }
          }
+      }
 
+      if (processedImage != null) {
          // Add metadata to the processed image
          Metadata metadata = processedImage.getMetadata();
          PropertyMap userData = metadata.getUserData();
@@ -141,235 +166,83 @@ public class SingleCombinationProcessor {
    }
 
    /**
-    * Clear the buffer.
-    */
-   public void clear() {
-      for (int i = 0; i < numberOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
-      bufferImages_ = null;
-   }
-
-   /**
-    * Process the images in the buffer and return the processed image.
+    * Add an image to the running accumulator.
     *
-    * @return The processed image.
-    * @throws Exception If the processing fails.
+    * @param image The image to add.
+    * @return The combined image if the window is complete, otherwise null.
     */
-   public Image processBufferImages() throws Exception {
+   private Image accumulateImage(Image image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      if (accumulator_ == null || !accumulator_.matches(width * height, bytesPerPixel)) {
+         // First image, or the image size changed (e.g. in live mode); start over
+         accumulator_ = new PixelAccumulator(statistic_, width * height, bytesPerPixel);
+         window_.clear();
+      }
 
-      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
-         return meanProcessImages(false);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
-         return meanProcessImages(true);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
-         return extremaProcessImages("max");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
-         return extremaProcessImages("min");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST)) {
-         return sharpestProcessImages(sharpnessMethod_, showGraph_);
-      } else {
-         throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_
-               + " is not implemented or not found.");
+      if (slidingWindow_) {
+         if (window_.size() == numberOfImagesToProcess_) {
+            Image oldest = window_.removeFirst();
+            List<Object> remaining = new ArrayList<>(window_.size());
+            for (Image img : window_) {
+               remaining.add(img.getRawPixels());
+            }
+            accumulator_.remove(oldest.getRawPixels(), remaining);
+         }
+         window_.addLast(image);
+      }
+      if (accumulator_.getCount() == 0) {
+         windowCoords_ = image.getCoords();
+         windowMetadata_ = image.getMetadata();
+      }
+      accumulator_.add(image.getRawPixels());
+      if (accumulator_.getCount() < numberOfImagesToProcess_) {
+         return null;
       }
 
+      if (slidingWindow_) {
+         windowCoords_ = window_.getFirst().getCoords();
+         windowMetadata_ = window_.getFirst().getMetadata();
+      }
+      Image result = studio_.data().createImage(accumulator_.getResult(), width, height,
+            bytesPerPixel, image.getNumComponents(), windowCoords_, windowMetadata_);
+      if (!slidingWindow_) {
+         accumulator_.reset();
+      }
+      return result;
    }
 
    /**
-    * Process the images in the buffer and return the processed image.
-    *
-    * @param onlySum If `true` then only the sum of the images will be calculated.
-    * @return The processed image.
+    * Clear the buffer.
     */
-   public Image meanProcessImages(boolean onlySum) {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            byte[] imgPixels = (byte[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index] / numberOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         // Sum up all pixels from bufferImages
+   public void clear() {
+      if (bufferImages_ != null) {
          for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xffff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (short) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (short) (int) (newPixels[index] / numberOfImagesToProcess_);
-            }
+            bufferImages_[i] = null;
          }
-
-         resultPixels = newPixelsFinal;
-
       }
-
-      // Create the processed image
-      return studio_.data().createImage(resultPixels, width, height,
-            bytesPerPixel, numComponents, coords, metadata);
-
+      bufferImages_ = null;
+      accumulator_ = null;
+      window_.clear();
    }
 
    /**
     * Process the images in the buffer and return the processed image.
     *
-    * @param extremaType The type of extrema to calculate (max or min).
     * @return The processed image.
     * @throws Exception If the processing fails.
     */
-   public Image extremaProcessImages(String extremaType) throws Exception {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array (already zero, so no need to set for max)
-         if (extremaType.equals("min")) {
-            Arrays.fill(newPixels, Byte.MAX_VALUE);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] =  Math.max(currentValue, actualValue);
-               } else { // min
-                  newPixels[index] = Math.min(currentValue, actualValue);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (byte) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         // if (extremaType.equals("max")) { // no need to set new array to zero in Java
-         if (extremaType.equals("min")) {
-            Arrays.fill(newPixels, Byte.MAX_VALUE);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = Math.max(currentValue, actualValue);
-               } else {
-                  newPixels[index] =  Math.min(currentValue, actualValue);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (short) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
+   public Image processBufferImages() throws Exception {
 
+      // Mean, sum, max, min and std are computed by accumulateImage()
+      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST)) {
+         return sharpestProcessImages(sharpnessMethod_, showGraph_);
+      } else {
+         throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_
+               + " is not implemented or not found.");
       }
 
-      // Create the processed image
-      return studio_.data().createImage(resultPixels, width, height,
-            bytesPerPixel, numComponents, coords, metadata);
-
    }
 
    /**
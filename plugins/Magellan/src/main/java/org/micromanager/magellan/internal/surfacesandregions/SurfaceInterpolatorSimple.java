@@ -20,24 +20,37 @@ package org.micromanager.magellan.internal.surfacesandregions;
 import delaunay_triangulation.Delaunay_Triangulation;
 import delaunay_triangulation.Point_dt;
 import delaunay_triangulation.Triangle_dt;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.apache.commons.math3.geometry.euclidean.threed.Line;
 import org.apache.commons.math3.geometry.euclidean.threed.Plane;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
-import org.apache.commons.math3.geometry.partitioning.Region;
 import org.micromanager.magellan.internal.main.Magellan;
 
 /**
  * Subclass that implements a particular interpolation method This one creates a
  * plane based on the 3 closest points in XY space using the delaunay
- * triangulation and calculates specific z values in that plane
+ * triangulation and calculates specific z values in that plane. The grid is
+ * filled by rasterizing each triangle of the triangulation, on all cores.
  */
 public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
 
    private static final double TOLERANCE = 0.01;
+   //grid points this close to a triangle edge (in grid spacings) count as inside
+   private static final double EDGE_EPSILON = 1e-6;
+   private static final int MIN_ROWS_PER_STRIPE = 16;
+
+   private static ExecutorService rasterExecutor_;
 
    public SurfaceInterpolatorSimple(String xyName, String zName) {
       super(xyName, zName);
@@ -55,6 +68,8 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
          triangulationPoints[i] = new Point_dt(points.get(i).x, points.get(i).y, points.get(i).z);
       }
       Delaunay_Triangulation dTri = new Delaunay_Triangulation(triangulationPoints);
+      //the planes of the triangles are the same at every resolution, so compute them once
+      final TrianglePlanes planes = new TrianglePlanes(dTri);
 
       int maxPixelDimension = (int) (Math.max(boundXMax_ - boundXMin_, boundYMax_ - boundYMin_)
             / pixSize);
@@ -74,46 +89,14 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
       minPixelsPerInterpPoint_ = Math.max(2, (int) (pixelRes / maxPixels));
       
       while (pixelsPerInterpPoint >= minPixelsPerInterpPoint_) {
-         int numInterpPointsX = (int) (((boundXMax_ - boundXMin_) / pixSize)
-               / pixelsPerInterpPoint);
-         int numInterpPointsY = (int) (((boundYMax_ - boundYMin_) / pixSize)
-               / pixelsPerInterpPoint);
-         double dx = (boundXMax_ - boundXMin_) / (numInterpPointsX - 1);
-         double dy = (boundYMax_ - boundYMin_) / (numInterpPointsY - 1);
-
-         float[][] interpVals = new float[numInterpPointsY][numInterpPointsX];
-         float[][] interpNormals = new float[numInterpPointsY][numInterpPointsX];
-         boolean[][] interpDefined = new boolean[numInterpPointsY][numInterpPointsX];
-         for (int yInd = 0; yInd < interpVals.length; yInd++) {
-            for (int xInd = 0; xInd < interpVals[0].length; xInd++) {
-               if (Thread.interrupted()) {
-                  throw new InterruptedException();
-               }
-               double xVal = boundXMin_ + dx * xInd;
-               double yVal = boundYMin_ + dy * yInd;
-               boolean inHull = convexHullRegion_.checkPoint(new Vector2D(xVal, yVal))
-                     == Region.Location.INSIDE;
-               if (inHull) {
-                  Triangle_dt tri = dTri.find(new Point_dt(xVal, yVal));
-                  //convert to apache commons coordinates to make a plane
-                  Vector3D v1 = new Vector3D(tri.p1().x(), tri.p1().y(), tri.p1().z());
-                  Vector3D v2 = new Vector3D(tri.p2().x(), tri.p2().y(), tri.p2().z());
-                  Vector3D v3 = new Vector3D(tri.p3().x(), tri.p3().y(), tri.p3().z());
-                  Plane plane = new Plane(v1, v2, v3, TOLERANCE);
-                  //intersetion of vertical line at these x+y values with plane gives point in plane
-                  Vector3D pointInPlane = plane.intersection(new Line(
-                        new Vector3D(xVal, yVal, 0), new Vector3D(xVal, yVal, 1), TOLERANCE));
-                  float zVal = (float) pointInPlane.getZ();
-                  interpVals[yInd][xInd] = zVal;
-                  float angle = (float) (Vector3D.angle(plane.getNormal(),
-                        new Vector3D(0, 0, 1)) / Math.PI * 180.0);
-                  interpNormals[yInd][xInd] = angle;
-                  interpDefined[yInd][xInd] = true;
-               } else {
-                  interpDefined[yInd][xInd] = false;
-               }
-            }
-         }
+         int numInterpPointsX = Math.max(2, (int) (((boundXMax_ - boundXMin_) / pixSize)
+               / pixelsPerInterpPoint));
+         int numInterpPointsY = Math.max(2, (int) (((boundYMax_ - boundYMin_) / pixSize)
+               / pixelsPerInterpPoint));
+         final float[][] interpVals = new float[numInterpPointsY][numInterpPointsX];
+         final float[][] interpNormals = new float[numInterpPointsY][numInterpPointsX];
+         final boolean[][] interpDefined = new boolean[numInterpPointsY][numInterpPointsX];
+         rasterize(planes, interpVals, interpNormals, interpDefined);
          if (Thread.interrupted()) {
             throw new InterruptedException();
          }
@@ -129,6 +112,193 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
       }
    }
 
+   /**
+    * Fill the grids with the interpolated values of all grid points inside the
+    * triangulation, in row stripes on several threads. Grid points outside
+    * the triangulation (and so outside the convex hull) stay undefined.
+    */
+   private void rasterize(final TrianglePlanes planes, final float[][] interpVals,
+                          final float[][] interpNormals, final boolean[][] interpDefined)
+         throws InterruptedException {
+      final int numRows = interpVals.length;
+      int numStripes = Math.min(Runtime.getRuntime().availableProcessors(),
+            Math.max(1, numRows / MIN_ROWS_PER_STRIPE));
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int stripe = 1; stripe < numStripes; stripe++) {
+         final int firstRow = (int) ((long) numRows * stripe / numStripes);
+         final int lastRow = (int) ((long) numRows * (stripe + 1) / numStripes) - 1;
+         futures.add(getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+               rasterizeRows(planes, interpVals, interpNormals, interpDefined,
+                     firstRow, lastRow);
+            }
+         }));
+      }
+      try {
+         //first stripe on this thread
+         rasterizeRows(planes, interpVals, interpNormals, interpDefined,
+               0, numRows / numStripes - 1);
+         for (Future<?> f : futures) {
+            f.get();
+         }
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         for (Future<?> f : futures) {
+            f.cancel(true);
+         }
+      }
+   }
+
+   /**
+    * Scanline rasterization of all triangles over the grid rows firstRow to
+    * lastRow (inclusive). Grid point (xInd, yInd) is at
+    * (boundXMin_ + dx * xInd, boundYMin_ + dy * yInd).
+    */
+   private void rasterizeRows(TrianglePlanes planes, float[][] interpVals,
+                              float[][] interpNormals, boolean[][] interpDefined,
+                              int firstRow, int lastRow) {
+      final int numX = interpVals[0].length;
+      final int numY = interpVals.length;
+      final double xMin = boundXMin_;
+      final double yMin = boundYMin_;
+      final double dx = (boundXMax_ - xMin) / (numX - 1);
+      final double dy = (boundYMax_ - yMin) / (numY - 1);
+      for (int t = 0; t < planes.count; t++) {
+         if (Thread.currentThread().isInterrupted()) {
+            return;
+         }
+         int rowStart = Math.max(firstRow,
+               (int) Math.ceil((planes.yMin[t] - yMin) / dy - EDGE_EPSILON));
+         int rowEnd = Math.min(lastRow,
+               (int) Math.floor((planes.yMax[t] - yMin) / dy + EDGE_EPSILON));
+         for (int yInd = rowStart; yInd <= rowEnd; yInd++) {
+            double y = yMin + dy * yInd;
+            //intersect the row with the three edges of the triangle
+            double left = Double.POSITIVE_INFINITY;
+            double right = Double.NEGATIVE_INFINITY;
+            int base = 6 * t;
+            for (int e = 0; e < 3; e++) {
+               double x1 = planes.vertices[base + 2 * e];
+               double y1 = planes.vertices[base + 2 * e + 1];
+               double x2 = planes.vertices[base + (2 * e + 2) % 6];
+               double y2 = planes.vertices[base + (2 * e + 3) % 6];
+               if ((y < Math.min(y1, y2) - EDGE_EPSILON * dy)
+                     || (y > Math.max(y1, y2) + EDGE_EPSILON * dy)) {
+                  continue;
+               }
+               if (y1 == y2) {
+                  left = Math.min(left, Math.min(x1, x2));
+                  right = Math.max(right, Math.max(x1, x2));
+               } else {
+                  double f = Math.max(0.0, Math.min(1.0, (y - y1) / (y2 - y1)));
+                  double x = x1 + f * (x2 - x1);
+                  left = Math.min(left, x);
+                  right = Math.max(right, x);
+               }
+            }
+            if (left > right) {
+               continue;
+            }
+            int colStart = Math.max(0, (int) Math.ceil((left - xMin) / dx - EDGE_EPSILON));
+            int colEnd = Math.min(numX - 1, (int) Math.floor((right - xMin) / dx + EDGE_EPSILON));
+            float[] valRow = interpVals[yInd];
+            float[] normalRow = interpNormals[yInd];
+            boolean[] definedRow = interpDefined[yInd];
+            double a = planes.a[t];
+            double rowOffset = planes.b[t] * y + planes.c[t];
+            float normal = planes.normalAngle[t];
+            for (int xInd = colStart; xInd <= colEnd; xInd++) {
+               valRow[xInd] = (float) (a * (xMin + dx * xInd) + rowOffset);
+               normalRow[xInd] = normal;
+               definedRow[xInd] = true;
+            }
+         }
+      }
+   }
+
+   private static synchronized ExecutorService getExecutor() {
+      if (rasterExecutor_ == null) {
+         rasterExecutor_ = Executors.newFixedThreadPool(
+               Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                  @Override
+                  public Thread newThread(Runnable r) {
+                     Thread thread = new Thread(r, "Interpolation raster thread");
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+      }
+      return rasterExecutor_;
+   }
+
+   /**
+    * The planes through the triangles of a Delaunay triangulation, as
+    * z = a * x + b * y + c (the barycentric interpolation of the vertex z
+    * values), with their XY vertices, Y extent and the angle of their normal
+    * to vertical in degrees. Degenerate triangles are left out.
+    */
+   private static class TrianglePlanes {
+      final int count;
+      final double[] vertices; //x1, y1, x2, y2, x3, y3 for each triangle
+      final double[] yMin;
+      final double[] yMax;
+      final double[] a;
+      final double[] b;
+      final double[] c;
+      final float[] normalAngle;
+
+      TrianglePlanes(Delaunay_Triangulation dTri) {
+         List<Triangle_dt> triangles = new ArrayList<Triangle_dt>();
+         Iterator<Triangle_dt> it = dTri.trianglesIterator();
+         while (it.hasNext()) {
+            Triangle_dt tri = it.next();
+            if (!tri.isHalfplane()) {
+               triangles.add(tri);
+            }
+         }
+         vertices = new double[6 * triangles.size()];
+         yMin = new double[triangles.size()];
+         yMax = new double[triangles.size()];
+         a = new double[triangles.size()];
+         b = new double[triangles.size()];
+         c = new double[triangles.size()];
+         normalAngle = new float[triangles.size()];
+         int n = 0;
+         for (Triangle_dt tri : triangles) {
+            double x1 = tri.p1().x();
+            double y1 = tri.p1().y();
+            double z1 = tri.p1().z();
+            double x2 = tri.p2().x();
+            double y2 = tri.p2().y();
+            double z2 = tri.p2().z();
+            double x3 = tri.p3().x();
+            double y3 = tri.p3().y();
+            double z3 = tri.p3().z();
+            double det = (y2 - y3) * (x1 - x3) + (x3 - x2) * (y1 - y3);
+            if (det == 0) {
+               continue;
+            }
+            a[n] = ((y2 - y3) * (z1 - z3) + (y3 - y1) * (z2 - z3)) / det;
+            b[n] = ((x3 - x2) * (z1 - z3) + (x1 - x3) * (z2 - z3)) / det;
+            c[n] = z3 - a[n] * x3 - b[n] * y3;
+            //normal of the plane through p1, p2, p3: (p2 - p1) x (p3 - p1)
+            double nx = (y2 - y1) * (z3 - z1) - (z2 - z1) * (y3 - y1);
+            double ny = (z2 - z1) * (x3 - x1) - (x2 - x1) * (z3 - z1);
+            double nz = (x2 - x1) * (y3 - y1) - (y2 - y1) * (x3 - x1);
+            normalAngle[n] = (float) (Math.atan2(Math.sqrt(nx * nx + ny * ny), nz)
+                  / Math.PI * 180.0);
+            double[] xy = {x1, y1, x2, y2, x3, y3};
+            System.arraycopy(xy, 0, vertices, 6 * n, 6);
+            yMin[n] = Math.min(y1, Math.min(y2, y3));
+            yMax[n] = Math.max(y1, Math.max(y2, y3));
+            n++;
+         }
+         count = n;
+      }
+   }
+
    @Override
    public float getExtrapolatedValue(double x, double y) {
       // If there are only three points, assume that user wants to extrapolate to do a
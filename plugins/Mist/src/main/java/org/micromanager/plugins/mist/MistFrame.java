@@ -21,9 +21,6 @@
 package org.micromanager.plugins.mist;
 
 import com.google.common.eventbus.Subscribe;
-import ij.IJ;
-import ij.ImagePlus;
-import ij.process.ImageProcessor;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Insets;
@@ -60,8 +57,6 @@ import org.micromanager.alerts.UpdatableAlert;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Datastore;
-import org.micromanager.data.Image;
-import org.micromanager.data.internal.DefaultImageJConverter;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.internal.event.DataViewerWillCloseEvent;
@@ -92,6 +87,7 @@ public class MistFrame extends JFrame {
    private static final String SINGLEPLANE_TIFF_SERIES = "Separate Image Files";
    private static final String MULTIPAGE_TIFF = "Image Stack File";
    private static final String RAM = "RAM only";
+   private static final String ND_TIFF = "NDTiff stack";
    private static final String UNSELECTED_CHANNELS = "UnselectedChannels";
 
 
@@ -264,7 +260,7 @@ public class MistFrame extends JFrame {
       super.add(new JSeparator(), "span, growx, wrap");
 
       super.add(new JLabel("Output Save format: "));
-      String[] formats = new String[] {RAM, MULTIPAGE_TIFF, SINGLEPLANE_TIFF_SERIES};
+      String[] formats = new String[] {RAM, MULTIPAGE_TIFF, SINGLEPLANE_TIFF_SERIES, ND_TIFF};
       saveFormat_ = new JComboBox<>(formats);
       saveFormat_.setSelectedItem(
               profileSettings_.getString("format", RAM));
@@ -321,6 +317,8 @@ public class MistFrame extends JFrame {
                store = studio_.data().createMultipageTIFFDatastore(savePath_.getText(), true, true);
             } else if (saveFormat_.getSelectedItem().equals(SINGLEPLANE_TIFF_SERIES)) {
                store = studio_.data().createSinglePlaneTIFFSeriesDatastore(savePath_.getText());
+            } else if (saveFormat_.getSelectedItem().equals(ND_TIFF)) {
+               store = studio_.data().createNDTIFFDatastore(savePath_.getText());
             }
             List<String> channelList = new ArrayList<>();
             for (JCheckBox checkBox : channelCheckBoxes) {
@@ -546,12 +544,22 @@ public class MistFrame extends JFrame {
       ProgressMonitor monitor = new ProgressMonitor(this,
               "Stitching images...", null, 0, maxNumImages);
       DataViewer newDataViewer = null;
+      MistStitcher stitcher = null;
       long startTime = System.currentTimeMillis();
       try {
+         stitcher = new MistStitcher(studio_, dp, newWidth, newHeight, imHeight,
+                 dp.getAnyImage().getBytesPerPixel());
+         if (stitcher.getNrStrips() > 1) {
+            studio_.logs().logMessage("Mist: stitched images do not fit in memory, storing "
+                    + "each as " + stitcher.getNrStrips() + " strips of "
+                    + stitcher.getStripHeight() + " rows");
+         }
          // create datastore to hold the result
          Coords dims = dp.getSummaryMetadata().getIntendedDimensions();
-         Coords.Builder cb = dims.copyBuilder().c(newNrC).t(newNrT).z(newNrZ).p(newNrP);
-         newStore.setSummaryMetadata(dp.getSummaryMetadata().copyBuilder().imageHeight(newHeight)
+         Coords.Builder cb = dims.copyBuilder().c(newNrC).t(newNrT).z(newNrZ)
+                 .p(newNrP * stitcher.getNrStrips());
+         newStore.setSummaryMetadata(dp.getSummaryMetadata().copyBuilder()
+                 .imageHeight(stitcher.getStripHeight())
                  .imageWidth(newWidth).intendedDimensions(cb.build())
                  .build());
          if (profileSettings_.getBoolean("shouldDisplay", true)) {
@@ -569,6 +577,8 @@ public class MistFrame extends JFrame {
          Coords.Builder imgCb = studio_.data().coordsBuilder();
          int nrImages = 0;
          for (int newP = 0; newP < newNrP; newP++) {
+            // Position of each tile of this site, looked up when first needed
+            MistGlobalData[] positions = new MistGlobalData[mistEntries.size()];
             int tmpC = -1;
             for (int c = 0; c < intendedDimensions.getC(); c++) {
                if (!channelList.contains(dp.getSummaryMetadata().getChannelNameList().get(c))) {
@@ -580,37 +590,24 @@ public class MistFrame extends JFrame {
                   for (int z = mins.getOrDefault(Coords.Z, 0); z <= maxes.getOrDefault(Coords.Z, 0);
                         z++) {
                      if (monitor.isCanceled()) {
-                        newStore.freeze();
-                        if (newDataViewer == null) {
-                           newStore.close();
-                        }
-                        SwingUtilities.invokeLater(() -> assembleButton_.setEnabled(true));
                         return;
                      }
-                     ImagePlus newImgPlus = IJ.createImage(
-                             "Stitched image-" + newP, "16-bit black", newWidth, newHeight, 2);
-                     boolean imgAdded = false;
+                     List<Coords> tileCoords = new ArrayList<>();
+                     List<MistGlobalData> tilePositions = new ArrayList<>();
                      for (int p = 0; p < mistEntries.size(); p++) {
-                        if (monitor.isCanceled()) {
-                           newStore.freeze();
-                           if (newDataViewer == null) {
-                              newStore.close();
-                           }
-                           SwingUtilities.invokeLater(() -> assembleButton_.setEnabled(true));
-                           return;
-                        }
-                        Image img = null;
                         Coords coords = imgCb.c(c).t(t).z(z)
                                 .p(newP * mistEntries.size() + p)
                                 .build();
-                        if (dp.hasImage(coords)) {
-                           img = dp.getImage(coords);
+                        if (!dp.hasImage(coords)) {
+                           tileCoords.add(null);
+                           tilePositions.add(null);
+                           continue;
                         }
-                        if (img != null) {
-                           imgAdded = true;
-                           String posName = img.getMetadata().getPositionName("");
+                        if (positions[p] == null) {
                            MistGlobalData msg = null;
                            if (PositionConvention.HCS.equals(positionConvention)) {
+                              String posName = dp.getImage(coords).getMetadata()
+                                       .getPositionName("");
                               int siteNr = Integer.parseInt(posName.substring(
                                        posName.lastIndexOf('_')
                                        + 1));
@@ -630,23 +627,19 @@ public class MistFrame extends JFrame {
                            }
                            if (msg == null) {
                               studio_.logs().showError("Did not find specified image");
-                              SwingUtilities.invokeLater(() -> assembleButton_.setEnabled(true));
                               return;
                            }
-                           ImageProcessor ip = DefaultImageJConverter.createProcessor(img,
-                                    false);
-                           newImgPlus.getProcessor().insert(ip, msg.getPositionX(),
-                                    msg.getPositionY());
+                           positions[p] = msg;
                         }
+                        tileCoords.add(coords);
+                        tilePositions.add(positions[p]);
                      }
-                     if (imgAdded) {
-                        Image newImg = studio_.data().ij().createImage(newImgPlus.getProcessor(),
-                                imgCb.c(tmpC).t(t - mins.getOrDefault(Coords.T, 0))
-                                        .z(z - mins.getOrDefault(Coords.Z, 0))
-                                        .p(newP).build(),
-                                dp.getImage(imgCb.c(c).t(t).z(z).p(newP * mistEntries.size())
-                                        .build()).getMetadata().copyBuilderWithNewUUID().build());
-                        newStore.putImage(newImg);
+                     boolean stitched = stitcher.stitch(tileCoords, tilePositions,
+                             imgCb.c(tmpC).t(t - mins.getOrDefault(Coords.T, 0))
+                                     .z(z - mins.getOrDefault(Coords.Z, 0))
+                                     .p(newP).build(),
+                             newStore::putImage);
+                     if (stitched) {
                         nrImages++;
                         final int count = nrImages;
                         SwingUtilities.invokeLater(() -> monitor.setProgress(count));
@@ -660,9 +653,15 @@ public class MistFrame extends JFrame {
          }
       } catch (IOException e) {
          studio_.logs().showError("Error creating new data store: " + e.getMessage());
+      } catch (InterruptedException ie) {
+         studio_.logs().logError(ie, "Interrupted while stitching");
+         Thread.currentThread().interrupt();
       } catch (NullPointerException npe) {
          studio_.logs().showError("Coding error in Mist plugin: " + npe.getMessage());
       } finally {
+         if (stitcher != null) {
+            stitcher.shutdown();
+         }
          try {
             newStore.freeze();
             if (newDataViewer == null) {
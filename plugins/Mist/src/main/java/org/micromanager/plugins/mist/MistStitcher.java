@@ -0,0 +1,284 @@
+package org.micromanager.plugins.mist;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Image;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Stitches the tiles of one plane of a data set at the positions found by
+ * Mist, and writes the result to the output store.
+ *
+ * <p>The stitched plane is produced as one or more horizontal strips. A strip
+ * is as tall as fits in a quarter of the heap (and in a single Java array),
+ * so normally the whole plane is a single strip. Each strip is written to the
+ * output store and released before the next one is rendered, so memory use
+ * is bounded by the strip height, not by the size of the mosaic. Strips of
+ * site p are stored as positions p * getNrStrips() + strip, since that is an
+ * axis all storage formats support.
+ *
+ * <p>Each strip is rendered in horizontal bands on several threads. Each band
+ * copies the rows of the tiles that overlap it, in tile order, so that later
+ * tiles overwrite earlier ones where they overlap. Every tile is read once per
+ * plane and dropped as soon as the last band that needs it is done, so that
+ * besides the strip only the tiles of the bands in progress are in memory.
+ */
+class MistStitcher {
+   // Largest array the JVM reliably allocates
+   private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+   /**
+    * Receives the stitched strips.
+    */
+   interface StripSink {
+      void put(Image strip) throws IOException;
+   }
+
+   private final Studio studio_;
+   private final DataProvider dp_;
+   private final int width_;
+   private final int height_;
+   private final int tileHeight_;
+   private final int stripHeight_;
+   private final int nrStrips_;
+   private final int bandHeight_;
+   private final int nrThreads_;
+   private final ExecutorService executor_;
+
+   /**
+    * Constructor.
+    *
+    * @param studio Studio, used to create the stitched images
+    * @param dp Data set holding the tiles
+    * @param width Width of the stitched images
+    * @param height Height of the stitched images
+    * @param tileHeight Height of the tiles
+    * @param bytesPerPixel Bytes per pixel of the tiles
+    * @throws IOException when not even a single row of the stitched image
+    *     fits in memory
+    */
+   MistStitcher(Studio studio, DataProvider dp, int width, int height, int tileHeight,
+                int bytesPerPixel) throws IOException {
+      studio_ = studio;
+      dp_ = dp;
+      width_ = width;
+      height_ = height;
+      tileHeight_ = tileHeight;
+      long rowBytes = (long) width * bytesPerPixel;
+      long budget = Math.min(Runtime.getRuntime().maxMemory() / 4, MAX_ARRAY_LENGTH);
+      if (width <= 0 || height <= 0 || rowBytes > budget) {
+         throw new IOException("Can not stitch an image of " + width + " x " + height
+               + " pixels of " + bytesPerPixel + " bytes: rows do not fit in memory");
+      }
+      stripHeight_ = (int) Math.min(height, budget / rowBytes);
+      nrStrips_ = (height + stripHeight_ - 1) / stripHeight_;
+      nrThreads_ = Runtime.getRuntime().availableProcessors();
+      bandHeight_ = Math.max(1, Math.min(tileHeight,
+            (stripHeight_ + 4 * nrThreads_ - 1) / (4 * nrThreads_)));
+      executor_ = Executors.newFixedThreadPool(nrThreads_,
+            ThreadFactoryFactory.createThreadFactory("Mist stitcher"));
+   }
+
+   /**
+    * Height of the stitched images written to the output store. The last
+    * strip of a plane is padded with zeros to this height.
+    */
+   int getStripHeight() {
+      return stripHeight_;
+   }
+
+   /**
+    * Number of strips each stitched plane is split into, normally 1.
+    */
+   int getNrStrips() {
+      return nrStrips_;
+   }
+
+   /**
+    * Stitches one plane, and hands its strips to the sink.
+    *
+    * @param tileCoords Coords of the tiles, in drawing order. Null entries
+    *                   (tiles that were not acquired) are skipped.
+    * @param tilePositions Position of each tile in the stitched image
+    * @param newCoords Coords of the stitched image. Strip s is given position
+    *                  newCoords.getP() * getNrStrips() + s.
+    * @param sink Receives the strips, in order, with the metadata of the first
+    *             tile (and a new UUID)
+    * @return false when there are no tiles, and nothing was written
+    * @throws IOException when a tile could not be read, tiles differ in type,
+    *     or the sink fails
+    * @throws InterruptedException when interrupted while waiting for the bands
+    */
+   boolean stitch(final List<Coords> tileCoords, final List<MistGlobalData> tilePositions,
+                  Coords newCoords, StripSink sink) throws IOException, InterruptedException {
+      final int nrTiles = tileCoords.size();
+      final ConcurrentHashMap<Integer, Future<Image>> tiles = new ConcurrentHashMap<>();
+      final AtomicInteger[] usesLeft = new AtomicInteger[nrTiles];
+
+      Image firstTile = null;
+      for (int i = 0; i < nrTiles; i++) {
+         int uses = 0;
+         if (tileCoords.get(i) != null) {
+            int y = tilePositions.get(i).getPositionY();
+            uses = countBands(Math.max(0, y), Math.min(height_, y + tileHeight_));
+            if (firstTile == null) {
+               // The first tile determines the pixel type; keep it for the bands
+               firstTile = dp_.getImage(tileCoords.get(i));
+               tiles.put(i, CompletableFuture.completedFuture(firstTile));
+            }
+         }
+         usesLeft[i] = new AtomicInteger(uses);
+      }
+      if (firstTile == null) {
+         return false;
+      }
+      Object firstPixels = firstTile.getRawPixels();
+      final int elementsPerPixel = Array.getLength(firstPixels)
+            / (firstTile.getWidth() * firstTile.getHeight());
+      long stripLength = (long) width_ * stripHeight_ * elementsPerPixel;
+      if (stripLength > MAX_ARRAY_LENGTH) {
+         throw new IOException("Stitched strip of " + width_ + " x " + stripHeight_
+               + " pixels is too large for a single image");
+      }
+
+      for (int s = 0; s < nrStrips_; s++) {
+         final int stripStart = s * stripHeight_;
+         final int stripEnd = Math.min(height_, stripStart + stripHeight_);
+         final Object pixels = Array.newInstance(
+               firstPixels.getClass().getComponentType(), (int) stripLength);
+         renderStrip(tileCoords, tilePositions, tiles, usesLeft, pixels, elementsPerPixel,
+               stripStart, stripEnd);
+         Coords stripCoords = nrStrips_ == 1 ? newCoords
+               : newCoords.copyBuilder().p(newCoords.getP() * nrStrips_ + s).build();
+         sink.put(studio_.data().createImage(pixels, width_, stripHeight_,
+               firstTile.getBytesPerPixel(), firstTile.getNumComponents(), stripCoords,
+               firstTile.getMetadata().copyBuilderWithNewUUID().build()));
+      }
+      return true;
+   }
+
+   /**
+    * Number of bands (over all strips) that overlap rows start to end.
+    */
+   private int countBands(int start, int end) {
+      int count = 0;
+      for (int s = start / stripHeight_; s < nrStrips_ && s * stripHeight_ < end; s++) {
+         int stripStart = s * stripHeight_;
+         int from = Math.max(start, stripStart) - stripStart;
+         int to = Math.min(end, Math.min(height_, stripStart + stripHeight_)) - stripStart;
+         if (to > from) {
+            count += (to - 1) / bandHeight_ - from / bandHeight_ + 1;
+         }
+      }
+      return count;
+   }
+
+   private void renderStrip(final List<Coords> tileCoords,
+                            final List<MistGlobalData> tilePositions,
+                            final ConcurrentHashMap<Integer, Future<Image>> tiles,
+                            final AtomicInteger[] usesLeft, final Object pixels,
+                            final int elementsPerPixel, final int stripStart,
+                            final int stripEnd)
+         throws IOException, InterruptedException {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int bandStart = stripStart; bandStart < stripEnd; bandStart += bandHeight_) {
+         final int start = bandStart;
+         final int end = Math.min(stripEnd, bandStart + bandHeight_);
+         futures.add(executor_.submit(() -> {
+            renderBand(tileCoords, tilePositions, tiles, usesLeft, pixels,
+                  elementsPerPixel, stripStart, start, end);
+            return null;
+         }));
+      }
+      try {
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof IOException) {
+            throw (IOException) ee.getCause();
+         }
+         if (ee.getCause() instanceof ArrayStoreException) {
+            throw new IOException("Tiles differ in pixel type");
+         }
+         throw new IOException(ee.getCause());
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private void renderBand(List<Coords> tileCoords, List<MistGlobalData> tilePositions,
+                           ConcurrentHashMap<Integer, Future<Image>> tiles,
+                           AtomicInteger[] usesLeft, Object pixels, int elementsPerPixel,
+                           int stripStart, int bandStart, int bandEnd)
+         throws IOException, InterruptedException, ExecutionException {
+      for (int i = 0; i < tileCoords.size(); i++) {
+         final Coords coords = tileCoords.get(i);
+         if (coords == null) {
+            continue;
+         }
+         int x = tilePositions.get(i).getPositionX();
+         int y = tilePositions.get(i).getPositionY();
+         if (y >= bandEnd || y + tileHeight_ <= bandStart || y + tileHeight_ <= 0) {
+            continue;
+         }
+         // The first band to need the tile reads it, the others wait for
+         // the same read
+         FutureTask<Image> read = new FutureTask<>(() -> dp_.getImage(coords));
+         Future<Image> tile = tiles.putIfAbsent(i, read);
+         if (tile == null) {
+            read.run();
+            tile = read;
+         }
+         try {
+            Image img = tile.get();
+            if (img == null) {
+               continue;
+            }
+            Object tilePixels = img.getRawPixels();
+            int tileWidth = img.getWidth();
+            int xStart = Math.max(0, x);
+            int xEnd = Math.min(width_, x + tileWidth);
+            int yStart = Math.max(bandStart, Math.max(0, y));
+            int yEnd = Math.min(bandEnd, y + img.getHeight());
+            if (xEnd <= xStart) {
+               continue;
+            }
+            for (int row = yStart; row < yEnd; row++) {
+               System.arraycopy(tilePixels,
+                     ((row - y) * tileWidth + (xStart - x)) * elementsPerPixel,
+                     pixels, ((row - stripStart) * width_ + xStart) * elementsPerPixel,
+                     (xEnd - xStart) * elementsPerPixel);
+            }
+         } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+               throw (IOException) ee.getCause();
+            }
+            throw ee;
+         } finally {
+            if (usesLeft[i].decrementAndGet() <= 0) {
+               tiles.remove(i);
+            }
+         }
+      }
+   }
+
+   void shutdown() {
+      executor_.shutdownNow();
+   }
+}
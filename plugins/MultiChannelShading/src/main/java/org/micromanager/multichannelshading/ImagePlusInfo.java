@@ -46,6 +46,8 @@ public class ImagePlusInfo extends ImagePlus {
    private final int binning_;
    private final Rectangle roi_;
    private final Map<ClearCLContext, ClearCLBuffer> clBuffers_;
+   private int[] backgroundTable_;
+   private int[] gainTable_;
 
 
    public ImagePlusInfo(ImagePlus ip, int binning, Rectangle roi) {
@@ -111,4 +113,30 @@ public class ImagePlusInfo extends ImagePlus {
       }
       return clBuffers_.get(cclContext);
    }
+
+   /**
+    * Pixel values of this (background) image as used by ShadingCorrector.
+    * Computed on first use and cached.
+    *
+    * @return background value for each pixel
+    */
+   public synchronized int[] getBackgroundTable() {
+      if (backgroundTable_ == null) {
+         backgroundTable_ = ShadingCorrector.makeBackgroundTable(super.getProcessor());
+      }
+      return backgroundTable_;
+   }
+
+   /**
+    * Fixed-point gains of this (normalized flatfield) image as used by
+    * ShadingCorrector. Computed on first use and cached.
+    *
+    * @return gain for each pixel
+    */
+   public synchronized int[] getGainTable() {
+      if (gainTable_ == null) {
+         gainTable_ = ShadingCorrector.makeGainTable(super.getProcessor());
+      }
+      return gainTable_;
+   }
 }
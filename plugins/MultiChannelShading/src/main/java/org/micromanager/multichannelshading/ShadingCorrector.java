@@ -0,0 +1,235 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingCorrector.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco 2014
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * CPU implementation of background subtraction and flatfield correction.
+ *
+ * <p>Corrections use per-pixel tables that are computed once for each
+ * background and flatfield image (see ImagePlusInfo): background values as
+ * integers, and flatfield gains as fixed-point integers with 16 fractional
+ * bits. The corrected pixel is
+ * {@code round(max(0, pixel - background) * gain)}, clipped to the range of
+ * the pixel type. Large images are split into row stripes that are corrected
+ * in parallel.
+ */
+public final class ShadingCorrector {
+   static final int GAIN_FRACTION_BITS = 16;
+   private static final long GAIN_ROUNDING = 1L << (GAIN_FRACTION_BITS - 1);
+   private static final int PARALLEL_MIN_PIXELS = 512 * 1024;
+   private static final int MIN_ROWS_PER_STRIPE = 32;
+
+   private static ExecutorService executor_;
+
+   private ShadingCorrector() {
+   }
+
+   /**
+    * Converts a background image to the values to be subtracted from each
+    * pixel. Float backgrounds are truncated, as in
+    * ImageUtils.subtractPixelArrays.
+    *
+    * @param background background image
+    * @return background value for each pixel
+    */
+   public static int[] makeBackgroundTable(ImageProcessor background) {
+      int nrPixels = background.getWidth() * background.getHeight();
+      int[] table = new int[nrPixels];
+      if (background instanceof ByteProcessor) {
+         byte[] pixels = (byte[]) background.getPixels();
+         for (int i = 0; i < nrPixels; i++) {
+            table[i] = pixels[i] & 0xff;
+         }
+      } else if (background instanceof ShortProcessor) {
+         short[] pixels = (short[]) background.getPixels();
+         for (int i = 0; i < nrPixels; i++) {
+            table[i] = pixels[i] & 0xffff;
+         }
+      } else {
+         for (int i = 0; i < nrPixels; i++) {
+            table[i] = ((short) background.getf(i)) & 0xffff;
+         }
+      }
+      return table;
+   }
+
+   /**
+    * Converts a normalized flatfield image (as made by
+    * ImageCollection.addFlatField) to fixed-point gains.
+    *
+    * @param flatField normalized flatfield image
+    * @return gain for each pixel, with GAIN_FRACTION_BITS fractional bits
+    */
+   public static int[] makeGainTable(ImageProcessor flatField) {
+      int nrPixels = flatField.getWidth() * flatField.getHeight();
+      int[] table = new int[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         double gain = flatField.getf(i) * (double) (1 << GAIN_FRACTION_BITS);
+         if (gain >= Integer.MAX_VALUE) {
+            table[i] = Integer.MAX_VALUE;
+         } else if (gain > 0.0) {
+            table[i] = (int) Math.round(gain);
+         }
+         // else 0, which includes NaN (from a zero flatfield pixel with zero mean)
+      }
+      return table;
+   }
+
+   /**
+    * Corrects an 8 or 16 bit grayscale image. Source and destination may be
+    * the same array, but the source should not be the pixels of an Image,
+    * which must not be modified.
+    *
+    * @param src        pixels of the image, byte[] or short[]
+    * @param dst        array of the same type and size for the result
+    * @param width      image width
+    * @param background background table, or null to not subtract a background
+    * @param gain       gain table, or null to not flatfield
+    * @throws ShadingException if the pixels are not 8 or 16 bit grayscale, or
+    *     the tables or the destination do not match the image size
+    */
+   public static void correct(final Object src, final Object dst, int width,
+                              final int[] background, final int[] gain)
+         throws ShadingException {
+      final int nrPixels;
+      if (src instanceof byte[] && dst instanceof byte[]) {
+         nrPixels = ((byte[]) src).length;
+         if (((byte[]) dst).length != nrPixels) {
+            throw new ShadingException("Error: Images are of unequal size");
+         }
+      } else if (src instanceof short[] && dst instanceof short[]) {
+         nrPixels = ((short[]) src).length;
+         if (((short[]) dst).length != nrPixels) {
+            throw new ShadingException("Error: Images are of unequal size");
+         }
+      } else {
+         throw new ShadingException(
+               "Cannot flatfield correct images other than 8 or 16 bit grayscale");
+      }
+      if ((background != null && background.length != nrPixels)
+            || (gain != null && gain.length != nrPixels)) {
+         throw new ShadingException("Error: Images are of unequal size");
+      }
+      int height = nrPixels / width;
+      int nStripes = 1;
+      if (nrPixels >= PARALLEL_MIN_PIXELS) {
+         nStripes = Math.min(Runtime.getRuntime().availableProcessors(),
+               height / MIN_ROWS_PER_STRIPE);
+      }
+      if (nStripes <= 1) {
+         correctRange(src, dst, background, gain, 0, nrPixels);
+         return;
+      }
+
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int stripe = 1; stripe < nStripes; ++stripe) {
+         final int start = (int) ((long) height * stripe / nStripes) * width;
+         final int end = (int) ((long) height * (stripe + 1) / nStripes) * width;
+         futures.add(getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+               correctRange(src, dst, background, gain, start, end);
+               return null;
+            }
+         }));
+      }
+      // The first stripe is done on this thread
+      correctRange(src, dst, background, gain, 0, (height / nStripes) * width);
+      boolean interrupted = false;
+      try {
+         for (Future<Void> future : futures) {
+            while (true) {
+               try {
+                  future.get();
+                  break;
+               } catch (InterruptedException ie) {
+                  // Finish the image; the stripes are short
+                  interrupted = true;
+               }
+            }
+         }
+      } catch (ExecutionException ex) {
+         throw new ShadingException("Error correcting image: " + ex.getCause());
+      } finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   private static void correctRange(Object src, Object dst, int[] background,
+                                    int[] gain, int start, int end) {
+      if (src instanceof byte[]) {
+         correctBytes((byte[]) src, (byte[]) dst, background, gain, start, end);
+      } else {
+         correctShorts((short[]) src, (short[]) dst, background, gain, start, end);
+      }
+   }
+
+   private static void correctBytes(byte[] src, byte[] dst, int[] background,
+                                    int[] gain, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int value = src[i] & 0xff;
+         if (background != null) {
+            value = Math.max(0, value - background[i]);
+         }
+         if (gain != null) {
+            long product = (value * (long) gain[i] + GAIN_ROUNDING) >>> GAIN_FRACTION_BITS;
+            value = (int) Math.min(product, 0xff);
+         }
+         dst[i] = (byte) value;
+      }
+   }
+
+   private static void correctShorts(short[] src, short[] dst, int[] background,
+                                     int[] gain, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int value = src[i] & 0xffff;
+         if (background != null) {
+            value = Math.max(0, value - background[i]);
+         }
+         if (gain != null) {
+            long product = (value * (long) gain[i] + GAIN_ROUNDING) >>> GAIN_FRACTION_BITS;
+            value = (int) Math.min(product, 0xffff);
+         }
+         dst[i] = (short) value;
+      }
+   }
+
+   private static synchronized ExecutorService getExecutor() {
+      if (executor_ == null) {
+         executor_ = Executors.newCachedThreadPool(
+               ThreadFactoryFactory.createThreadFactory("Shading correction"));
+      }
+      return executor_;
+   }
+}
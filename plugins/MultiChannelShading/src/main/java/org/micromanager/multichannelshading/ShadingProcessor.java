@@ -33,7 +33,7 @@ import clearcl.backend.ClearCLBackends;
 import clearcl.enums.BuildStatus;
 import clearcl.exceptions.OpenCLException;
 import coremem.enums.NativeTypeEnum;
-import ij.process.ImageProcessor;
+import ij.process.ByteProcessor;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.HashSet;
@@ -342,24 +342,26 @@ public class ShadingProcessor implements Processor {
 
       PropertyMap userData = metadata.getUserData();
 
+      int[] backgroundTable = null;
       if (background != null) {
-         ImageProcessor ip = studio_.data().ij().createProcessor(image);
-         ImageProcessor ipBackground = background.getProcessor();
-         try {
-            ip = ImageUtils.subtractImageProcessors(ip, ipBackground);
+         String error = null;
+         if (background.getWidth() != width || background.getHeight() != height) {
+            error = "Error: Images are of unequal size";
+         } else if (image.getBytesPerPixel() == 1
+               && !(background.getProcessor() instanceof ByteProcessor)) {
+            error = "Types of images to be subtracted were not compatible";
+         }
+         if (error == null) {
+            backgroundTable = background.getBackgroundTable();
             if (userData != null) {
                userData = userData.copyBuilder().putBoolean("Background-corrected", true).build();
             }
-         } catch (ShadingException e) {
-            if (!alertSet_.contains(ErrorSubtractingClass.class)) {
-               String msg = "Unable to subtract background: " + e.getMessage();
-               studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
-                     ErrorSubtractingClass.class, msg);
-               alertSet_.add(ErrorSubtractingClass.class);
-            }
+         } else if (!alertSet_.contains(ErrorSubtractingClass.class)) {
+            String msg = "Unable to subtract background: " + error;
+            studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
+                  ErrorSubtractingClass.class, msg);
+            alertSet_.add(ErrorSubtractingClass.class);
          }
-         image = studio_.data().ij().createImage(ip, image.getCoords(),
-               metadata.copyBuilderWithNewUUID().userData(userData).build());
       } else {
          if (!alertSet_.contains(NoBackgroundForThisBinModeClass.class)) {
             String msg = "No background available...";
@@ -369,10 +371,10 @@ public class ShadingProcessor implements Processor {
          }
       }
 
-
       // do not calculate flat field if we don't have a matching channel;
       // just return the background-subtracted image (which is the unmodified
       // image if we also don't have a background subtraction file).
+      int[] gainTable = null;
       if (flatFieldImage == null) {
          if (!alertSet_.contains(NotFlatFieldedClass.class)) {
             String msg = "No flatfield found...";
@@ -380,51 +382,41 @@ public class ShadingProcessor implements Processor {
                     NotFlatFieldedClass.class, msg);
             alertSet_.add(NotFlatFieldedClass.class);
          }
-         context.outputImage(image);
-         return;
+      } else {
+         gainTable = flatFieldImage.getGainTable();
+         if (userData != null) {
+            userData = userData.copyBuilder().putBoolean("Flatfield-corrected", true).build();
+         }
       }
 
-      if (userData != null) {
-         userData = userData.copyBuilder().putBoolean("Flatfield-corrected", true).build();
-         metadata = metadata.copyBuilderWithNewUUID().userData(userData).build();
+      if (backgroundTable == null && gainTable == null) {
+         context.outputImage(image);
+         return;
       }
-
-
-      if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
-         int length = oldPixels.length;
-         float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
-         for (int index = 0; index < length; index++) {
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x000000ff);
-            float newValue = oldPixel * flatFieldPixels[index];
-            if (newValue > 2 * Byte.MAX_VALUE) {
-               newValue = 2 * Byte.MAX_VALUE;
-            }
-            newPixels[index] = (byte) (newValue);
-         }
-         result = studio_.data().createImage(newPixels, width, height,
-               1, 1, image.getCoords(), metadata);
-         context.outputImage(result);
-      } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) image.getRawPixels();
-         int length = oldPixels.length;
-         for (int index = 0; index < length; index++) {
-            // shorts are signed in java so have to do this conversion to get 
-            // the right value
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x0000ffff);
-            float newValue = (oldPixel
-                  * flatFieldImage.getProcessor().getf(index)) + 0.5f;
-            if (newValue > 2 * Short.MAX_VALUE) {
-               newValue = 2 * Short.MAX_VALUE;
-            }
-            newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
+      metadata = metadata.copyBuilderWithNewUUID().userData(userData).build();
+
+      // Images are immutable, and their pixels may be shared with other
+      // images (e.g. made by copyAtCoords()), so the result always goes into
+      // a new array, which the result image then owns.
+      Object pixels = image.getRawPixels();
+      Object newPixels = image.getBytesPerPixel() == 1
+            ? new byte[width * height] : new short[width * height];
+      try {
+         ShadingCorrector.correct(pixels, newPixels, width, backgroundTable, gainTable);
+      } catch (ShadingException e) {
+         if (!alertSet_.contains(ErrorSubtractingClass.class)) {
+            String msg = "Unable to correct image: " + e.getMessage();
+            studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
+                  ErrorSubtractingClass.class, msg);
+            alertSet_.add(ErrorSubtractingClass.class);
          }
-         result = studio_.data().createImage(newPixels, width, height,
-               2, 1, image.getCoords(), metadata);
-         context.outputImage(result);
+         context.outputImage(image);
+         return;
       }
+      // Not studio_.data().createImage(), which would copy the pixels again
+      result = new DefaultImage(newPixels, width, height, image.getBytesPerPixel(), 1,
+            image.getCoords(), metadata);
+      context.outputImage(result);
    }
 
 
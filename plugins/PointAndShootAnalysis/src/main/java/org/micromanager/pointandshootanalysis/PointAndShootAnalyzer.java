@@ -41,6 +41,7 @@ import georegression.struct.shapes.Rectangle2D_I32;
 import java.awt.Point;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -53,6 +54,10 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.jfree.data.xy.XYSeries;
@@ -65,6 +70,7 @@ import org.micromanager.data.Metadata;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.imageprocessing.BoofCVUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.imageanalysis.BoofCVImageConverter;
 import org.micromanager.pointandshootanalysis.algorithm.ContourStats;
 import org.micromanager.pointandshootanalysis.data.PASData;
@@ -225,6 +231,10 @@ public class PointAndShootAnalyzer implements Runnable {
       List<Map<Integer, ParticleData>> tracks = new ArrayList<>();
       // Use multiple threads in BoofCV code:
       BoofConcurrency.USE_CONCURRENT = true;
+      // Particles are tracked in parallel
+      final ExecutorService trackExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            ThreadFactoryFactory.createThreadFactory("PointAndShootAnalyzer tracking"));
       try {
          int imgWidth = dataProvider.getAnyImage().getWidth();
          int imgHeight = dataProvider.getAnyImage().getHeight();
@@ -239,13 +249,16 @@ public class PointAndShootAnalyzer implements Runnable {
          final Point2D_I32 middle = new Point2D_I32(xMiddle, yMiddle);
 
          // create a boofCV Planar that contains all of the MM data (no copy, backed by MM)
+         // The tracking threads use these frames, so that each frame is read
+         // from storage once rather than once per tracked particle.
          Coords.Builder cbb = dataProvider.getAnyImage().getCoords().copyBuilder();
-         Planar bCVStack = new Planar(GrayU16.class, dataProvider.getNextIndex(Coords.T));
+         final Planar<GrayU16> bCVStack = new Planar<>(GrayU16.class,
+               dataProvider.getNextIndex(Coords.T));
          bCVStack.setWidth(imgWidth);
          bCVStack.setHeight(imgHeight);
          bCVStack.setStride(imgWidth);
          for (int frame = 0; frame < dataProvider.getNextIndex(Coords.T); frame++) {
-            bCVStack.setBand(frame, BoofCVImageConverter.mmToBoofCV(
+            bCVStack.setBand(frame, (GrayU16) BoofCVImageConverter.mmToBoofCV(
                   dataProvider.getImage(cbb.t(frame).build()), false));
          }
          ListIterator<PASData> pasDataIt = pasData.listIterator();
@@ -312,129 +325,20 @@ public class PointAndShootAnalyzer implements Runnable {
          pasDataIt = pasData.listIterator();
          Coords.Builder cb = dataProvider.getAnyImage().getCoords().copyBuilder();
          int count = 0;
-         while (pasDataIt.hasNext()) {
+         // Each bleach event is tracked on its own thread
+         List<Future<Map<Integer, ParticleData>>> trackFutures = new ArrayList<>(pasData.size());
+         for (final PASData pasEntry : pasData) {
+            trackFutures.add(trackExecutor.submit(() -> trackBleachedParticle(bCVStack,
+                  pasEntry, maxDistance, bleachSpotRadius, continueBleachSpotTracking,
+                  nrFramesToMeasureBleachToParticleVector)));
+         }
+         for (Future<Map<Integer, ParticleData>> future : trackFutures) {
             PASData pasEntry = pasDataIt.next();
-            Map<Integer, ParticleData> track = new TreeMap<>();
-            Point2D_I32 bleachPoint =
-                  new Point2D_I32(pasEntry.pasActual().x, pasEntry.pasActual().y);
-            ParticleData firstParticle = ParticleData.centralParticle(dataProvider, cb,
-                  pasEntry.framePasClicked() + 1, bleachPoint, halfROISize_);
-            if (firstParticle == null) {
-               continue;
-            }
-            Point2D_I32 currentPoint = firstParticle.getCentroid().copy();
-            for (int frame = pasEntry.framePasClicked() + 1; frame >= 0; frame--) {
-               ParticleData nextParticle = ParticleData.centralParticle(dataProvider,
-                     cb, frame, currentPoint, halfROISize_);
-               if (nextParticle != null && (
-                     currentPoint.distance(nextParticle.getCentroid()) < maxDistance)) {
-                  currentPoint = nextParticle.getCentroid();
-                  track.put(frame, nextParticle);
-               } else {
-                  track.put(frame, null);
-                  // TODO: increase counter, give up when too high
-               }
+            Map<Integer, ParticleData> track = getTrack(future);
+            if (track != null) {
+               tracks.add(track);
+               pasDataIt.set(pasEntry.copyBuilder().particleDataTrack(track).build());
             }
-
-            // now go forward in time
-            currentPoint = firstParticle.getCentroid().copy();
-            GrayU16 preBleach = (GrayU16) BoofCVImageConverter.subImage(dataProvider, cb,
-                  pasEntry.framePasClicked() + 1, currentPoint, halfROISize_);
-            if (preBleach == null) {
-               continue;
-            }
-            GrayF32 fPreBleach = new GrayF32(preBleach.getWidth(), preBleach.getHeight());
-            ConvertImage.convert(preBleach, fPreBleach);
-            ParticleData previousParticle = null;
-            for (int frame = pasEntry.framePasClicked() + 2;
-                  frame < dataProvider.getNextIndex(Coords.T); frame++) {
-               ParticleData nextParticle = ParticleData.centralParticle(dataProvider,
-                     cb, frame, currentPoint, halfROISize_);
-               if (nextParticle == null || (
-                     currentPoint.distance(nextParticle.getCentroid()) > maxDistance)) {
-                  track.put(frame, null);
-                  if (previousParticle != null) {
-                     nextParticle = previousParticle.copy();
-                  }
-                  // TODO: increase counter, give up when too high
-               }
-
-               previousParticle = nextParticle;
-               if (nextParticle != null) {
-                  currentPoint = nextParticle.getCentroid();
-               }
-               track.put(frame, nextParticle);
-            }
-
-            // Locate the bleachspots in the particle data 
-            int bleachSpotsMissed = 0;
-            currentPoint = track.get(pasEntry.framePasClicked() + 2).getCentroid();
-            final int getCalculateVectorFrame = pasEntry.framePasClicked() + 5
-                  + nrFramesToMeasureBleachToParticleVector;
-            Point2D_I32 offsetVector = null;
-            for (int frame = pasEntry.framePasClicked() + 2;
-                  frame < dataProvider.getNextIndex(Coords.T); frame++) {
-               if (bleachSpotsMissed < 5 || continueBleachSpotTracking) {
-                  ParticleData particle = track.get(frame);
-                  ImageGray current = BoofCVImageConverter.subImage(dataProvider,
-                        cb, frame, currentPoint, halfROISize_);
-                  if (current != null) {
-                     Point2D_I32 offset = new Point2D_I32(currentPoint.x - halfROISize_,
-                           currentPoint.y - halfROISize_);
-                     if (offsetVector != null) {
-                        Point2D_I32 centroid = particle.getCentroid();
-                        Point2D_I32 bp = new Point2D_I32(centroid.x - offsetVector.x,
-                              centroid.y - offsetVector.y);
-                        particle = ParticleData.addBleachSpotToParticle(particle,
-                              (GrayU16) current, offset, bp,
-                              bleachSpotRadius);
-                     } else {
-                        particle = ParticleData.addBleachSpotToParticle(
-                              fPreBleach,
-                              (GrayU16) current,
-                              track,
-                              frame,
-                              particle,
-                              offset,
-                              bleachSpotRadius,
-                              MAXDISTANCE);
-                     }
-                     currentPoint = particle.getCentroid();
-                     track.put(frame, particle);
-                  }
-                  if (particle.getBleachSpot() == null) {
-                     bleachSpotsMissed += 1;
-                  } else {
-                     bleachSpotsMissed = 0;
-                  }
-               }
-               if (continueBleachSpotTracking && frame == getCalculateVectorFrame) {
-                  List<Point2D_I32> vectors = new ArrayList<>(
-                        nrFramesToMeasureBleachToParticleVector);
-                  int startFrame = pasEntry.framePasClicked() + 5;
-                  int endFrame = startFrame + nrFramesToMeasureBleachToParticleVector;
-                  for (int vFrame = startFrame; vFrame < endFrame; vFrame++) {
-                     ParticleData pd = track.get(vFrame);
-                     if (pd != null) {
-                        Point2D_I32 c = pd.getCentroid();
-                        Point2D_I32 b = pd.getBleachSpot();
-                        if (c != null && b != null) {
-                           Point2D_I32 vector = new Point2D_I32(c.x - b.x,
-                                 c.y - b.y);
-                           vectors.add(vector);
-                        }
-                     }
-                  }
-                  if (vectors.size() > 0.8 * nrFramesToMeasureBleachToParticleVector) {
-                     offsetVector = ListUtils.avgPoint2DList(vectors);
-                     // System.out.println("offset: " + offsetVector.x + ", " + offsetVector.y);
-                  }
-
-               }
-            }
-
-            tracks.add(track);
-            pasDataIt.set(pasEntry.copyBuilder().particleDataTrack(track).build());
             psd_.setProgress((double) ++count / (double) pasData.size());
          }
 
@@ -557,37 +461,15 @@ public class PointAndShootAnalyzer implements Runnable {
             final int nrLargestClusters = 15;
             count = 0;
             controlClusters = ListUtils.getNLargestLists(controlClusters, nrLargestClusters);
+            List<Future<Map<Integer, ParticleData>>> controlFutures = new ArrayList<>();
             for (List<Point2D_I32> particle : controlClusters) {
-               Point2D_I32 centroid = ContourStats.centroid(particle);
-               Map<Integer, ParticleData> track = new TreeMap<>();
-               Point2D_I32 currentPoint = centroid;
-               int missing = 0;
-               boolean bail = false;
-               for (int frame = 0; frame < dataProvider.getNextIndex(Coords.T) && !bail; frame++) {
-                  ParticleData nextParticle = ParticleData.centralParticle(dataProvider,
-                        cb, frame, currentPoint, halfROISize_);
-                  if (nextParticle != null
-                        && (currentPoint.distance(nextParticle.getCentroid()) < maxDistance)) {
-                     currentPoint = nextParticle.getCentroid();
-                     track.put(frame, nextParticle);
-                     missing = 0;
-                     // TODO: Check whether it is now the same as one of the bleached particles
-                     // and bail if so...
-                     for (ParticleData p : tracksIndexedByFrame.get(frame)) {
-                        if (p != null && p.getCentroid() != null
-                              && p.getCentroid().distance(currentPoint) < maxDistance) {
-                           bail = true;
-                        }
-                     }
-                  } else {
-                     // increase counter, give up when too high
-                     missing++;
-                     if (missing > 10) {
-                        bail = true;
-                     }
-                  }
-               }
-               if (!bail) {
+               final Point2D_I32 centroid = ContourStats.centroid(particle);
+               controlFutures.add(trackExecutor.submit(() -> trackControlParticle(
+                     bCVStack, centroid, maxDistance, tracksIndexedByFrame)));
+            }
+            for (Future<Map<Integer, ParticleData>> future : controlFutures) {
+               Map<Integer, ParticleData> track = getTrack(future);
+               if (track != null) {
                   controlTracks.add(track);
                }
                psd_.setProgress((double) ++count / (double) nrLargestClusters);
@@ -672,8 +554,209 @@ public class PointAndShootAnalyzer implements Runnable {
 
       } catch (IOException ioe) {
          studio_.logs().showError("Error while reading image data");
+      } finally {
+         trackExecutor.shutdownNow();
+      }
+
+   }
+
+   /*
+    * Tracks the particle that received the bleach at the given event,
+    * first backwards in time, then forward, and locates the bleach spot in
+    * the particle in each frame after the bleach.
+    * Returns null when the particle could not be found.
+    * Uses the frames read before tracking started, which are shared by all
+    * tracked particles.
+    */
+   private Map<Integer, ParticleData> trackBleachedParticle(final Planar<GrayU16> frames,
+         final PASData pasEntry, final int maxDistance, final int bleachSpotRadius,
+         final boolean continueBleachSpotTracking,
+         final int nrFramesToMeasureBleachToParticleVector) {
+      Map<Integer, ParticleData> track = new TreeMap<>();
+      Point2D_I32 bleachPoint =
+            new Point2D_I32(pasEntry.pasActual().x, pasEntry.pasActual().y);
+      ParticleData firstParticle = ParticleData.centralParticle(
+            frames.getBand(pasEntry.framePasClicked() + 1), bleachPoint, halfROISize_);
+      if (firstParticle == null) {
+         return null;
+      }
+      Point2D_I32 currentPoint = firstParticle.getCentroid().copy();
+      for (int frame = pasEntry.framePasClicked() + 1; frame >= 0; frame--) {
+         ParticleData nextParticle = ParticleData.centralParticle(frames.getBand(frame),
+               currentPoint, halfROISize_);
+         if (nextParticle != null && (
+               currentPoint.distance(nextParticle.getCentroid()) < maxDistance)) {
+            currentPoint = nextParticle.getCentroid();
+            track.put(frame, nextParticle);
+         } else {
+            track.put(frame, null);
+            // TODO: increase counter, give up when too high
+         }
+      }
+
+      // now go forward in time
+      currentPoint = firstParticle.getCentroid().copy();
+      GrayU16 preBleach = (GrayU16) BoofCVImageConverter.subImage(
+            frames.getBand(pasEntry.framePasClicked() + 1), currentPoint, halfROISize_);
+      if (preBleach == null) {
+         return null;
       }
+      GrayF32 fPreBleach = new GrayF32(preBleach.getWidth(), preBleach.getHeight());
+      ConvertImage.convert(preBleach, fPreBleach);
+      ParticleData previousParticle = null;
+      for (int frame = pasEntry.framePasClicked() + 2;
+            frame < frames.getNumBands(); frame++) {
+         ParticleData nextParticle = ParticleData.centralParticle(frames.getBand(frame),
+               currentPoint, halfROISize_);
+         if (nextParticle == null || (
+               currentPoint.distance(nextParticle.getCentroid()) > maxDistance)) {
+            track.put(frame, null);
+            if (previousParticle != null) {
+               nextParticle = previousParticle.copy();
+            }
+            // TODO: increase counter, give up when too high
+         }
 
+         previousParticle = nextParticle;
+         if (nextParticle != null) {
+            currentPoint = nextParticle.getCentroid();
+         }
+         track.put(frame, nextParticle);
+      }
+
+      // Locate the bleachspots in the particle data 
+      int bleachSpotsMissed = 0;
+      currentPoint = track.get(pasEntry.framePasClicked() + 2).getCentroid();
+      final int getCalculateVectorFrame = pasEntry.framePasClicked() + 5
+            + nrFramesToMeasureBleachToParticleVector;
+      Point2D_I32 offsetVector = null;
+      for (int frame = pasEntry.framePasClicked() + 2;
+            frame < frames.getNumBands(); frame++) {
+         if (bleachSpotsMissed < 5 || continueBleachSpotTracking) {
+            ParticleData particle = track.get(frame);
+            ImageGray current = BoofCVImageConverter.subImage(frames.getBand(frame),
+                  currentPoint, halfROISize_);
+            if (current != null) {
+               Point2D_I32 offset = new Point2D_I32(currentPoint.x - halfROISize_,
+                     currentPoint.y - halfROISize_);
+               if (offsetVector != null) {
+                  Point2D_I32 centroid = particle.getCentroid();
+                  Point2D_I32 bp = new Point2D_I32(centroid.x - offsetVector.x,
+                        centroid.y - offsetVector.y);
+                  particle = ParticleData.addBleachSpotToParticle(particle,
+                        (GrayU16) current, offset, bp,
+                        bleachSpotRadius);
+               } else {
+                  particle = ParticleData.addBleachSpotToParticle(
+                        fPreBleach,
+                        (GrayU16) current,
+                        track,
+                        frame,
+                        particle,
+                        offset,
+                        bleachSpotRadius,
+                        MAXDISTANCE);
+               }
+               currentPoint = particle.getCentroid();
+               track.put(frame, particle);
+            }
+            if (particle.getBleachSpot() == null) {
+               bleachSpotsMissed += 1;
+            } else {
+               bleachSpotsMissed = 0;
+            }
+         }
+         if (continueBleachSpotTracking && frame == getCalculateVectorFrame) {
+            List<Point2D_I32> vectors = new ArrayList<>(
+                  nrFramesToMeasureBleachToParticleVector);
+            int startFrame = pasEntry.framePasClicked() + 5;
+            int endFrame = startFrame + nrFramesToMeasureBleachToParticleVector;
+            for (int vFrame = startFrame; vFrame < endFrame; vFrame++) {
+               ParticleData pd = track.get(vFrame);
+               if (pd != null) {
+                  Point2D_I32 c = pd.getCentroid();
+                  Point2D_I32 b = pd.getBleachSpot();
+                  if (c != null && b != null) {
+                     Point2D_I32 vector = new Point2D_I32(c.x - b.x,
+                           c.y - b.y);
+                     vectors.add(vector);
+                  }
+               }
+            }
+            if (vectors.size() > 0.8 * nrFramesToMeasureBleachToParticleVector) {
+               offsetVector = ListUtils.avgPoint2DList(vectors);
+               // System.out.println("offset: " + offsetVector.x + ", " + offsetVector.y);
+            }
+
+         }
+      }
+
+      return track;
+   }
+
+   /*
+    * Tracks a control particle from the first frame on.  Returns null when
+    * the particle is lost, or comes too close to one of the bleached particles.
+    * Uses the frames read before tracking started, which are shared by all
+    * tracked particles.
+    */
+   private Map<Integer, ParticleData> trackControlParticle(final Planar<GrayU16> frames,
+         final Point2D_I32 centroid, final int maxDistance,
+         final Map<Integer, List<ParticleData>> tracksIndexedByFrame) {
+      Map<Integer, ParticleData> track = new TreeMap<>();
+      Point2D_I32 currentPoint = centroid;
+      int missing = 0;
+      boolean bail = false;
+      for (int frame = 0; frame < frames.getNumBands() && !bail; frame++) {
+         ParticleData nextParticle = ParticleData.centralParticle(frames.getBand(frame),
+               currentPoint, halfROISize_);
+         if (nextParticle != null
+               && (currentPoint.distance(nextParticle.getCentroid()) < maxDistance)) {
+            currentPoint = nextParticle.getCentroid();
+            track.put(frame, nextParticle);
+            missing = 0;
+            // TODO: Check whether it is now the same as one of the bleached particles
+            // and bail if so...
+            for (ParticleData p : tracksIndexedByFrame.get(frame)) {
+               if (p != null && p.getCentroid() != null
+                     && p.getCentroid().distance(currentPoint) < maxDistance) {
+                  bail = true;
+               }
+            }
+         } else {
+            // increase counter, give up when too high
+            missing++;
+            if (missing > 10) {
+               bail = true;
+            }
+         }
+      }
+      return bail ? null : track;
+   }
+
+   /*
+    * Waits for a track, and rethrows what went wrong while tracking
+    */
+   private static Map<Integer, ParticleData> getTrack(
+         Future<Map<Integer, ParticleData>> future) throws IOException {
+      try {
+         return future.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while tracking particles");
+      } catch (ExecutionException ee) {
+         Throwable cause = ee.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
    }
 
    /**
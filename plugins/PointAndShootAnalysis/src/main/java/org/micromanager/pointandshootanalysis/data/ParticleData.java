@@ -262,8 +262,26 @@ public class ParticleData {
                                               final int frame,
                                               final Point2D_I32 startCenter,
                                               final int halfBoxSize) throws IOException {
+      Coords coord = cb.t(frame).build();
+      return centralParticle(BoofCVImageConverter.mmToBoofCV(dp.getImage(coord), false),
+            startCenter, halfBoxSize);
+   }
+
+   /**
+    * Finds the centroid of the particle closest to the given input coordinates
+    *
+    * @param frameImage  Image (of one frame) in which to look for the particle centroid
+    * @param startCenter input xy position around which to look
+    * @param halfBoxSize Defines size of the Box in which the code looks for a particle
+    *                    Box is p.x - halfBoxSize, p.y - halfBoxSize; p.x + halfBoxSize,
+    *                    p.y + halfBoxSize
+    * @return particle (or null if not found)
+    */
+   public static ParticleData centralParticle(final ImageGray frameImage,
+                                              final Point2D_I32 startCenter,
+                                              final int halfBoxSize) {
 
-      ImageGray sub = BoofCVImageConverter.subImage(dp, cb, frame, startCenter, halfBoxSize);
+      ImageGray sub = BoofCVImageConverter.subImage(frameImage, startCenter, halfBoxSize);
       if (sub == null) {
          return null;
       }
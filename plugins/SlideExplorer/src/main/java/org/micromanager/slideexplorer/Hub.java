@@ -170,6 +170,9 @@ public class Hub {
          configDialog_.dispose();
       }
       stop();
+      if (cache_ != null) {
+         cache_.dispose();
+      }
    }
 
    // Methods called when the view changes:
@@ -1,97 +1,285 @@
 package org.micromanager.slideexplorer;
 
+import ij.ImagePlus;
 import ij.process.ImageProcessor;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.io.File;
-import java.util.Hashtable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 
+/**
+ * Pyramid of tiles at all zoom levels. Level 0 holds the acquired tiles;
+ * each tile at level k - 1 is its four children at level k downsampled by 2.
+ *
+ * <p>Only a bounded number of bytes of tiles is kept in memory; the least
+ * recently used tiles are written to a temporary tile file and read back
+ * on demand. Parent tiles are rebuilt on a background thread, once per
+ * batch of new tiles, or immediately when they are requested.
+ */
 public class MultiTileCache {
 
    protected int minZoomLevel_;
    protected int width_ = 0;
    protected int height_ = 0;
    private int type_ = -1;
+   private int bytesPerPixel_ = 0;
+   private final long maxMemoryBytes_;
 
-   protected Hashtable<Point3D, MultiTile> allTiles_ = new Hashtable<Point3D, MultiTile>();
-   protected Hashtable<Integer, Point3D> currentTiles_ = new Hashtable<Integer, Point3D>();
+   // All fields below are guarded by this.
+   // Every tile that exists, in memory or on disk
+   private final Set<Point3D> allTiles_ = new HashSet<Point3D>();
+   // Tiles in memory, in least-recently-used order
+   private final LinkedHashMap<Point3D, ImageProcessor> inMemory_ =
+         new LinkedHashMap<Point3D, ImageProcessor>(16, 0.75f, true);
+   // Tiles in memory whose disk copy is missing or out of date
+   private final Set<Point3D> unsaved_ = new HashSet<Point3D>();
+   // Parent tiles that need to be rebuilt from their children
+   private final Set<Point3D> stale_ = new HashSet<Point3D>();
+   private final Map<Point3D, Long> diskSlots_ = new HashMap<Point3D, Long>();
+   private long nextDiskSlot_ = 0;
+   private File tileFile_;
+   private FileChannel tileChannel_;
+   private boolean rebuildScheduled_ = false;
+
+   private final ExecutorService rebuildExecutor_ = Executors.newSingleThreadExecutor(
+         ThreadFactoryFactory.createThreadFactory("SlideExplorer tile pyramid"));
 
    public MultiTileCache(int zoomLevels, Dimension tileDimensions) {
+      this(zoomLevels, tileDimensions,
+            Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8));
+   }
+
+   public MultiTileCache(int zoomLevels, Dimension tileDimensions, long maxMemoryBytes) {
       minZoomLevel_ = -zoomLevels + 1;
       width_ = tileDimensions.width;
       height_ = tileDimensions.height;
-
-      File tmpDir = new File("/tmp");
-      if (!tmpDir.exists()) {
-         tmpDir.mkdir();
-      }
+      maxMemoryBytes_ = maxMemoryBytes;
    }
 
    public void addImage(Point idx, ImageProcessor proc) {
-      if (type_ == -1) {
-         type_ = ImageUtils.getImageProcessorType(proc);
+      ImageProcessor tile;
+      synchronized (this) {
+         if (type_ == -1) {
+            type_ = ImageUtils.getImageProcessorType(proc);
+            bytesPerPixel_ = proc.getBitDepth() == 24 ? 4 : proc.getBitDepth() / 8;
+         }
       }
+      tile = ImageUtils.makeProcessor(type_, width_, height_);
+      tile.insert(proc, 0, 0);
+      tile.setInterpolationMethod(ImageProcessor.BILINEAR);
 
-      MultiTile tile = getTile(idx);
-      tile.setImage(proc);
-      propagateTile(idx, tile);
+      synchronized (this) {
+         Point3D tileIdx = new Point3D(idx, 0);
+         putInMemory(tileIdx, tile);
+         for (Point3D p = tileIdx; p.k > minZoomLevel_; ) {
+            p = getParentIndex(p);
+            allTiles_.add(p);
+            stale_.add(p);
+         }
+         if (!rebuildScheduled_) {
+            rebuildScheduled_ = true;
+            rebuildExecutor_.submit(new Runnable() {
+               @Override
+               public void run() {
+                  rebuildStaleTiles();
+               }
+            });
+         }
+      }
    }
 
-   public ImageProcessor getImage(Point3D multiTileIndex) {
-      return getMultiTile(multiTileIndex).getImage();
+   public synchronized ImageProcessor getImage(Point3D multiTileIndex) {
+      return getMultiTile(multiTileIndex);
    }
 
-   public boolean hasImage(Point p) {
-      return allTiles_.containsKey(new Point3D(p, 0));
+   public synchronized boolean hasImage(Point p) {
+      return allTiles_.contains(new Point3D(p, 0));
    }
 
-   public boolean hasImage(Point3D p) {
-      return allTiles_.containsKey(p);
+   public synchronized boolean hasImage(Point3D p) {
+      return allTiles_.contains(p);
    }
 
-   protected void propagateTile(Point idx, MultiTile multiTile) {
-      propagateTile(new Point3D(idx, 0), multiTile);
+   /*
+    * Rebuild parents of tiles added since the last run, finest level first,
+    * so that a parent shared by several new tiles is only rebuilt once.
+    * The lock is released between tiles to let acquisition continue.
+    */
+   private void rebuildStaleTiles() {
+      while (true) {
+         synchronized (this) {
+            if (stale_.isEmpty()) {
+               rebuildScheduled_ = false;
+               return;
+            }
+            Point3D finest = null;
+            for (Point3D p : stale_) {
+               if (finest == null || p.k > finest.k) {
+                  finest = p;
+               }
+            }
+            try {
+               getMultiTile(finest);
+            } catch (RuntimeException e) {
+               ReportingUtils.logError(e, "Failed to rebuild tile " + finest);
+               stale_.remove(finest);
+            }
+         }
+      }
    }
 
-   protected void propagateTile(Point3D idx, MultiTile multiTile) {
-      if (idx.k > minZoomLevel_) {
-         Point3D pidx = getParentIndex(idx);
-         Point pquad = getParentQuadrant(idx);
-         MultiTile parentTile = getMultiTile(pidx);
-
-         ImageProcessor proc = multiTile.getImage();
-         parentTile.insertQuadrantImage(pquad, proc);
-         propagateTile(pidx, parentTile);
+   /*
+    * Get a tile, rebuilding it first if it is stale. Returns null for tiles
+    * that do not exist, or that could not be read back from disk; the latter
+    * are forgotten, so that their parents are rebuilt without them.
+    */
+   protected synchronized ImageProcessor getMultiTile(Point3D idx) {
+      if (stale_.remove(idx)) {
+         ImageProcessor tile = ImageUtils.makeProcessor(type_, width_, height_);
+         tile.setInterpolationMethod(ImageProcessor.BILINEAR);
+         for (int q = 0; q < 4; ++q) {
+            Point quad = new Point(q & 1, q >> 1);
+            Point3D childIdx = new Point3D((idx.i << 1) + quad.x, (idx.j << 1) + quad.y,
+                  idx.k + 1);
+            ImageProcessor child = allTiles_.contains(childIdx)
+                  ? getMultiTile(childIdx) : null;
+            if (child != null) {
+               child.setInterpolationMethod(ImageProcessor.BILINEAR);
+               tile.insert(child.resize(width_ / 2, height_ / 2),
+                     quad.x * width_ / 2, quad.y * height_ / 2);
+            }
+         }
+         putInMemory(idx, tile);
+         return tile;
+      }
+      ImageProcessor tile = inMemory_.get(idx);
+      if (tile == null && diskSlots_.containsKey(idx)) {
+         tile = readFromDisk(idx);
+         if (tile != null) {
+            inMemory_.put(idx, tile);
+            evictIfNeeded();
+         }
+      }
+      if (tile == null) {
+         allTiles_.remove(idx);
       }
+      return tile;
    }
 
-   protected MultiTile getTile(Point idx) {
-      return getMultiTile(new Point3D(idx.x, idx.y, 0));
+   private void putInMemory(Point3D idx, ImageProcessor tile) {
+      allTiles_.add(idx);
+      inMemory_.put(idx, tile);
+      unsaved_.add(idx);
+      evictIfNeeded();
    }
 
-   protected MultiTile getMultiTile(int i, int j, int z) {
-      return getMultiTile(new Point3D(i, j, z));
+   private void evictIfNeeded() {
+      long tileBytes = (long) width_ * height_ * bytesPerPixel_;
+      Iterator<Map.Entry<Point3D, ImageProcessor>> lru = inMemory_.entrySet().iterator();
+      // Keep at least the tile just used
+      while (inMemory_.size() > 1 && inMemory_.size() * tileBytes > maxMemoryBytes_) {
+         Map.Entry<Point3D, ImageProcessor> eldest = lru.next();
+         if (unsaved_.remove(eldest.getKey())) {
+            try {
+               writeToDisk(eldest.getKey(), eldest.getValue());
+            } catch (IOException e) {
+               // Keep the tile in memory rather than lose it
+               ReportingUtils.logError(e, "Failed to write tile to disk");
+               unsaved_.add(eldest.getKey());
+               return;
+            }
+         }
+         lru.remove();
+      }
    }
 
-   protected synchronized MultiTile getMultiTile(Point3D idx) {
+   private void writeToDisk(Point3D idx, ImageProcessor tile) throws IOException {
+      if (tileChannel_ == null) {
+         tileFile_ = File.createTempFile("SlideExplorerTiles", ".bin");
+         tileFile_.deleteOnExit();
+         tileChannel_ = new RandomAccessFile(tileFile_, "rw").getChannel();
+      }
+      Long slot = diskSlots_.get(idx);
+      if (slot == null) {
+         slot = nextDiskSlot_++;
+         diskSlots_.put(idx, slot);
+      }
+      int pixelCount = width_ * height_;
+      ByteBuffer buffer = ByteBuffer.allocate(pixelCount * bytesPerPixel_)
+            .order(ByteOrder.nativeOrder());
+      Object pixels = tile.getPixels();
+      if (pixels instanceof byte[]) {
+         buffer.put((byte[]) pixels);
+      } else if (pixels instanceof short[]) {
+         buffer.asShortBuffer().put((short[]) pixels);
+      } else if (pixels instanceof int[]) {
+         buffer.asIntBuffer().put((int[]) pixels);
+      } else {
+         buffer.asFloatBuffer().put((float[]) pixels);
+      }
+      buffer.rewind();
+      long position = slot * buffer.capacity();
+      while (buffer.hasRemaining()) {
+         position += tileChannel_.write(buffer, position);
+      }
+   }
 
-      if (currentTiles_.containsKey(idx.k)) {
-         Point3D currentTile = currentTiles_.get(idx.k);
-         if (!currentTile.equals(idx)) {
-            allTiles_.get(currentTile).dropFromMemory();
-            currentTiles_.remove(currentTile.k);
+   private ImageProcessor readFromDisk(Point3D idx) {
+      int pixelCount = width_ * height_;
+      ByteBuffer buffer = ByteBuffer.allocate(pixelCount * bytesPerPixel_)
+            .order(ByteOrder.nativeOrder());
+      long position = diskSlots_.get(idx) * buffer.capacity();
+      try {
+         while (buffer.hasRemaining()) {
+            int read = tileChannel_.read(buffer, position + buffer.position());
+            if (read < 0) {
+               throw new IOException("Unexpected end of tile file");
+            }
          }
+      } catch (IOException e) {
+         // Somehow the image got lost.
+         ReportingUtils.logError(e, "Failed to read tile " + idx + " from disk");
+         diskSlots_.remove(idx);
+         return null;
       }
-
-      currentTiles_.put(idx.k, idx);
-      if (!allTiles_.containsKey(idx)) {
-         MultiTile tile = new MultiTile(type_, width_, height_);
-         allTiles_.put(idx, tile);
-         return tile;
-      } else {
-         return allTiles_.get(idx);
+      buffer.rewind();
+      Object pixels;
+      switch (type_) {
+         case ImagePlus.GRAY8:
+            pixels = buffer.array();
+            break;
+         case ImagePlus.GRAY16:
+            pixels = new short[pixelCount];
+            buffer.asShortBuffer().get((short[]) pixels);
+            break;
+         case ImagePlus.COLOR_RGB:
+            pixels = new int[pixelCount];
+            buffer.asIntBuffer().get((int[]) pixels);
+            break;
+         default:
+            pixels = new float[pixelCount];
+            buffer.asFloatBuffer().get((float[]) pixels);
       }
+      ImageProcessor tile = ImageUtils.makeProcessor(type_, width_, height_, pixels);
+      tile.setInterpolationMethod(ImageProcessor.BILINEAR);
+      return tile;
    }
 
    protected Point3D getParentIndex(Point3D idx) {
@@ -106,13 +294,31 @@ public class MultiTileCache {
       return new Point3D(i, j, k);
    }
 
-   public void clear() {
-      for (MultiTile multiTile : allTiles_.values()) {
-         multiTile.wipeFromDisk();
-      }
-      currentTiles_.clear();
+   public synchronized void clear() {
       allTiles_.clear();
+      inMemory_.clear();
+      unsaved_.clear();
+      stale_.clear();
+      diskSlots_.clear();
+      nextDiskSlot_ = 0;
+      if (tileChannel_ != null) {
+         try {
+            tileChannel_.close();
+         } catch (IOException e) {
+            ReportingUtils.logError(e);
+         }
+         tileChannel_ = null;
+         tileFile_.delete();
+         tileFile_ = null;
+      }
    }
 
-
+   /*
+    * Clear the cache and stop its background thread. The cache cannot be
+    * used afterwards.
+    */
+   public void dispose() {
+      clear();
+      rebuildExecutor_.shutdown();
+   }
 }
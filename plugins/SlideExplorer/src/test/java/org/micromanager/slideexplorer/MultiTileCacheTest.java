@@ -0,0 +1,97 @@
+package org.micromanager.slideexplorer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Dimension;
+import java.awt.Point;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiTileCacheTest {
+   private static final int TILE_SIZE = 32;
+   private static final int TILES_PER_SIDE = 4;
+   // Room for 3 tiles of 16 bit pixels, out of the 16 acquired and 5 parents
+   private static final long MAX_MEMORY_BYTES = 3L * TILE_SIZE * TILE_SIZE * 2;
+
+   private MultiTileCache cache_;
+
+   @Before
+   public void setUp() {
+      cache_ = new MultiTileCache(3, new Dimension(TILE_SIZE, TILE_SIZE), MAX_MEMORY_BYTES);
+   }
+
+   @After
+   public void tearDown() {
+      cache_.dispose();
+   }
+
+   private static int valueOf(int i, int j) {
+      return 1000 + 100 * i + j;
+   }
+
+   private static ImageProcessor tile(int value) {
+      ShortProcessor proc = new ShortProcessor(TILE_SIZE, TILE_SIZE);
+      proc.setValue(value);
+      proc.fill();
+      return proc;
+   }
+
+   private void addAllTiles() {
+      for (int i = 0; i < TILES_PER_SIDE; i++) {
+         for (int j = 0; j < TILES_PER_SIDE; j++) {
+            cache_.addImage(new Point(i, j), tile(valueOf(i, j)));
+         }
+      }
+   }
+
+   @Test
+   public void testTilesBeyondMemoryLimitAreReadBack() {
+      addAllTiles();
+      for (int i = 0; i < TILES_PER_SIDE; i++) {
+         for (int j = 0; j < TILES_PER_SIDE; j++) {
+            assertTrue(cache_.hasImage(new Point(i, j)));
+            ImageProcessor proc = cache_.getImage(new Point3D(i, j, 0));
+            assertNotNull(proc);
+            short[] pixels = (short[]) proc.getPixels();
+            for (short p : pixels) {
+               assertEquals(valueOf(i, j), p & 0xffff);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testParentsAreBuiltFromSpilledChildren() {
+      addAllTiles();
+      // Each quadrant of the coarsest tile shows one level -1 tile, whose
+      // top left quadrant in turn shows one acquired tile
+      ImageProcessor top = cache_.getImage(new Point3D(0, 0, -2));
+      assertNotNull(top);
+      int quarter = TILE_SIZE / 4;
+      for (int i = 0; i < 2; i++) {
+         for (int j = 0; j < 2; j++) {
+            int x = i * TILE_SIZE / 2 + quarter / 2;
+            int y = j * TILE_SIZE / 2 + quarter / 2;
+            assertEquals(valueOf(2 * i, 2 * j), top.get(x, y));
+         }
+      }
+      ImageProcessor parent = cache_.getImage(new Point3D(1, 0, -1));
+      assertNotNull(parent);
+      assertEquals(valueOf(2, 0), parent.get(quarter, quarter));
+      assertEquals(valueOf(3, 1), parent.get(TILE_SIZE - quarter, TILE_SIZE - quarter));
+   }
+
+   @Test
+   public void testMissingTiles() {
+      addAllTiles();
+      assertFalse(cache_.hasImage(new Point(TILES_PER_SIDE, 0)));
+      assertNull(cache_.getImage(new Point3D(TILES_PER_SIDE, 0, 0)));
+   }
+}
@@ -30,6 +30,7 @@ import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Processor;
+import org.micromanager.data.PipelineStageOptions;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
 
@@ -38,7 +39,7 @@ import org.micromanager.data.SummaryMetadata;
  *
  * @author nico, heavily updated by Chris Weisiger
  */
-public class SplitViewProcessor implements Processor {
+public class SplitViewProcessor implements Processor, PipelineStageOptions {
 
    private final Studio studio_;
    private String orientation_ = SplitViewFrame.LR;
@@ -128,4 +129,13 @@ public class SplitViewProcessor implements Processor {
          context.outputImage(output);
       }
    }
+
+   /**
+    * Every image is split on its own, so two images can be split at once,
+    * which helps keep up with fast cameras.
+    */
+   @Override
+   public int getNumberOfWorkers() {
+      return 2;
+   }
 }
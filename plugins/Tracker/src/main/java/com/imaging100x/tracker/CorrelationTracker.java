@@ -0,0 +1,335 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Tracker plugin
+//-----------------------------------------------------------------------------
+//COPYRIGHT:     University of California, San Francisco
+//LICENSE:       This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+
+package com.imaging100x.tracker;
+
+import java.awt.Rectangle;
+import org.micromanager.imageprocessing.NormalizedCrossCorrelation;
+
+/**
+ * Finds how far the contents of a rectangular ROI moved between two images,
+ * by normalized cross correlation of the ROI in the previous image with a
+ * search window in the current image.
+ *
+ * <p>The ROI and the search window are first reduced by 2x2 binning until the
+ * search window is small, and the shift is found over the whole search range
+ * at that coarse level.  It is then refined one level at a time, searching
+ * only a few pixels around the shift found at the level above, down to the
+ * level that matches the requested resolution.  The peak of the final
+ * correlation is interpolated to sub-pixel precision.
+ *
+ * <p>At each level, the correlations for all shifts are computed at once by
+ * {@link NormalizedCrossCorrelation}, which normalizes by the standard
+ * deviation of the window under the ROI.  Without this normalization, the
+ * correlation peaks at bright structures in the search window rather than at
+ * the best match.
+ *
+ * <p>If the time budget passed to track() runs out, the remaining refinement
+ * levels are skipped and the shift found so far is returned.  A tracker keeps
+ * no state between frames.
+ *
+ * @author nico
+ */
+class CorrelationTracker {
+   // coarsest level is chosen such that the search window is at most this size
+   private static final int COARSE_SIZE = 128;
+   // the ROI is not reduced below this size
+   private static final int MIN_ROI_SIZE = 8;
+   // pixels searched around the estimate from the coarser level
+   private static final int REFINE_MARGIN = 3;
+
+   private final int roiWidth_;
+   private final int roiHeight_;
+   private final int maxOffset_;
+   private final int coarseLevel_;
+   private final int fineLevel_;
+   private final int surfaceSize_;
+
+   /**
+    * Result of tracking one frame.
+    */
+   static class Result {
+      /** shift in pixels (of the full image) of the ROI contents */
+      final double dx;
+      final double dy;
+      /** normalized correlation at the shift, 1 for a perfect match */
+      final double peak;
+      /** pyramid level at which the shift was determined, 0 is full resolution */
+      final int level;
+      /** time spent in track(), in nanoseconds */
+      final long processingNs;
+
+      Result(double dx, double dy, double peak, int level, long processingNs) {
+         this.dx = dx;
+         this.dy = dy;
+         this.peak = peak;
+         this.level = level;
+         this.processingNs = processingNs;
+      }
+   }
+
+   /**
+    * @param roiWidth   width of the ROI to be tracked
+    * @param roiHeight  height of the ROI
+    * @param maxOffset  largest shift (in pixels, in x and y) to be found
+    * @param resolution shift is determined at the pyramid level whose pixels are
+    *                   not larger than this
+    */
+   CorrelationTracker(int roiWidth, int roiHeight, int maxOffset, int resolution) {
+      roiWidth_ = roiWidth;
+      roiHeight_ = roiHeight;
+      maxOffset_ = Math.max(1, maxOffset);
+      int level = 0;
+      while (Math.max(roiWidth, roiHeight) + 2 * maxOffset_ > (COARSE_SIZE << level)
+            && (Math.min(roiWidth, roiHeight) >> (level + 1)) >= MIN_ROI_SIZE) {
+         level++;
+      }
+      coarseLevel_ = level;
+      int fine = 0;
+      while ((2 << fine) <= resolution && fine < coarseLevel_) {
+         fine++;
+      }
+      fineLevel_ = fine;
+      surfaceSize_ = 2 * (maxOffset_ >> coarseLevel_) + 1;
+   }
+
+   /**
+    * @return width and height of the correlation surface returned by track()
+    */
+   int getSurfaceSize() {
+      return surfaceSize_;
+   }
+
+   /**
+    * Determines the shift of the ROI contents from prev to cur.
+    *
+    * @param prev     pixels of the previous image
+    * @param cur      pixels of the current image, same size as prev
+    * @param width    image width
+    * @param height   image height
+    * @param roi      ROI to track, of the size given in the constructor
+    * @param budgetNs time after which refinement stops, in nanoseconds
+    * @param surface  if not null, receives the coarse correlation surface
+    *                 (getSurfaceSize() squared), centered at zero shift
+    * @return shift, or null if the ROI does not fit in the image
+    */
+   Result track(float[] prev, float[] cur, int width, int height, Rectangle roi,
+                long budgetNs, float[] surface) {
+      final long start = System.nanoTime();
+      if (roi.x < 0 || roi.y < 0 || roi.x + roiWidth_ > width
+            || roi.y + roiHeight_ > height) {
+         return null;
+      }
+      // search window in the current image, clipped to the image.  The ROI
+      // is kept at a multiple of the coarsest bin size from the window's
+      // corner, so that template and window are binned on the same grid.
+      final int align = 1 << coarseLevel_;
+      final int reach = (maxOffset_ + align - 1) / align * align;
+      int wx0 = roi.x - Math.min(reach, roi.x) / align * align;
+      int wy0 = roi.y - Math.min(reach, roi.y) / align * align;
+      int wx1 = Math.min(width, roi.x + roiWidth_ + maxOffset_);
+      int wy1 = Math.min(height, roi.y + roiHeight_ + maxOffset_);
+      Plane[] templates = new Plane[coarseLevel_ + 1];
+      Plane[] windows = new Plane[coarseLevel_ + 1];
+      templates[0] = Plane.crop(prev, width, roi.x, roi.y, roiWidth_, roiHeight_);
+      windows[0] = Plane.crop(cur, width, wx0, wy0, wx1 - wx0, wy1 - wy0);
+      for (int level = 1; level <= coarseLevel_; level++) {
+         templates[level] = templates[level - 1].bin();
+         windows[level] = windows[level - 1].bin();
+      }
+
+      // full search at the coarsest level
+      int level = coarseLevel_;
+      int tx = (roi.x - wx0) >> level;  // template position in the window
+      int ty = (roi.y - wy0) >> level;
+      int range = maxOffset_ >> level;
+      Peak peak = correlate(templates[level], windows[level], tx - range, ty - range,
+            tx + range, ty + range);
+      if (peak == null) {
+         return new Result(0.0, 0.0, 0.0, level, System.nanoTime() - start);
+      }
+      if (surface != null) {
+         peak.copySurface(surface, surfaceSize_, tx - range, ty - range);
+      }
+      double dx = peak.x - tx;
+      double dy = peak.y - ty;
+
+      // refine
+      while (level > fineLevel_ && System.nanoTime() - start < budgetNs) {
+         int ex = ((roi.x - wx0) >> (level - 1)) + (int) Math.round(2 * dx);
+         int ey = ((roi.y - wy0) >> (level - 1)) + (int) Math.round(2 * dy);
+         Peak fine = correlate(templates[level - 1], windows[level - 1],
+               ex - REFINE_MARGIN, ey - REFINE_MARGIN, ex + REFINE_MARGIN, ey + REFINE_MARGIN);
+         if (fine == null) {
+            break;
+         }
+         level--;
+         peak = fine;
+         dx = peak.x - ((roi.x - wx0) >> level);
+         dy = peak.y - ((roi.y - wy0) >> level);
+      }
+      // shifts at the coarser levels are in binned pixels
+      dx *= (1 << level);
+      dy *= (1 << level);
+      return new Result(dx, dy, peak.value, level, System.nanoTime() - start);
+   }
+
+   /*
+    * Normalized cross correlation of the template with the window, for
+    * template positions (top left) from (x0, y0) to (x1, y1) inclusive,
+    * clipped to positions where the template lies within the window.
+    * Returns null if there are no such positions.
+    */
+   private static Peak correlate(Plane template, Plane window, int x0, int y0,
+                                 int x1, int y1) {
+      x0 = Math.max(0, x0);
+      y0 = Math.max(0, y0);
+      x1 = Math.min(window.width - template.width, x1);
+      y1 = Math.min(window.height - template.height, y1);
+      if (x1 < x0 || y1 < y0) {
+         return null;
+      }
+      final int nx = x1 - x0 + 1;
+      final int ny = y1 - y0 + 1;
+      // only the part of the window that the template can cover
+      Plane sub = window.sub(x0, y0, nx + template.width - 1, ny + template.height - 1);
+      float[] c = new NormalizedCrossCorrelation(template.pixels, template.width,
+            template.height).correlate(sub.pixels, sub.width, sub.height);
+      for (int i = 0; i < c.length; i++) {
+         // flat window or template
+         if (Float.isNaN(c[i])) {
+            c[i] = 0.0f;
+         }
+      }
+
+      return new Peak(c, x0, y0, nx, ny);
+   }
+
+   /*
+    * Maximum of a correlation over shifts (0..nx-1, 0..ny-1), interpolated
+    * with a parabola through the neighbors in x and in y.  Shift (0, 0) is
+    * template position (x0, y0) in the window.
+    */
+   private static class Peak {
+      private final float[] c_;
+      private final int x0_;
+      private final int y0_;
+      private final int nx_;
+      private final int ny_;
+      final double x;
+      final double y;
+      final double value;
+
+      Peak(float[] c, int x0, int y0, int nx, int ny) {
+         c_ = c;
+         x0_ = x0;
+         y0_ = y0;
+         nx_ = nx;
+         ny_ = ny;
+         int maxX = 0;
+         int maxY = 0;
+         float max = -Float.MAX_VALUE;
+         for (int j = 0; j < ny; j++) {
+            for (int i = 0; i < nx; i++) {
+               if (c[j * nx + i] > max) {
+                  max = c[j * nx + i];
+                  maxX = i;
+                  maxY = j;
+               }
+            }
+         }
+         value = max;
+         double subX = 0.0;
+         double subY = 0.0;
+         if (maxX > 0 && maxX < nx - 1) {
+            subX = vertex(c[maxY * nx + maxX - 1], max, c[maxY * nx + maxX + 1]);
+         }
+         if (maxY > 0 && maxY < ny - 1) {
+            subY = vertex(c[(maxY - 1) * nx + maxX], max, c[(maxY + 1) * nx + maxX]);
+         }
+         x = x0 + maxX + subX;
+         y = y0 + maxY + subY;
+      }
+
+      private static double vertex(double left, double center, double right) {
+         double denominator = left - 2 * center + right;
+         if (denominator >= 0.0) {
+            return 0.0;
+         }
+         return Math.max(-0.5, Math.min(0.5, 0.5 * (left - right) / denominator));
+      }
+
+      /*
+       * Copies the correlation into a square surface of the given size,
+       * where (x0, y0) is the template position of the surface's corner.
+       * Positions that were not evaluated are set to zero.
+       */
+      void copySurface(float[] surface, int surfaceSize, int x0, int y0) {
+         for (int j = 0; j < surfaceSize; j++) {
+            for (int i = 0; i < surfaceSize; i++) {
+               int ci = x0 + i - x0_;
+               int cj = y0 + j - y0_;
+               surface[j * surfaceSize + i] = ci >= 0 && ci < nx_ && cj >= 0 && cj < ny_
+                     ? c_[cj * nx_ + ci] : 0.0f;
+            }
+         }
+      }
+   }
+
+   /*
+    * Grayscale pixels of a rectangular area
+    */
+   private static class Plane {
+      final float[] pixels;
+      final int width;
+      final int height;
+
+      Plane(float[] pixels, int width, int height) {
+         this.pixels = pixels;
+         this.width = width;
+         this.height = height;
+      }
+
+      static Plane crop(float[] src, int srcWidth, int x, int y, int width, int height) {
+         float[] pixels = new float[width * height];
+         for (int row = 0; row < height; row++) {
+            System.arraycopy(src, (y + row) * srcWidth + x, pixels, row * width, width);
+         }
+         return new Plane(pixels, width, height);
+      }
+
+      Plane sub(int x, int y, int w, int h) {
+         return crop(pixels, width, x, y, w, h);
+      }
+
+      /*
+       * 2x2 binning (averaging); an odd last row or column is dropped
+       */
+      Plane bin() {
+         int w = width / 2;
+         int h = height / 2;
+         float[] binned = new float[w * h];
+         for (int row = 0; row < h; row++) {
+            int i0 = 2 * row * width;
+            int i1 = i0 + width;
+            for (int col = 0; col < w; col++) {
+               binned[row * w + col] = 0.25f * (pixels[i0 + 2 * col] + pixels[i0 + 2 * col + 1]
+                     + pixels[i1 + 2 * col] + pixels[i1 + 2 * col + 1]);
+            }
+         }
+         return new Plane(binned, w, h);
+      }
+   }
+}
@@ -37,6 +37,8 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.GregorianCalendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
@@ -44,6 +46,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.border.BevelBorder;
 import mmcorej.MMCoreJ;
@@ -58,6 +61,7 @@ import org.micromanager.display.DisplayWindow;
 import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.MDUtils;
 import org.micromanager.internal.utils.TextUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.WindowPositioning;
 
 
@@ -82,9 +86,13 @@ public class TrackerControl extends JFrame {
    private int resolutionPix_ = 5;
    private int offsetPix_ = 100;
    private Timer timer_;
+   // Only exists while tracking
+   private ExecutorService trackExecutor_;
+   private CorrelationTracker tracker_;
    private float[] pixelsPrev_ = null;
    private float[] pixelsCur_ = null;
    private int imWidth_ = 0;
+   private int imHeight_ = 0;
    private String stage_ = "XYStage";
    private Roi roi_;
    private ImageStack corrStack_;
@@ -110,6 +118,8 @@ public class TrackerControl extends JFrame {
    private static final String TRACK_X = "TRACK_Y_UM";
    private static final String TRACK_DY = "TRACK_DX_PIX";
    private static final String TRACK_DX = "TRACK_DY_PIX";
+   private static final String TRACK_PEAK = "TRACK_CORRELATION";
+   private static final String TRACK_MS = "TRACK_PROCESSING_MS";
    private static final String D = "STEP_UM";
    private static final String V = "VELOCITY_UMPS";
    private static final String L = "TOTAL_TRAVEL_UM";
@@ -387,7 +397,8 @@ public class TrackerControl extends JFrame {
       fileLocationsLabel.setBounds(10, 241, 143, 16);
       getContentPane().add(fileLocationsLabel);
 
-      // Setup timer
+      // Setup timer.  Frames are snapped and tracked on trackExecutor_, so that
+      // the EDT stays responsive; a tick is skipped while a frame is in progress
       final AtomicBoolean taskRunning = new AtomicBoolean(false);
       ActionListener timerHandler = new ActionListener() {
          @Override
@@ -395,16 +406,21 @@ public class TrackerControl extends JFrame {
             Runnable doTrack = new Runnable() {
                @Override
                public void run() {
-                  TaggedImage tagged = snapSingleImage();
-                  if (tagged != null) {
-                     processOneFrame(tagged, true);
+                  try {
+                     TaggedImage tagged = snapSingleImage();
+                     if (tagged != null) {
+                        processOneFrame(tagged, true);
+                     }
+                  } catch (RuntimeException e) {
+                     app_.logs().logError(e, "Live Tracking failed to process a frame");
+                  } finally {
+                     taskRunning.set(false);
                   }
-                  taskRunning.set(false);
                }
             };
-            if (!taskRunning.get()) {
-               taskRunning.set(true);
-               (new Thread(doTrack)).start();
+            // A tick may still be queued after tracking was stopped
+            if (trackExecutor_ != null && taskRunning.compareAndSet(false, true)) {
+               trackExecutor_.execute(doTrack);
             }
          }
       };
@@ -447,11 +463,13 @@ public class TrackerControl extends JFrame {
          return;
       }
 
-      // Set up new ImageJ window to display the correlation image
-      int kCount = 2 * offsetPix_ / resolutionPix_;
-      int lCount = 2 * offsetPix_ / resolutionPix_;
-      corrStack_ = new ij.ImageStack(lCount, kCount);
-      ImageProcessor corrImproc = new ij.process.FloatProcessor(lCount, kCount);
+      Rectangle r = roi_.getBounds();
+      tracker_ = new CorrelationTracker(r.width, r.height, offsetPix_, resolutionPix_);
+
+      // Set up new ImageJ window to display the (coarse) correlation image
+      int surfaceSize = tracker_.getSurfaceSize();
+      corrStack_ = new ij.ImageStack(surfaceSize, surfaceSize);
+      ImageProcessor corrImproc = new ij.process.FloatProcessor(surfaceSize, surfaceSize);
       corrStack_.addSlice(corrImproc);
       corrImplus_ = new ij.ImagePlus("Cross Correlation", corrStack_);
       corrImplus_.show();
@@ -477,6 +495,10 @@ public class TrackerControl extends JFrame {
       xySeries_ = new XYSeries("Track", false);
       TrackerUtils.plotData("Cell Track: " + acqName_, xySeries_, "X (micron)",
             "Y (micron)", 100, 100);
+      if (trackExecutor_ == null) {
+         trackExecutor_ = Executors.newSingleThreadExecutor(
+               ThreadFactoryFactory.createThreadFactory("Live Tracking"));
+      }
       timer_.start();
    }
 
@@ -485,9 +507,22 @@ public class TrackerControl extends JFrame {
 
       app_.logs().logMessage("Tracking stopped at " + GregorianCalendar.getInstance().getTime());
       timer_.stop();
+      if (trackExecutor_ != null) {
+         // Lets the frame in progress finish, then ends the thread
+         trackExecutor_.shutdown();
+         trackExecutor_ = null;
+      }
       roi_ = null;
    }
 
+   @Override
+   public void dispose() {
+      if (trackExecutor_ != null) {
+         stopTracking();
+      }
+      super.dispose();
+   }
+
    private TaggedImage snapSingleImage() {
       try {
          app_.core().snapImage();
@@ -504,20 +539,21 @@ public class TrackerControl extends JFrame {
                pixelsCur_ = new float[size];
                byte[] pixels = (byte[]) tagged.pix;
                for (int i = 0; i < size; i++) {
-                  pixelsCur_[i] = pixels[i];
+                  pixelsCur_[i] = pixels[i] & 0xff;
                }
             }
             if (tagged.pix instanceof short[]) {
                pixelsCur_ = new float[size];
                short[] pixels = (short[]) tagged.pix;
                for (int i = 0; i < size; i++) {
-                  pixelsCur_[i] = pixels[i];
+                  pixelsCur_[i] = pixels[i] & 0xffff;
                }
             }
             if (tagged.pix instanceof float[]) {
                pixelsCur_ = java.util.Arrays.copyOf((float[]) tagged.pix, size);
             }
             imWidth_ = image.getWidth();
+            imHeight_ = image.getHeight();
          }
          return tagged;
       } catch (Exception e) {
@@ -536,74 +572,53 @@ public class TrackerControl extends JFrame {
          return;
       }
 
-      int kCount = 2 * offsetPix_ / resolutionPix_;
-      int lCount = 2 * offsetPix_ / resolutionPix_;
-      ImageProcessor corrImproc = new ij.process.FloatProcessor(lCount, kCount);
-      corrStack_.addSlice(corrImproc);
-
-      // position of correlation maximum
-      int kMax = 0;
-      int lMax = 0;
-
-      Rectangle r = roi_.getBounds();
-      display_.getImagePlus().setRoi(roi_, true);
-      //IJ.write("ROI pos: " + r.x + "," + r.y);
-
-      int width = r.width;
-      int height = r.height;
-      double corScale = width * height;
-
-      double maxCor = 0;
-      for (int k = -offsetPix_; k < offsetPix_; k += resolutionPix_) {
-         for (int l = -offsetPix_; l < offsetPix_; l += resolutionPix_) {
-
-            // calculate correlation
-            double sum = 0.0;
-            double meanPrev = 0.0;
-            double meanCur = 0.0;
-            for (int i = 0; i < height; i++) {
-               for (int j = 0; j < width; j++) {
-                  int row = r.y + i;
-                  int col = r.x + j;
-                  double pixPrev = pixelsPrev_[row * imWidth_ + col];
-                  double pixCur = pixelsCur_[(row + k) * imWidth_ + (col + l)];
-                  sum += pixPrev * pixCur;
-                  meanPrev += pixPrev;
-                  meanCur += pixCur;
-               }
-            }
-            sum /= corScale;
-            meanPrev /= corScale;
-            meanCur /= corScale;
-            sum /= meanPrev * meanCur;
-
-            int x = (l + offsetPix_) / resolutionPix_;
-            int y = (k + offsetPix_) / resolutionPix_;
-            corrImproc.setf(x + lCount * y, (float) sum);
-
-            // check for max value
-            if (sum > maxCor) {
-               maxCor = sum;
-               kMax = k;
-               lMax = l;
-            }
-         }
+      final Roi roi = roi_;
+      if (roi == null) {
+         // tracking was stopped
+         return;
       }
-
-      if (corrImplus_ == null) {
-         corrImplus_ = new ij.ImagePlus("Cross Correlation", corrStack_);
-         corrImplus_.show();
+      Rectangle r = roi.getBounds();
+
+      // shift of the roi contents, in pixels
+      final int surfaceSize = tracker_.getSurfaceSize();
+      final float[] surface = new float[surfaceSize * surfaceSize];
+      CorrelationTracker.Result result = tracker_.track(pixelsPrev_, pixelsCur_,
+            imWidth_, imHeight_, r, intervalMs_ * 500000L, surface);
+      double xShift = 0.0;
+      double yShift = 0.0;
+      double peak = 0.0;
+      double processingMs = 0.0;
+      if (result != null) {
+         xShift = result.dx;
+         yShift = result.dy;
+         peak = result.peak;
+         processingMs = result.processingNs / 1.0e6;
       } else {
-         corrImplus_.setPosition(imageCounter_ + 1);
-         corrImplus_.updateAndRepaintWindow();
+         app_.logs().logMessage("Tracking ROI lies outside the image, no correction");
       }
 
-      //IJ.write("maxc=" + maxCor + ", offset=(" + lMax + "," + kMax + ")");
+      final int frame = imageCounter_;
+      SwingUtilities.invokeLater(new Runnable() {
+         @Override
+         public void run() {
+            display_.getImagePlus().setRoi(roi, true);
+            corrStack_.addSlice(
+                  new ij.process.FloatProcessor(surfaceSize, surfaceSize, surface, null));
+            if (corrImplus_ == null) {
+               corrImplus_ = new ij.ImagePlus("Cross Correlation", corrStack_);
+               corrImplus_.show();
+            } else {
+               corrImplus_.setPosition(frame + 1);
+               corrImplus_.updateAndRepaintWindow();
+            }
+         }
+      });
+
       pixelsPrev_ = pixelsCur_;
 
       // offset in um
-      double shiftXUm = -lMax * pixelSizeUm_;
-      double shiftYUm = -kMax * pixelSizeUm_;
+      double shiftXUm = -xShift * pixelSizeUm_;
+      double shiftYUm = -yShift * pixelSizeUm_;
 
       // apply image transposition
       if (mirrorX_) {
@@ -633,8 +648,8 @@ public class TrackerControl extends JFrame {
             app_.core().getXYPosition(stage_, xCur, yCur);
             tagged.tags.put(TRACK_X, xCur[0]);
             tagged.tags.put(TRACK_Y, yCur[0]);
-            tagged.tags.put(TRACK_DX, lMax);
-            tagged.tags.put(TRACK_DY, kMax);
+            tagged.tags.put(TRACK_DX, xShift);
+            tagged.tags.put(TRACK_DY, yShift);
             tagged.tags.put(RECT_X, r.x);
             tagged.tags.put(RECT_Y, r.y);
             tagged.tags.put(RECT_W, r.width);
@@ -665,22 +680,39 @@ public class TrackerControl extends JFrame {
          } // relative motion
       } else {
          // move the roi
-         roi_.setLocation(r.x + lMax, r.y + kMax);
+         roi.setLocation(r.x + (int) Math.round(xShift), r.y + (int) Math.round(yShift));
 
-         display_.getImagePlus().setRoi(roi_, true);
+         SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+               display_.getImagePlus().setRoi(roi, true);
+            }
+         });
       }
 
       double d = Math.sqrt(dxUm * dxUm + dyUm * dyUm);
       distUm_ += d;
       double v = d / intervalMs_ * 1000.0;
-      speedLabel_.setText("n=" + imageCounter_ + ", t="
+      final String speed = "n=" + imageCounter_ + ", t="
             + TextUtils.FMT2.format(((double) imageCounter_ * intervalMs_) / 1000.0)
             + " s, d=" + TextUtils.FMT2.format(d) + " um, l=" + TextUtils.FMT2.format(distUm_)
-            + " um, v=" + TextUtils.FMT2.format(v) + " um/s");
+            + " um, v=" + TextUtils.FMT2.format(v) + " um/s, "
+            + TextUtils.FMT2.format(processingMs) + " ms";
+      SwingUtilities.invokeLater(new Runnable() {
+         @Override
+         public void run() {
+            speedLabel_.setText(speed);
+         }
+      });
+      app_.logs().logDebugMessage("Tracked frame " + imageCounter_ + " in "
+            + TextUtils.FMT2.format(processingMs) + " ms, correlation "
+            + TextUtils.FMT2.format(peak));
       try {
          tagged.tags.put(D, d);
          tagged.tags.put(V, v);
          tagged.tags.put(L, distUm_);
+         tagged.tags.put(TRACK_PEAK, peak);
+         tagged.tags.put(TRACK_MS, processingMs);
       } catch (JSONException ex) {
          app_.logs().showError(ex, "Problem adding tags to image", this);
       }
@@ -21,9 +21,11 @@
 
 package org.micromanager.zprojector;
 
+import ij.plugin.ZProjector;
 import org.micromanager.Studio;
 import org.micromanager.display.DisplayGearMenuPlugin;
 import org.micromanager.display.DisplayWindow;
+import org.micromanager.imageprocessing.PixelAccumulator;
 import org.scijava.plugin.Plugin;
 import org.scijava.plugin.SciJavaPlugin;
 
@@ -46,9 +48,65 @@ public class ZProjectorPlugin implements DisplayGearMenuPlugin, SciJavaPlugin {
    // to be used in conjunction with "Methods" in IJ ZProjector
    public static final int SHARPNESS_METHOD = 10;
    public static final String SHOW_SHARPNESS_GRAPH = "ShowSharpnessGraph";
+   // Note: Median, Std.Dev. and Sum yield 32-bit images in ImageJ
+   // Those are converted back to the type of the input images
+   public static final String[] PROJECTION_METHODS = new String[] {"Max", "Min",
+         "Avg", "Median", "Std.Dev", "Sum"};
 
    private Studio studio_;
 
+   /**
+    * Translates one of the PROJECTION_METHODS into ImageJ's ZProjector method.
+    *
+    * @param methodName Name of the projection method, as shown in the UI
+    * @return ZProjector method, MAX_METHOD when the name is not known
+    */
+   public static int getProjectionMethod(String methodName) {
+      if (methodName != null) {
+         switch (methodName) {
+            case "Min":
+               return ZProjector.MIN_METHOD;
+            case "Avg":
+               return ZProjector.AVG_METHOD;
+            case "Median":
+               return ZProjector.MEDIAN_METHOD;
+            case "Std.Dev":
+               return ZProjector.SD_METHOD;
+            case "Sum":
+               return ZProjector.SUM_METHOD;
+            default:
+               break;
+         }
+      }
+      return ZProjector.MAX_METHOD;
+   }
+
+   /**
+    * Translates ImageJ's ZProjector method into the statistic that
+    * PixelAccumulator computes for it.
+    *
+    * @param projectionMethod ZProjector method
+    * @return the statistic, or null for methods that only ImageJ projects
+    */
+   static PixelAccumulator.Statistic getStatistic(int projectionMethod) {
+      switch (projectionMethod) {
+         case ZProjector.AVG_METHOD:
+            return PixelAccumulator.Statistic.MEAN;
+         case ZProjector.MAX_METHOD:
+            return PixelAccumulator.Statistic.MAX;
+         case ZProjector.MIN_METHOD:
+            return PixelAccumulator.Statistic.MIN;
+         case ZProjector.SUM_METHOD:
+            return PixelAccumulator.Statistic.SUM;
+         case ZProjector.SD_METHOD:
+            return PixelAccumulator.Statistic.STD_DEV;
+         case ZProjector.MEDIAN_METHOD:
+            return PixelAccumulator.Statistic.MEDIAN;
+         default:
+            return null;
+      }
+   }
+
    @Override
    public String getSubMenu() {
       return "";
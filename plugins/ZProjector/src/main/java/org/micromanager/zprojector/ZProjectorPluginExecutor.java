@@ -27,10 +27,16 @@ import ij.plugin.ZProjector;
 import ij.process.ImageProcessor;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.SwingWorker;
 import org.jfree.data.xy.XYSeries;
 import org.micromanager.Studio;
@@ -52,10 +58,12 @@ import org.micromanager.display.DisplayWindow;
 // MMStudio API, so it still uses internal classes and interfaces. New code
 // should not imitate this practice.
 import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+import org.micromanager.imageprocessing.PixelAccumulator;
 import org.micromanager.imageprocessing.curvefit.Fitter;
 import org.micromanager.imageprocessing.curvefit.PlotUtils;
 import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.ProgressBar;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 /**
  * Executes the Projection.
@@ -214,7 +222,8 @@ public class ZProjectorPluginExecutor {
     * Recursively figures out which projections need to be performed
     * It does so by taking the first remaining axes, cycle through all positions
     * in that axes, and recursively calling this function (omitting that axis).
-    * When no more axes are remaining, the actual projection will be executed.
+    * When no more axes are remaining, the position is added to the list of
+    * projections, which are then executed in parallel.
     *
     * @param newStore Datastore to put the new projected images into
     * @param remainingAxes List with axes to look at
@@ -224,39 +233,152 @@ public class ZProjectorPluginExecutor {
     */
    private void findAllProjections(Datastore newStore, List<String> remainingAxes, 
            Coords.CoordsBuilder cbp, ZProjectorData zpd) throws IOException {
+      List<Coords> positions = new ArrayList<>();
+      collectPositions(remainingAxes, cbp, positions);
+      executeProjections(newStore, positions, zpd);
+   }
+
+   private void collectPositions(List<String> remainingAxes, Coords.CoordsBuilder cbp,
+                                 List<Coords> positions) {
+      if (remainingAxes.isEmpty()) {
+         positions.add(cbp.build());
+         return;
+      }
       String currentAxis = remainingAxes.get(0);
       List<String> rcAxes = new ArrayList<>(remainingAxes);
       rcAxes.remove(currentAxis);
       for (int i = 0; i < oldProvider_.getNextIndex(currentAxis); i++) {
          cbp.index(currentAxis, i);
-         if (rcAxes.isEmpty()) {
-            executeProjection(newStore, cbp, zpd);
-            projectionNr_++;
-            if (progressBar_ != null) {
-               progressBar_.setProgress(projectionNr_); 
+         collectPositions(rcAxes, cbp, positions);
+      }
+   }
+
+   /**
+    * Projects all positions, each on its own thread, and puts the results
+    * into the new store in the order of the positions. Only a few more
+    * projections than there are threads are in progress at any time, to
+    * limit memory use.
+    *
+    * @param newStore Datastore to put the new projected images into
+    * @param positions Positions to project, without the projection axis
+    * @param zpd ZProjectorData object with projection parameters
+    * @throws IOException Can arise when reading or saving to disk
+    */
+   private void executeProjections(Datastore newStore, List<Coords> positions,
+                                   final ZProjectorData zpd) throws IOException {
+      int nrThreads = Math.min(Runtime.getRuntime().availableProcessors(),
+            Math.max(1, positions.size()));
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads,
+            ThreadFactoryFactory.createThreadFactory("ZProjector"));
+      Deque<Future<Image>> inProgress = new ArrayDeque<>();
+      try {
+         for (final Coords position : positions) {
+            if (inProgress.size() >= 2 * nrThreads) {
+               putProjection(newStore, inProgress.removeFirst());
             }
-         } else {
-            findAllProjections(newStore, rcAxes, cbp, zpd);
+            inProgress.add(executor.submit(() -> executeProjection(position, zpd)));
          }
+         while (!inProgress.isEmpty()) {
+            putProjection(newStore, inProgress.removeFirst());
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } finally {
+         executor.shutdownNow();
       }
    }
-   
+
+   private void putProjection(Datastore newStore, Future<Image> projection)
+         throws IOException, InterruptedException {
+      Image outImg;
+      try {
+         outImg = projection.get();
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof IOException) {
+            throw (IOException) ee.getCause();
+         }
+         if (ee.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) ee.getCause();
+         }
+         throw new IOException(ee.getCause());
+      }
+      if (outImg != null) {
+         newStore.putImage(outImg);
+      } else {
+         studio_.alerts().postAlert("Projection problem", this.getClass(),
+                 "No images found while projecting");
+      }
+      projectionNr_++;
+      if (progressBar_ != null) {
+         progressBar_.setProgress(projectionNr_);
+      }
+   }
+
    /**
-    * Do the actual projection.
+    * Do the actual projection. Slices are read one at a time and added to
+    * the projection, without building an ImageJ stack. RGB images and
+    * methods not handled by PixelAccumulator are projected by ImageJ.
+    *
+    * @param position Position to project, without the projection axis
+    * @param zpd ZProjectorData object with projection parameters
+    * @return Projected image, or null if no images were found
+    * @throws IOException Can arise when reading from disk
+    */
+   private Image executeProjection(Coords position, ZProjectorData zpd)
+           throws IOException {
+      PixelAccumulator.Statistic statistic = ZProjectorPlugin.getStatistic(
+            zpd.projectionMethod_);
+      if (statistic == null) {
+         return executeImageJProjection(position.copyBuilder(), zpd);
+      }
+      Coords.CoordsBuilder cbp = position.copyBuilder();
+      PixelAccumulator accumulator = null;
+      Image firstImg = null;
+      for (int i = zpd.firstFrame_; i <= zpd.lastFrame_; i++) {
+         Image img = oldProvider_.getImage(cbp.index(zpd.projectionAxis_, i).build());
+         if (img == null) {  // null happens when this image was skipped
+            continue;
+         }
+         int nrPixels = img.getWidth() * img.getHeight();
+         if (firstImg == null) {
+            if (img.getNumComponents() > 1 || img.getBytesPerPixel() > 2) {
+               return executeImageJProjection(cbp, zpd);
+            }
+            firstImg = img;
+            accumulator = new PixelAccumulator(statistic, nrPixels,
+                  img.getBytesPerPixel());
+         } else if (!accumulator.matches(nrPixels, img.getBytesPerPixel())) {
+            throw new IOException("Images to be projected differ in size or type");
+         }
+         accumulator.add(img.getRawPixels());
+      }
+      if (accumulator == null) {
+         return null;
+      }
+      // TODO: adjust the metadata with the little knowledge we have about the
+      // projection axis (for instance, if z, set z position to the mean of the
+      // z positions of all images?
+      return studio_.data().createImage(accumulator.getResult(), firstImg.getWidth(),
+            firstImg.getHeight(), firstImg.getBytesPerPixel(), 1,
+            cbp.index(zpd.projectionAxis_, 0).build(),
+            firstImg.getMetadata().copyBuilderWithNewUUID().build());
+   }
+
+   /**
+    * Projection using ImageJ's ZProjector, which builds an ImageJ stack of
+    * all slices.
     *
-    * @param newStore Datastore to put the new projected images into
     * @param cbp Coordinates builder set to the correct position
     * @param zpd ZProjectorData object with projection parameters
-    * @throws IOException Can arise when saving to disk
+    * @return Projected image, or null if no images were found
+    * @throws IOException Can arise when reading from disk
     */
-   private void executeProjection(Datastore newStore, Coords.CoordsBuilder cbp,  ZProjectorData zpd)
+   private Image executeImageJProjection(Coords.CoordsBuilder cbp, ZProjectorData zpd)
            throws IOException {
       cbp.index(zpd.projectionAxis_, zpd.firstFrame_);
       Image tmpImg = oldProvider_.getAnyImage();
       if (tmpImg == null) {
-         studio_.alerts().postAlert("Projection problem", this.getClass(),
-                 "No images found while projecting");
-         return;
+         return null;
       }
       ImageStack stack = new ImageStack(
                tmpImg.getWidth(), tmpImg.getHeight());
@@ -272,32 +394,24 @@ public class ZProjectorPluginExecutor {
             stack.addSlice(ip);
          }
       }
-      //ImagePlus s = new ImagePlus("Test", stack);
-      //s.show();
-      if (stack.getSize() > 0 && imgMetadata != null) {
-         ImagePlus tmp = new ImagePlus("tmp", stack);
-         ZProjector zp = new ZProjector(tmp);
-         zp.setMethod(zpd.projectionMethod_);
-         zp.doProjection();
-         ImagePlus projection = zp.getProjection();
-         if (projection.getBytesPerPixel() > 2) {
-            if (tmp.getBytesPerPixel() == 1) {
-               projection.setProcessor(projection.getProcessor().convertToByte(false));
-            } else if (tmp.getBytesPerPixel() == 2) {
-               projection.setProcessor(projection.getProcessor().convertToShort(false));
-            }
+      if (stack.getSize() == 0 || imgMetadata == null) {
+         return null;
+      }
+      ImagePlus tmp = new ImagePlus("tmp", stack);
+      ZProjector zp = new ZProjector(tmp);
+      zp.setMethod(zpd.projectionMethod_);
+      zp.doProjection();
+      ImagePlus projection = zp.getProjection();
+      if (projection.getBytesPerPixel() > 2) {
+         if (tmp.getBytesPerPixel() == 1) {
+            projection.setProcessor(projection.getProcessor().convertToByte(false));
+         } else if (tmp.getBytesPerPixel() == 2) {
+            projection.setProcessor(projection.getProcessor().convertToShort(false));
          }
-         // TODO: adjust the metadata with the little knowledge we have about the
-         // projection axis (for instance, if z, set z position to the mean of the
-         // z positions of all images?
-         Image outImg = studio_.data().getImageJConverter().createImage(
-                 projection.getProcessor(), cbp.index(zpd.projectionAxis_, 0).build(),
-                 imgMetadata.copyBuilderWithNewUUID().build());
-         newStore.putImage(outImg);
-      } else {
-         studio_.alerts().postAlert("Projection problem", this.getClass(), 
-                                             "No images found while projecting");
       }
+      return studio_.data().getImageJConverter().createImage(
+              projection.getProcessor(), cbp.index(zpd.projectionAxis_, 0).build(),
+              imgMetadata.copyBuilderWithNewUUID().build());
    }
    
 }
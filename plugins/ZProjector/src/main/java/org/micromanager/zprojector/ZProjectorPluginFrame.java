@@ -21,7 +21,6 @@
 
 package org.micromanager.zprojector;
 
-import ij.plugin.ZProjector;
 import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
@@ -184,11 +183,8 @@ public class ZProjectorPluginFrame extends JDialog {
          bg.getElements().nextElement().setSelected(true);
       }
 
-      // Note: Median and Std.Dev. yield 32-bit images
-      // Those would need to be converted to 16-bit to be shown...
-      final String[] projectionMethods = new String[] {"Max", "Min", "Avg", "Median",
-            "Std.Dev"};
-      final JComboBox<String> methodBox = new JComboBox<>(projectionMethods);
+      final JComboBox<String> methodBox = new JComboBox<>(
+            ZProjectorPlugin.PROJECTION_METHODS);
       methodBox.setSelectedItem(settings_.getString(
                                     ZProjectorPlugin.PROJECTION_METHOD, "Max"));
       methodBox.addActionListener((ActionEvent e) -> {
@@ -213,28 +209,8 @@ public class ZProjectorPluginFrame extends JDialog {
       okButton.addActionListener((ActionEvent ae) -> {
          String axis = bg.getSelection().getActionCommand();
          ZProjectorPluginExecutor zp = new ZProjectorPluginExecutor(studio_, ourWindow_);
-         int projectionMethod = ZProjector.MAX_METHOD;
-         if (null !=  methodBox.getSelectedItem()) {
-            switch ((String) methodBox.getSelectedItem()) {
-               case "Max":
-                  projectionMethod = ZProjector.MAX_METHOD;
-                  break;
-               case "Min":
-                  projectionMethod = ZProjector.MIN_METHOD;
-                  break;
-               case "Avg":
-                  projectionMethod = ZProjector.AVG_METHOD;
-                  break;
-               case "Median":
-                  projectionMethod = ZProjector.MEDIAN_METHOD;
-                  break;
-               case "Std.Dev":
-                  projectionMethod = ZProjector.SD_METHOD;
-                  break;
-               default:
-                  break;
-            }
-         }
+         int projectionMethod = ZProjectorPlugin.getProjectionMethod(
+               (String) methodBox.getSelectedItem());
          ZProjectorData zpd = new ZProjectorData(axis, mins.get(axis),
                  maxes.get(axis), projectionMethod);
          zp.project(saveBox.isSelected(),
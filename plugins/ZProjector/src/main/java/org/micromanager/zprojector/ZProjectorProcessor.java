@@ -0,0 +1,104 @@
+package org.micromanager.zprojector;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.imageprocessing.PixelAccumulator;
+
+/**
+ * Projects Z stacks while they are being acquired. Each slice is added to
+ * the projection of its stack as it arrives; the projection is output as
+ * soon as the stack is complete, with Z index 0. Images that can not be
+ * projected (RGB, or acquisitions without Z stacks) are passed through.
+ */
+public class ZProjectorProcessor implements Processor {
+   private final Studio studio_;
+   private final PixelAccumulator.Statistic statistic_;
+   private int stackSize_ = 0;
+   // Stacks in progress, keyed by coords without the Z axis
+   private final Map<Coords, Stack> stacks_ = new HashMap<>();
+
+   private static class Stack {
+      final Image firstImage_;
+      final PixelAccumulator accumulator_;
+
+      Stack(Image firstImage, PixelAccumulator.Statistic statistic) {
+         firstImage_ = firstImage;
+         accumulator_ = new PixelAccumulator(statistic,
+               firstImage.getWidth() * firstImage.getHeight(),
+               firstImage.getBytesPerPixel());
+      }
+   }
+
+   public ZProjectorProcessor(Studio studio, int projectionMethod) {
+      studio_ = studio;
+      statistic_ = ZProjectorPlugin.getStatistic(projectionMethod);
+      if (statistic_ == null) {
+         throw new IllegalArgumentException("Unsupported projection method "
+               + projectionMethod);
+      }
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata source) {
+      Coords intendedDimensions = source.getIntendedDimensions();
+      stackSize_ = intendedDimensions == null ? 0 : intendedDimensions.getZ();
+      if (stackSize_ <= 1) {
+         return source;
+      }
+      return source.copyBuilder().intendedDimensions(
+            intendedDimensions.copyBuilder().z(1).build()).build();
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      if (stackSize_ <= 1 || image.getNumComponents() > 1
+            || image.getBytesPerPixel() > 2) {
+         context.outputImage(image);
+         return;
+      }
+      Coords stackCoords = image.getCoords().copyRemovingAxes(Coords.Z);
+      Stack stack = stacks_.get(stackCoords);
+      if (stack == null) {
+         stack = new Stack(image, statistic_);
+         stacks_.put(stackCoords, stack);
+      } else if (!stack.accumulator_.matches(image.getWidth() * image.getHeight(),
+            image.getBytesPerPixel())) {
+         studio_.logs().logError("ZProjector: image at " + image.getCoords()
+               + " differs in size from the rest of its stack; passed through");
+         context.outputImage(image);
+         return;
+      }
+      stack.accumulator_.add(image.getRawPixels());
+      if (stack.accumulator_.getCount() >= stackSize_) {
+         stacks_.remove(stackCoords);
+         outputProjection(stackCoords, stack, context);
+      }
+   }
+
+   /**
+    * Outputs the projections of incomplete stacks, e.g. when the acquisition
+    * was stopped.
+    */
+   @Override
+   public void cleanup(ProcessorContext context) {
+      for (Map.Entry<Coords, Stack> entry : stacks_.entrySet()) {
+         outputProjection(entry.getKey(), entry.getValue(), context);
+      }
+      stacks_.clear();
+   }
+
+   private void outputProjection(Coords stackCoords, Stack stack,
+                                 ProcessorContext context) {
+      Image first = stack.firstImage_;
+      context.outputImage(studio_.data().createImage(stack.accumulator_.getResult(),
+            first.getWidth(), first.getHeight(), first.getBytesPerPixel(), 1,
+            stackCoords.copyBuilder().z(0).build(),
+            first.getMetadata().copyBuilderWithNewUUID().build()));
+   }
+}
@@ -0,0 +1,60 @@
+package org.micromanager.zprojector;
+
+import java.awt.Toolkit;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.WindowPositioning;
+
+/**
+ * Lets the user choose the projection method of the on-the-fly ZProjector.
+ */
+public class ZProjectorProcessorConfigurator extends JFrame implements ProcessorConfigurator {
+   private final Studio studio_;
+   private final JComboBox<String> methodBox_;
+
+   public ZProjectorProcessorConfigurator(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel(
+            "<html>Replaces each Z stack by its projection.</html>"), "span, wrap");
+      panel.add(new JLabel("method"));
+      methodBox_ = new JComboBox<>(ZProjectorPlugin.PROJECTION_METHODS);
+      methodBox_.setSelectedItem(settings.getString(ZProjectorProcessorPlugin.METHOD,
+            studio_.profile().getSettings(ZProjectorProcessorConfigurator.class)
+                  .getString(ZProjectorPlugin.PROJECTION_METHOD, "Max")));
+      panel.add(methodBox_, "wrap");
+      super.add(panel);
+
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocation(300, 300);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      String method = (String) methodBox_.getSelectedItem();
+      studio_.profile().getSettings(ZProjectorProcessorConfigurator.class)
+            .putString(ZProjectorPlugin.PROJECTION_METHOD, method);
+      return PropertyMaps.builder()
+            .putString(ZProjectorProcessorPlugin.METHOD, method).build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
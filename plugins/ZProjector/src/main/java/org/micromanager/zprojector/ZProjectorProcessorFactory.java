@@ -0,0 +1,25 @@
+package org.micromanager.zprojector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Creates ZProjectorProcessors with the method selected in the configurator.
+ */
+public class ZProjectorProcessorFactory implements ProcessorFactory {
+   private final Studio studio_;
+   private final PropertyMap settings_;
+
+   public ZProjectorProcessorFactory(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      settings_ = settings;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      return new ZProjectorProcessor(studio_, ZProjectorPlugin.getProjectionMethod(
+            settings_.getString(ZProjectorProcessorPlugin.METHOD, "Max")));
+   }
+}
@@ -0,0 +1,74 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessorPlugin.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Regents of the University of California
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * On-the-fly version of the ZProjector: replaces each Z stack by its
+ * projection as soon as the stack has been acquired.
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class ZProjectorProcessorPlugin implements ProcessorPlugin, SciJavaPlugin {
+   static final String METHOD = "method";
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new ZProjectorProcessorConfigurator(studio_, settings);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new ZProjectorProcessorFactory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return "Z Projector";
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Replaces each Z stack by its projection during acquisition";
+   }
+
+   @Override
+   public String getVersion() {
+      return "Version 0.1";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Regents of the University of California, 2019";
+   }
+}
@@ -0,0 +1,126 @@
+package org.micromanager.zprojector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.ZProjector;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.micromanager.imageprocessing.PixelAccumulator;
+
+public class ZProjectorPluginTest {
+   private static final int WIDTH = 16;
+   private static final int HEIGHT = 8;
+
+   private static List<Object> slices(int nrSlices, int bytesPerPixel, long seed) {
+      Random random = new Random(seed);
+      int maxValue = bytesPerPixel == 1 ? 0xff : 0xffff;
+      List<Object> slices = new ArrayList<>();
+      for (int s = 0; s < nrSlices; s++) {
+         byte[] bytes = bytesPerPixel == 1 ? new byte[WIDTH * HEIGHT] : null;
+         short[] shorts = bytesPerPixel == 2 ? new short[WIDTH * HEIGHT] : null;
+         for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            // Saturated pixels make sums exceed the range of the pixel type
+            int value = random.nextInt(4) == 0 ? maxValue : random.nextInt(maxValue + 1);
+            if (bytes != null) {
+               bytes[i] = (byte) value;
+            } else {
+               shorts[i] = (short) value;
+            }
+         }
+         slices.add(bytes != null ? bytes : shorts);
+      }
+      return slices;
+   }
+
+   /**
+    * Projects with ImageJ and converts back to the type of the slices
+    * without scaling, as ZProjectorPluginExecutor does for RGB images.
+    */
+   private static Object projectWithImageJ(int method, List<Object> slices,
+                                           int bytesPerPixel) {
+      ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+      for (Object slice : slices) {
+         stack.addSlice(bytesPerPixel == 1
+               ? new ByteProcessor(WIDTH, HEIGHT, (byte[]) slice)
+               : new ShortProcessor(WIDTH, HEIGHT, (short[]) slice, null));
+      }
+      ZProjector zp = new ZProjector(new ImagePlus("test", stack));
+      zp.setMethod(method);
+      zp.doProjection();
+      ImageProcessor result = zp.getProjection().getProcessor();
+      if (bytesPerPixel == 1 && !(result instanceof ByteProcessor)) {
+         result = result.convertToByte(false);
+      } else if (bytesPerPixel == 2 && !(result instanceof ShortProcessor)) {
+         result = result.convertToShort(false);
+      }
+      return result.getPixels();
+   }
+
+   private static int valueAt(Object pixels, int index) {
+      if (pixels instanceof byte[]) {
+         return ((byte[]) pixels)[index] & 0xff;
+      }
+      return ((short[]) pixels)[index] & 0xffff;
+   }
+
+   private static void checkAgainstImageJ(int nrSlices, int bytesPerPixel) {
+      List<Object> slices = slices(nrSlices, bytesPerPixel, 42 + nrSlices);
+      for (String name : ZProjectorPlugin.PROJECTION_METHODS) {
+         int method = ZProjectorPlugin.getProjectionMethod(name);
+         PixelAccumulator.Statistic statistic = ZProjectorPlugin.getStatistic(method);
+         assertNotNull(name, statistic);
+         PixelAccumulator accumulator = new PixelAccumulator(statistic,
+               WIDTH * HEIGHT, bytesPerPixel);
+         for (Object slice : slices) {
+            accumulator.add(slice);
+         }
+         Object expected = projectWithImageJ(method, slices, bytesPerPixel);
+         Object actual = accumulator.getResult();
+         String message = name + ", " + nrSlices + " slices of " + bytesPerPixel + " bytes";
+         if (method == ZProjector.SD_METHOD) {
+            // ImageJ sums in floating point, so may round differently
+            for (int i = 0; i < WIDTH * HEIGHT; i++) {
+               assertTrue(message + " at pixel " + i,
+                     Math.abs(valueAt(expected, i) - valueAt(actual, i)) <= 1);
+            }
+         } else if (bytesPerPixel == 1) {
+            assertArrayEquals(message, (byte[]) expected, (byte[]) actual);
+         } else {
+            assertArrayEquals(message, (short[]) expected, (short[]) actual);
+         }
+      }
+   }
+
+   @Test
+   public void testMatchesImageJ8Bit() {
+      checkAgainstImageJ(5, 1);
+      checkAgainstImageJ(6, 1);
+   }
+
+   @Test
+   public void testMatchesImageJ16Bit() {
+      checkAgainstImageJ(5, 2);
+      checkAgainstImageJ(6, 2);
+   }
+
+   @Test
+   public void testAllMethodsAreNamed() {
+      assertEquals(ZProjector.SUM_METHOD, ZProjectorPlugin.getProjectionMethod("Sum"));
+      for (String name : ZProjectorPlugin.PROJECTION_METHODS) {
+         if (!name.equals("Max")) {
+            assertTrue(name, ZProjectorPlugin.getProjectionMethod(name)
+                  != ZProjector.MAX_METHOD);
+         }
+      }
+   }
+}
@@ -6,13 +6,22 @@ import ij.gui.Overlay;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.LUT;
-import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Gives a visual feedback for the current density levels. Green indicates
  * density above 0 and below minimum. White indicates above minimum and below
  * maximum. Red indicates above maximum.
  *
+ * <p>The density thread copies its latest map into a spare buffer and hands
+ * it over without taking a lock. The map is colored and drawn on this class'
+ * own thread, which wakes up as soon as a map arrives. Maps that arrive while
+ * one is being drawn replace each other, so the display never falls behind.
+ * Buffers cycle between the pending, displayed and spare map, so no new
+ * buffer is needed per frame.
+ *
  * @author Thomas Pengo
  */
 public class DensityMap implements DensityMapMonitor, Runnable {
@@ -20,9 +29,15 @@ public class DensityMap implements DensityMapMonitor, Runnable {
 
    ImagePlus theImage;
 
-   float[] density;
-   int width;
-   int height;
+   // latest map handed over by the density thread, null once it is drawn
+   private final AtomicReference<Frame> pending = new AtomicReference<Frame>();
+   // buffer that is neither pending nor displayed, reused for the next map
+   private final AtomicReference<float[]> spare = new AtomicReference<float[]>();
+   // buffer of the displayed map, only used by the drawing thread
+   private float[] shown;
+   private volatile Thread drawingThread;
+   // true once a map has been drawn, until the map is cleared
+   private volatile boolean drawn = false;
    private float minGoodDensity = 1;
    private float maxGoodDensity = 2;
 
@@ -30,9 +45,20 @@ public class DensityMap implements DensityMapMonitor, Runnable {
 
    long updateTime = DEFAULT_UPDATE_TIME;
 
-   boolean stopping = false;
-   boolean running = true;
-   boolean changed = false;
+   volatile boolean stopping = false;
+   volatile boolean running = true;
+
+   private static class Frame {
+      final int width;
+      final int height;
+      final float[] density;
+
+      Frame(int width, int height, float[] density) {
+         this.width = width;
+         this.height = height;
+         this.density = density;
+      }
+   }
 
    /**
     * Sets the minimum good density.
@@ -56,11 +82,11 @@ public class DensityMap implements DensityMapMonitor, Runnable {
     * Reset the density map.
     */
    public void clearMap() {
-      density = null;
+      pending.set(null);
+      drawn = false;
       if (theImage != null) {
          theImage.setHideOverlay(true);
       }
-      changed = false;
    }
 
    /**
@@ -86,6 +112,7 @@ public class DensityMap implements DensityMapMonitor, Runnable {
     */
    public void stop() {
       stopping = true;
+      LockSupport.unpark(drawingThread);
    }
 
    /**
@@ -102,18 +129,30 @@ public class DensityMap implements DensityMapMonitor, Runnable {
    }
 
    /**
-    * This is called when the density map is changed. It updates the image overlay
-    * with the appropriate color code.
+    * This is called when the density map is changed. It hands the map to the
+    * drawing thread, which updates the image overlay with the appropriate
+    * color code.
     *
     * @param width
     * @param height
-    * @param density
+    * @param density copied, the caller may reuse it afterwards
     */
    @Override
    public void densityMapChanged(int width, int height, float[] density) {
-      this.density = Arrays.copyOf(density, density.length);
-      this.width = width;
-      this.height = height;
+      float[] copy = spare.getAndSet(null);
+      if (copy == null || copy.length != density.length) {
+         copy = new float[density.length];
+      }
+      System.arraycopy(density, 0, copy, 0, density.length);
+      Frame superseded = pending.getAndSet(new Frame(width, height, copy));
+      if (superseded != null) {
+         spare.set(superseded.density);
+      }
+      LockSupport.unpark(drawingThread);
+   }
+
+   private void draw(Frame frame) {
+      float[] density = frame.density;
 
       // Create color overlay
       byte[] overlay = new byte[density.length];
@@ -129,15 +168,23 @@ public class DensityMap implements DensityMapMonitor, Runnable {
 
       densityOverlay = new Overlay(
             new ImageRoi(0, 0,
-                  new ByteProcessor(width, height, overlay, buildLUT())));
+                  new ByteProcessor(frame.width, frame.height, overlay, buildLUT())));
+
+      // Draw the density
+      FloatProcessor fp = new FloatProcessor(frame.width, frame.height, density, null);
+
+      theImage.setProcessor("Density Map", fp);
 
-      changed = true;
+      theImage.setOverlay(densityOverlay);
+      theImage.setHideOverlay(false);
+      drawn = true;
    }
 
-   boolean visible = false;
+   volatile boolean visible = false;
 
    public void setVisible(boolean visible) {
       this.visible = visible;
+      LockSupport.unpark(drawingThread);
    }
 
    LUT buildLUT() {
@@ -163,38 +210,37 @@ public class DensityMap implements DensityMapMonitor, Runnable {
    @Override
    public void run() {
       theImage = new ImagePlus();
+      drawingThread = Thread.currentThread();
 
-      long lastTime = System.currentTimeMillis();
       while (!stopping) {
-
-         if (running && changed) {
-            // Draw the density
-            FloatProcessor fp = new FloatProcessor(width, height, density, null);
-
-            theImage.setProcessor("Density Map", fp);
-
-            theImage.setOverlay(densityOverlay);
-            theImage.setHideOverlay(false);
-
+         Frame frame = pending.getAndSet(null);
+         if (running && frame != null) {
+            draw(frame);
+            // The previous map is no longer displayed, so it can be reused
+            if (shown != null) {
+               spare.set(shown);
+            }
+            shown = frame.density;
+         } else if (frame != null) {
+            spare.set(frame.density);
+         }
+         if (running && drawn) {
             if (visible) {
                theImage.show();
             } else {
                theImage.hide();
             }
-
          }
 
-         long waitTime = lastTime + updateTime - System.currentTimeMillis();
-         if (waitTime > 0) {
-            try {
-               Thread.sleep(waitTime);
-            } catch (InterruptedException e) {
-               stopping = true;
-            }
+         // Wait for the next map, but look at the flags now and then
+         if (pending.get() == null) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(updateTime));
+         }
+         if (Thread.interrupted()) {
+            stopping = true;
          }
-
-         lastTime = System.currentTimeMillis();
       }
+      drawingThread = null;
    }
 
    /**
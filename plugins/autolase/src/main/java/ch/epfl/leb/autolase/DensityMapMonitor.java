@@ -6,5 +6,14 @@ package ch.epfl.leb.autolase;
  * @author Thomas Pengo
  */
 interface DensityMapMonitor {
+   /**
+    * Called by the density thread for every frame.  The density array is
+    * only valid during the call: it is updated in place for the next frame,
+    * so copy whatever needs to be kept.
+    *
+    * @param width
+    * @param height
+    * @param density
+    */
    public void densityMapChanged(int width, int height, float[] density);
 }
@@ -1,10 +1,9 @@
 package ch.epfl.leb.autolase;
 
 import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +13,11 @@ import java.util.logging.Logger;
  * to the maximum time a certain pixel is "on", or above a certain threshold.
  * The density is calculated as a moving average (default 1s).
  *
+ * <p>Each frame updates the per-pixel "on" times and the moving average in
+ * a single pass, and the result is passed to the monitors straight away.
+ * Monitors are notified without locks, so a slow monitor only delays this
+ * thread by the time it takes itself.
+ *
  * <p>The code only works for 2 bytes per pixel cameras for now.
  *
  * @author Thomas Pengo
@@ -23,21 +27,22 @@ public class DensityThread implements Runnable {
    public static final int DEFAULT_WAIT_TIME = 20;
    public static final int NUM_ELEMS = 50;
 
-   boolean running = true;
-   boolean stopping = false;
+   volatile boolean running = true;
+   volatile boolean stopping = false;
 
    Camera camera;
 
-   double currentDensity = 0;
+   volatile double currentDensity = 0;
 
    int threshold = DEFAULT_THRESHOLD;
    long timeInterval = DEFAULT_WAIT_TIME;
    int fifoNumElems = NUM_ELEMS;
 
    Queue<Double> densityFifo = new ArrayDeque<Double>(fifoNumElems);
+   // sum of the values in densityFifo
+   double densitySum = 0;
 
-   List<DensityMonitor> monitors =
-         Collections.synchronizedList(new ArrayList<DensityMonitor>());
+   List<DensityMonitor> monitors = new CopyOnWriteArrayList<DensityMonitor>();
 
    public void addDensityMonitor(DensityMonitor m) {
       if (!monitors.contains(m)) {
@@ -53,7 +58,7 @@ public class DensityThread implements Runnable {
       monitors.clear();
    }
 
-   List<DensityMapMonitor> mapMonitors = new ArrayList<DensityMapMonitor>();
+   List<DensityMapMonitor> mapMonitors = new CopyOnWriteArrayList<DensityMapMonitor>();
 
    public void addDensityMapMonitor(DensityMapMonitor m) {
       if (!mapMonitors.contains(m)) {
@@ -111,7 +116,7 @@ public class DensityThread implements Runnable {
       float[] accumulator = null;
 
       // Start timer
-      long lastTime = System.currentTimeMillis();
+      long nextTime = System.currentTimeMillis();
 
       while (!stopping) {
          // Only works with 2 bpp
@@ -125,66 +130,44 @@ public class DensityThread implements Runnable {
             try {
                short[] image = camera.getNewImage();
 
-               // Reset accumulator if image size has changed
-               if (image != null && accumulator != null
-                     && (image.length != accumulator.length)) {
-                  accumulator = null;
-               }
-
-               // Threshold the image
-               boolean[] curMask = new boolean[image.length];
-               for (int i = 0; i < curMask.length; i++) {
-                  curMask[i] = image[i] > threshold;
-               }
-
-               // Calculate accumulator
-               if (accumulator == null) {
-                  // A_0 = I_0 > t;
-                  accumulator = new float[image.length];
-                  for (int i = 0; i < accumulator.length; i++) {
-                     if (curMask[i]) {
-                        accumulator[i] = timeInterval;
-                     }
+               if (image != null) {
+                  // Reset accumulator if image size has changed
+                  if (accumulator == null || image.length != accumulator.length) {
+                     accumulator = new float[image.length];
                   }
-               } else {
-                  // A_i = (I_i > t) (1 + A_i-1)
-                  for (int i = 0; i < accumulator.length; i++) {
-                     if (!curMask[i]) {
-                        accumulator[i] = 0;
+
+                  // A_0 = I_0 > t;  A_i = (I_i > t) (1 + A_i-1)
+                  // Density measure: max(A_i)
+                  // Updated in place; map monitors copy what they keep
+                  float curd = 0;
+                  for (int i = 0; i < image.length; i++) {
+                     if ((image[i] & 0xffff) > threshold) {
+                        float a = accumulator[i] + timeInterval;
+                        accumulator[i] = a;
+                        if (a > curd) {
+                           curd = a;
+                        }
                      } else {
-                        accumulator[i] += timeInterval;
+                        accumulator[i] = 0;
                      }
                   }
-               }
 
-               // Density measure: max(A_i)
-               double curd = 0;
-               for (int i = 0; i < image.length; i++) {
-                  if (accumulator[i] > curd) {
-                     curd = accumulator[i];
+                  // Moving average estimate
+                  if (densityFifo.size() == fifoNumElems) {
+                     densitySum -= densityFifo.remove();
                   }
-               }
+                  densityFifo.offer((double) curd);
+                  densitySum += curd;
 
-               // Moving average estimate
-               if (densityFifo.size() == fifoNumElems) {
-                  densityFifo.remove();
-               }
-               densityFifo.offer(curd);
-
-               double meanDensity = 0;
-               for (Double d : densityFifo) {
-                  meanDensity += d;
-               }
-               meanDensity /= densityFifo.size();
+                  currentDensity = densitySum / densityFifo.size();
 
-               currentDensity = meanDensity;
-
-               for (DensityMonitor m : monitors) {
-                  m.densityChanged(currentDensity);
-               }
+                  for (DensityMonitor m : monitors) {
+                     m.densityChanged(currentDensity);
+                  }
 
-               for (DensityMapMonitor m : mapMonitors) {
-                  m.densityMapChanged(camera.getWidth(), camera.getHeight(), accumulator);
+                  for (DensityMapMonitor m : mapMonitors) {
+                     m.densityMapChanged(camera.getWidth(), camera.getHeight(), accumulator);
+                  }
                }
 
             } catch (Exception ex) {
@@ -192,12 +175,19 @@ public class DensityThread implements Runnable {
             }
          }
 
-         try {
-            Thread.sleep(timeInterval);
-         } catch (InterruptedException ex) {
-            Logger.getLogger(DensityThread.class.getName()).log(Level.SEVERE, null, ex);
+         // Sample at a fixed rate, however long processing took
+         nextTime += timeInterval;
+         long waitTime = nextTime - System.currentTimeMillis();
+         if (waitTime > 0) {
+            try {
+               Thread.sleep(waitTime);
+            } catch (InterruptedException ex) {
+               Logger.getLogger(DensityThread.class.getName()).log(Level.SEVERE, null, ex);
 
-            stopping = true;
+               stopping = true;
+            }
+         } else {
+            nextTime = System.currentTimeMillis();
          }
       }
 
@@ -3,6 +3,8 @@ package ch.epfl.leb.autolase;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mmcorej.CMMCore;
@@ -12,6 +14,11 @@ import mmcorej.CMMCore;
  * above a certain maximum threshold and increases power if density is below a
  * minimum threshold.
  *
+ * <p>Power is changed by at most one step per waitTime, but the controller
+ * does not wait for the end of an interval to react: it is woken up by the
+ * density thread as soon as the density leaves the band between the
+ * thresholds, so the first step follows within one frame.
+ *
  * @author Thomas Pengo
  */
 public class LaseThread implements Runnable, DensityMonitor {
@@ -19,8 +26,15 @@ public class LaseThread implements Runnable, DensityMonitor {
 
    CMMCore core;
 
-   boolean running = false;
-   boolean stopping = false;
+   volatile boolean running = false;
+   volatile boolean stopping = false;
+
+   private volatile Thread controlThread;
+   // time of the last power step, only used by the controller thread
+   private long lastStepTime = 0;
+   // whether the last density was within the band, only used by the
+   // density thread
+   private boolean densityInBand = true;
 
    double laserPower = 0;
 
@@ -31,11 +45,12 @@ public class LaseThread implements Runnable, DensityMonitor {
     */
    public void stop() {
       stopping = true;
+      LockSupport.unpark(controlThread);
    }
 
-   double curDensity = 0;
-   double densityLower = 0;
-   double densityUpper = 1;
+   volatile double curDensity = 0;
+   volatile double densityLower = 0;
+   volatile double densityUpper = 1;
 
    ///////////////////////////////
    // Constructors and init     //
@@ -187,33 +202,42 @@ public class LaseThread implements Runnable, DensityMonitor {
    public void run() {
       log("Start the laser control algorithm");
 
-      // Set to minimum
-
+      controlThread = Thread.currentThread();
 
       while (!stopping) {
+         long wait = waitTime;
 
          // Check running flag
-         if (running) {
-
-            // If below lowerThreshold
-            if (curDensity < densityLower) {
-               incPower();
-            }
-
-            // If above upperThreshold
-            if (curDensity > densityUpper) {
-               decPower();
+         if (running && !isInBand(curDensity)) {
+            long sinceStep = System.currentTimeMillis() - lastStepTime;
+            if (sinceStep >= waitTime) {
+               // If below lowerThreshold
+               if (curDensity < densityLower) {
+                  incPower();
+               }
+
+               // If above upperThreshold
+               if (curDensity > densityUpper) {
+                  decPower();
+               }
+               lastStepTime = System.currentTimeMillis();
+            } else {
+               wait = waitTime - sinceStep;
             }
          }
-         try {
-            Thread.sleep(waitTime);
-         } catch (InterruptedException ex) {
-            Logger.getLogger(LaseThread.class.getName()).log(Level.SEVERE, null, ex);
+
+         // Sleep until the next step is due, or until the density leaves
+         // the band
+         LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+         if (Thread.interrupted()) {
+            Logger.getLogger(LaseThread.class.getName()).log(Level.SEVERE,
+                  "Laser control interrupted");
 
             stopping = true;
          }
       }
 
+      controlThread = null;
       stopping = false;
 
    }
@@ -221,6 +245,15 @@ public class LaseThread implements Runnable, DensityMonitor {
    @Override
    public void densityChanged(double density) {
       curDensity = density;
+      boolean inBand = isInBand(density);
+      if (densityInBand && !inBand) {
+         LockSupport.unpark(controlThread);
+      }
+      densityInBand = inBand;
+   }
+
+   private boolean isInBand(double density) {
+      return density >= densityLower && density <= densityUpper;
    }
 
    private void incPower() {